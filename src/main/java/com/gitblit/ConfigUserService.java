@@ -17,18 +17,25 @@ package com.gitblit;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.util.FS;
@@ -55,6 +62,10 @@ import com.gitblit.utils.StringUtils;
  * which is cached and dynamically reloaded when modified. This file is
  * plain-text, human-readable, and may be edited with a text editor.
  *
+ * The cached users and teams are published as an immutable store which is
+ * read without locking.  Updates are applied to a copy of the store, written
+ * to a temporary file which replaces the realm file, and then published.
+ *
  * Additionally, this format allows for expansion of the user model without
  * bringing in the complexity of a database.
  *
@@ -107,22 +118,40 @@ public class ConfigUserService implements IUserService {
 
 	private static final String DISABLED = "disabled";
 
-	private final File realmFile;
+	/**
+	 * Default minimum interval in milliseconds between checks for a modified
+	 * realm file.
+	 */
+	private static final long CHECK_INTERVAL = 2000;
 
-	private final Logger logger = LoggerFactory.getLogger(ConfigUserService.class);
+	private final File realmFile;
 
-	private final Map<String, UserModel> users = new ConcurrentHashMap<String, UserModel>();
+	private final long checkInterval;
 
-	private final Map<String, UserModel> cookies = new ConcurrentHashMap<String, UserModel>();
+	private final Logger logger = LoggerFactory.getLogger(ConfigUserService.class);
 
-	private final Map<String, TeamModel> teams = new ConcurrentHashMap<String, TeamModel>();
+	private volatile Store store = new Store().index();
 
 	private volatile long lastModified;
 
-	private volatile boolean forceReload;
+	private volatile long nextCheck;
+
+	private volatile long revision;
 
 	public ConfigUserService(File realmFile) {
+		this(realmFile, CHECK_INTERVAL);
+	}
+
+	/**
+	 * @param realmFile
+	 * @param checkInterval
+	 *            minimum interval in milliseconds between checks for a
+	 *            modified realm file, 0 checks on every lookup
+	 * @since 1.9.0
+	 */
+	public ConfigUserService(File realmFile, long checkInterval) {
 		this.realmFile = realmFile;
+		this.checkInterval = checkInterval;
 	}
 
 	/**
@@ -142,7 +171,7 @@ public class ConfigUserService implements IUserService {
 	 * @return cookie value
 	 */
 	@Override
-	public synchronized String getCookie(UserModel model) {
+	public String getCookie(UserModel model) {
 		if (!StringUtils.isEmpty(model.cookie)) {
 			return model.cookie;
 		}
@@ -160,16 +189,12 @@ public class ConfigUserService implements IUserService {
 	 * @return a user object or null
 	 */
 	@Override
-	public synchronized UserModel getUserModel(char[] cookie) {
+	public UserModel getUserModel(char[] cookie) {
 		String hash = new String(cookie);
 		if (StringUtils.isEmpty(hash)) {
 			return null;
 		}
-		read();
-		UserModel model = null;
-		if (cookies.containsKey(hash)) {
-			model = cookies.get(hash);
-		}
+		UserModel model = getStore().cookies.get(hash);
 
 		if (model != null) {
 			// clone the model, otherwise all changes to this object are
@@ -186,9 +211,8 @@ public class ConfigUserService implements IUserService {
 	 * @return a user object or null
 	 */
 	@Override
-	public synchronized UserModel getUserModel(String username) {
-		read();
-		UserModel model = users.get(username.toLowerCase());
+	public UserModel getUserModel(String username) {
+		UserModel model = getStore().users.get(username.toLowerCase());
 		if (model != null) {
 			// clone the model, otherwise all changes to this object are
 			// live and unpersisted
@@ -218,7 +242,9 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean updateUserModels(Collection<UserModel> models) {
 		try {
-			read();
+			Store working = copyStore();
+			Map<String, UserModel> users = working.users;
+			Map<String, TeamModel> teams = working.teams;
 			for (UserModel model : models) {
 				UserModel originalUser = users.remove(model.username.toLowerCase());
 				users.put(model.username.toLowerCase(), model);
@@ -252,7 +278,7 @@ public class ConfigUserService implements IUserService {
 					}
 				}
 			}
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Failed to update user {0} models!", models.size()),
@@ -273,17 +299,15 @@ public class ConfigUserService implements IUserService {
 	 */
 	@Override
 	public synchronized boolean updateUserModel(String username, UserModel model) {
-		UserModel originalUser = null;
 		try {
 			if (!model.isLocalAccount()) {
 				// do not persist password
 				model.password = Constants.EXTERNAL_ACCOUNT;
 			}
-			read();
-			originalUser = users.remove(username.toLowerCase());
-			if (originalUser != null) {
-				cookies.remove(originalUser.cookie);
-			}
+			Store working = copyStore();
+			Map<String, UserModel> users = working.users;
+			Map<String, TeamModel> teams = working.teams;
+			UserModel originalUser = users.remove(username.toLowerCase());
 			users.put(model.username.toLowerCase(), model);
 			// null check on "final" teams because JSON-sourced UserModel
 			// can have a null teams object
@@ -311,16 +335,9 @@ public class ConfigUserService implements IUserService {
 					}
 				}
 			}
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
-			if (originalUser != null) {
-				// restore original user
-				users.put(originalUser.username.toLowerCase(), originalUser);
-			} else {
-				// drop attempted add
-				users.remove(model.username.toLowerCase());
-			}
 			logger.error(MessageFormat.format("Failed to update user model {0}!", model.username),
 					t);
 		}
@@ -347,9 +364,9 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean deleteUser(String username) {
 		try {
-			// Read realm file
-			read();
-			UserModel model = users.remove(username.toLowerCase());
+			Store working = copyStore();
+			Map<String, TeamModel> teams = working.teams;
+			UserModel model = working.users.remove(username.toLowerCase());
 			if (model == null) {
 				// user does not exist
 				return false;
@@ -366,7 +383,7 @@ public class ConfigUserService implements IUserService {
 					t.removeUser(username);
 				}
 			}
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Failed to delete user {0}!", username), t);
@@ -381,11 +398,8 @@ public class ConfigUserService implements IUserService {
 	 * @since 0.8.0
 	 */
 	@Override
-	public synchronized List<String> getAllTeamNames() {
-		read();
-		List<String> list = new ArrayList<String>(teams.keySet());
-		Collections.sort(list);
-		return list;
+	public List<String> getAllTeamNames() {
+		return new ArrayList<String>(getStore().teamnames);
 	}
 
 	/**
@@ -395,9 +409,8 @@ public class ConfigUserService implements IUserService {
 	 * @since 0.8.0
 	 */
 	@Override
-	public synchronized List<TeamModel> getAllTeams() {
-		read();
-		List<TeamModel> list = new ArrayList<TeamModel>(teams.values());
+	public List<TeamModel> getAllTeams() {
+		List<TeamModel> list = new ArrayList<TeamModel>(getStore().teams.values());
 		list = DeepCopier.copy(list);
 		Collections.sort(list);
 		return list;
@@ -412,21 +425,27 @@ public class ConfigUserService implements IUserService {
 	 * @return list of all usernames that can bypass the access restriction
 	 */
 	@Override
-	public synchronized List<String> getTeamNamesForRepositoryRole(String role) {
-		List<String> list = new ArrayList<String>();
-		try {
-			read();
-			for (Map.Entry<String, TeamModel> entry : teams.entrySet()) {
-				TeamModel model = entry.getValue();
-				if (model.hasRepositoryPermission(role)) {
-					list.add(model.name);
+	public List<String> getTeamNamesForRepositoryRole(String role) {
+		Store current = getStore();
+		List<String> list = current.teamnamesByRole.get(role);
+		if (list == null) {
+			list = new ArrayList<String>();
+			try {
+				for (Map.Entry<String, TeamModel> entry : current.teams.entrySet()) {
+					TeamModel model = entry.getValue();
+					if (model.hasRepositoryPermission(role)) {
+						list.add(model.name);
+					}
 				}
+			} catch (Throwable t) {
+				logger.error(MessageFormat.format("Failed to get teamnames for role {0}!", role), t);
+				return list;
 			}
-		} catch (Throwable t) {
-			logger.error(MessageFormat.format("Failed to get teamnames for role {0}!", role), t);
+			Collections.sort(list);
+			list = Collections.unmodifiableList(list);
+			current.teamnamesByRole.putIfAbsent(role, list);
 		}
-		Collections.sort(list);
-		return list;
+		return new ArrayList<String>(list);
 	}
 
 	/**
@@ -437,9 +456,8 @@ public class ConfigUserService implements IUserService {
 	 * @since 0.8.0
 	 */
 	@Override
-	public synchronized TeamModel getTeamModel(String teamname) {
-		read();
-		TeamModel model = teams.get(teamname.toLowerCase());
+	public TeamModel getTeamModel(String teamname) {
+		TeamModel model = getStore().teams.get(teamname.toLowerCase());
 		if (model != null) {
 			// clone the model, otherwise all changes to this object are
 			// live and unpersisted
@@ -470,11 +488,11 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean updateTeamModels(Collection<TeamModel> models) {
 		try {
-			read();
+			Store working = copyStore();
 			for (TeamModel team : models) {
-				teams.put(team.name.toLowerCase(), team);
+				working.teams.put(team.name.toLowerCase(), team);
 			}
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Failed to update team {0} models!", models.size()), t);
@@ -495,21 +513,13 @@ public class ConfigUserService implements IUserService {
 	 */
 	@Override
 	public synchronized boolean updateTeamModel(String teamname, TeamModel model) {
-		TeamModel original = null;
 		try {
-			read();
-			original = teams.remove(teamname.toLowerCase());
-			teams.put(model.name.toLowerCase(), model);
-			write();
+			Store working = copyStore();
+			working.teams.remove(teamname.toLowerCase());
+			working.teams.put(model.name.toLowerCase(), model);
+			write(working);
 			return true;
 		} catch (Throwable t) {
-			if (original != null) {
-				// restore original team
-				teams.put(original.name.toLowerCase(), original);
-			} else {
-				// drop attempted add
-				teams.remove(model.name.toLowerCase());
-			}
 			logger.error(MessageFormat.format("Failed to update team model {0}!", model.name), t);
 		}
 		return false;
@@ -537,10 +547,9 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean deleteTeam(String teamname) {
 		try {
-			// Read realm file
-			read();
-			teams.remove(teamname.toLowerCase());
-			write();
+			Store working = copyStore();
+			working.teams.remove(teamname.toLowerCase());
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Failed to delete team {0}!", teamname), t);
@@ -554,11 +563,8 @@ public class ConfigUserService implements IUserService {
 	 * @return list of all usernames
 	 */
 	@Override
-	public synchronized List<String> getAllUsernames() {
-		read();
-		List<String> list = new ArrayList<String>(users.keySet());
-		Collections.sort(list);
-		return list;
+	public List<String> getAllUsernames() {
+		return new ArrayList<String>(getStore().usernames);
 	}
 
 	/**
@@ -567,9 +573,8 @@ public class ConfigUserService implements IUserService {
 	 * @return list of all usernames
 	 */
 	@Override
-	public synchronized List<UserModel> getAllUsers() {
-		read();
-		List<UserModel> list = new ArrayList<UserModel>(users.values());
+	public List<UserModel> getAllUsers() {
+		List<UserModel> list = new ArrayList<UserModel>(getStore().users.values());
 		list = DeepCopier.copy(list);
 		Collections.sort(list);
 		return list;
@@ -584,21 +589,27 @@ public class ConfigUserService implements IUserService {
 	 * @return list of all usernames that can bypass the access restriction
 	 */
 	@Override
-	public synchronized List<String> getUsernamesForRepositoryRole(String role) {
-		List<String> list = new ArrayList<String>();
-		try {
-			read();
-			for (Map.Entry<String, UserModel> entry : users.entrySet()) {
-				UserModel model = entry.getValue();
-				if (model.hasRepositoryPermission(role)) {
-					list.add(model.username);
+	public List<String> getUsernamesForRepositoryRole(String role) {
+		Store current = getStore();
+		List<String> list = current.usernamesByRole.get(role);
+		if (list == null) {
+			list = new ArrayList<String>();
+			try {
+				for (Map.Entry<String, UserModel> entry : current.users.entrySet()) {
+					UserModel model = entry.getValue();
+					if (model.hasRepositoryPermission(role)) {
+						list.add(model.username);
+					}
 				}
+			} catch (Throwable t) {
+				logger.error(MessageFormat.format("Failed to get usernames for role {0}!", role), t);
+				return list;
 			}
-		} catch (Throwable t) {
-			logger.error(MessageFormat.format("Failed to get usernames for role {0}!", role), t);
+			Collections.sort(list);
+			list = Collections.unmodifiableList(list);
+			current.usernamesByRole.putIfAbsent(role, list);
 		}
-		Collections.sort(list);
-		return list;
+		return new ArrayList<String>(list);
 	}
 
 	/**
@@ -611,9 +622,9 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean renameRepositoryRole(String oldRole, String newRole) {
 		try {
-			read();
+			Store working = copyStore();
 			// identify users which require role rename
-			for (UserModel model : users.values()) {
+			for (UserModel model : working.users.values()) {
 				if (model.hasRepositoryPermission(oldRole)) {
 					AccessPermission permission = model.removeRepositoryPermission(oldRole);
 					model.setRepositoryPermission(newRole, permission);
@@ -621,14 +632,14 @@ public class ConfigUserService implements IUserService {
 			}
 
 			// identify teams which require role rename
-			for (TeamModel model : teams.values()) {
+			for (TeamModel model : working.teams.values()) {
 				if (model.hasRepositoryPermission(oldRole)) {
 					AccessPermission permission = model.removeRepositoryPermission(oldRole);
 					model.setRepositoryPermission(newRole, permission);
 				}
 			}
 			// persist changes
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(
@@ -646,20 +657,20 @@ public class ConfigUserService implements IUserService {
 	@Override
 	public synchronized boolean deleteRepositoryRole(String role) {
 		try {
-			read();
+			Store working = copyStore();
 
 			// identify users which require role rename
-			for (UserModel user : users.values()) {
+			for (UserModel user : working.users.values()) {
 				user.removeRepositoryPermission(role);
 			}
 
 			// identify teams which require role rename
-			for (TeamModel team : teams.values()) {
+			for (TeamModel team : working.teams.values()) {
 				team.removeRepositoryPermission(role);
 			}
 
 			// persist changes
-			write();
+			write(working);
 			return true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Failed to delete role {0}!", role), t);
@@ -668,18 +679,20 @@ public class ConfigUserService implements IUserService {
 	}
 
 	/**
-	 * Writes the properties file.
+	 * Writes the properties file and publishes the written users and teams.
 	 *
+	 * @param working
+	 *            the modified copy of the store
 	 * @throws IOException
 	 */
-	private synchronized void write() throws IOException {
+	private void write(Store working) throws IOException {
 		// Write a temporary copy of the users file
 		File realmFileCopy = new File(realmFile.getAbsolutePath() + ".tmp");
 
 		StoredConfig config = new FileBasedConfig(realmFileCopy, FS.detect());
 
 		// write users
-		for (UserModel model : users.values()) {
+		for (UserModel model : working.users.values()) {
 			if (!StringUtils.isEmpty(model.password)) {
 				config.setString(USER, model.username, PASSWORD, model.password);
 			}
@@ -775,7 +788,7 @@ public class ConfigUserService implements IUserService {
 		}
 
 		// write teams
-		for (TeamModel model : teams.values()) {
+		for (TeamModel model : working.teams.values()) {
 			// team roles
 			List<String> roles = new ArrayList<String>();
 			if (model.canAdmin) {
@@ -846,145 +859,251 @@ public class ConfigUserService implements IUserService {
 		}
 
 		config.save();
-		// manually set the forceReload flag because not all JVMs support real
-		// millisecond resolution of lastModified. (issue-55)
-		forceReload = true;
 
-		// If the write is successful, delete the current file and rename
-		// the temporary copy to the original filename.
+		// If the write is successful, replace the current file with the
+		// temporary copy.
 		if (realmFileCopy.exists() && realmFileCopy.length() > 0) {
-			if (realmFile.exists()) {
-				if (!realmFile.delete()) {
-					throw new IOException(MessageFormat.format("Failed to delete {0}!",
-							realmFile.getAbsolutePath()));
-				}
-			}
-			if (!realmFileCopy.renameTo(realmFile)) {
-				throw new IOException(MessageFormat.format("Failed to rename {0} to {1}!",
-						realmFileCopy.getAbsolutePath(), realmFile.getAbsolutePath()));
+			try {
+				Files.move(realmFileCopy.toPath(), realmFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(realmFileCopy.toPath(), realmFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 			}
 		} else {
 			throw new IOException(MessageFormat.format("Failed to save {0}!",
 					realmFileCopy.getAbsolutePath()));
 		}
+
+		// publish the users and teams as they were written
+		lastModified = realmFile.lastModified();
+		store = parse(config);
+	}
+
+	/**
+	 * Returns the current store.  The realm file is checked for modifications
+	 * at most once per check interval.
+	 *
+	 * @return the current store
+	 */
+	private Store getStore() {
+		long now = System.currentTimeMillis();
+		if (now >= nextCheck) {
+			nextCheck = now + checkInterval;
+			read();
+		}
+		return store;
 	}
 
 	/**
-	 * Reads the realm file and rebuilds the in-memory lookup tables.
+	 * Returns a modifiable copy of the latest store for an update.
+	 *
+	 * @return a copy of the store
 	 */
-	protected synchronized void read() {
-		if (realmFile.exists() && (forceReload || (realmFile.lastModified() != lastModified))) {
-			forceReload = false;
-			lastModified = realmFile.lastModified();
-			users.clear();
-			cookies.clear();
-			teams.clear();
+	private Store copyStore() {
+		read();
+		return store.copy();
+	}
 
-			try {
-				StoredConfig config = new FileBasedConfig(realmFile, FS.detect());
-				config.load();
-				Set<String> usernames = config.getSubsections(USER);
-				for (String username : usernames) {
-					UserModel user = new UserModel(username.toLowerCase());
-					user.password = config.getString(USER, username, PASSWORD);
-					user.displayName = config.getString(USER, username, DISPLAYNAME);
-					user.emailAddress = config.getString(USER, username, EMAILADDRESS);
-					user.accountType = AccountType.fromString(config.getString(USER, username, ACCOUNTTYPE));
-					user.disabled = config.getBoolean(USER, username, DISABLED, false);
-					user.organizationalUnit = config.getString(USER, username, ORGANIZATIONALUNIT);
-					user.organization = config.getString(USER, username, ORGANIZATION);
-					user.locality = config.getString(USER, username, LOCALITY);
-					user.stateProvince = config.getString(USER, username, STATEPROVINCE);
-					user.countryCode = config.getString(USER, username, COUNTRYCODE);
-					user.cookie = config.getString(USER, username, COOKIE);
-					if (StringUtils.isEmpty(user.cookie) && !StringUtils.isEmpty(user.password)) {
-						user.cookie = user.createCookie();
-					}
+	/**
+	 * Reads the realm file and rebuilds the in-memory lookup tables, if the
+	 * realm file has been modified.
+	 */
+	protected void read() {
+		if (realmFile.exists() && realmFile.lastModified() != lastModified) {
+			reload();
+		}
+	}
 
-					// preferences
-					user.getPreferences().setLocale(config.getString(USER, username, LOCALE));
-					user.getPreferences().setEmailMeOnMyTicketChanges(config.getBoolean(USER, username, EMAILONMYTICKETCHANGES, true));
-					user.getPreferences().setTransport(Transport.fromString(config.getString(USER, username, TRANSPORT)));
-
-					// user roles
-					Set<String> roles = new HashSet<String>(Arrays.asList(config.getStringList(
-							USER, username, ROLE)));
-					user.canAdmin = roles.contains(Role.ADMIN.getRole());
-					user.canFork = roles.contains(Role.FORK.getRole());
-					user.canCreate = roles.contains(Role.CREATE.getRole());
-					user.excludeFromFederation = roles.contains(Role.NOT_FEDERATED.getRole());
-
-					// repository memberships
-					if (!user.canAdmin) {
-						// non-admin, read permissions
-						Set<String> repositories = new HashSet<String>(Arrays.asList(config
-								.getStringList(USER, username, REPOSITORY)));
-						for (String repository : repositories) {
-							user.addRepositoryPermission(repository);
-						}
-					}
+	private synchronized void reload() {
+		if (!realmFile.exists() || realmFile.lastModified() == lastModified) {
+			// reloaded by another thread
+			return;
+		}
+		lastModified = realmFile.lastModified();
+		try {
+			StoredConfig config = new FileBasedConfig(realmFile, FS.detect());
+			config.load();
+			store = parse(config);
+			revision++;
+		} catch (Exception e) {
+			logger.error(MessageFormat.format("Failed to read {0}", realmFile), e);
+		}
+	}
 
-					// starred repositories
-					Set<String> starred = new HashSet<String>(Arrays.asList(config
-							.getStringList(USER, username, STARRED)));
-					for (String repository : starred) {
-						UserRepositoryPreferences prefs = user.getPreferences().getRepositoryPreferences(repository);
-						prefs.starred = true;
-					}
+	/**
+	 * Builds an indexed store from the realm configuration.
+	 *
+	 * @param config
+	 * @return the store
+	 */
+	private Store parse(Config config) {
+		Store parsed = new Store();
+		Map<String, UserModel> users = parsed.users;
+		Map<String, TeamModel> teams = parsed.teams;
+		Set<String> usernames = config.getSubsections(USER);
+		for (String username : usernames) {
+			UserModel user = new UserModel(username.toLowerCase());
+			user.password = config.getString(USER, username, PASSWORD);
+			user.displayName = config.getString(USER, username, DISPLAYNAME);
+			user.emailAddress = config.getString(USER, username, EMAILADDRESS);
+			user.accountType = AccountType.fromString(config.getString(USER, username, ACCOUNTTYPE));
+			user.disabled = config.getBoolean(USER, username, DISABLED, false);
+			user.organizationalUnit = config.getString(USER, username, ORGANIZATIONALUNIT);
+			user.organization = config.getString(USER, username, ORGANIZATION);
+			user.locality = config.getString(USER, username, LOCALITY);
+			user.stateProvince = config.getString(USER, username, STATEPROVINCE);
+			user.countryCode = config.getString(USER, username, COUNTRYCODE);
+			user.cookie = config.getString(USER, username, COOKIE);
+			if (StringUtils.isEmpty(user.cookie) && !StringUtils.isEmpty(user.password)) {
+				user.cookie = user.createCookie();
+			}
 
-					// update cache
-					users.put(user.username, user);
-					if (!StringUtils.isEmpty(user.cookie)) {
-						cookies.put(user.cookie, user);
-					}
+			// preferences
+			user.getPreferences().setLocale(config.getString(USER, username, LOCALE));
+			user.getPreferences().setEmailMeOnMyTicketChanges(config.getBoolean(USER, username, EMAILONMYTICKETCHANGES, true));
+			user.getPreferences().setTransport(Transport.fromString(config.getString(USER, username, TRANSPORT)));
+
+			// user roles
+			Set<String> roles = new HashSet<String>(Arrays.asList(config.getStringList(
+					USER, username, ROLE)));
+			user.canAdmin = roles.contains(Role.ADMIN.getRole());
+			user.canFork = roles.contains(Role.FORK.getRole());
+			user.canCreate = roles.contains(Role.CREATE.getRole());
+			user.excludeFromFederation = roles.contains(Role.NOT_FEDERATED.getRole());
+
+			// repository memberships
+			if (!user.canAdmin) {
+				// non-admin, read permissions
+				Set<String> repositories = new HashSet<String>(Arrays.asList(config
+						.getStringList(USER, username, REPOSITORY)));
+				for (String repository : repositories) {
+					user.addRepositoryPermission(repository);
 				}
+			}
 
-				// load the teams
-				Set<String> teamnames = config.getSubsections(TEAM);
-				for (String teamname : teamnames) {
-					TeamModel team = new TeamModel(teamname);
-					Set<String> roles = new HashSet<String>(Arrays.asList(config.getStringList(
-							TEAM, teamname, ROLE)));
-					team.canAdmin = roles.contains(Role.ADMIN.getRole());
-					team.canFork = roles.contains(Role.FORK.getRole());
-					team.canCreate = roles.contains(Role.CREATE.getRole());
-					team.accountType = AccountType.fromString(config.getString(TEAM, teamname, ACCOUNTTYPE));
-
-					if (!team.canAdmin) {
-						// non-admin team, read permissions
-						team.addRepositoryPermissions(Arrays.asList(config.getStringList(TEAM, teamname,
-								REPOSITORY)));
-					}
-					team.addUsers(Arrays.asList(config.getStringList(TEAM, teamname, USER)));
-					team.addMailingLists(Arrays.asList(config.getStringList(TEAM, teamname,
-							MAILINGLIST)));
-					team.preReceiveScripts.addAll(Arrays.asList(config.getStringList(TEAM,
-							teamname, PRERECEIVE)));
-					team.postReceiveScripts.addAll(Arrays.asList(config.getStringList(TEAM,
-							teamname, POSTRECEIVE)));
+			// starred repositories
+			Set<String> starred = new HashSet<String>(Arrays.asList(config
+					.getStringList(USER, username, STARRED)));
+			for (String repository : starred) {
+				UserRepositoryPreferences prefs = user.getPreferences().getRepositoryPreferences(repository);
+				prefs.starred = true;
+			}
 
-					teams.put(team.name.toLowerCase(), team);
+			// update cache
+			users.put(user.username, user);
+		}
 
-					// set the teams on the users
-					for (String user : team.users) {
-						UserModel model = users.get(user);
-						if (model != null) {
-							model.teams.add(team);
-						}
-					}
+		// load the teams
+		Set<String> teamnames = config.getSubsections(TEAM);
+		for (String teamname : teamnames) {
+			TeamModel team = new TeamModel(teamname);
+			Set<String> roles = new HashSet<String>(Arrays.asList(config.getStringList(
+					TEAM, teamname, ROLE)));
+			team.canAdmin = roles.contains(Role.ADMIN.getRole());
+			team.canFork = roles.contains(Role.FORK.getRole());
+			team.canCreate = roles.contains(Role.CREATE.getRole());
+			team.accountType = AccountType.fromString(config.getString(TEAM, teamname, ACCOUNTTYPE));
+
+			if (!team.canAdmin) {
+				// non-admin team, read permissions
+				team.addRepositoryPermissions(Arrays.asList(config.getStringList(TEAM, teamname,
+						REPOSITORY)));
+			}
+			team.addUsers(Arrays.asList(config.getStringList(TEAM, teamname, USER)));
+			team.addMailingLists(Arrays.asList(config.getStringList(TEAM, teamname,
+					MAILINGLIST)));
+			team.preReceiveScripts.addAll(Arrays.asList(config.getStringList(TEAM,
+					teamname, PRERECEIVE)));
+			team.postReceiveScripts.addAll(Arrays.asList(config.getStringList(TEAM,
+					teamname, POSTRECEIVE)));
+
+			teams.put(team.name.toLowerCase(), team);
+
+			// set the teams on the users
+			for (String user : team.users) {
+				UserModel model = users.get(user);
+				if (model != null) {
+					model.teams.add(team);
 				}
-			} catch (Exception e) {
-				logger.error(MessageFormat.format("Failed to read {0}", realmFile), e);
 			}
 		}
+		return parsed.index();
 	}
 
 	protected long lastModified() {
 		return lastModified;
 	}
 
+	/**
+	 * Returns the revision of the users and teams read from the realm file.
+	 * The revision changes when the realm file is reloaded after it was
+	 * modified outside of this service.  Updates made through this service do
+	 * not change the revision.
+	 *
+	 * @return the revision of the realm file
+	 * @since 1.9.0
+	 */
+	public long getRevision() {
+		getStore();
+		return revision;
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + "(" + realmFile.getAbsolutePath() + ")";
 	}
+
+	/**
+	 * Users and teams of the realm file with lookup indexes.  A store is not
+	 * modified after it has been indexed and published; updates are applied
+	 * to a copy.
+	 */
+	private static class Store implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final Map<String, UserModel> users = new HashMap<String, UserModel>();
+
+		final Map<String, TeamModel> teams = new HashMap<String, TeamModel>();
+
+		transient Map<String, UserModel> cookies;
+
+		transient List<String> usernames;
+
+		transient List<String> teamnames;
+
+		transient ConcurrentMap<String, List<String>> usernamesByRole;
+
+		transient ConcurrentMap<String, List<String>> teamnamesByRole;
+
+		/**
+		 * Builds the lookup indexes.
+		 *
+		 * @return this store
+		 */
+		Store index() {
+			cookies = new HashMap<String, UserModel>();
+			for (UserModel user : users.values()) {
+				if (!StringUtils.isEmpty(user.cookie)) {
+					cookies.put(user.cookie, user);
+				}
+			}
+			usernames = new ArrayList<String>(users.keySet());
+			Collections.sort(usernames);
+			teamnames = new ArrayList<String>(teams.keySet());
+			Collections.sort(teamnames);
+			// repository role lookups are memoized on first use
+			usernamesByRole = new ConcurrentHashMap<String, List<String>>();
+			teamnamesByRole = new ConcurrentHashMap<String, List<String>>();
+			return this;
+		}
+
+		/**
+		 * Returns a deep copy of the users and teams without indexes.
+		 *
+		 * @return a copy of this store
+		 */
+		Store copy() {
+			return DeepCopier.copy(this);
+		}
+	}
 }
@@ -19,6 +19,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -28,19 +30,29 @@ import com.gitblit.utils.StringUtils;
 
 /**
  * Dynamically loads and reloads a properties file by keeping track of the last
- * modification date.
+ * modification date of the file and of its includes.  The files are checked
+ * at most once per check interval and readers never block on a reload.
  *
  * @author James Moger
  *
  */
 public class FileSettings extends IStoredSettings {
 
+	/**
+	 * Minimum interval in milliseconds between checks for modified files.
+	 */
+	private static final long CHECK_INTERVAL = 2000;
+
 	protected File propertiesFile;
 
-	private final Properties properties = new Properties();
+	private volatile Properties properties = new Properties();
+
+	private volatile Map<File, Long> watchedFiles = Collections.emptyMap();
 
 	private volatile long lastModified;
 
+	private volatile long nextCheck;
+
 	private volatile boolean forceReload;
 
 	public FileSettings() {
@@ -73,51 +85,88 @@ public class FileSettings extends IStoredSettings {
 
 	/**
 	 * Returns a properties object which contains the most recent contents of
-	 * the properties file.
+	 * the properties file.  A reload replaces the properties object.
 	 */
 	@Override
-	protected synchronized Properties read() {
-		if (propertiesFile != null && propertiesFile.exists() && (forceReload || (propertiesFile.lastModified() > lastModified))) {
-			FileInputStream is = null;
-			try {
-				logger.debug("loading {}", propertiesFile);
-				Properties props = new Properties();
-				is = new FileInputStream(propertiesFile);
-				props.load(is);
-
-				// ticket-110
-				props = readIncludes(props);
-
-				// load properties after we have successfully read file
-				properties.clear();
-				properties.putAll(props);
-				lastModified = propertiesFile.lastModified();
-				forceReload = false;
-			} catch (FileNotFoundException f) {
-				// IGNORE - won't happen because file.exists() check above
-			} catch (Throwable t) {
-				logger.error("Failed to read " + propertiesFile.getName(), t);
-			} finally {
-				if (is != null) {
-					try {
-						is.close();
-					} catch (Throwable t) {
-						// IGNORE
-					}
+	protected Properties read() {
+		if (propertiesFile != null && (forceReload || isModified())) {
+			reload();
+		}
+		return properties;
+	}
+
+	/**
+	 * Determines if the properties file or one of its includes has been
+	 * modified since the last load.  The files are checked at most once per
+	 * check interval.
+	 *
+	 * @return true if a file has been modified
+	 */
+	private boolean isModified() {
+		long now = System.currentTimeMillis();
+		if (now < nextCheck) {
+			return false;
+		}
+		nextCheck = now + CHECK_INTERVAL;
+		return propertiesFile.lastModified() > lastModified || isIncludeModified();
+	}
+
+	private boolean isIncludeModified() {
+		for (Map.Entry<File, Long> entry : watchedFiles.entrySet()) {
+			if (entry.getKey().lastModified() != entry.getValue()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void reload() {
+		if (!propertiesFile.exists() || !(forceReload || propertiesFile.lastModified() > lastModified || isIncludeModified())) {
+			// another thread reloaded the settings
+			return;
+		}
+		FileInputStream is = null;
+		try {
+			logger.debug("loading {}", propertiesFile);
+			Properties props = new Properties();
+			long modified = propertiesFile.lastModified();
+			is = new FileInputStream(propertiesFile);
+			props.load(is);
+
+			// ticket-110
+			Map<File, Long> includes = new LinkedHashMap<File, Long>();
+			props = readIncludes(props, includes);
+
+			// publish properties after we have successfully read file
+			properties = props;
+			watchedFiles = includes;
+			lastModified = modified;
+			forceReload = false;
+		} catch (FileNotFoundException f) {
+			// IGNORE - won't happen because file.exists() check above
+		} catch (Throwable t) {
+			logger.error("Failed to read " + propertiesFile.getName(), t);
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (Throwable t) {
+					// IGNORE
 				}
 			}
 		}
-		return properties;
 	}
 
 	/**
 	 * Recursively read "include" properties files.
 	 *
 	 * @param properties
+	 * @param includes
+	 *            collects the include files and their modification dates
 	 * @return
 	 * @throws IOException
 	 */
-	private Properties readIncludes(Properties properties) throws IOException {
+	private Properties readIncludes(Properties properties, Map<File, Long> includes) throws IOException {
 
 		Properties baseProperties = new Properties();
 
@@ -139,6 +188,9 @@ public class FileSettings extends IStoredSettings {
 					file = new File(name.trim());
 				}
 
+				// watch missing includes too, they may be created later
+				includes.put(file, file.lastModified());
+
 				if (!file.exists()) {
 					logger.warn("failed to locate {}", file);
 					continue;
@@ -151,7 +203,7 @@ public class FileSettings extends IStoredSettings {
 				}
 
 				// read nested includes
-				baseProperties = readIncludes(baseProperties);
+				baseProperties = readIncludes(baseProperties, includes);
 
 			}
 
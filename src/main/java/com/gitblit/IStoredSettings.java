@@ -16,12 +16,17 @@
 package com.gitblit;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,16 +47,60 @@ public abstract class IStoredSettings {
 
 	protected final Set<String> removals = new TreeSet<String>();
 
+	private final AtomicLong revision = new AtomicLong();
+
+	private volatile Snapshot snapshot;
+
 	public IStoredSettings(Class<? extends IStoredSettings> clazz) {
 		logger = LoggerFactory.getLogger(clazz);
 	}
 
+	/**
+	 * Returns the current properties.  Implementations return a new
+	 * properties object when the settings are reloaded, or call
+	 * {@link #invalidate()} when they modify the returned properties.
+	 *
+	 * @return the current properties
+	 */
 	protected abstract Properties read();
 
-	private Properties getSettings() {
+	/**
+	 * Discards the current settings snapshot.  The snapshot is rebuilt from
+	 * {@link #read()} and the overrides on the next access.
+	 */
+	protected void invalidate() {
+		revision.incrementAndGet();
+	}
+
+	/**
+	 * Returns an immutable snapshot of the properties merged with the
+	 * overrides.  The snapshot is only rebuilt when the properties or the
+	 * overrides change, so reads do not lock or copy.
+	 *
+	 * @return the settings snapshot
+	 */
+	private Snapshot getSnapshot() {
+		long rev = revision.get();
 		Properties props = read();
-		props.putAll(overrides);
-		return props;
+		Snapshot current = snapshot;
+		if (current != null && current.source == props && current.revision == rev) {
+			return current;
+		}
+
+		Map<String, String> values = new HashMap<String, String>();
+		for (String key : props.stringPropertyNames()) {
+			values.put(key, props.getProperty(key));
+		}
+		for (String key : overrides.stringPropertyNames()) {
+			values.put(key, overrides.getProperty(key));
+		}
+		current = new Snapshot(props, rev, values);
+		snapshot = current;
+		return current;
+	}
+
+	private Map<String, String> getSettings() {
+		return getSnapshot().values;
 	}
 
 	/**
@@ -63,9 +112,9 @@ public abstract class IStoredSettings {
 	 */
 	public List<String> getAllKeys(String startingWith) {
 		List<String> keys = new ArrayList<String>();
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (StringUtils.isEmpty(startingWith)) {
-			keys.addAll(props.stringPropertyNames());
+			keys.addAll(props.keySet());
 		} else {
 			startingWith = startingWith.toLowerCase();
 			for (Object o : props.keySet()) {
@@ -88,9 +137,9 @@ public abstract class IStoredSettings {
 	 * @return key value or defaultValue
 	 */
 	public boolean getBoolean(String name, boolean defaultValue) {
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			if (!StringUtils.isEmpty(value)) {
 				return Boolean.parseBoolean(value.trim());
 			}
@@ -108,12 +157,19 @@ public abstract class IStoredSettings {
 	 * @return key value or defaultValue
 	 */
 	public int getInteger(String name, int defaultValue) {
-		Properties props = getSettings();
+		Snapshot settings = getSnapshot();
+		Object parsed = settings.parsed.get(name);
+		if (parsed instanceof Integer) {
+			return (Integer) parsed;
+		}
+		Map<String, String> props = settings.values;
 		if (props.containsKey(name)) {
 			try {
-				String value = props.getProperty(name);
+				String value = props.get(name);
 				if (!StringUtils.isEmpty(value)) {
-					return Integer.parseInt(value.trim());
+					int i = Integer.parseInt(value.trim());
+					settings.parsed.put(name, i);
+					return i;
 				}
 			} catch (NumberFormatException e) {
 				logger.warn("Failed to parse integer for " + name + " using default of "
@@ -133,12 +189,19 @@ public abstract class IStoredSettings {
 	 * @return key value or defaultValue
 	 */
 	public long getLong(String name, long defaultValue) {
-		Properties props = getSettings();
+		Snapshot settings = getSnapshot();
+		Object parsed = settings.parsed.get(name);
+		if (parsed instanceof Long) {
+			return (Long) parsed;
+		}
+		Map<String, String> props = settings.values;
 		if (props.containsKey(name)) {
 			try {
-				String value = props.getProperty(name);
+				String value = props.get(name);
 				if (!StringUtils.isEmpty(value)) {
-					return Long.parseLong(value.trim());
+					long l = Long.parseLong(value.trim());
+					settings.parsed.put(name, l);
+					return l;
 				}
 			} catch (NumberFormatException e) {
 				logger.warn("Failed to parse long for " + name + " using default of "
@@ -188,9 +251,9 @@ public abstract class IStoredSettings {
 	 * @return key value or defaultValue
 	 */
 	public char getChar(String name, char defaultValue) {
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			if (!StringUtils.isEmpty(value)) {
 				return value.trim().charAt(0);
 			}
@@ -208,9 +271,9 @@ public abstract class IStoredSettings {
 	 * @return key value or defaultValue
 	 */
 	public String getString(String name, String defaultValue) {
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			if (value != null) {
 				return value.trim();
 			}
@@ -226,9 +289,9 @@ public abstract class IStoredSettings {
 	 * @return key value
 	 */
 	public String getRequiredString(String name) {
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			if (value != null) {
 				return value.trim();
 			}
@@ -256,9 +319,9 @@ public abstract class IStoredSettings {
 	 */
 	public List<String> getStrings(String name, String separator) {
 		List<String> strings = new ArrayList<String>();
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			strings = StringUtils.getStringsFromValue(value, separator);
 		}
 		return strings;
@@ -284,9 +347,9 @@ public abstract class IStoredSettings {
 	 */
 	public List<Integer> getIntegers(String name, String separator) {
 		List<Integer> ints = new ArrayList<Integer>();
-		Properties props = getSettings();
+		Map<String, String> props = getSettings();
 		if (props.containsKey(name)) {
-			String value = props.getProperty(name);
+			String value = props.get(name);
 			List<String> strings = StringUtils.getStringsFromValue(value, separator);
 			for (String str : strings) {
 				try {
@@ -324,6 +387,7 @@ public abstract class IStoredSettings {
 	 */
 	public void overrideSetting(String key, String value) {
 		overrides.put(key, value);
+		invalidate();
 	}
 
 	/**
@@ -334,6 +398,7 @@ public abstract class IStoredSettings {
 	 */
 	public void overrideSetting(String key, int value) {
 		overrides.put(key, "" + value);
+		invalidate();
 	}
 
 	/**
@@ -344,6 +409,7 @@ public abstract class IStoredSettings {
 	 */
 	public void overrideSetting(String key, boolean value) {
 		overrides.put(key, "" + value);
+		invalidate();
 	}
 
 	/**
@@ -362,9 +428,10 @@ public abstract class IStoredSettings {
 	 * @param key
 	 */
 	public void removeSetting(String key) {
-		getSettings().remove(key);
+		read().remove(key);
 		overrides.remove(key);
 		removals.add(key);
+		invalidate();
 	}
 
 	/**
@@ -390,7 +457,30 @@ public abstract class IStoredSettings {
 	 * @param settings
 	 */
 	public void merge(IStoredSettings settings) {
-		getSettings().putAll(settings.getSettings());
+		read().putAll(settings.getSettings());
 		overrides.putAll(settings.overrides);
+		invalidate();
+	}
+
+	/**
+	 * Immutable view of the settings at one revision.  Parsed numeric values
+	 * are cached with the snapshot and discarded with it.
+	 */
+	private static class Snapshot {
+
+		final Properties source;
+
+		final long revision;
+
+		final Map<String, String> values;
+
+		final ConcurrentMap<String, Object> parsed;
+
+		Snapshot(Properties source, long revision, Map<String, String> values) {
+			this.source = source;
+			this.revision = revision;
+			this.values = Collections.unmodifiableMap(values);
+			this.parsed = new ConcurrentHashMap<String, Object>();
+		}
 	}
 }
\ No newline at end of file
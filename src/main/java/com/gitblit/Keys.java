@@ -8,6 +8,10 @@ public final class Keys {
 
 		public static final String defaultThreadPoolSize = "execution.defaultThreadPoolSize";
 
+		public static final String maxQueueDepth = "execution.maxQueueDepth";
+
+		public static final String queueSizes = "execution.queueSizes";
+
 	}
 
 	public static final class fanout {
@@ -38,6 +42,8 @@ public final class Keys {
 
 		public static final String proposalsFolder = "federation.proposalsFolder";
 
+		public static final String pullThreads = "federation.pullThreads";
+
 		public static final String sets = "federation.sets";
 
 	}
@@ -72,14 +78,28 @@ public final class Keys {
 
 		public static final String createRepositoriesShared = "git.createRepositoriesShared";
 
+		public static final String daemonBacklog = "git.daemonBacklog";
+
 		public static final String daemonBindInterface = "git.daemonBindInterface";
 
+		public static final String daemonMaxConnectionsPerIp = "git.daemonMaxConnectionsPerIp";
+
 		public static final String daemonPort = "git.daemonPort";
 
+		public static final String daemonQueueSize = "git.daemonQueueSize";
+
+		public static final String daemonRequestTimeout = "git.daemonRequestTimeout";
+
+		public static final String daemonThreads = "git.daemonThreads";
+
+		public static final String daemonTimeout = "git.daemonTimeout";
+
 		public static final String defaultAccessRestriction = "git.defaultAccessRestriction";
 
 		public static final String defaultAuthorizationControl = "git.defaultAuthorizationControl";
 
+		public static final String defaultBuildBitmaps = "git.defaultBuildBitmaps";
+
 		public static final String defaultGarbageCollectionPeriod = "git.defaultGarbageCollectionPeriod";
 
 		public static final String defaultGarbageCollectionThreshold = "git.defaultGarbageCollectionThreshold";
@@ -98,16 +118,34 @@ public final class Keys {
 
 		public static final String garbageCollectionHour = "git.garbageCollectionHour";
 
+		public static final String garbageCollectionMaxPacks = "git.garbageCollectionMaxPacks";
+
+		public static final String garbageCollectionThreads = "git.garbageCollectionThreads";
+
 		public static final String gitignoreFolder = "git.gitignoreFolder";
 
+		public static final String incrementalRepackThreshold = "git.incrementalRepackThreshold";
+
 		public static final String maxObjectSizeLimit = "git.maxObjectSizeLimit";
 
 		public static final String maxPackSizeLimit = "git.maxPackSizeLimit";
 
+		public static final String mirrorFetchesPerHost = "git.mirrorFetchesPerHost";
+
 		public static final String mirrorPeriod = "git.mirrorPeriod";
 
+		public static final String mirrorThreads = "git.mirrorThreads";
+
+		public static final String mirrorTimeout = "git.mirrorTimeout";
+
 		public static final String onlyAccessBareRepositories = "git.onlyAccessBareRepositories";
 
+		public static final String packBitmapThreshold = "git.packBitmapThreshold";
+
+		public static final String packCacheFolder = "git.packCacheFolder";
+
+		public static final String packCacheSize = "git.packCacheSize";
+
 		public static final String packedGitLimit = "git.packedGitLimit";
 
 		public static final String packedGitMmap = "git.packedGitMmap";
@@ -186,6 +224,8 @@ public final class Keys {
 
 		public static final String mailingLists = "mail.mailingLists";
 
+		public static final String maxAttempts = "mail.maxAttempts";
+
 		public static final String password = "mail.password";
 
 		public static final String port = "mail.port";
@@ -194,6 +234,8 @@ public final class Keys {
 
 		public static final String smtps = "mail.smtps";
 
+		public static final String spoolFolder = "mail.spoolFolder";
+
 		public static final String starttls = "mail.starttls";
 
 		public static final String username = "mail.username";
@@ -282,6 +324,8 @@ public final class Keys {
 
 			public static final String admins = "realm.ldap.admins";
 
+			public static final String authCachePeriod = "realm.ldap.authCachePeriod";
+
 			public static final String bindpattern = "realm.ldap.bindpattern";
 
 			public static final String displayName = "realm.ldap.displayName";
@@ -298,6 +342,8 @@ public final class Keys {
 
 			public static final String password = "realm.ldap.password";
 
+			public static final String poolSize = "realm.ldap.poolSize";
+
 			public static final String removeDeletedUsers = "realm.ldap.removeDeletedUsers";
 
 			public static final String server = "realm.ldap.server";
@@ -402,12 +448,16 @@ public final class Keys {
 
 		public static final String closeOnPushCommitMessageRegex = "tickets.closeOnPushCommitMessageRegex";
 
+		public static final String indexCommitInterval = "tickets.indexCommitInterval";
+
 		public static final String indexFolder = "tickets.indexFolder";
 
 		public static final String linkOnPushCommitMessageRegex = "tickets.linkOnPushCommitMessageRegex";
 
 		public static final String perPage = "tickets.perPage";
 
+		public static final String reindexThreads = "tickets.reindexThreads";
+
 		public static final String requireApproval = "tickets.requireApproval";
 
 		public static final String mergeType = "tickets.mergeType";
@@ -430,6 +480,8 @@ public final class Keys {
 
 		public static final String activityCacheDays = "web.activityCacheDays";
 
+		public static final String activityCacheSize = "web.activityCacheSize";
+
 		public static final String activityDuration = "web.activityDuration";
 
 		public static final String activityDurationChoices = "web.activityDurationChoices";
@@ -462,6 +514,10 @@ public final class Keys {
 
 		public static final String authenticateViewPages = "web.authenticateViewPages";
 
+		public static final String archiveCacheFolder = "web.archiveCacheFolder";
+
+		public static final String archiveCacheSize = "web.archiveCacheSize";
+
 		public static final String avatarClass = "web.avatarClass";
 
 		public static final String binaryExtensions = "web.binaryExtensions";
@@ -530,6 +586,8 @@ public final class Keys {
 
 		public static final String luceneIgnoreExtensions = "web.luceneIgnoreExtensions";
 
+		public static final String luceneIndexThreads = "web.luceneIndexThreads";
+
 		public static final String markdownExtensions = "web.markdownExtensions";
 
 		public static final String maxActivityCommits = "web.maxActivityCommits";
@@ -61,6 +61,7 @@ public class WebXmlSettings extends IStoredSettings {
 				InputStream is = new FileInputStream(overrideFile);
 				properties.load(is);
 				is.close();
+				invalidate();
 			} catch (Throwable t) {
 				logger.error(
 						MessageFormat.format("Failed to apply {0} setting overrides",
@@ -102,6 +103,7 @@ public class WebXmlSettings extends IStoredSettings {
 			// override current runtime settings
 			properties.clear();
 			properties.putAll(props);
+			invalidate();
 			return true;
 		} catch (Throwable t) {
 			logger.error("Failed to save settings!", t);
@@ -128,6 +130,7 @@ public class WebXmlSettings extends IStoredSettings {
 
 			// override current runtime settings
 			properties.putAll(settings);
+			invalidate();
 			return true;
 		} catch (Throwable t) {
 			logger.error("Failed to save settings!", t);
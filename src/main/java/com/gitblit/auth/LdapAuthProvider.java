@@ -16,9 +16,13 @@
  */
 package com.gitblit.auth;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -31,10 +35,12 @@ import com.gitblit.Constants.Role;
 import com.gitblit.Keys;
 import com.gitblit.auth.AuthenticationProvider.UsernamePasswordAuthenticationProvider;
 import com.gitblit.ldap.LdapConnection;
+import com.gitblit.ldap.LdapConnectionPool;
 import com.gitblit.models.TeamModel;
 import com.gitblit.models.UserModel;
 import com.gitblit.service.LdapSyncService;
 import com.gitblit.utils.ArrayUtils;
+import com.gitblit.utils.SecureRandom;
 import com.gitblit.utils.StringUtils;
 import com.unboundid.ldap.sdk.Attribute;
 import com.unboundid.ldap.sdk.BindResult;
@@ -52,12 +58,35 @@ import com.unboundid.ldap.sdk.SearchScope;
  */
 public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
 
+	/**
+	 * Maximum number of verified credentials which are cached.
+	 */
+	private static final int CREDENTIALS_CACHE_SIZE = 1000;
+
 	private final ScheduledExecutorService scheduledExecutorService;
 
+	private final Map<String, VerifiedCredentials> verifiedCredentials;
+
+	private final byte[] salt;
+
+	private volatile LdapConnectionPool connectionPool;
+
+	private long credentialsCachePeriod;
+
 	public LdapAuthProvider() {
 		super("ldap");
 
 		scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+		verifiedCredentials = new LinkedHashMap<String, VerifiedCredentials>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, VerifiedCredentials> eldest) {
+				return size() > CREDENTIALS_CACHE_SIZE;
+			}
+		};
+		salt = new SecureRandom().randomBytes(32);
 	}
 
  	private long getSynchronizationPeriodInMilliseconds() {
@@ -73,24 +102,37 @@ public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
  	 		}
  		}
 
+        return getPeriodInMilliseconds(Keys.realm.ldap.syncPeriod, period);
+    }
+
+	private long getPeriodInMilliseconds(String key, String period) {
         try {
             final String[] s = period.split(" ", 2);
             long duration = Math.abs(Long.parseLong(s[0]));
             TimeUnit timeUnit = TimeUnit.valueOf(s[1]);
             return timeUnit.toMillis(duration);
         } catch (RuntimeException ex) {
-            throw new IllegalArgumentException(Keys.realm.ldap.syncPeriod + " must have format '<long> <TimeUnit>' where <TimeUnit> is one of 'MILLISECONDS', 'SECONDS', 'MINUTES', 'HOURS', 'DAYS'");
+            throw new IllegalArgumentException(key + " must have format '<long> <TimeUnit>' where <TimeUnit> is one of 'MILLISECONDS', 'SECONDS', 'MINUTES', 'HOURS', 'DAYS'");
         }
     }
 
 	@Override
 	public void setup() {
+		connectionPool = new LdapConnectionPool(settings, settings.getInteger(Keys.realm.ldap.poolSize, 4));
+		credentialsCachePeriod = getPeriodInMilliseconds(Keys.realm.ldap.authCachePeriod,
+				settings.getString(Keys.realm.ldap.authCachePeriod, "1 MINUTES"));
 		configureSyncService();
 	}
 
 	@Override
 	public void stop() {
 		scheduledExecutorService.shutdownNow();
+		if (connectionPool != null) {
+			connectionPool.close();
+		}
+		synchronized (verifiedCredentials) {
+			verifiedCredentials.clear();
+		}
 	}
 
 	public synchronized void sync() {
@@ -254,8 +296,21 @@ public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
 	public UserModel authenticate(String username, char[] password) {
 		String simpleUsername = getSimpleUsername(username);
 
-		LdapConnection ldapConnection = new LdapConnection(settings);
-		if (ldapConnection.connect()) {
+		// git clients authenticate every request, skip the directory for
+		// recently verified credentials
+		UserModel verifiedUser = getVerifiedUser(simpleUsername, password);
+		if (verifiedUser != null) {
+			logger.debug("LDAP credentials verified from cache: " + username);
+			return verifiedUser;
+		}
+
+		LdapConnectionPool pool = connectionPool;
+		if (pool == null) {
+			// not set up, do not pool the connection
+			pool = new LdapConnectionPool(settings, 0);
+		}
+		LdapConnection ldapConnection = pool.getConnection();
+		if (ldapConnection != null) {
 
 			// Try to bind either to the "manager" account,
 			// or directly to the DN of the user logging in, if realm.ldap.bindpattern is configured.
@@ -268,7 +323,7 @@ public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
 				bindResult = ldapConnection.bind();
 			}
 			if (bindResult == null) {
-				ldapConnection.close();
+				pool.release(ldapConnection);
 				return null;
 			}
 
@@ -313,16 +368,84 @@ public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
 							}
 						}
 
+						cacheVerifiedUser(simpleUsername, password);
 						return user;
 					}
 				}
 			} finally {
-				ldapConnection.close();
+				pool.release(ldapConnection);
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Returns the user if the credentials have been verified against the
+	 * directory within the credentials cache period.
+	 *
+	 * @param simpleUsername
+	 * @param password
+	 * @return the user or null
+	 */
+	private UserModel getVerifiedUser(String simpleUsername, char[] password) {
+		if (credentialsCachePeriod <= 0) {
+			return null;
+		}
+		String key = simpleUsername.toLowerCase();
+		VerifiedCredentials credentials;
+		synchronized (verifiedCredentials) {
+			credentials = verifiedCredentials.get(key);
+			if (credentials != null && credentials.expires < System.currentTimeMillis()) {
+				verifiedCredentials.remove(key);
+				credentials = null;
+			}
+		}
+		if (credentials == null || !MessageDigest.isEqual(credentials.hash, hash(key, password))) {
+			return null;
+		}
+		UserModel user = userManager.getUserModel(simpleUsername);
+		if (user == null) {
+			// removed from the backing user service
+			synchronized (verifiedCredentials) {
+				verifiedCredentials.remove(key);
+			}
+		}
+		return user;
+	}
+
+	private void cacheVerifiedUser(String simpleUsername, char[] password) {
+		if (credentialsCachePeriod <= 0) {
+			return;
+		}
+		String key = simpleUsername.toLowerCase();
+		VerifiedCredentials credentials = new VerifiedCredentials(hash(key, password),
+				System.currentTimeMillis() + credentialsCachePeriod);
+		synchronized (verifiedCredentials) {
+			verifiedCredentials.put(key, credentials);
+		}
+	}
+
+	/**
+	 * Hashes the credentials with a random salt of this provider instance, so
+	 * cleartext passwords are never kept in memory.
+	 *
+	 * @param key
+	 * @param password
+	 * @return the salted hash
+	 */
+	private byte[] hash(String key, char[] password) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(salt);
+			md.update(key.getBytes(StandardCharsets.UTF_8));
+			md.update((byte) 0);
+			md.update(new String(password).getBytes(StandardCharsets.UTF_8));
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Set the admin attribute from team memberships retrieved from LDAP.
 	 * If we are not storing teams in LDAP and/or we have not defined any
@@ -539,6 +662,21 @@ public class LdapAuthProvider extends UsernamePasswordAuthenticationProvider {
 		return username;
 	}
 
+	/**
+	 * Credentials which have been verified against the directory.
+	 */
+	private static class VerifiedCredentials {
+
+		final byte[] hash;
+
+		final long expires;
+
+		VerifiedCredentials(byte[] hash, long expires) {
+			this.hash = hash;
+			this.expires = expires;
+		}
+	}
+
 	private void configureSyncService() {
 		LdapSyncService ldapSyncService = new LdapSyncService(settings, this);
 		if (ldapSyncService.isReady()) {
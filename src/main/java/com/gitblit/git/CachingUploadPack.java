@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.UploadPack;
+
+import com.gitblit.utils.ArchiveCache;
+import com.gitblit.utils.StringUtils;
+
+/**
+ * Upload pack which serves full clones over the stateless http protocol from
+ * a disk cache of previously generated responses, so that repeated clones of
+ * the same refs do not count, delta compress and write the objects again.
+ * <p>
+ * A request is served from the cache if it only wants advertised tips and has
+ * no haves, shallow or deepen lines.  The cache key includes the state of the
+ * advertised refs, an entry is not reused once a ref has moved.  All other
+ * requests, and requests over bidirectional transports, are handled by the
+ * regular upload pack.
+ * </p>
+ * <p>
+ * On a cache miss the pack is written to the cache independently of the
+ * client, and then streamed to the client from the cached file, so that a
+ * client which disconnects or stalls does not abort the cache entry.
+ * Concurrent requests for the same pack wait for the generating request and
+ * fall back to the regular upload pack if the pack could not be generated.
+ * </p>
+ *
+ */
+class CachingUploadPack extends UploadPack {
+
+	/**
+	 * Requests larger than this are not cached, a clone request only
+	 * contains one want line per ref.
+	 */
+	private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+	private final ArchiveCache cache;
+
+	CachingUploadPack(Repository db, ArchiveCache cache) {
+		super(db);
+		this.cache = cache;
+	}
+
+	@Override
+	public void upload(InputStream input, OutputStream output, OutputStream messages) throws IOException {
+		if (isBiDirectionalPipe()) {
+			super.upload(input, output, messages);
+			return;
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte [] chunk = new byte[8192];
+		int len;
+		while ((len = input.read(chunk)) > -1) {
+			buffer.write(chunk, 0, len);
+			if (buffer.size() > MAX_REQUEST_SIZE) {
+				InputStream request = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), input);
+				super.upload(request, output, messages);
+				return;
+			}
+		}
+
+		final byte [] request = buffer.toByteArray();
+		String key = getKey(request);
+		if (key == null) {
+			super.upload(new ByteArrayInputStream(request), output, messages);
+			return;
+		}
+
+		final boolean [] generated = { false };
+		FileInputStream pack;
+		try {
+			pack = cache.open(key, new ArchiveCache.Generator() {
+				@Override
+				public void write(OutputStream os) throws IOException {
+					generated[0] = true;
+					CachingUploadPack.super.upload(new ByteArrayInputStream(request), os, null);
+				}
+			});
+		} catch (IOException e) {
+			if (generated[0]) {
+				// this upload pack has already been used
+				throw e;
+			}
+			// the concurrent request failed to generate the pack
+			super.upload(new ByteArrayInputStream(request), output, messages);
+			return;
+		}
+		long length;
+		try {
+			length = pack.getChannel().size();
+			IOUtils.copyLarge(pack, output);
+		} finally {
+			pack.close();
+		}
+		output.flush();
+
+		if (getPostUploadHook() instanceof TransferMetricsHook) {
+			((TransferMetricsHook) getPostUploadHook()).onCachedUpload(length);
+		}
+	}
+
+	/**
+	 * Returns the cache key of a full clone request.
+	 *
+	 * @param request
+	 *            the pkt-line encoded request
+	 * @return the cache key or null if the request can not be cached
+	 * @throws IOException
+	 */
+	String getKey(byte [] request) throws IOException {
+		Set<String> wants = new TreeSet<String>();
+		Set<String> capabilities = new TreeSet<String>();
+		boolean flushed = false;
+		boolean done = false;
+		int pos = 0;
+		while (pos + 4 <= request.length && !done) {
+			int len;
+			try {
+				len = Integer.parseInt(new String(request, pos, 4, "US-ASCII"), 16);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (len == 0) {
+				if (flushed) {
+					return null;
+				}
+				flushed = true;
+				pos += 4;
+				continue;
+			}
+			if (len <= 4 || pos + len > request.length) {
+				return null;
+			}
+			String line = new String(request, pos + 4, len - 4, "UTF-8");
+			if (line.endsWith("\n")) {
+				line = line.substring(0, line.length() - 1);
+			}
+			pos += len;
+
+			if (!flushed && line.startsWith("want ")) {
+				String [] fields = line.split(" ");
+				wants.add(fields[1]);
+				for (int i = 2; i < fields.length; i++) {
+					if (!fields[i].startsWith("agent=")) {
+						capabilities.add(fields[i]);
+					}
+				}
+			} else if (flushed && line.equals("done")) {
+				done = true;
+			} else {
+				// haves, shallow or deepen lines
+				return null;
+			}
+		}
+		if (!done || pos != request.length || wants.isEmpty()) {
+			return null;
+		}
+
+		// the wants are validated against the advertised refs, i.e. the refs
+		// which pass the ref filter of the upload pack
+		if (getAdvertisedRefs() == null) {
+			setAdvertisedRefs(null);
+		}
+		Repository db = getRepository();
+		Map<String, Ref> refs = new TreeMap<String, Ref>(getAdvertisedRefs());
+		Set<String> tips = new HashSet<String>();
+		StringBuilder sb = new StringBuilder();
+		sb.append(db.getDirectory().getAbsolutePath()).append('\n');
+		for (Ref ref : refs.values()) {
+			if (ref.getObjectId() == null) {
+				continue;
+			}
+			String id = ref.getObjectId().getName();
+			tips.add(id);
+			sb.append(ref.getName()).append(' ');
+			if (ref.isSymbolic()) {
+				sb.append(ref.getTarget().getName()).append(' ');
+			}
+			sb.append(id).append('\n');
+		}
+		if (!tips.containsAll(wants)) {
+			return null;
+		}
+		sb.append(wants).append('\n');
+		sb.append(capabilities);
+		return StringUtils.getSHA1(sb.toString()) + ".pack";
+	}
+}
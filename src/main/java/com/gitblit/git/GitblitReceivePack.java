@@ -22,7 +22,10 @@ import groovy.util.GroovyScriptEngine;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -72,6 +75,7 @@ import com.gitblit.utils.CommitCache;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.RefLogUtils;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.TransferMetrics;
 
 
 /**
@@ -110,6 +114,10 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 	protected final ITicketService ticketService;
 
 	protected final TicketNotifier ticketNotifier;
+
+	private final Date repositorySizeDate;
+
+	private final Set<String> existingPacks;
 	
 
 	public GitblitReceivePack(
@@ -124,6 +132,15 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 		this.repository = repository;
 		this.user = user;
 		this.groovyDir = gitblit.getHooksFolder();
+		if (settings.getBoolean(Keys.web.showRepositorySizes, true) && !repository.skipSizeCalculation) {
+			// the repository state before the pack is received, the last
+			// change of the model has just been updated by the manager
+			this.repositorySizeDate = gitblit.getRepositorySizeDate(db, repository.lastChange);
+			this.existingPacks = new HashSet<String>(listPacks());
+		} else {
+			this.repositorySizeDate = null;
+			this.existingPacks = null;
+		}
 		try {
 			// set Grape root
 			File grapeRoot = gitblit.getGrapesFolder();
@@ -353,6 +370,9 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 	 */
 	@Override
 	public void onPostReceive(ReceivePack rp, Collection<ReceiveCommand> commands) {
+		updateRepositorySize();
+		updateTransferMetrics();
+
 		if (commands.size() == 0) {
 			LOGGER.debug("skipping post-receive processing, no refs created, updated, or removed");
 			return;
@@ -361,6 +381,7 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 		logRefChange(commands);
 		updateIncrementalPushTags(commands);
 		updateGitblitRefLog(commands);
+		updateSearchIndex(commands);
 
 		// check for updates pushed to the BranchTicketService branch
 		// if the BranchTicketService is active it will reindex, as appropriate
@@ -389,6 +410,94 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 		runGroovy(commands, scripts);
 	}
 
+	/**
+	 * Adds the size of the received pack and of its index to the tracked
+	 * repository size.
+	 */
+	protected void updateRepositorySize() {
+		if (existingPacks == null) {
+			// repository sizes are not tracked
+			return;
+		}
+		long packSize;
+		try {
+			packSize = getPackSize();
+		} catch (IllegalStateException e) {
+			// no pack was received, e.g. only ref deletions
+			return;
+		}
+		if (packSize > 0) {
+			gitblit.addRepositorySize(getRepository(), repository.name, repositorySizeDate, packSize + getIndexSize(packSize));
+		}
+	}
+
+	/**
+	 * Returns the names of the packs of the repository.
+	 *
+	 * @return the pack file names
+	 */
+	private List<String> listPacks() {
+		List<String> names = new ArrayList<String>();
+		String [] files = new File(getRepository().getDirectory(), "objects/pack").list();
+		if (files != null) {
+			for (String name : files) {
+				if (name.endsWith(".pack")) {
+					names.add(name);
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the size of the index of the received pack.  The received pack
+	 * is the pack of the received size which did not exist before the push.
+	 *
+	 * @param packSize
+	 * @return the size of the pack index or 0 if it was not found
+	 */
+	private long getIndexSize(long packSize) {
+		File packDir = new File(getRepository().getDirectory(), "objects/pack");
+		for (String name : listPacks()) {
+			if (!existingPacks.contains(name) && new File(packDir, name).length() == packSize) {
+				return new File(packDir, name.substring(0, name.length() - ".pack".length()) + ".idx").length();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the received pack in the transfer metrics of the repository and
+	 * the pushing user.
+	 */
+	protected void updateTransferMetrics() {
+		long packSize;
+		try {
+			packSize = getPackSize();
+		} catch (IllegalStateException e) {
+			// no pack was received, e.g. only ref deletions
+			packSize = 0;
+		}
+		TransferMetrics.instance().recordReceive(repository.name, user.username, packSize);
+	}
+
+	/**
+	 * Queues an incremental Lucene index update if a branch was updated.
+	 *
+	 * @param commands
+	 */
+	protected void updateSearchIndex(Collection<ReceiveCommand> commands) {
+		if (ArrayUtils.isEmpty(repository.indexedBranches)) {
+			return;
+		}
+		for (ReceiveCommand cmd : commands) {
+			if (Result.OK.equals(cmd.getResult()) && cmd.getRefName().startsWith(Constants.R_HEADS)) {
+				gitblit.updateSearchIndex(repository.name);
+				return;
+			}
+		}
+	}
+
 	/**
 	 * Log the ref changes in the container log.
 	 *
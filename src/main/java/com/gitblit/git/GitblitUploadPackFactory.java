@@ -15,6 +15,8 @@
  */
 package com.gitblit.git;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
@@ -22,7 +24,12 @@ import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 
 import com.gitblit.manager.IAuthenticationManager;
+import com.gitblit.models.UserModel;
 import com.gitblit.transport.git.GitDaemonClient;
+import com.gitblit.transport.ssh.SshDaemonClient;
+import com.gitblit.utils.ArchiveCache;
+import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.TransferMetrics;
 
 /**
  * The upload pack factory creates an upload pack which controls what refs are
@@ -36,8 +43,21 @@ public class GitblitUploadPackFactory<X> implements UploadPackFactory<X> {
 
 	private final IAuthenticationManager authenticationManager;
 
+	private final ArchiveCache packCache;
+
 	public GitblitUploadPackFactory(IAuthenticationManager authenticationManager) {
+		this(authenticationManager, null);
+	}
+
+	/**
+	 * @param authenticationManager
+	 * @param packCache
+	 *            the cache for full clones over http, may be null
+	 * @since 1.9.0
+	 */
+	public GitblitUploadPackFactory(IAuthenticationManager authenticationManager, ArchiveCache packCache) {
 		this.authenticationManager = authenticationManager;
+		this.packCache = packCache;
 	}
 
 	@Override
@@ -45,17 +65,39 @@ public class GitblitUploadPackFactory<X> implements UploadPackFactory<X> {
 			throws ServiceNotEnabledException, ServiceNotAuthorizedException {
 
 		int timeout = 0;
+		String repositoryName = "";
+		String username = UserModel.ANONYMOUS.username;
 
-		if (req instanceof GitDaemonClient) {
+		if (req instanceof HttpServletRequest) {
+			// http/https request may or may not be authenticated
+			HttpServletRequest client = (HttpServletRequest) req;
+			repositoryName = String.valueOf(client.getAttribute("gitblitRepositoryName"));
+			if (!StringUtils.isEmpty(client.getRemoteUser())) {
+				username = client.getRemoteUser();
+			}
+		} else if (req instanceof GitDaemonClient) {
 			// git daemon request is always anonymous
 			GitDaemonClient client = (GitDaemonClient) req;
+			repositoryName = client.getRepositoryName();
 			// set timeout from Git daemon
 			timeout = client.getDaemon().getTimeout();
+		} else if (req instanceof SshDaemonClient) {
+			// SSH request is always authenticated
+			SshDaemonClient client = (SshDaemonClient) req;
+			repositoryName = client.getRepositoryName();
+			if (client.getUser() != null) {
+				username = client.getUsername();
+			}
 		}
 
-		UploadPack up = new UploadPack(db);
+		UploadPack up = packCache == null ? new UploadPack(db) : new CachingUploadPack(db, packCache);
 		up.setTimeout(timeout);
 
+		// record the pack statistics in the transfer metrics
+		TransferMetricsHook hook = new TransferMetricsHook(TransferMetrics.instance(), repositoryName, username);
+		up.setPreUploadHook(hook);
+		up.setPostUploadHook(hook);
+
 		return up;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.util.Collection;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.PostUploadHook;
+import org.eclipse.jgit.transport.PreUploadHook;
+import org.eclipse.jgit.transport.UploadPack;
+
+import com.gitblit.utils.TransferMetrics;
+
+/**
+ * Records the statistics of the packs sent by an upload pack in the transfer
+ * metrics of the repository and the user.
+ *
+ */
+class TransferMetricsHook implements PreUploadHook, PostUploadHook {
+
+	private final TransferMetrics metrics;
+
+	private final String repository;
+
+	private final String username;
+
+	private boolean clone;
+
+	private boolean recorded;
+
+	TransferMetricsHook(TransferMetrics metrics, String repository, String username) {
+		this.metrics = metrics;
+		this.repository = repository;
+		this.username = username;
+	}
+
+	@Override
+	public void onBeginNegotiateRound(UploadPack up, Collection<? extends ObjectId> wants, int cntOffered) {
+	}
+
+	@Override
+	public void onEndNegotiateRound(UploadPack up, Collection<? extends ObjectId> wants, int cntCommon,
+			int cntNotFound, boolean ready) {
+	}
+
+	@Override
+	public void onSendPack(UploadPack up, Collection<? extends ObjectId> wants, Collection<? extends ObjectId> haves) {
+		clone = haves.isEmpty();
+	}
+
+	@Override
+	public void onPostUpload(PackStatistics stats) {
+		recorded = true;
+		metrics.recordUpload(repository, username, clone, stats);
+	}
+
+	/**
+	 * Records a response served from the clone pack cache, unless the pack
+	 * was generated, and recorded, for this request.
+	 *
+	 * @param bytes
+	 *            the size of the cached response
+	 */
+	void onCachedUpload(long bytes) {
+		if (!recorded) {
+			recorded = true;
+			metrics.recordCachedUpload(repository, username, bytes);
+		}
+	}
+}
@@ -15,6 +15,12 @@
  */
 package com.gitblit.guice;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IRuntimeManager;
@@ -33,6 +39,8 @@ import com.google.inject.Singleton;
 @Singleton
 public class WorkQueueProvider implements Provider<WorkQueue> {
 
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
 	private final IRuntimeManager runtimeManager;
 
 	private volatile WorkQueue workQueue;
@@ -50,8 +58,21 @@ public class WorkQueueProvider implements Provider<WorkQueue> {
 
 		IStoredSettings settings = runtimeManager.getSettings();
 		int defaultThreadPoolSize = settings.getInteger(Keys.execution.defaultThreadPoolSize, 1);
+		int maxQueueDepth = settings.getInteger(Keys.execution.maxQueueDepth, 1000);
+		Map<String, Integer> queueSizes = new HashMap<String, Integer>();
+		for (String queueSize : settings.getStrings(Keys.execution.queueSizes)) {
+			// name=threads
+			String [] kvp = queueSize.split("=");
+			if (kvp.length == 2) {
+				try {
+					queueSizes.put(kvp[0].trim(), Integer.parseInt(kvp[1].trim()));
+				} catch (NumberFormatException e) {
+					logger.warn("Failed to parse work queue size {}", queueSize);
+				}
+			}
+		}
 		IdGenerator idGenerator = new IdGenerator();
-		workQueue = new WorkQueue(idGenerator, defaultThreadPoolSize);
+		workQueue = new WorkQueue(idGenerator, defaultThreadPoolSize, queueSizes, maxQueueDepth);
 		return workQueue;
 	}
 }
\ No newline at end of file
@@ -52,6 +52,7 @@ public class LdapConnection implements AutoCloseable {
 	private SimpleBindRequest currentBindRequest;
 	private SimpleBindRequest managerBindRequest;
 	private SimpleBindRequest userBindRequest;
+	private long released;
 
 
 	// From: https://www.owasp.org/index.php/Preventing_LDAP_Injection_in_Java
@@ -173,6 +174,32 @@ public class LdapConnection implements AutoCloseable {
 	}
 
 
+	/**
+	 * @return true if the connection is established
+	 */
+	public boolean isConnected() {
+		return conn != null && conn.isConnected();
+	}
+
+
+	/**
+	 * Forgets the bindings of the previous borrower of a pooled connection.
+	 */
+	void reset() {
+		currentBindRequest = null;
+		userBindRequest = null;
+		released = System.currentTimeMillis();
+	}
+
+
+	/**
+	 * @return the time the connection was last returned to a pool
+	 */
+	long getReleased() {
+		return released;
+	}
+
+
 
 	/**
 	 * Bind using the manager credentials set in realm.ldap.username and ..password
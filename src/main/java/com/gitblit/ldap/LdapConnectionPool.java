@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.gitblit.ldap;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import com.gitblit.IStoredSettings;
+
+/**
+ * Pool of established LDAP connections.  A connection is borrowed for one
+ * operation, e.g. a login, and released afterwards.  Borrowers must bind the
+ * connection before they use it, the pool does not restore a binding.
+ *
+ */
+public class LdapConnectionPool implements AutoCloseable {
+
+	/**
+	 * Idle connections are discarded after this time, well before directory
+	 * servers typically drop idle clients.
+	 */
+	private static final long MAX_IDLE_TIME = TimeUnit.SECONDS.toMillis(60);
+
+	private final IStoredSettings settings;
+
+	private final BlockingDeque<LdapConnection> idle;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param settings
+	 * @param size
+	 *            the maximum number of idle connections, 0 disables pooling
+	 */
+	public LdapConnectionPool(IStoredSettings settings, int size) {
+		this.settings = settings;
+		this.idle = new LinkedBlockingDeque<LdapConnection>(Math.max(1, size));
+		this.closed = size <= 0;
+	}
+
+	/**
+	 * Returns an idle connection or establishes a new connection.
+	 *
+	 * @return a connected, but not necessarily bound, connection or null if
+	 *         the connection failed
+	 */
+	public LdapConnection getConnection() {
+		LdapConnection connection;
+		long now = System.currentTimeMillis();
+		while ((connection = idle.pollFirst()) != null) {
+			if (connection.isConnected() && now - connection.getReleased() < MAX_IDLE_TIME) {
+				return connection;
+			}
+			connection.close();
+		}
+
+		connection = new LdapConnection(settings);
+		if (connection.connect()) {
+			return connection;
+		}
+		connection.close();
+		return null;
+	}
+
+	/**
+	 * Returns a connection to the pool.  Broken connections and connections
+	 * which exceed the pool size are closed.
+	 *
+	 * @param connection
+	 */
+	public void release(LdapConnection connection) {
+		if (connection == null) {
+			return;
+		}
+		connection.reset();
+		if (!closed && connection.isConnected() && idle.offerFirst(connection)) {
+			return;
+		}
+		connection.close();
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Closes all idle connections and disables the pool.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LdapConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			connection.close();
+		}
+	}
+}
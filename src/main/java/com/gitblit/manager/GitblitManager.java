@@ -76,6 +76,7 @@ import com.gitblit.models.ServerStatus;
 import com.gitblit.models.SettingModel;
 import com.gitblit.models.TeamModel;
 import com.gitblit.models.UserModel;
+import com.gitblit.models.WorkQueueStatistics;
 import com.gitblit.tickets.ITicketService;
 import com.gitblit.transport.ssh.IPublicKeyManager;
 import com.gitblit.transport.ssh.SshKey;
@@ -756,6 +757,11 @@ public class GitblitManager implements IGitblit {
 		return userManager.isInternalAccount(username);
 	}
 
+	@Override
+	public long getStarCount(String repositoryName) {
+		return userManager.getStarCount(repositoryName);
+	}
+
 	@Override
 	public List<String> getAllUsernames() {
 		return userManager.getAllUsernames();
@@ -1018,6 +1024,21 @@ public class GitblitManager implements IGitblit {
 		return repositoryManager.updateLastChangeFields(r, model);
 	}
 
+	@Override
+	public long calculateRepositorySize(Repository r, String repositoryName) {
+		return repositoryManager.calculateRepositorySize(r, repositoryName);
+	}
+
+	@Override
+	public Date getRepositorySizeDate(Repository r, Date lastChange) {
+		return repositoryManager.getRepositorySizeDate(r, lastChange);
+	}
+
+	@Override
+	public void addRepositorySize(Repository r, String repositoryName, Date date, long bytes) {
+		repositoryManager.addRepositorySize(r, repositoryName, date, bytes);
+	}
+
 	@Override
 	public List<Metric> getRepositoryDefaultMetrics(RepositoryModel model, Repository repository) {
 		return repositoryManager.getRepositoryDefaultMetrics(model, repository);
@@ -1101,6 +1122,16 @@ public class GitblitManager implements IGitblit {
 		return repositoryManager.search(query, page, pageSize, repositories);
 	}
 
+	@Override
+	public void updateSearchIndex(String repositoryName) {
+		repositoryManager.updateSearchIndex(repositoryName);
+	}
+
+	@Override
+	public WorkQueueStatistics getSearchIndexStatistics() {
+		return repositoryManager.getSearchIndexStatistics();
+	}
+
 	@Override
 	public boolean isCollectingGarbage() {
 		return repositoryManager.isCollectingGarbage();
@@ -29,6 +29,7 @@ import com.gitblit.models.RegistrantAccessPermission;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.SearchResult;
 import com.gitblit.models.UserModel;
+import com.gitblit.models.WorkQueueStatistics;
 
 public interface IRepositoryManager extends IManager {
 
@@ -294,9 +295,9 @@ public interface IRepositoryManager extends IManager {
 
 	/**
 	 * Updates the last changed fields and optionally calculates the size of the
-	 * repository.  Gitblit caches the repository sizes to reduce the performance
-	 * penalty of recursive calculation. The cache is updated if the repository
-	 * has been changed since the last calculation.
+	 * repository.  Gitblit tracks the repository sizes incrementally to avoid
+	 * the performance penalty of recursive calculation.  The size is only
+	 * recalculated if it is unknown or found to be inconsistent.
 	 *
 	 * @param model
 	 * @return size in bytes of the repository
@@ -304,6 +305,44 @@ public interface IRepositoryManager extends IManager {
 	 */
 	long updateLastChangeFields(Repository r, RepositoryModel model);
 
+	/**
+	 * Recalculates the size of the repository by recursively traversing the
+	 * repository folder and tracks the result.
+	 *
+	 * @param r
+	 * @param repositoryName
+	 * @return size in bytes of the repository
+	 * @since 1.9.0
+	 */
+	long calculateRepositorySize(Repository r, String repositoryName);
+
+	/**
+	 * Returns the date which identifies the current state of the repository
+	 * for the tracked size.
+	 *
+	 * @param r
+	 * @param lastChange
+	 *            the last change of the refs, e.g. of the repository model
+	 * @return the date of the repository state
+	 * @since 1.9.0
+	 */
+	Date getRepositorySizeDate(Repository r, Date lastChange);
+
+	/**
+	 * Adds the size of newly written files, e.g. a received pack, to the
+	 * tracked size of the repository.  The size is recalculated in the
+	 * background if the tracked size does not belong to the state of the
+	 * repository before the files were written.
+	 *
+	 * @param r
+	 * @param repositoryName
+	 * @param date
+	 *            the date of the repository state before the files were written
+	 * @param bytes
+	 * @since 1.9.0
+	 */
+	void addRepositorySize(Repository r, String repositoryName, Date date, long bytes);
+
 	/**
 	 * Returns the metrics for the default branch of the specified repository.
 	 * This method builds a metrics cache. The cache is updated if the
@@ -442,6 +481,24 @@ public interface IRepositoryManager extends IManager {
 	 */
 	List<SearchResult> search(String query, int page, int pageSize, List<String> repositories);
 
+	/**
+	 * Queues an incremental Lucene index update of the repository, e.g. after
+	 * a push.  Repeated requests for a repository which is already queued or
+	 * being indexed are coalesced.
+	 *
+	 * @param repositoryName
+	 * @since 1.9.0
+	 */
+	void updateSearchIndex(String repositoryName);
+
+	/**
+	 * Returns the load and progress of the Lucene index queue.
+	 *
+	 * @return the index queue statistics or null if indexing has not started
+	 * @since 1.9.0
+	 */
+	WorkQueueStatistics getSearchIndexStatistics();
+
 	/**
 	 *
 	 * @return true if we are running the gc executor
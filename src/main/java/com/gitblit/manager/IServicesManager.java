@@ -23,6 +23,7 @@ import com.gitblit.Constants.Transport;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.RepositoryUrl;
 import com.gitblit.models.UserModel;
+import com.gitblit.models.WorkQueueStatistics;
 
 public interface IServicesManager extends IManager {
 
@@ -91,4 +92,12 @@ public interface IServicesManager extends IManager {
 	 */
 	boolean acceptsPush(Transport byTransport);
 
+	/**
+	 * Returns the load of the clients served by the GIT Daemon.
+	 *
+	 * @return the statistics of the GIT Daemon or null if it is not running
+	 * @since 1.9.0
+	 */
+	WorkQueueStatistics getGitDaemonStatistics();
+
 }
\ No newline at end of file
@@ -16,8 +16,6 @@
 package com.gitblit.manager;
 
 import java.util.Collection;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.mail.Message;
@@ -29,7 +27,10 @@ import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.models.Mailing;
 import com.gitblit.service.MailService;
+import com.gitblit.utils.IdGenerator;
+import com.gitblit.utils.WorkQueue;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 /**
@@ -45,16 +46,43 @@ public class NotificationManager implements INotificationManager {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	private final ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
+	private final WorkQueue.Executor scheduledExecutor;
 
 	private final IStoredSettings settings;
 
 	private final MailService mailService;
 
-	@Inject
+	private final WorkQueue privateWorkQueue;
+
 	public NotificationManager(IStoredSettings settings) {
+		this(settings, null);
+	}
+
+	/**
+	 * @param settings
+	 * @param workQueue
+	 *            the work queue which runs the mail service, or null to use
+	 *            a private work queue
+	 * @since 1.9.0
+	 */
+	public NotificationManager(IStoredSettings settings, WorkQueue workQueue) {
 		this.settings = settings;
 		this.mailService = new MailService(settings);
+		this.privateWorkQueue = workQueue == null ? new WorkQueue(new IdGenerator(), 1) : null;
+		this.scheduledExecutor = (workQueue == null ? privateWorkQueue : workQueue).createQueue(1, "MailService");
+	}
+
+	@Inject
+	public NotificationManager(
+			IStoredSettings settings,
+			IRuntimeManager runtimeManager,
+			Provider<WorkQueue> workQueueProvider) {
+
+		this.settings = settings;
+		this.mailService = new MailService(settings,
+				runtimeManager.getFileOrFolder(Keys.mail.spoolFolder, "${baseFolder}/mailspool"));
+		this.privateWorkQueue = null;
+		this.scheduledExecutor = workQueueProvider.get().createQueue(1, "MailService");
 	}
 
 	@Override
@@ -72,6 +100,10 @@ public class NotificationManager implements INotificationManager {
 	@Override
 	public NotificationManager stop() {
 		scheduledExecutor.shutdownNow();
+		scheduledExecutor.unregisterWorkQueue();
+		if (privateWorkQueue != null) {
+			privateWorkQueue.stop();
+		}
 		return this;
 	}
 
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.manager;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.gitblit.Constants.AccessPermission;
+import com.gitblit.Constants.AccessRestrictionType;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TeamModel;
+import com.gitblit.models.UserModel;
+
+/**
+ * Remembers the effective repository permissions of users.  The effective
+ * permission of a user merges the explicit and regex permissions of the user
+ * with the grants of the user's teams, resolving it for every repository of
+ * a repository list is expensive for users and teams with many regex
+ * permissions.
+ * <p>
+ * The permissions of a user are remembered per repository and are discarded
+ * when the grants of the user or of one of the user's teams change.  A
+ * remembered permission is resolved again when the access restriction,
+ * authorization control, owners or state of the repository change.
+ * </p>
+ *
+ */
+class PermissionResolver {
+
+	/**
+	 * Maximum number of users whose permissions are remembered.
+	 */
+	private static final int MAX_USERS = 100;
+
+	private final Map<String, Grants> users;
+
+	PermissionResolver() {
+		this.users = new LinkedHashMap<String, Grants>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Grants> eldest) {
+				return size() > MAX_USERS;
+			}
+		};
+	}
+
+	/**
+	 * Returns the permissions of the user.  The grants of the user are
+	 * captured by this call, the returned permissions should not outlive the
+	 * current request.
+	 *
+	 * @param user
+	 * @return the permissions of the user
+	 */
+	UserPermissions getPermissions(UserModel user) {
+		if (user.getClass() != UserModel.class) {
+			// subclasses may override the permission checks
+			return new UserPermissions(user, null);
+		}
+		List<Object> grants = getGrants(user);
+		synchronized (users) {
+			Grants cached = users.get(user.username);
+			if (cached == null || !cached.grants.equals(grants)) {
+				cached = new Grants(grants);
+				users.put(user.username, cached);
+			}
+			return new UserPermissions(user, cached.permissions);
+		}
+	}
+
+	/**
+	 * Forgets the permissions of all users.
+	 */
+	void clear() {
+		synchronized (users) {
+			users.clear();
+		}
+	}
+
+	/**
+	 * Returns everything the effective permissions of the user depend on.
+	 *
+	 * @param user
+	 * @return the grants of the user and of the user's teams
+	 */
+	private static List<Object> getGrants(UserModel user) {
+		List<Object> grants = new ArrayList<Object>();
+		grants.add(user.username);
+		grants.add(user.canAdmin);
+		grants.add(user.isAuthenticated);
+		addPermissions(grants, user.permissions);
+		for (TeamModel team : user.teams) {
+			grants.add(team.name);
+			grants.add(team.canAdmin);
+			addPermissions(grants, team.permissions);
+		}
+		return grants;
+	}
+
+	private static void addPermissions(List<Object> grants, Map<String, AccessPermission> permissions) {
+		// regex permissions are matched in order
+		grants.add(permissions.size());
+		for (Map.Entry<String, AccessPermission> entry : permissions.entrySet()) {
+			grants.add(new SimpleImmutableEntry<String, AccessPermission>(entry));
+		}
+	}
+
+	/**
+	 * Returns everything the permission of a user for the repository depends
+	 * on, besides the name of the repository.
+	 *
+	 * @param repository
+	 * @return the access settings of the repository
+	 */
+	private static List<Object> getAccess(RepositoryModel repository) {
+		List<Object> access = new ArrayList<Object>();
+		access.add(repository.accessRestriction);
+		access.add(repository.authorizationControl);
+		access.add(repository.isFrozen);
+		access.add(repository.isBare);
+		access.add(repository.isMirror);
+		access.add(repository.projectPath);
+		access.add(repository.owners == null ? null : new ArrayList<String>(repository.owners));
+		return access;
+	}
+
+	private static class Grants {
+
+		final List<Object> grants;
+
+		final ConcurrentMap<String, Permission> permissions;
+
+		Grants(List<Object> grants) {
+			this.grants = grants;
+			this.permissions = new ConcurrentHashMap<String, Permission>();
+		}
+	}
+
+	private static class Permission {
+
+		final List<Object> access;
+
+		final AccessPermission permission;
+
+		Permission(List<Object> access, AccessPermission permission) {
+			this.access = access;
+			this.permission = permission;
+		}
+	}
+
+	/**
+	 * The permissions of a user, these mirror the checks of UserModel.
+	 */
+	static class UserPermissions {
+
+		private final UserModel user;
+
+		private final ConcurrentMap<String, Permission> permissions;
+
+		UserPermissions(UserModel user, ConcurrentMap<String, Permission> permissions) {
+			this.user = user;
+			this.permissions = permissions;
+		}
+
+		/**
+		 * Returns the effective permission of the user for the repository.
+		 *
+		 * @param repository
+		 * @return the access permission
+		 */
+		AccessPermission getPermission(RepositoryModel repository) {
+			if (permissions == null) {
+				return user.getRepositoryPermission(repository).permission;
+			}
+			List<Object> access = getAccess(repository);
+			Permission p = permissions.get(repository.name);
+			if (p == null || !p.access.equals(access)) {
+				p = new Permission(access, user.getRepositoryPermission(repository).permission);
+				permissions.put(repository.name, p);
+			}
+			return p.permission;
+		}
+
+		boolean canView(RepositoryModel repository) {
+			if (permissions == null) {
+				return user.canView(repository);
+			}
+			return canAccess(repository, AccessRestrictionType.VIEW, AccessPermission.VIEW);
+		}
+
+		boolean canPush(RepositoryModel repository) {
+			if (permissions == null) {
+				return user.canPush(repository);
+			}
+			if (repository.isFrozen) {
+				return false;
+			}
+			return canAccess(repository, AccessRestrictionType.PUSH, AccessPermission.PUSH);
+		}
+
+		private boolean canAccess(RepositoryModel repository, AccessRestrictionType ifRestriction, AccessPermission requirePermission) {
+			if (repository.accessRestriction.atLeast(ifRestriction)) {
+				return getPermission(repository).atLeast(requirePermission);
+			}
+			return true;
+		}
+	}
+}
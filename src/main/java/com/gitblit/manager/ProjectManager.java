@@ -37,7 +37,6 @@ import com.gitblit.Keys;
 import com.gitblit.models.ProjectModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.UserModel;
-import com.gitblit.utils.DeepCopier;
 import com.gitblit.utils.ModelUtils;
 import com.gitblit.utils.ObjectCache;
 import com.gitblit.utils.StringUtils;
@@ -189,7 +188,7 @@ public class ProjectManager implements IProjectManager {
 				if (configs.containsKey(projectKey)) {
 					// clone the project model because it's repository list will
 					// be tailored for the requesting user
-					project = DeepCopier.copy(configs.get(projectKey));
+					project = configs.get(projectKey).copy();
 				} else {
 					project = new ProjectModel(projectPath);
 				}
@@ -259,7 +258,7 @@ public class ProjectManager implements IProjectManager {
 			}
 		} else {
 			// clone the object
-			project = DeepCopier.copy(project);
+			project = project.copy();
 		}
 		if (StringUtils.isEmpty(name)) {
 			// get root repositories
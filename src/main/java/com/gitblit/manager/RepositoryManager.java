@@ -39,7 +39,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -70,6 +71,7 @@ import com.gitblit.GitBlitException;
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.extensions.RepositoryLifeCycleListener;
+import com.gitblit.manager.PermissionResolver.UserPermissions;
 import com.gitblit.models.ForkModel;
 import com.gitblit.models.Metric;
 import com.gitblit.models.RefModel;
@@ -78,13 +80,14 @@ import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.SearchResult;
 import com.gitblit.models.TeamModel;
 import com.gitblit.models.UserModel;
+import com.gitblit.models.WorkQueueStatistics;
 import com.gitblit.service.GarbageCollectorService;
 import com.gitblit.service.LuceneService;
 import com.gitblit.service.MirrorService;
 import com.gitblit.utils.ArrayUtils;
 import com.gitblit.utils.ByteFormat;
 import com.gitblit.utils.CommitCache;
-import com.gitblit.utils.DeepCopier;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.JGitUtils.LastChange;
 import com.gitblit.utils.MetricUtils;
@@ -92,7 +95,9 @@ import com.gitblit.utils.ModelUtils;
 import com.gitblit.utils.ObjectCache;
 import com.gitblit.utils.StringUtils;
 import com.gitblit.utils.TimeUtils;
+import com.gitblit.utils.WorkQueue;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 /**
@@ -107,12 +112,20 @@ public class RepositoryManager implements IRepositoryManager {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	private final ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(5);
+	private final List<WorkQueue.Executor> schedulers = new CopyOnWriteArrayList<WorkQueue.Executor>();
 
 	private final ObjectCache<Long> repositorySizeCache = new ObjectCache<Long>();
 
+	private final Set<String> unsavedRepositorySizes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Set<String> receivedRepositorySizes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Set<String> calculatingRepositorySizes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
 	private final ObjectCache<List<Metric>> repositoryMetricsCache = new ObjectCache<List<Metric>>();
 
+	private final PermissionResolver permissionResolver = new PermissionResolver();
+
 	private Map<String, RepositoryModel> repositoryListCache = null;
 
 	private final AtomicReference<String> repositoryListSettingsChecksum = new AtomicReference<String>("");
@@ -125,6 +138,10 @@ public class RepositoryManager implements IRepositoryManager {
 
 	private final IUserManager userManager;
 
+	private final Provider<WorkQueue> workQueueProvider;
+
+	private WorkQueue workQueue;
+
 	private File repositoriesFolder;
 
 	private LuceneService luceneExecutor;
@@ -133,16 +150,28 @@ public class RepositoryManager implements IRepositoryManager {
 
 	private MirrorService mirrorExecutor;
 
-	@Inject
+	private ScheduledExecutorService sizeScheduler;
+
 	public RepositoryManager(
 			IRuntimeManager runtimeManager,
 			IPluginManager pluginManager,
 			IUserManager userManager) {
 
+		this(runtimeManager, pluginManager, userManager, null);
+	}
+
+	@Inject
+	public RepositoryManager(
+			IRuntimeManager runtimeManager,
+			IPluginManager pluginManager,
+			IUserManager userManager,
+			Provider<WorkQueue> workQueueProvider) {
+
 		this.settings = runtimeManager.getSettings();
 		this.runtimeManager = runtimeManager;
 		this.pluginManager = pluginManager;
 		this.userManager = userManager;
+		this.workQueueProvider = workQueueProvider;
 	}
 
 	@Override
@@ -157,6 +186,8 @@ public class RepositoryManager implements IRepositoryManager {
 		// calculate repository list settings checksum for future config changes
 		repositoryListSettingsChecksum.set(getRepositoryListSettingsChecksum());
 
+		configureRepositorySizes();
+
 		// build initial repository list
 		if (settings.getBoolean(Keys.git.cacheRepositoryList,  true)) {
 			logger.info("Identifying repositories...");
@@ -176,12 +207,24 @@ public class RepositoryManager implements IRepositoryManager {
 
 	@Override
 	public RepositoryManager stop() {
-		scheduledExecutor.shutdownNow();
+		for (WorkQueue.Executor scheduler : schedulers) {
+			scheduler.shutdownNow();
+			scheduler.unregisterWorkQueue();
+		}
+		schedulers.clear();
 		luceneExecutor.close();
 		gcExecutor.close();
 		mirrorExecutor.close();
 
+		saveRepositorySizes();
 		closeAll();
+		synchronized (this) {
+			if (workQueueProvider == null && workQueue != null) {
+				// stop the private work queue
+				workQueue.stop();
+				workQueue = null;
+			}
+		}
 		return this;
 	}
 
@@ -463,7 +506,10 @@ public class RepositoryManager implements IRepositoryManager {
 	 * @param repositoryName
 	 */
 	private void clearRepositoryMetadataCache(String repositoryName) {
-		repositorySizeCache.remove(repositoryName);
+		synchronized (repositorySizeCache) {
+			repositorySizeCache.remove(repositoryName);
+			receivedRepositorySizes.remove(repositoryName);
+		}
 		repositoryMetricsCache.remove(repositoryName);
 		CommitCache.instance().clear(repositoryName);
 	}
@@ -490,8 +536,13 @@ public class RepositoryManager implements IRepositoryManager {
 	public void resetRepositoryListCache() {
 		this.logger.info("Repository cache manually reset");
 		this.repositoryListCache = null;
-		this.repositorySizeCache.clear();
+		saveRepositorySizes();
+		synchronized (repositorySizeCache) {
+			this.repositorySizeCache.clear();
+			this.receivedRepositorySizes.clear();
+		}
 		this.repositoryMetricsCache.clear();
+		this.permissionResolver.clear();
 		CommitCache.instance().clear();
 	}
 
@@ -665,13 +716,15 @@ public class RepositoryManager implements IRepositoryManager {
 		long methodStart = System.currentTimeMillis();
 		List<String> list = getRepositoryList();
 		List<RepositoryModel> repositories = new ArrayList<RepositoryModel>();
+		UserPermissions anonymous = permissionResolver.getPermissions(UserModel.ANONYMOUS);
+		UserPermissions permissions = user == null ? anonymous : permissionResolver.getPermissions(user);
 		for (String repo : list) {
-			RepositoryModel model = getRepositoryModel(user, repo);
-			if (model != null) {
+			RepositoryModel model = getRepositoryModel(repo);
+			if (model != null && permissions.canView(model)) {
 				if (!model.hasCommits) {
 					// only add empty repositories that user can push to
-					if (UserModel.ANONYMOUS.canPush(model)
-							|| user != null && user.canPush(model)) {
+					if (anonymous.canPush(model)
+							|| user != null && permissions.canPush(model)) {
 						repositories.add(model);
 					}
 				} else {
@@ -726,7 +779,7 @@ public class RepositoryManager implements IRepositoryManager {
 				return null;
 			}
 			addToCachedRepositoryList(model);
-			return DeepCopier.copy(model);
+			return model.copy();
 		}
 
 		// cached model
@@ -734,7 +787,7 @@ public class RepositoryManager implements IRepositoryManager {
 
 		if (isCollectingGarbage(model.name)) {
 			// Gitblit is busy collecting garbage, use our cached model
-			RepositoryModel rm = DeepCopier.copy(model);
+			RepositoryModel rm = model.copy();
 			rm.isCollectingGarbage = true;
 			return rm;
 		}
@@ -767,7 +820,7 @@ public class RepositoryManager implements IRepositoryManager {
 		r.close();
 
 		// return a copy of the cached model
-		return DeepCopier.copy(model);
+		return model.copy();
 	}
 
 	/**
@@ -778,13 +831,7 @@ public class RepositoryManager implements IRepositoryManager {
 	 */
 	@Override
 	public long getStarCount(RepositoryModel repository) {
-		long count = 0;
-		for (UserModel user : userManager.getAllUsers()) {
-			if (user.getPreferences().isStarredRepository(repository.name)) {
-				count++;
-			}
-		}
-		return count;
+		return userManager.getStarCount(repository.name);
 	}
 
 	/**
@@ -926,6 +973,7 @@ public class RepositoryManager implements IRepositoryManager {
 			model.isFederated = getConfig(config, "isFederated", false);
 			model.gcThreshold = getConfig(config, "gcThreshold", settings.getString(Keys.git.defaultGarbageCollectionThreshold, "500KB"));
 			model.gcPeriod = getConfig(config, "gcPeriod", settings.getInteger(Keys.git.defaultGarbageCollectionPeriod, 7));
+			model.buildBitmaps = getConfig(config, "buildBitmaps", settings.getBoolean(Keys.git.defaultBuildBitmaps, true));
 			try {
 				model.lastGC = new SimpleDateFormat(Constants.ISO8601).parse(getConfig(config, "lastGC", "1970-01-01'T'00:00:00Z"));
 			} catch (Exception e) {
@@ -961,6 +1009,7 @@ public class RepositoryManager implements IRepositoryManager {
 		model.availableRefs = JGitUtils.getAvailableHeadTargets(r);
 		model.sparkleshareId = JGitUtils.getSparkleshareId(r);
 		model.hasCommits = JGitUtils.hasCommits(r);
+		model.hasBitmap = JGitUtils.hasPackBitmap(r);
 		updateLastChangeFields(r, model);
 		r.close();
 
@@ -1180,9 +1229,10 @@ public class RepositoryManager implements IRepositoryManager {
 
 	/**
 	 * Updates the last changed fields and optionally calculates the size of the
-	 * repository.  Gitblit caches the repository sizes to reduce the performance
-	 * penalty of recursive calculation. The cache is updated if the repository
-	 * has been changed since the last calculation.
+	 * repository.  Gitblit tracks the repository sizes incrementally to avoid
+	 * the performance penalty of recursive calculation.  The size is only
+	 * recalculated if the repository has changed since the size was recorded,
+	 * e.g. by a mirror fetch, and the change was not tracked incrementally.
 	 *
 	 * @param model
 	 * @return size in bytes of the repository
@@ -1197,17 +1247,210 @@ public class RepositoryManager implements IRepositoryManager {
 			model.size = null;
 			return 0L;
 		}
-		if (!repositorySizeCache.hasCurrent(model.name, model.lastChange)) {
-			File gitDir = r.getDirectory();
-			long sz = com.gitblit.utils.FileUtils.folderSize(gitDir);
-			repositorySizeCache.updateObject(model.name, model.lastChange, sz);
-		}
-		long size = repositorySizeCache.getObject(model.name);
+		long size = getRepositorySize(r, model.name, getRepositorySizeDate(r, model.lastChange));
 		ByteFormat byteFormat = new ByteFormat();
 		model.size = byteFormat.format(size);
 		return size;
 	}
 
+	/**
+	 * Returns the date which identifies the state of the repository for the
+	 * tracked size.  This is the last change of the refs or the last change
+	 * of the pack folder, whichever is later, so that commits, received packs
+	 * and fetches all invalidate the tracked size.
+	 *
+	 * @param r
+	 * @param lastChange
+	 *            the last change of the refs, e.g. of the repository model
+	 * @return the date of the repository state
+	 */
+	@Override
+	public Date getRepositorySizeDate(Repository r, Date lastChange) {
+		File packDir = new File(r.getDirectory(), "objects/pack");
+		long time = Math.max(lastChange == null ? 0L : lastChange.getTime(), packDir.lastModified());
+		return new Date(time);
+	}
+
+	/**
+	 * Returns the tracked size of the repository.  A size which was recorded
+	 * in the repository config for the current state is trusted.  If the
+	 * repository has changed since the size was tracked, the last known size
+	 * is returned and the size is recalculated in the background.  Only a
+	 * repository without any recorded size is traversed right away.
+	 *
+	 * @param r
+	 * @param repositoryName
+	 * @param date
+	 *            the date of the current repository state
+	 * @return size in bytes of the repository
+	 */
+	private long getRepositorySize(Repository r, String repositoryName, Date date) {
+		synchronized (repositorySizeCache) {
+			if (repositorySizeCache.hasCurrent(repositoryName, date)) {
+				return repositorySizeCache.getObject(repositoryName);
+			}
+			Long size = repositorySizeCache.getObject(repositoryName);
+			if (size != null && receivedRepositorySizes.remove(repositoryName)) {
+				// the tracked size includes the received packs, it describes
+				// the state after the push
+				setRepositorySize(repositoryName, date, size);
+				return size;
+			}
+			if (size == null) {
+				StoredConfig config = r.getConfig();
+				long sz = config.getLong(Constants.CONFIG_GITBLIT, null, "repositorySize", -1L);
+				long recorded = config.getLong(Constants.CONFIG_GITBLIT, null, "repositorySizeDate", -1L);
+				if (sz >= 0 && recorded == date.getTime()) {
+					// the recorded size describes the current state
+					repositorySizeCache.updateObject(repositoryName, date, sz);
+					return sz;
+				}
+				size = sz < 0 ? null : sz;
+			}
+			if (size != null) {
+				// the repository has changed since the size was tracked
+				logger.debug(MessageFormat.format("Tracked size of {0} is outdated, recalculating", repositoryName));
+				scheduleRepositorySize(repositoryName);
+				return size;
+			}
+		}
+		// size has never been recorded
+		return calculateRepositorySize(r, repositoryName, date);
+	}
+
+	/**
+	 * Recalculates the size of the repository by recursively traversing the
+	 * repository folder and tracks the result.
+	 *
+	 * @param r
+	 * @param repositoryName
+	 * @return size in bytes of the repository
+	 */
+	@Override
+	public long calculateRepositorySize(Repository r, String repositoryName) {
+		return calculateRepositorySize(r, repositoryName, getRepositorySizeDate(r, JGitUtils.getLastChange(r).when));
+	}
+
+	private long calculateRepositorySize(Repository r, String repositoryName, Date date) {
+		long start = System.nanoTime();
+		long size = com.gitblit.utils.FileUtils.folderSize(r.getDirectory());
+		synchronized (repositorySizeCache) {
+			receivedRepositorySizes.remove(repositoryName);
+			setRepositorySize(repositoryName, date, size);
+		}
+		logger.debug(MessageFormat.format("calculated size of {0} in {1} msecs",
+				repositoryName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		return size;
+	}
+
+	/**
+	 * Recalculates the size of the repository on the repository size queue.
+	 * A repository is queued only once at a time.
+	 *
+	 * @param repositoryName
+	 */
+	private void scheduleRepositorySize(final String repositoryName) {
+		if (sizeScheduler == null || !calculatingRepositorySizes.add(repositoryName)) {
+			return;
+		}
+		try {
+			sizeScheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Repository r = getRepository(repositoryName, false);
+						if (r != null) {
+							try {
+								calculateRepositorySize(r, repositoryName);
+							} finally {
+								r.close();
+							}
+						}
+					} catch (Exception e) {
+						logger.error(MessageFormat.format("Failed to calculate size of {0}", repositoryName), e);
+					} finally {
+						calculatingRepositorySizes.remove(repositoryName);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the manager is stopping or the queue is full, retry on a later lookup
+			calculatingRepositorySizes.remove(repositoryName);
+		}
+	}
+
+	/**
+	 * Adds the size of newly written files, e.g. a received pack, to the
+	 * tracked size of the repository.  The size is adopted for the state
+	 * after the change when the size is looked up next.  If no size is
+	 * tracked for the state before the files were written, the repository
+	 * has been changed by someone else in the meantime and the size is
+	 * recalculated in the background.
+	 *
+	 * @param r
+	 * @param repositoryName
+	 * @param date
+	 *            the date of the repository state before the files were written
+	 * @param bytes
+	 */
+	@Override
+	public void addRepositorySize(Repository r, String repositoryName, Date date, long bytes) {
+		synchronized (repositorySizeCache) {
+			Long tracked = repositorySizeCache.getObject(repositoryName);
+			if (date != null && tracked != null && tracked + bytes >= 0
+					&& repositorySizeCache.hasCurrent(repositoryName, date)) {
+				repositorySizeCache.updateObject(repositoryName, date, tracked + bytes);
+				receivedRepositorySizes.add(repositoryName);
+				return;
+			}
+		}
+		// the tracked size does not describe the state before the change
+		scheduleRepositorySize(repositoryName);
+	}
+
+	/**
+	 * Tracks the size of the repository in memory.  The sizes are written to
+	 * the repository configs periodically and when the manager stops.
+	 */
+	private void setRepositorySize(String repositoryName, Date date, long size) {
+		repositorySizeCache.updateObject(repositoryName, date, size);
+		unsavedRepositorySizes.add(repositoryName);
+	}
+
+	/**
+	 * Writes the tracked sizes which have changed since they were read to the
+	 * repository configs.  The config file is reloaded right before it is
+	 * written so that concurrent changes of other settings are retained.
+	 */
+	private void saveRepositorySizes() {
+		synchronized (unsavedRepositorySizes) {
+			for (String repositoryName : unsavedRepositorySizes) {
+				unsavedRepositorySizes.remove(repositoryName);
+				Long size;
+				Date date;
+				synchronized (repositorySizeCache) {
+					size = repositorySizeCache.getObject(repositoryName);
+					date = size == null ? null : repositorySizeCache.getDate(repositoryName);
+				}
+				Repository r = size == null ? null : getRepository(repositoryName, false);
+				if (r == null) {
+					continue;
+				}
+				try {
+					FileBasedConfig config = new FileBasedConfig(new File(r.getDirectory(), "config"), FS.DETECTED);
+					config.load();
+					config.setLong(Constants.CONFIG_GITBLIT, null, "repositorySize", size);
+					config.setLong(Constants.CONFIG_GITBLIT, null, "repositorySizeDate", date.getTime());
+					config.save();
+				} catch (Exception e) {
+					logger.error(MessageFormat.format("Failed to save size of {0}", repositoryName), e);
+				} finally {
+					r.close();
+				}
+			}
+		}
+	}
+
 	/**
 	 * Returns true if the repository is idle (not being accessed).
 	 *
@@ -1595,6 +1838,12 @@ public class RepositoryManager implements IRepositoryManager {
 		} else {
 			config.setInt(Constants.CONFIG_GITBLIT, null, "gcPeriod", repository.gcPeriod);
 		}
+		if (repository.buildBitmaps == settings.getBoolean(Keys.git.defaultBuildBitmaps, true)) {
+			// use default from config
+			config.unset(Constants.CONFIG_GITBLIT, null, "buildBitmaps");
+		} else {
+			config.setBoolean(Constants.CONFIG_GITBLIT, null, "buildBitmaps", repository.buildBitmaps);
+		}
 		if (repository.lastGC != null) {
 			config.setString(Constants.CONFIG_GITBLIT, null, "lastGC", new SimpleDateFormat(Constants.ISO8601).format(repository.lastGC));
 		}
@@ -1878,17 +2127,80 @@ public class RepositoryManager implements IRepositoryManager {
 		return srs;
 	}
 
+	/**
+	 * Queues an incremental Lucene index update of the repository.
+	 *
+	 * @param repositoryName
+	 */
+	@Override
+	public void updateSearchIndex(String repositoryName) {
+		if (luceneExecutor != null) {
+			luceneExecutor.queueIndexUpdate(repositoryName);
+		}
+	}
+
+	/**
+	 * Returns the load and progress of the Lucene index queue.
+	 *
+	 * @return the index queue statistics or null if indexing has not started
+	 */
+	@Override
+	public WorkQueueStatistics getSearchIndexStatistics() {
+		LuceneService lucene = luceneExecutor;
+		return lucene == null ? null : lucene.getStatistics();
+	}
+
+	/**
+	 * Returns the work queue which runs the background services.  Without an
+	 * injected work queue, e.g. for the federation client, the manager uses a
+	 * work queue of its own.
+	 *
+	 * @return the work queue
+	 */
+	protected synchronized WorkQueue getWorkQueue() {
+		if (workQueue == null) {
+			workQueue = workQueueProvider == null ? new WorkQueue(new IdGenerator(), 1) : workQueueProvider.get();
+		}
+		return workQueue;
+	}
+
+	/**
+	 * Creates a single-threaded scheduler for a background service.  The
+	 * scheduler is a named queue of the work queue so that the load of the
+	 * service is reported in the server status.
+	 *
+	 * @param name
+	 * @return a scheduler
+	 */
+	protected ScheduledExecutorService createScheduler(String name) {
+		WorkQueue.Executor scheduler = getWorkQueue().createQueue(1, name);
+		schedulers.add(scheduler);
+		return scheduler;
+	}
+
+	protected void configureRepositorySizes() {
+		// recalculate outdated sizes in the background and save the tracked
+		// sizes periodically so that a crash loses only the latest changes
+		sizeScheduler = createScheduler("RepositorySizes");
+		sizeScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				saveRepositorySizes();
+			}
+		}, 5, 5, TimeUnit.MINUTES);
+	}
+
 	protected void configureLuceneIndexing() {
-		luceneExecutor = new LuceneService(settings, this);
+		luceneExecutor = new LuceneService(settings, this, getWorkQueue());
 		String frequency = settings.getString(Keys.web.luceneFrequency, "2 mins");
 		int mins = TimeUtils.convertFrequencyToMinutes(frequency, 2);
-		scheduledExecutor.scheduleAtFixedRate(luceneExecutor, 1, mins,  TimeUnit.MINUTES);
+		createScheduler("LuceneService").scheduleAtFixedRate(luceneExecutor, 1, mins,  TimeUnit.MINUTES);
 		logger.info("Lucene will process indexed branches every {} minutes.", mins);
 	}
 
 	protected void configureGarbageCollector() {
 		// schedule gc engine
-		gcExecutor = new GarbageCollectorService(settings, this);
+		gcExecutor = new GarbageCollectorService(settings, this, getWorkQueue());
 		if (gcExecutor.isReady()) {
 			logger.info("Garbage Collector (GC) will scan repositories every 24 hours.");
 			Calendar c = Calendar.getInstance();
@@ -1909,18 +2221,19 @@ public class RepositoryManager implements IRepositoryManager {
 				when = MessageFormat.format("{0,number,0.0} hours", delay / 60f);
 			}
 			logger.info(MessageFormat.format("Next scheculed GC scan is in {0}", when));
-			scheduledExecutor.scheduleAtFixedRate(gcExecutor, delay, 60 * 24, TimeUnit.MINUTES);
+			createScheduler("GarbageCollectorService").scheduleAtFixedRate(gcExecutor, delay, 60 * 24, TimeUnit.MINUTES);
 		} else {
 			logger.info("Garbage Collector (GC) is disabled.");
 		}
 	}
 
 	protected void configureMirrorExecutor() {
-		mirrorExecutor = new MirrorService(settings, this);
+		mirrorExecutor = new MirrorService(settings, this, getWorkQueue());
 		if (mirrorExecutor.isReady()) {
 			int mins = TimeUtils.convertFrequencyToMinutes(settings.getString(Keys.git.mirrorPeriod, "30 mins"), 5);
 			int delay = 1;
-			scheduledExecutor.scheduleAtFixedRate(mirrorExecutor, delay, mins,  TimeUnit.MINUTES);
+			// each mirror has its own schedule, scan every minute for due mirrors
+			createScheduler("MirrorScanner").scheduleWithFixedDelay(mirrorExecutor, delay, 1,  TimeUnit.MINUTES);
 			logger.info("Mirror service will fetch updates every {} minutes.", mins);
 			logger.info("Next scheduled mirror fetch is in {} minutes", delay);
 		} else {
@@ -1972,6 +2285,7 @@ public class RepositoryManager implements IRepositoryManager {
 		}
 		logger.info(MessageFormat.format("Preparing {0} day commit cache...", daysToCache));
 		CommitCache.instance().setCacheDays(daysToCache);
+		CommitCache.instance().setMaximumSize(settings.getFilesize(Keys.web.activityCacheSize, 0L));
 		Thread loader = new Thread() {
 			@Override
 			public void run() {
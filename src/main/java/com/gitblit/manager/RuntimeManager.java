@@ -28,10 +28,16 @@ import org.slf4j.LoggerFactory;
 import com.gitblit.Constants;
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
+import com.gitblit.models.CacheStatistics;
 import com.gitblit.models.ServerSettings;
 import com.gitblit.models.ServerStatus;
 import com.gitblit.models.SettingModel;
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.utils.CommitCache;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.TransferMetrics;
+import com.gitblit.utils.TransferMetrics.Window;
+import com.gitblit.utils.WorkQueue;
 import com.gitblit.utils.XssFilter;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
@@ -227,10 +233,47 @@ public class RuntimeManager implements IRuntimeManager {
 	}
 
 	@Override
-	public ServerStatus getStatus() {
+	public synchronized ServerStatus getStatus() {
 		// update heap memory status
 		serverStatus.heapAllocated = Runtime.getRuntime().totalMemory();
 		serverStatus.heapFree = Runtime.getRuntime().freeMemory();
+
+		// replace the statistics, e.g. of queues which have been unregistered
+		serverStatus.caches.clear();
+		serverStatus.queues.clear();
+		serverStatus.repositoryTransfers.clear();
+		serverStatus.userTransfers.clear();
+
+		// update cache statistics
+		CacheStatistics commitCache = CommitCache.instance().getStatistics();
+		serverStatus.caches.put(commitCache.name, commitCache);
+
+		// update work queue statistics
+		if (injector != null) {
+			WorkQueue workQueue = injector.getInstance(WorkQueue.class);
+			for (WorkQueueStatistics queue : workQueue.getStatistics()) {
+				serverStatus.queues.put(queue.name, queue);
+			}
+
+			// the Lucene index queue
+			WorkQueueStatistics index = injector.getInstance(IRepositoryManager.class).getSearchIndexStatistics();
+			if (index != null) {
+				serverStatus.queues.put(index.name, index);
+			}
+
+			// the git daemon clients
+			WorkQueueStatistics daemon = injector.getInstance(IServicesManager.class).getGitDaemonStatistics();
+			if (daemon != null) {
+				serverStatus.queues.put(daemon.name, daemon);
+			}
+		}
+
+		// update transfer statistics
+		TransferMetrics transferMetrics = TransferMetrics.instance();
+		for (Window window : Window.values()) {
+			serverStatus.repositoryTransfers.put(window.label, transferMetrics.getRepositoryStatistics(window));
+			serverStatus.userTransfers.put(window.label, transferMetrics.getUserStatistics(window));
+		}
 		return serverStatus;
 	}
 
@@ -27,7 +27,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -50,6 +49,7 @@ import com.gitblit.models.FederationModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.RepositoryUrl;
 import com.gitblit.models.UserModel;
+import com.gitblit.models.WorkQueueStatistics;
 import com.gitblit.service.FederationPullService;
 import com.gitblit.transport.git.GitDaemon;
 import com.gitblit.transport.ssh.SshDaemon;
@@ -74,7 +74,9 @@ public class ServicesManager implements IServicesManager {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	private final ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(5);
+	private final ScheduledExecutorService scheduledExecutor;
+
+	private WorkQueue.Executor pullExecutor;
 
 	private final Provider<WorkQueue> workQueueProvider;
 
@@ -95,6 +97,7 @@ public class ServicesManager implements IServicesManager {
 			IGitblit gitblit) {
 
 		this.workQueueProvider = workQueueProvider;
+		this.scheduledExecutor = workQueueProvider.get().createQueue(1, "FederationPullService");
 
 		this.settings = settings;
 		this.gitblit = gitblit;
@@ -113,6 +116,9 @@ public class ServicesManager implements IServicesManager {
 	@Override
 	public ServicesManager stop() {
 		scheduledExecutor.shutdownNow();
+		if (pullExecutor != null) {
+			pullExecutor.shutdownNow();
+		}
 		if (fanoutService != null) {
 			fanoutService.stop();
 		}
@@ -329,6 +335,15 @@ public class ServicesManager implements IServicesManager {
 		return gitDaemon != null && gitDaemon.isRunning();
 	}
 
+	/* (non-Javadoc)
+	 * @see com.gitblit.manager.IServicesManager#getGitDaemonStatistics()
+	 */
+	@Override
+	public WorkQueueStatistics getGitDaemonStatistics() {
+		GitDaemon daemon = gitDaemon;
+		return daemon != null && daemon.isRunning() ? daemon.getStatistics() : null;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.gitblit.manager.IServicesManager#isServingSSH()
 	 */
@@ -361,6 +376,8 @@ public class ServicesManager implements IServicesManager {
 		// Schedule or run the federation executor
 		List<FederationModel> registrations = gitblit.getFederationRegistrations();
 		if (registrations.size() > 0) {
+			int threads = Math.max(1, settings.getInteger(Keys.federation.pullThreads, 4));
+			pullExecutor = workQueueProvider.get().createQueue(threads, "FederationPull");
 			FederationPuller executor = new FederationPuller(registrations);
 			scheduledExecutor.schedule(executor, 1, TimeUnit.MINUTES);
 		}
@@ -398,7 +415,7 @@ public class ServicesManager implements IServicesManager {
 		String bindInterface = settings.getString(Keys.git.daemonBindInterface, "localhost");
 		if (port > 0) {
 			try {
-				gitDaemon = new GitDaemon(gitblit);
+				gitDaemon = new GitDaemon(gitblit, workQueueProvider.get());
 				gitDaemon.start();
 			} catch (IOException e) {
 				gitDaemon = null;
@@ -537,11 +554,11 @@ public class ServicesManager implements IServicesManager {
 	private class FederationPuller extends FederationPullService {
 
 		public FederationPuller(FederationModel registration) {
-			super(gitblit, Arrays.asList(registration));
+			super(gitblit, Arrays.asList(registration), pullExecutor);
 		}
 
 		public FederationPuller(List<FederationModel> registrations) {
-			super(gitblit, registrations);
+			super(gitblit, registrations, pullExecutor);
 		}
 
 		@Override
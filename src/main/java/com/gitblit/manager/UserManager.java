@@ -23,8 +23,12 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +66,17 @@ public class UserManager implements IUserManager {
 
 	private IUserService userService;
 
+	private final Object starLock = new Object();
+
+	// repository -> number of stargazers, lazily built
+	private volatile Map<String, Integer> starCounts;
+
+	// revision of the realm file which starCounts was built from
+	private volatile long starRevision;
+
+	// username -> starred repositories, maintained with starCounts
+	private final Map<String, Set<String>> userStars = new HashMap<String, Set<String>>();
+
 	@Inject
 	public UserManager(IRuntimeManager runtimeManager, IPluginManager pluginManager) {
 		this.settings = runtimeManager.getSettings();
@@ -88,6 +103,7 @@ public class UserManager implements IUserManager {
 		this.userService = userService;
 		this.userService.setup(runtimeManager);
 		logger.info(userService.toString());
+		resetStarIndex();
 	}
 
 	@Override
@@ -241,6 +257,7 @@ public class UserManager implements IUserManager {
 	public boolean updateUserModel(UserModel model) {
 		final boolean isCreate = null == userService.getUserModel(model.username);
 		if (userService.updateUserModel(model)) {
+			updateStarIndex(model.username, model);
 			if (isCreate) {
 				callCreateUserListeners(model);
 			}
@@ -258,7 +275,13 @@ public class UserManager implements IUserManager {
 	 */
 	@Override
 	public boolean updateUserModels(Collection<UserModel> models) {
-		return userService.updateUserModels(models);
+		if (userService.updateUserModels(models)) {
+			for (UserModel model : models) {
+				updateStarIndex(model.username, model);
+			}
+			return true;
+		}
+		return false;
 	}
 
 	/**
@@ -275,6 +298,7 @@ public class UserManager implements IUserManager {
 	public boolean updateUserModel(String username, UserModel model) {
 		final boolean isCreate = null == userService.getUserModel(username);
 		if (userService.updateUserModel(username, model)) {
+			updateStarIndex(username, model);
 			if (isCreate) {
 				callCreateUserListeners(model);
 			}
@@ -292,6 +316,7 @@ public class UserManager implements IUserManager {
 	@Override
 	public boolean deleteUserModel(UserModel model) {
 		if (userService.deleteUserModel(model)) {
+			updateStarIndex(model.username, null);
 			callDeleteUserListeners(model);
 			return true;
 		}
@@ -312,6 +337,7 @@ public class UserManager implements IUserManager {
 		String usernameDecoded = StringUtils.decodeUsername(username);
 		UserModel user = getUserModel(usernameDecoded);
 		if (userService.deleteUser(usernameDecoded)) {
+			updateStarIndex(usernameDecoded, null);
 			callDeleteUserListeners(user);
 			return true;
 		}
@@ -503,7 +529,11 @@ public class UserManager implements IUserManager {
 	 */
 	@Override
 	public boolean renameRepositoryRole(String oldRole, String newRole) {
-		return userService.renameRepositoryRole(oldRole, newRole);
+		try {
+			return userService.renameRepositoryRole(oldRole, newRole);
+		} finally {
+			resetStarIndex();
+		}
 	}
 
 	/**
@@ -514,7 +544,126 @@ public class UserManager implements IUserManager {
 	 */
 	@Override
 	public boolean deleteRepositoryRole(String role) {
-		return userService.deleteRepositoryRole(role);
+		try {
+			return userService.deleteRepositoryRole(role);
+		} finally {
+			resetStarIndex();
+		}
+	}
+
+	/**
+	 * Returns the number of users who have starred the repository.  The star
+	 * index is rebuilt if the realm file was reloaded after an external edit.
+	 *
+	 * @param repositoryName
+	 * @return the star count
+	 */
+	@Override
+	public long getStarCount(String repositoryName) {
+		Map<String, Integer> counts = starCounts;
+		long revision = getUserServiceRevision();
+		if (counts == null || revision != starRevision) {
+			synchronized (starLock) {
+				if (starCounts == null || revision != starRevision) {
+					buildStarIndex();
+					starRevision = revision;
+				}
+				counts = starCounts;
+			}
+		}
+		Integer count = counts.get(repositoryName.toLowerCase());
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Builds the repository star index from the preferences of all users.
+	 */
+	private void buildStarIndex() {
+		long start = System.nanoTime();
+		userStars.clear();
+		Map<String, Integer> counts = new ConcurrentHashMap<String, Integer>();
+		for (UserModel user : userService.getAllUsers()) {
+			Set<String> starred = getStarredRepositories(user);
+			userStars.put(user.username.toLowerCase(), starred);
+			for (String repository : starred) {
+				adjustStarCount(counts, repository, 1);
+			}
+		}
+		starCounts = counts;
+		logger.debug(MessageFormat.format("built star index of {0} repositories in {1} msecs",
+				counts.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+
+	/**
+	 * Returns the revision of the users read by the user service.  Only the
+	 * realm file of the ConfigUserService is reloaded after external edits.
+	 *
+	 * @return the revision of the users
+	 */
+	private long getUserServiceRevision() {
+		if (userService instanceof ConfigUserService) {
+			return ((ConfigUserService) userService).getRevision();
+		}
+		return 0;
+	}
+
+	/**
+	 * Discards the repository star index.  It will be rebuilt on demand.
+	 */
+	private void resetStarIndex() {
+		synchronized (starLock) {
+			starCounts = null;
+			userStars.clear();
+		}
+	}
+
+	/**
+	 * Updates the repository star index for a changed user.
+	 *
+	 * @param username the previous username of the user
+	 * @param model the updated user or null if the user was deleted
+	 */
+	private void updateStarIndex(String username, UserModel model) {
+		synchronized (starLock) {
+			Map<String, Integer> counts = starCounts;
+			if (counts == null) {
+				// index has not been built yet
+				return;
+			}
+			Set<String> previous = userStars.remove(username.toLowerCase());
+			if (previous != null) {
+				for (String repository : previous) {
+					adjustStarCount(counts, repository, -1);
+				}
+			}
+			if (model != null) {
+				Set<String> starred = getStarredRepositories(model);
+				userStars.put(model.username.toLowerCase(), starred);
+				for (String repository : starred) {
+					adjustStarCount(counts, repository, 1);
+				}
+			}
+		}
+	}
+
+	private Set<String> getStarredRepositories(UserModel user) {
+		Set<String> starred = new HashSet<String>();
+		if (user.getPreferences() != null) {
+			for (String repository : user.getPreferences().getStarredRepositories()) {
+				starred.add(repository.toLowerCase());
+			}
+		}
+		return starred;
+	}
+
+	private void adjustStarCount(Map<String, Integer> counts, String repository, int delta) {
+		Integer count = counts.get(repository);
+		int value = (count == null ? 0 : count) + delta;
+		if (value > 0) {
+			counts.put(repository, value);
+		} else {
+			counts.remove(repository);
+		}
 	}
 
 	protected void callCreateUserListeners(UserModel user) {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.models;
+
+import java.io.Serializable;
+
+/**
+ * CacheStatistics is a serializable snapshot of the usage counters of one of
+ * Gitblit's in-memory or on-disk caches.
+ *
+ */
+public class CacheStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public final String name;
+
+	public long entries;
+
+	public long size;
+
+	public long maximumSize;
+
+	public long hits;
+
+	public long misses;
+
+	public long loads;
+
+	public long loadTime;
+
+	public long evictions;
+
+	public CacheStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the ratio of hits to total requests.
+	 *
+	 * @return the hit ratio, 0 if there have been no requests
+	 */
+	public double getHitRatio() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : ((double) hits) / requests;
+	}
+
+	/**
+	 * Returns the average load time in milliseconds.
+	 *
+	 * @return the average load time
+	 */
+	public long getAverageLoadTime() {
+		return loads == 0 ? 0 : loadTime / loads;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + entries + " entries, " + size + " bytes, " + hits + " hits, " + misses
+				+ " misses, " + loads + " loads (" + getAverageLoadTime() + " msecs avg), " + evictions + " evictions";
+	}
+}
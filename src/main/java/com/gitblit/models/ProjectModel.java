@@ -86,6 +86,22 @@ public class ProjectModel implements Serializable, Comparable<ProjectModel> {
 		repositories.remove(name.toLowerCase());
 	}
 
+	/**
+	 * Returns a deep copy of this project model.
+	 *
+	 * @return a copy of this model
+	 */
+	public ProjectModel copy() {
+		ProjectModel copy = new ProjectModel(name, isRoot);
+		copy.title = title;
+		copy.description = description;
+		copy.repositories.addAll(repositories);
+		copy.projectMarkdown = projectMarkdown;
+		copy.repositoriesMarkdown = repositoriesMarkdown;
+		copy.lastChange = lastChange == null ? null : new Date(lastChange.getTime());
+		return copy;
+	}
+
 	public String getDisplayName() {
 		return StringUtils.isEmpty(title) ? name : title;
 	}
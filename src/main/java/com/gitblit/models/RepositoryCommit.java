@@ -80,6 +80,16 @@ public class RepositoryCommit implements Serializable, Comparable<RepositoryComm
 		return commit.getParentCount();
 	}
 
+	/**
+	 * Returns the size of the raw commit object in bytes.
+	 *
+	 * @return the raw size
+	 */
+	public int getRawSize() {
+		byte [] raw = commit.getRawBuffer();
+		return raw == null ? 0 : raw.length;
+	}
+
 	public RevCommit [] getParents() {
 		return commit.getParents();
 	}
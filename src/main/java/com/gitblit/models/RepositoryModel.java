@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -83,6 +84,7 @@ public class RepositoryModel implements Serializable, Comparable<RepositoryModel
 	public boolean verifyCommitter;
 	public String gcThreshold;
 	public int gcPeriod;
+	public boolean buildBitmaps;
 	public int maxActivityCommits;
 	public List<String> metricAuthorExclusions;
 	public CommitMessageRenderer commitMessageRenderer;
@@ -94,6 +96,7 @@ public class RepositoryModel implements Serializable, Comparable<RepositoryModel
 
 	public transient boolean isCollectingGarbage;
 	public Date lastGC;
+	public boolean hasBitmap;
 	public String sparkleshareId;
 
 	public RepositoryModel() {
@@ -113,6 +116,7 @@ public class RepositoryModel implements Serializable, Comparable<RepositoryModel
 		this.isBare = true;
 		this.acceptNewTickets = true;
 		this.acceptNewPatchsets = true;
+		this.buildBitmaps = true;
 		this.mergeType = MergeType.DEFAULT_MERGE_TYPE;
 
 		addOwner(owner);
@@ -230,6 +234,78 @@ public class RepositoryModel implements Serializable, Comparable<RepositoryModel
 		return clone;
 	}
 
+	/**
+	 * Returns a deep copy of this repository model.
+	 *
+	 * The copy shares no mutable state with this model so it may be safely
+	 * handed out from a cache. This is considerably cheaper than a round-trip
+	 * through Java serialization. Transient fields are not copied.
+	 *
+	 * @return a copy of this model
+	 */
+	public RepositoryModel copy() {
+		RepositoryModel copy = new RepositoryModel();
+		copy.name = name;
+		copy.description = description;
+		copy.owners = copyOf(owners);
+		copy.lastChange = copyOf(lastChange);
+		copy.lastChangeAuthor = lastChangeAuthor;
+		copy.hasCommits = hasCommits;
+		copy.showRemoteBranches = showRemoteBranches;
+		copy.useIncrementalPushTags = useIncrementalPushTags;
+		copy.incrementalPushTagPrefix = incrementalPushTagPrefix;
+		copy.accessRestriction = accessRestriction;
+		copy.authorizationControl = authorizationControl;
+		copy.allowAuthenticated = allowAuthenticated;
+		copy.isFrozen = isFrozen;
+		copy.federationStrategy = federationStrategy;
+		copy.federationSets = copyOf(federationSets);
+		copy.isFederated = isFederated;
+		copy.skipSizeCalculation = skipSizeCalculation;
+		copy.skipSummaryMetrics = skipSummaryMetrics;
+		copy.frequency = frequency;
+		copy.isBare = isBare;
+		copy.isMirror = isMirror;
+		copy.origin = origin;
+		copy.HEAD = HEAD;
+		copy.availableRefs = copyOf(availableRefs);
+		copy.indexedBranches = copyOf(indexedBranches);
+		copy.size = size;
+		copy.preReceiveScripts = copyOf(preReceiveScripts);
+		copy.postReceiveScripts = copyOf(postReceiveScripts);
+		copy.mailingLists = copyOf(mailingLists);
+		copy.customFields = customFields == null ? null : new LinkedHashMap<String, String>(customFields);
+		copy.projectPath = projectPath;
+		copy.displayName = displayName;
+		copy.allowForks = allowForks;
+		copy.forks = forks == null ? null : new TreeSet<String>(forks);
+		copy.originRepository = originRepository;
+		copy.verifyCommitter = verifyCommitter;
+		copy.gcThreshold = gcThreshold;
+		copy.gcPeriod = gcPeriod;
+		copy.buildBitmaps = buildBitmaps;
+		copy.maxActivityCommits = maxActivityCommits;
+		copy.metricAuthorExclusions = copyOf(metricAuthorExclusions);
+		copy.commitMessageRenderer = commitMessageRenderer;
+		copy.acceptNewPatchsets = acceptNewPatchsets;
+		copy.acceptNewTickets = acceptNewTickets;
+		copy.requireApproval = requireApproval;
+		copy.mergeTo = mergeTo;
+		copy.mergeType = mergeType;
+		copy.lastGC = copyOf(lastGC);
+		copy.hasBitmap = hasBitmap;
+		copy.sparkleshareId = sparkleshareId;
+		return copy;
+	}
+
+	private static List<String> copyOf(List<String> list) {
+		return list == null ? null : new ArrayList<String>(list);
+	}
+
+	private static Date copyOf(Date date) {
+		return date == null ? null : new Date(date.getTime());
+	}
+
 	public void addOwner(String username) {
 		if (!StringUtils.isEmpty(username)) {
 			String name = username.toLowerCase();
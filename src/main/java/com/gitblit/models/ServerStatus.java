@@ -17,6 +17,7 @@ package com.gitblit.models;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -51,6 +52,14 @@ public class ServerStatus implements Serializable {
 
 	public String servletContainer;
 
+	public final Map<String, CacheStatistics> caches;
+
+	public final Map<String, WorkQueueStatistics> queues;
+
+	public final Map<String, List<TransferStatistics>> repositoryTransfers;
+
+	public final Map<String, List<TransferStatistics>> userTransfers;
+
 	public ServerStatus() {
 		this.bootDate = new Date();
 		this.version = Constants.getVersion();
@@ -58,6 +67,14 @@ public class ServerStatus implements Serializable {
 
 		this.heapMaximum = Runtime.getRuntime().maxMemory();
 
+		this.caches = new TreeMap<String, CacheStatistics>();
+
+		this.queues = new TreeMap<String, WorkQueueStatistics>();
+
+		this.repositoryTransfers = new TreeMap<String, List<TransferStatistics>>();
+
+		this.userTransfers = new TreeMap<String, List<TransferStatistics>>();
+
 		this.systemProperties = new TreeMap<String, String>();
 		put("file.encoding");
 		put("java.home");
@@ -105,7 +105,7 @@ public class TeamModel implements Serializable, Comparable<TeamModel> {
 		} else {
 			// search for regex permission match
 			for (String key : permissions.keySet()) {
-				if (name.matches(key)) {
+				if (StringUtils.matches(name, key)) {
 					AccessPermission p = permissions.get(key);
 					if (p != null) {
 						return true;
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.models;
+
+import java.io.Serializable;
+
+/**
+ * TransferStatistics is a serializable summary of the packs uploaded to and
+ * received from clients of a repository or a user within a time window.
+ * Times are in milliseconds.
+ *
+ */
+public class TransferStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public final String name;
+
+	public long uploads;
+
+	public long clones;
+
+	public long cachedUploads;
+
+	public long objects;
+
+	public long reusedObjects;
+
+	public long deltas;
+
+	public long reusedDeltas;
+
+	public long bytesSent;
+
+	public long timeCounting;
+
+	public long timeSearching;
+
+	public long timeCompressing;
+
+	public long timeWriting;
+
+	public long timeTotal;
+
+	public long receives;
+
+	public long bytesReceived;
+
+	public TransferStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds the counters of another summary to this summary.
+	 *
+	 * @param stats
+	 */
+	public void add(TransferStatistics stats) {
+		uploads += stats.uploads;
+		clones += stats.clones;
+		cachedUploads += stats.cachedUploads;
+		objects += stats.objects;
+		reusedObjects += stats.reusedObjects;
+		deltas += stats.deltas;
+		reusedDeltas += stats.reusedDeltas;
+		bytesSent += stats.bytesSent;
+		timeCounting += stats.timeCounting;
+		timeSearching += stats.timeSearching;
+		timeCompressing += stats.timeCompressing;
+		timeWriting += stats.timeWriting;
+		timeTotal += stats.timeTotal;
+		receives += stats.receives;
+		bytesReceived += stats.bytesReceived;
+	}
+
+	/**
+	 * Returns the percentage of the sent objects which were copied as-is from
+	 * existing packs.
+	 *
+	 * @return the object reuse percentage
+	 */
+	public int getReusedObjectsPercent() {
+		return objects == 0 ? 0 : (int) (100 * reusedObjects / objects);
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + uploads + " uploads (" + bytesSent + " bytes, " + objects + " objects, "
+				+ getReusedObjectsPercent() + "% reused, " + timeTotal + " msecs), " + receives
+				+ " receives (" + bytesReceived + " bytes)";
+	}
+}
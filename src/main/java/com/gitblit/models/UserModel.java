@@ -164,7 +164,7 @@ public class UserModel implements Principal, Serializable, Comparable<UserModel>
 		} else {
 			// search for regex permission match
 			for (String key : permissions.keySet()) {
-				if (name.matches(key)) {
+				if (StringUtils.matches(name, key)) {
 					AccessPermission p = permissions.get(key);
 					if (p != null) {
 						return true;
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.models;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * WorkQueueStatistics is a serializable snapshot of the load of one of
+ * Gitblit's background work queues.
+ *
+ */
+public class WorkQueueStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public final String name;
+
+	public int poolSize;
+
+	public int activeThreads;
+
+	public int scheduledTasks;
+
+	public int queuedTasks;
+
+	public long submittedTasks;
+
+	public long completedTasks;
+
+	public long rejectedTasks;
+
+	public long runTime;
+
+	public Date lastRun;
+
+	public long waitTime;
+
+	public long maxWaitTime;
+
+	public WorkQueueStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the average run time in milliseconds.
+	 *
+	 * @return the average run time
+	 */
+	public long getAverageRunTime() {
+		return completedTasks == 0 ? 0 : runTime / completedTasks;
+	}
+
+	/**
+	 * Returns the average time in milliseconds a started task waited for a
+	 * thread.
+	 *
+	 * @return the average wait time
+	 */
+	public long getAverageWaitTime() {
+		long started = completedTasks + activeThreads;
+		return started == 0 ? 0 : waitTime / started;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + activeThreads + "/" + poolSize + " threads, " + queuedTasks + " queued, "
+				+ scheduledTasks + " scheduled, " + completedTasks + " completed (" + getAverageRunTime()
+				+ " msecs avg), " + rejectedTasks + " rejected, " + getAverageWaitTime() + " msecs avg wait, "
+				+ maxWaitTime + " msecs max wait";
+	}
+}
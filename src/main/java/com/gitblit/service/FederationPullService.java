@@ -17,6 +17,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
@@ -31,6 +34,7 @@ import com.gitblit.Constants;
 import com.gitblit.Constants.AccessPermission;
 import com.gitblit.Constants.FederationPullStatus;
 import com.gitblit.Constants.FederationStrategy;
+import com.gitblit.GitBlitException;
 import com.gitblit.GitBlitException.ForbiddenException;
 import com.gitblit.IUserService;
 import com.gitblit.Keys;
@@ -43,9 +47,11 @@ import com.gitblit.models.UserModel;
 import com.gitblit.utils.ArrayUtils;
 import com.gitblit.utils.FederationUtils;
 import com.gitblit.utils.FileUtils;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.JGitUtils.CloneResult;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.WorkQueue;
 
 public abstract class FederationPullService implements Runnable {
 
@@ -55,6 +61,8 @@ public abstract class FederationPullService implements Runnable {
 
 	private final List<FederationModel> registrations;
 
+	private final WorkQueue.Executor pullExecutor;
+
 	/**
 	 * Constructor for specifying a single federation registration. This
 	 * constructor is used to schedule the next pull execution.
@@ -78,8 +86,24 @@ public abstract class FederationPullService implements Runnable {
 	 *            false, the federation pull operation is executed once.
 	 */
 	public FederationPullService(IGitblit gitblit, List<FederationModel> registrations) {
+		this(gitblit, registrations, null);
+	}
+
+	/**
+	 * Constructor to specify a group of federation registrations and the
+	 * work queue executor which pulls the repositories.
+	 *
+	 * @param gitblit
+	 * @param registrations
+	 * @param pullExecutor
+	 *            the executor which pulls the repositories, may be null
+	 * @since 1.9.0
+	 */
+	public FederationPullService(IGitblit gitblit, List<FederationModel> registrations,
+			WorkQueue.Executor pullExecutor) {
 		this.gitblit = gitblit;
 		this.registrations = registrations;
+		this.pullExecutor = pullExecutor;
 	}
 
 	public abstract void reschedule(FederationModel registration);
@@ -126,10 +150,9 @@ public abstract class FederationPullService implements Runnable {
 	 * @param registration
 	 * @throws Exception
 	 */
-	private void pull(FederationModel registration) throws Exception {
-		Map<String, RepositoryModel> repositories = FederationUtils.getRepositories(registration,
-				true);
-		String registrationFolder = registration.folder.toLowerCase().trim();
+	private void pull(final FederationModel registration) throws Exception {
+		Map<String, RepositoryModel> repositories = getRepositories(registration);
+		final String registrationFolder = registration.folder.toLowerCase().trim();
 		// confirm valid characters in server alias
 		Character c = StringUtils.findInvalidCharacter(registrationFolder);
 		if (c != null) {
@@ -139,170 +162,53 @@ public abstract class FederationPullService implements Runnable {
 			return;
 		}
 		File repositoriesFolder = gitblit.getRepositoriesFolder();
-		File registrationFolderFile = new File(repositoriesFolder, registrationFolder);
+		final File registrationFolderFile = new File(repositoriesFolder, registrationFolder);
 		registrationFolderFile.mkdirs();
 
-		// Clone/Pull the repository
-		for (Map.Entry<String, RepositoryModel> entry : repositories.entrySet()) {
-			String cloneUrl = entry.getKey();
-			RepositoryModel repository = entry.getValue();
-			if (!repository.hasCommits) {
-				logger.warn(MessageFormat.format(
-						"Skipping federated repository {0} from {1} @ {2}. Repository is EMPTY.",
-						repository.name, registration.name, registration.url));
-				registration.updateStatus(repository, FederationPullStatus.SKIPPED);
-				continue;
-			}
-
-			// Determine local repository name
-			String repositoryName;
-			if (StringUtils.isEmpty(registrationFolder)) {
-				repositoryName = repository.name;
-			} else {
-				repositoryName = registrationFolder + "/" + repository.name;
-			}
-
-			if (registration.bare) {
-				// bare repository, ensure .git suffix
-				if (!repositoryName.toLowerCase().endsWith(DOT_GIT_EXT)) {
-					repositoryName += DOT_GIT_EXT;
-				}
-			} else {
-				// normal repository, strip .git suffix
-				if (repositoryName.toLowerCase().endsWith(DOT_GIT_EXT)) {
-					repositoryName = repositoryName.substring(0,
-							repositoryName.indexOf(DOT_GIT_EXT));
-				}
-			}
-
-			// confirm that the origin of any pre-existing repository matches
-			// the clone url
-			String fetchHead = null;
-			Repository existingRepository = gitblit.getRepository(repositoryName);
-
-			if (existingRepository == null && gitblit.isCollectingGarbage(repositoryName)) {
-				logger.warn(MessageFormat.format("Skipping local repository {0}, busy collecting garbage", repositoryName));
-				continue;
-			}
-
-			if (existingRepository != null) {
-				StoredConfig config = existingRepository.getConfig();
-				config.load();
-				String origin = config.getString("remote", "origin", "url");
-				RevCommit commit = JGitUtils.getCommit(existingRepository,
-						org.eclipse.jgit.lib.Constants.FETCH_HEAD);
-				if (commit != null) {
-					fetchHead = commit.getName();
-				}
-				existingRepository.close();
-				if (!origin.startsWith(registration.url)) {
-					logger.warn(MessageFormat
-							.format("Skipping federated repository {0} from {1} @ {2}. Origin does not match, consider EXCLUDING.",
-									repository.name, registration.name, registration.url));
-					registration.updateStatus(repository, FederationPullStatus.SKIPPED);
-					continue;
-				}
-			}
-
-			// clone/pull this repository
-			CredentialsProvider credentials = new UsernamePasswordCredentialsProvider(
-					Constants.FEDERATION_USER, registration.token);
-			logger.info(MessageFormat.format("Pulling federated repository {0} from {1} @ {2}",
-					repository.name, registration.name, registration.url));
-
-			CloneResult result = JGitUtils.cloneRepository(registrationFolderFile, repository.name,
-					cloneUrl, registration.bare, credentials);
-			Repository r = gitblit.getRepository(repositoryName);
-			RepositoryModel rm = gitblit.getRepositoryModel(repositoryName);
-			repository.isFrozen = registration.mirror;
-			if (result.createdRepository) {
-				// default local settings
-				repository.federationStrategy = FederationStrategy.EXCLUDE;
-				repository.isFrozen = registration.mirror;
-				repository.showRemoteBranches = !registration.mirror;
-				logger.info(MessageFormat.format("     cloning {0}", repository.name));
-				registration.updateStatus(repository, FederationPullStatus.MIRRORED);
-			} else {
-				// fetch and update
-				boolean fetched = false;
-				RevCommit commit = JGitUtils.getCommit(r, org.eclipse.jgit.lib.Constants.FETCH_HEAD);
-				String newFetchHead = commit.getName();
-				fetched = fetchHead == null || !fetchHead.equals(newFetchHead);
-
-				if (registration.mirror) {
-					// mirror
-					if (fetched) {
-						// update local branches to match the remote tracking branches
-						for (RefModel ref : JGitUtils.getRemoteBranches(r, false, -1)) {
-							if (ref.displayName.startsWith("origin/")) {
-								String branch = org.eclipse.jgit.lib.Constants.R_HEADS
-										+ ref.displayName.substring(ref.displayName.indexOf('/') + 1);
-								String hash = ref.getReferencedObjectId().getName();
-
-								JGitUtils.setBranchRef(r, branch, hash);
-								logger.info(MessageFormat.format("     resetting {0} of {1} to {2}", branch,
-										repository.name, hash));
+		// Clone/Pull the repositories
+		WorkQueue.Executor executor = pullExecutor;
+		WorkQueue privateWorkQueue = null;
+		if (executor == null) {
+			int threads = Math.max(1, gitblit.getSettings().getInteger(Keys.federation.pullThreads, 4));
+			privateWorkQueue = new WorkQueue(new IdGenerator(), 1);
+			executor = privateWorkQueue.createQueue(threads, "FederationPull");
+		}
+		final ConcurrentLinkedQueue<Map.Entry<String, RepositoryModel>> queue =
+				new ConcurrentLinkedQueue<Map.Entry<String, RepositoryModel>>(repositories.entrySet());
+		int workers = Math.max(1, Math.min(executor.getCorePoolSize(), repositories.size()));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (int i = 0; i < workers; i++) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						Map.Entry<String, RepositoryModel> entry;
+						while ((entry = queue.poll()) != null) {
+							RepositoryModel repository = entry.getValue();
+							try {
+								pull(registration, registrationFolder, registrationFolderFile, entry.getKey(), repository);
+							} catch (Exception e) {
+								logger.error(MessageFormat.format(
+										"Failed to pull federated repository {0} from {1} @ {2}",
+										repository.name, registration.name, registration.url), e);
+								registration.updateStatus(repository, FederationPullStatus.FAILED);
 							}
 						}
-
-						String newHead;
-						if (StringUtils.isEmpty(repository.HEAD)) {
-							newHead = newFetchHead;
-						} else {
-							newHead = repository.HEAD;
-						}
-						JGitUtils.setHEADtoRef(r, newHead);
-						logger.info(MessageFormat.format("     resetting HEAD of {0} to {1}",
-								repository.name, newHead));
-						registration.updateStatus(repository, FederationPullStatus.MIRRORED);
-					} else {
-						// indicate no commits pulled
-						registration.updateStatus(repository, FederationPullStatus.NOCHANGE);
 					}
-				} else {
-					// non-mirror
-					if (fetched) {
-						// indicate commits pulled to origin/master
-						registration.updateStatus(repository, FederationPullStatus.PULLED);
-					} else {
-						// indicate no commits pulled
-						registration.updateStatus(repository, FederationPullStatus.NOCHANGE);
-					}
-				}
-
-				// preserve local settings
-				repository.isFrozen = rm.isFrozen;
-				repository.federationStrategy = rm.federationStrategy;
-
-				// merge federation sets
-				Set<String> federationSets = new HashSet<String>();
-				if (rm.federationSets != null) {
-					federationSets.addAll(rm.federationSets);
-				}
-				if (repository.federationSets != null) {
-					federationSets.addAll(repository.federationSets);
-				}
-				repository.federationSets = new ArrayList<String>(federationSets);
-
-				// merge indexed branches
-				Set<String> indexedBranches = new HashSet<String>();
-				if (rm.indexedBranches != null) {
-					indexedBranches.addAll(rm.indexedBranches);
-				}
-				if (repository.indexedBranches != null) {
-					indexedBranches.addAll(repository.indexedBranches);
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.error(MessageFormat.format("Failed to pull from {0} @ {1}",
+							registration.name, registration.url), e.getCause());
 				}
-				repository.indexedBranches = new ArrayList<String>(indexedBranches);
-
 			}
-			// only repositories that are actually _cloned_ from the origin
-			// Gitblit repository are marked as federated. If the origin
-			// is from somewhere else, these repositories are not considered
-			// "federated" repositories.
-			repository.isFederated = cloneUrl.startsWith(registration.url);
-
-			gitblit.updateConfiguration(r, repository);
-			r.close();
+		} finally {
+			if (privateWorkQueue != null) {
+				privateWorkQueue.stop();
+			}
 		}
 
 		IUserService userService = null;
@@ -312,90 +218,17 @@ public abstract class FederationPullService implements Runnable {
 			// TeamModels are automatically pulled because they are contained
 			// within the UserModel. The UserService creates unknown teams
 			// and updates existing teams.
-			Collection<UserModel> users = FederationUtils.getUsers(registration);
+			Collection<UserModel> users = getUsers(registration);
 			if (users != null && users.size() > 0) {
 				File realmFile = new File(registrationFolderFile, registration.name + "_users.conf");
 				realmFile.delete();
 				userService = new ConfigUserService(realmFile);
-				for (UserModel user : users) {
-					userService.updateUserModel(user.username, user);
-
-					// merge the origin permissions and origin accounts into
-					// the user accounts of this Gitblit instance
-					if (registration.mergeAccounts) {
-						// reparent all repository permissions if the local
-						// repositories are stored within subfolders
-						if (!StringUtils.isEmpty(registrationFolder)) {
-							if (user.permissions != null) {
-								// pulling from >= 1.2 version
-								Map<String, AccessPermission> copy = new HashMap<String, AccessPermission>(user.permissions);
-								user.permissions.clear();
-								for (Map.Entry<String, AccessPermission> entry : copy.entrySet()) {
-									user.setRepositoryPermission(registrationFolder + "/" + entry.getKey(), entry.getValue());
-								}
-							} else {
-								// pulling from <= 1.1 version
-								List<String> permissions = new ArrayList<String>(user.repositories);
-								user.repositories.clear();
-								for (String permission : permissions) {
-									user.addRepositoryPermission(registrationFolder + "/" + permission);
-								}
-							}
-						}
+				userService.updateUserModels(users);
 
-						// insert new user or update local user
-						UserModel localUser = gitblit.getUserModel(user.username);
-						if (localUser == null) {
-							// create new local user
-							gitblit.addUser(user);
-						} else {
-							// update repository permissions of local user
-							if (user.permissions != null) {
-								// pulling from >= 1.2 version
-								Map<String, AccessPermission> copy = new HashMap<String, AccessPermission>(user.permissions);
-								for (Map.Entry<String, AccessPermission> entry : copy.entrySet()) {
-									localUser.setRepositoryPermission(entry.getKey(), entry.getValue());
-								}
-							} else {
-								// pulling from <= 1.1 version
-								for (String repository : user.repositories) {
-									localUser.addRepositoryPermission(repository);
-								}
-							}
-							localUser.password = user.password;
-							localUser.canAdmin = user.canAdmin;
-							gitblit.reviseUser(localUser.username, localUser);
-						}
-
-						for (String teamname : gitblit.getAllTeamNames()) {
-							TeamModel team = gitblit.getTeamModel(teamname);
-							if (user.isTeamMember(teamname) && !team.hasUser(user.username)) {
-								// new team member
-								team.addUser(user.username);
-								gitblit.updateTeamModel(teamname, team);
-							} else if (!user.isTeamMember(teamname) && team.hasUser(user.username)) {
-								// remove team member
-								team.removeUser(user.username);
-								gitblit.updateTeamModel(teamname, team);
-							}
-
-							// update team repositories
-							TeamModel remoteTeam = user.getTeam(teamname);
-							if (remoteTeam != null) {
-								if (remoteTeam.permissions != null) {
-									// pulling from >= 1.2
-									for (Map.Entry<String, AccessPermission> entry : remoteTeam.permissions.entrySet()){
-										team.setRepositoryPermission(entry.getKey(), entry.getValue());
-									}
-									gitblit.updateTeamModel(teamname, team);
-								} else if (!ArrayUtils.isEmpty(remoteTeam.repositories)) {
-									// pulling from <= 1.1
-									team.addRepositoryPermissions(remoteTeam.repositories);
-									gitblit.updateTeamModel(teamname, team);
-								}
-							}
-						}
-					}
+				// merge the origin permissions and origin accounts into
+				// the user accounts of this Gitblit instance
+				if (registration.mergeAccounts) {
+					mergeAccounts(registrationFolder, users);
 				}
 			}
 		} catch (ForbiddenException e) {
@@ -412,11 +245,9 @@ public abstract class FederationPullService implements Runnable {
 			// UserModels because it is possible to use teams to specify
 			// mailing lists or push scripts without specifying users.
 			if (userService != null) {
-				Collection<TeamModel> teams = FederationUtils.getTeams(registration);
+				Collection<TeamModel> teams = getTeams(registration);
 				if (teams != null && teams.size() > 0) {
-					for (TeamModel team : teams) {
-						userService.updateTeamModel(team);
-					}
+					userService.updateTeamModels(teams);
 				}
 			}
 		} catch (ForbiddenException e) {
@@ -469,6 +300,305 @@ public abstract class FederationPullService implements Runnable {
 		}
 	}
 
+	/**
+	 * Retrieves the repositories to pull, keyed by clone url, from the origin
+	 * Gitblit instance.
+	 *
+	 * @param registration
+	 * @return the repositories of the registration
+	 * @throws Exception
+	 */
+	Map<String, RepositoryModel> getRepositories(FederationModel registration) throws Exception {
+		return FederationUtils.getRepositories(registration, true);
+	}
+
+	/**
+	 * Retrieves the users from the origin Gitblit instance.
+	 *
+	 * @param registration
+	 * @return the users of the origin
+	 * @throws Exception
+	 */
+	Collection<UserModel> getUsers(FederationModel registration) throws Exception {
+		return FederationUtils.getUsers(registration);
+	}
+
+	/**
+	 * Retrieves the teams from the origin Gitblit instance.
+	 *
+	 * @param registration
+	 * @return the teams of the origin
+	 * @throws Exception
+	 */
+	Collection<TeamModel> getTeams(FederationModel registration) throws Exception {
+		return FederationUtils.getTeams(registration);
+	}
+
+	/**
+	 * Merges the origin users, their repository permissions and their team
+	 * memberships into the accounts of this Gitblit instance.  The revised
+	 * users and teams are written as one batch each.
+	 *
+	 * @param registrationFolder
+	 * @param users
+	 * @throws GitBlitException
+	 */
+	private void mergeAccounts(String registrationFolder, Collection<UserModel> users) throws GitBlitException {
+		List<UserModel> revisedUsers = new ArrayList<UserModel>();
+		for (UserModel user : users) {
+			// reparent all repository permissions if the local
+			// repositories are stored within subfolders
+			if (!StringUtils.isEmpty(registrationFolder)) {
+				if (user.permissions != null) {
+					// pulling from >= 1.2 version
+					Map<String, AccessPermission> copy = new HashMap<String, AccessPermission>(user.permissions);
+					user.permissions.clear();
+					for (Map.Entry<String, AccessPermission> entry : copy.entrySet()) {
+						user.setRepositoryPermission(registrationFolder + "/" + entry.getKey(), entry.getValue());
+					}
+				} else {
+					// pulling from <= 1.1 version
+					List<String> permissions = new ArrayList<String>(user.repositories);
+					user.repositories.clear();
+					for (String permission : permissions) {
+						user.addRepositoryPermission(registrationFolder + "/" + permission);
+					}
+				}
+			}
+
+			// insert new user or update local user
+			UserModel localUser = gitblit.getUserModel(user.username);
+			if (localUser == null) {
+				// create new local user, individually to notify the listeners
+				gitblit.addUser(user);
+			} else {
+				// update repository permissions of local user
+				if (user.permissions != null) {
+					// pulling from >= 1.2 version
+					Map<String, AccessPermission> copy = new HashMap<String, AccessPermission>(user.permissions);
+					for (Map.Entry<String, AccessPermission> entry : copy.entrySet()) {
+						localUser.setRepositoryPermission(entry.getKey(), entry.getValue());
+					}
+				} else {
+					// pulling from <= 1.1 version
+					for (String repository : user.repositories) {
+						localUser.addRepositoryPermission(repository);
+					}
+				}
+				localUser.password = user.password;
+				localUser.canAdmin = user.canAdmin;
+				revisedUsers.add(localUser);
+			}
+		}
+		if (!revisedUsers.isEmpty() && !gitblit.updateUserModels(revisedUsers)) {
+			throw new GitBlitException("Failed to update users!");
+		}
+
+		// update team memberships and team repositories
+		Set<TeamModel> revisedTeams = new HashSet<TeamModel>();
+		List<TeamModel> teams = new ArrayList<TeamModel>();
+		for (String teamname : gitblit.getAllTeamNames()) {
+			teams.add(gitblit.getTeamModel(teamname));
+		}
+		for (UserModel user : users) {
+			for (TeamModel team : teams) {
+				String teamname = team.name;
+				if (user.isTeamMember(teamname) && !team.hasUser(user.username)) {
+					// new team member
+					team.addUser(user.username);
+					revisedTeams.add(team);
+				} else if (!user.isTeamMember(teamname) && team.hasUser(user.username)) {
+					// remove team member
+					team.removeUser(user.username);
+					revisedTeams.add(team);
+				}
+
+				// update team repositories
+				TeamModel remoteTeam = user.getTeam(teamname);
+				if (remoteTeam != null) {
+					if (remoteTeam.permissions != null) {
+						// pulling from >= 1.2
+						for (Map.Entry<String, AccessPermission> entry : remoteTeam.permissions.entrySet()){
+							team.setRepositoryPermission(entry.getKey(), entry.getValue());
+						}
+						revisedTeams.add(team);
+					} else if (!ArrayUtils.isEmpty(remoteTeam.repositories)) {
+						// pulling from <= 1.1
+						team.addRepositoryPermissions(remoteTeam.repositories);
+						revisedTeams.add(team);
+					}
+				}
+			}
+		}
+		if (!revisedTeams.isEmpty() && !gitblit.updateTeamModels(revisedTeams)) {
+			throw new GitBlitException("Failed to update teams!");
+		}
+	}
+
+	/**
+	 * Clones or fetches a repository from a origin Gitblit instance.
+	 *
+	 * @param registration
+	 * @param registrationFolder
+	 * @param registrationFolderFile
+	 * @param cloneUrl
+	 * @param repository
+	 * @throws Exception
+	 */
+	private void pull(FederationModel registration, String registrationFolder, File registrationFolderFile,
+			String cloneUrl, RepositoryModel repository) throws Exception {
+		if (!repository.hasCommits) {
+			logger.warn(MessageFormat.format(
+					"Skipping federated repository {0} from {1} @ {2}. Repository is EMPTY.",
+					repository.name, registration.name, registration.url));
+			registration.updateStatus(repository, FederationPullStatus.SKIPPED);
+			return;
+		}
+
+		// Determine local repository name
+		String repositoryName;
+		if (StringUtils.isEmpty(registrationFolder)) {
+			repositoryName = repository.name;
+		} else {
+			repositoryName = registrationFolder + "/" + repository.name;
+		}
+
+		if (registration.bare) {
+			// bare repository, ensure .git suffix
+			if (!repositoryName.toLowerCase().endsWith(DOT_GIT_EXT)) {
+				repositoryName += DOT_GIT_EXT;
+			}
+		} else {
+			// normal repository, strip .git suffix
+			if (repositoryName.toLowerCase().endsWith(DOT_GIT_EXT)) {
+				repositoryName = repositoryName.substring(0,
+						repositoryName.indexOf(DOT_GIT_EXT));
+			}
+		}
+
+		// confirm that the origin of any pre-existing repository matches
+		// the clone url
+		Repository existingRepository = gitblit.getRepository(repositoryName);
+
+		if (existingRepository == null && gitblit.isCollectingGarbage(repositoryName)) {
+			logger.warn(MessageFormat.format("Skipping local repository {0}, busy collecting garbage", repositoryName));
+			return;
+		}
+
+		if (existingRepository != null) {
+			StoredConfig config = existingRepository.getConfig();
+			config.load();
+			String origin = config.getString("remote", "origin", "url");
+			existingRepository.close();
+			if (!origin.startsWith(registration.url)) {
+				logger.warn(MessageFormat
+						.format("Skipping federated repository {0} from {1} @ {2}. Origin does not match, consider EXCLUDING.",
+								repository.name, registration.name, registration.url));
+				registration.updateStatus(repository, FederationPullStatus.SKIPPED);
+				return;
+			}
+		}
+
+		// clone/pull this repository
+		CredentialsProvider credentials = new UsernamePasswordCredentialsProvider(
+				Constants.FEDERATION_USER, registration.token);
+		logger.info(MessageFormat.format("Pulling federated repository {0} from {1} @ {2}",
+				repository.name, registration.name, registration.url));
+
+		CloneResult result = JGitUtils.cloneRepository(registrationFolderFile, repository.name,
+				cloneUrl, registration.bare, credentials);
+		Repository r = gitblit.getRepository(repositoryName);
+		RepositoryModel rm = gitblit.getRepositoryModel(repositoryName);
+		repository.isFrozen = registration.mirror;
+		if (result.createdRepository) {
+			// default local settings
+			repository.federationStrategy = FederationStrategy.EXCLUDE;
+			repository.isFrozen = registration.mirror;
+			repository.showRemoteBranches = !registration.mirror;
+			logger.info(MessageFormat.format("     cloning {0}", repository.name));
+			registration.updateStatus(repository, FederationPullStatus.MIRRORED);
+		} else {
+			// fetch and update, the fetch compares the advertised refs with
+			// the tracking refs and only updates the changed refs
+			boolean fetched = !result.fetchResult.getTrackingRefUpdates().isEmpty();
+
+			if (registration.mirror) {
+				// mirror
+				if (fetched) {
+					// update local branches to match the remote tracking branches
+					for (RefModel ref : JGitUtils.getRemoteBranches(r, false, -1)) {
+						if (ref.displayName.startsWith("origin/")) {
+							String branch = org.eclipse.jgit.lib.Constants.R_HEADS
+									+ ref.displayName.substring(ref.displayName.indexOf('/') + 1);
+							String hash = ref.getReferencedObjectId().getName();
+
+							JGitUtils.setBranchRef(r, branch, hash);
+							logger.info(MessageFormat.format("     resetting {0} of {1} to {2}", branch,
+									repository.name, hash));
+						}
+					}
+
+					String newHead;
+					if (StringUtils.isEmpty(repository.HEAD)) {
+						RevCommit commit = JGitUtils.getCommit(r, org.eclipse.jgit.lib.Constants.FETCH_HEAD);
+						newHead = commit.getName();
+					} else {
+						newHead = repository.HEAD;
+					}
+					JGitUtils.setHEADtoRef(r, newHead);
+					logger.info(MessageFormat.format("     resetting HEAD of {0} to {1}",
+							repository.name, newHead));
+					registration.updateStatus(repository, FederationPullStatus.MIRRORED);
+				} else {
+					// indicate no commits pulled
+					registration.updateStatus(repository, FederationPullStatus.NOCHANGE);
+				}
+			} else {
+				// non-mirror
+				if (fetched) {
+					// indicate commits pulled to origin/master
+					registration.updateStatus(repository, FederationPullStatus.PULLED);
+				} else {
+					// indicate no commits pulled
+					registration.updateStatus(repository, FederationPullStatus.NOCHANGE);
+				}
+			}
+
+			// preserve local settings
+			repository.isFrozen = rm.isFrozen;
+			repository.federationStrategy = rm.federationStrategy;
+
+			// merge federation sets
+			Set<String> federationSets = new HashSet<String>();
+			if (rm.federationSets != null) {
+				federationSets.addAll(rm.federationSets);
+			}
+			if (repository.federationSets != null) {
+				federationSets.addAll(repository.federationSets);
+			}
+			repository.federationSets = new ArrayList<String>(federationSets);
+
+			// merge indexed branches
+			Set<String> indexedBranches = new HashSet<String>();
+			if (rm.indexedBranches != null) {
+				indexedBranches.addAll(rm.indexedBranches);
+			}
+			if (repository.indexedBranches != null) {
+				indexedBranches.addAll(repository.indexedBranches);
+			}
+			repository.indexedBranches = new ArrayList<String>(indexedBranches);
+
+		}
+		// only repositories that are actually _cloned_ from the origin
+		// Gitblit repository are marked as federated. If the origin
+		// is from somewhere else, these repositories are not considered
+		// "federated" repositories.
+		repository.isFederated = cloneUrl.startsWith(registration.url);
+
+		gitblit.updateConfiguration(r, repository);
+		r.close();
+	}
+
 	/**
 	 * Sends a status acknowledgment to the origin Gitblit instance. This
 	 * includes the results of the federated pull.
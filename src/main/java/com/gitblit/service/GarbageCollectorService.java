@@ -15,17 +15,42 @@
  */
 package com.gitblit.service;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.eclipse.jgit.api.GarbageCollectCommand;
-import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,10 +59,27 @@ import com.gitblit.Keys;
 import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.utils.FileUtils;
+import com.gitblit.utils.IdGenerator;
+import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.WorkQueue;
 
 /**
  * The Garbage Collector Service handles periodic garbage collection in repositories.
  *
+ * Each run first plans the maintenance of all repositories from cheap signals:
+ * the loose objects, estimated by sampling the loose object folders, the
+ * number of packs and the time since the last GC.  Repositories are then
+ * collected in order of urgency by a configurable number of parallel workers
+ * which share the available processors.  A repository which has accumulated
+ * loose objects, but which does not need a full GC, is incrementally repacked:
+ * its loose objects are packed without rewriting the existing packs.
+ *
+ * A GC writes a bitmap index for the new pack, unless bitmaps are disabled
+ * for the repository.  The bitmap lets clones and fetches determine the
+ * reachable objects without walking the history.  A repository whose largest
+ * pack lacks a valid bitmap, e.g. because it was pushed or written by another
+ * tool, is collected once its packs exceed a configurable size.
+ *
  * @author James Moger
  *
  */
@@ -50,6 +92,20 @@ public class GarbageCollectorService implements Runnable {
 			return ordinal() > s.ordinal();
 		}
 	}
+
+	/**
+	 * The maintenance planned for a repository.
+	 */
+	static enum GCAction {
+		NONE, REPACK, COLLECT
+	}
+
+	/**
+	 * The number of loose object folders sampled to estimate the loose objects
+	 * of a repository, out of 256.
+	 */
+	private static final int SAMPLED_FOLDERS = 16;
+
 	private final Logger logger = LoggerFactory.getLogger(GarbageCollectorService.class);
 
 	private final IStoredSettings settings;
@@ -62,12 +118,31 @@ public class GarbageCollectorService implements Runnable {
 
 	private final Map<String, GCStatus> gcCache = new ConcurrentHashMap<String, GCStatus>();
 
+	private final WorkQueue workQueue;
+
+	private WorkQueue.Executor workers;
+
 	public GarbageCollectorService(
 			IStoredSettings settings,
 			IRepositoryManager repositoryManager) {
+		this(settings, repositoryManager, null);
+	}
+
+	/**
+	 * @param settings
+	 * @param repositoryManager
+	 * @param workQueue
+	 *            the work queue which runs the collections, may be null
+	 * @since 1.9.0
+	 */
+	public GarbageCollectorService(
+			IStoredSettings settings,
+			IRepositoryManager repositoryManager,
+			WorkQueue workQueue) {
 
 		this.settings = settings;
 		this.repositoryManager = repositoryManager;
+		this.workQueue = workQueue == null ? new WorkQueue(new IdGenerator(), 1) : workQueue;
 	}
 
 	/**
@@ -125,8 +200,25 @@ public class GarbageCollectorService implements Runnable {
 		gcCache.put(repositoryName.toLowerCase(), GCStatus.READY);
 	}
 
-	public void close() {
+	public synchronized void close() {
 		forceClose.set(true);
+		if (workers != null) {
+			workers.shutdownNow();
+			workers.unregisterWorkQueue();
+		}
+	}
+
+	/**
+	 * Returns the queue of the GC workers, creating it on the first run.
+	 *
+	 * @return the GC workers
+	 */
+	private synchronized WorkQueue.Executor getWorkers() {
+		if (workers == null) {
+			int threads = Math.max(1, settings.getInteger(Keys.git.garbageCollectionThreads, 2));
+			workers = workQueue.createQueue(threads, "GarbageCollector");
+		}
+		return workers;
 	}
 
 	@Override
@@ -136,8 +228,88 @@ public class GarbageCollectorService implements Runnable {
 		}
 
 		running.set(true);
-		Date now = new Date();
+		try {
+			List<GCPlan> plans = plan(new Date());
+			if (plans.isEmpty()) {
+				return;
+			}
+
+			// the workers share the processors for delta compression
+			WorkQueue.Executor executor = getWorkers();
+			int threads = Math.min(executor.getCorePoolSize(), plans.size());
+			final int packThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+
+			logger.info(MessageFormat.format("GCExecutor is collecting garbage in {0} repositories with {1} workers",
+					plans.size(), threads));
+			final Queue<GCPlan> queue = new ConcurrentLinkedQueue<GCPlan>(plans);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			try {
+				for (int i = 0; i < threads; i++) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							// each worker collects the most urgent remaining repository
+							GCPlan plan;
+							while (!forceClose.get() && (plan = queue.poll()) != null) {
+								collect(plan, packThreads);
+							}
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					await(future);
+				}
+			} catch (InterruptedException e) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+			} catch (RejectedExecutionException e) {
+				// shutting down
+			}
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Waits for a GC worker to finish, the worker is interrupted if the
+	 * service is closed.
+	 *
+	 * @param future
+	 * @throws InterruptedException
+	 */
+	private void await(Future<?> future) throws InterruptedException {
+		while (true) {
+			try {
+				future.get(1, TimeUnit.MINUTES);
+				return;
+			} catch (TimeoutException e) {
+				if (forceClose.get()) {
+					future.cancel(true);
+					return;
+				}
+			} catch (CancellationException e) {
+				return;
+			} catch (ExecutionException e) {
+				logger.error("GCExecutor worker failed", e.getCause());
+				return;
+			}
+		}
+	}
 
+	/**
+	 * Plans the maintenance of all repositories.
+	 *
+	 * @param now
+	 * @return the repositories which require maintenance, most urgent first
+	 */
+	List<GCPlan> plan(Date now) {
+		int maxPacks = settings.getInteger(Keys.git.garbageCollectionMaxPacks, 50);
+		int repackThreshold = settings.getInteger(Keys.git.incrementalRepackThreshold, 1000);
+		long bitmapThreshold = FileUtils.convertSizeToLong(settings.getString(Keys.git.packBitmapThreshold, "10m"), 0);
+
+		List<GCPlan> plans = new ArrayList<GCPlan>();
 		for (String repositoryName : repositoryManager.getRepositoryList()) {
 			if (forceClose.get()) {
 				break;
@@ -146,83 +318,372 @@ public class GarbageCollectorService implements Runnable {
 				logger.warn(MessageFormat.format("Already collecting garbage from {0}?!?", repositoryName));
 				continue;
 			}
-			boolean garbageCollected = false;
-			RepositoryModel model = null;
 			Repository repository = null;
 			try {
-				model = repositoryManager.getRepositoryModel(repositoryName);
+				RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
 				repository = repositoryManager.getRepository(repositoryName);
-				if (repository == null) {
+				if (model == null || repository == null) {
 					logger.warn(MessageFormat.format("GCExecutor is missing repository {0}?!?", repositoryName));
 					continue;
 				}
+				GCPlan plan = plan(repositoryName, model, new File(repository.getDirectory(), "objects"),
+						now, maxPacks, repackThreshold, bitmapThreshold);
+				if (plan.action != GCAction.NONE) {
+					plans.add(plan);
+				}
+			} catch (Exception e) {
+				logger.error("Error planning garbage collection in " + repositoryName, e);
+			} finally {
+				if (repository != null) {
+					repository.close();
+				}
+			}
+		}
+		Collections.sort(plans);
+		return plans;
+	}
 
-				if (!repositoryManager.isIdle(repository)) {
-					logger.debug(MessageFormat.format("GCExecutor is skipping {0} because it is not idle", repositoryName));
-					continue;
+	/**
+	 * Plans the maintenance of a repository without reading its objects.
+	 *
+	 * @param repositoryName
+	 * @param model
+	 * @param objectsFolder
+	 * @param now
+	 * @param maxPacks
+	 *            the number of packs which triggers a GC
+	 * @param repackThreshold
+	 *            the number of loose objects which triggers an incremental
+	 *            repack, 0 disables incremental repacks
+	 * @param bitmapThreshold
+	 *            the size of the packs which triggers a GC if the largest pack
+	 *            has no valid bitmap index, 0 disables this trigger
+	 * @return the plan
+	 */
+	static GCPlan plan(String repositoryName, RepositoryModel model, File objectsFolder,
+			Date now, int maxPacks, int repackThreshold, long bitmapThreshold) {
+		GCPlan plan = new GCPlan(repositoryName);
+
+		// estimate the loose objects from a sample of the fan-out folders
+		for (int i = 0; i < SAMPLED_FOLDERS; i++) {
+			File [] files = new File(objectsFolder, String.format("%02x", i)).listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (file.getName().length() == Constants.OBJECT_ID_STRING_LENGTH - 2) {
+					plan.looseObjects++;
+					plan.sizeOfLooseObjects += file.length();
+				}
+			}
+		}
+		plan.looseObjects *= 256 / SAMPLED_FOLDERS;
+		plan.sizeOfLooseObjects *= 256 / SAMPLED_FOLDERS;
+
+		File packFolder = new File(objectsFolder, "pack");
+		File [] packs = packFolder.listFiles();
+		long lastPackModified = 0;
+		if (packs != null) {
+			for (File pack : packs) {
+				if (pack.getName().endsWith(".pack")) {
+					plan.packs++;
+					plan.sizeOfPacks += pack.length();
+					lastPackModified = Math.max(lastPackModified, pack.lastModified());
 				}
+			}
+		}
 
-				// By setting the GCStatus to COLLECTING we are
-				// disabling *all* access to this repository from Gitblit.
-				// Think of this as a clutch in a manual transmission vehicle.
-				if (!setGCStatus(repositoryName, GCStatus.COLLECTING)) {
-					logger.warn(MessageFormat.format("Can not acquire GC lock for {0}, skipping", repositoryName));
-					continue;
+		// determine if this is a scheduled GC
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(model.lastGC);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		cal.add(Calendar.DATE, model.gcPeriod);
+		Date gcDate = cal.getTime();
+		boolean shouldCollectGarbage = now.after(gcDate);
+
+		// determine if filesize triggered GC
+		long gcThreshold = Math.max(1, FileUtils.convertSizeToLong(model.gcThreshold, 500*1024L));
+		boolean hasEnoughGarbage = plan.sizeOfLooseObjects >= gcThreshold;
+		boolean hasTooManyPacks = maxPacks > 0 && plan.packs >= maxPacks;
+
+		// determine if the packs lack a bitmap, a pack written by our last GC
+		// without a bitmap is not collected again until the next scheduled GC
+		if (model.buildBitmaps && bitmapThreshold > 0 && plan.sizeOfPacks >= bitmapThreshold
+				&& lastPackModified > model.lastGC.getTime()) {
+			plan.missingBitmap = !JGitUtils.hasPackBitmap(packFolder);
+		}
+
+		if (hasEnoughGarbage || hasTooManyPacks || plan.missingBitmap) {
+			plan.action = GCAction.COLLECT;
+		} else if (shouldCollectGarbage) {
+			// a scheduled GC requires loose objects, the sample may have missed them
+			plan.action = GCAction.COLLECT;
+			plan.verify = plan.looseObjects == 0;
+		} else if (repackThreshold > 0 && plan.looseObjects >= repackThreshold) {
+			plan.action = GCAction.REPACK;
+		}
+
+		// rank by the garbage relative to the thresholds and the overdue period
+		plan.priority = ((double) plan.sizeOfLooseObjects) / gcThreshold;
+		if (maxPacks > 0) {
+			plan.priority += ((double) plan.packs) / maxPacks;
+		}
+		if (plan.missingBitmap) {
+			plan.priority += 1;
+		}
+		if (shouldCollectGarbage) {
+			// a due GC ranks above an optional repack, the overdue time is capped
+			// so a long period does not outrank a large amount of garbage
+			long overdue = now.getTime() - gcDate.getTime();
+			plan.priority += 1 + Math.min(1, ((double) overdue) / TimeUnit.DAYS.toMillis(Math.max(1, model.gcPeriod)));
+		}
+		return plan;
+	}
+
+	/**
+	 * Executes the planned maintenance of a repository.
+	 *
+	 * @param plan
+	 * @param packThreads
+	 *            the number of threads for delta compression
+	 */
+	private void collect(GCPlan plan, int packThreads) {
+		String repositoryName = plan.repositoryName;
+		if (forceClose.get()) {
+			return;
+		}
+		if (isCollectingGarbage(repositoryName)) {
+			logger.warn(MessageFormat.format("Already collecting garbage from {0}?!?", repositoryName));
+			return;
+		}
+		boolean garbageCollected = false;
+		boolean locked = false;
+		RepositoryModel model = null;
+		Repository repository = null;
+		try {
+			model = repositoryManager.getRepositoryModel(repositoryName);
+			repository = repositoryManager.getRepository(repositoryName);
+			if (repository == null) {
+				logger.warn(MessageFormat.format("GCExecutor is missing repository {0}?!?", repositoryName));
+				return;
+			}
+			if (!(repository instanceof FileRepository)) {
+				logger.debug(MessageFormat.format("GCExecutor is skipping {0} because it is not a file repository", repositoryName));
+				return;
+			}
+
+			if (!repositoryManager.isIdle(repository)) {
+				logger.debug(MessageFormat.format("GCExecutor is skipping {0} because it is not idle", repositoryName));
+				return;
+			}
+
+			// By setting the GCStatus to COLLECTING we are
+			// disabling *all* access to this repository from Gitblit.
+			// Think of this as a clutch in a manual transmission vehicle.
+			if (!setGCStatus(repositoryName, GCStatus.COLLECTING)) {
+				logger.warn(MessageFormat.format("Can not acquire GC lock for {0}, skipping", repositoryName));
+				return;
+			}
+			locked = true;
+
+			logger.debug(MessageFormat.format("GCExecutor locked idle repository {0}", repositoryName));
+
+			FileRepository fileRepository = (FileRepository) repository;
+			PackConfig packConfig = new PackConfig(repository);
+			packConfig.setThreads(packThreads);
+			packConfig.setBuildBitmaps(model.buildBitmaps);
+			GC gc = new GC(fileRepository);
+			gc.setPackConfig(packConfig);
+
+			switch (plan.action) {
+			case COLLECT:
+				if (plan.verify && gc.getStatistics().numberOfLooseObjects == 0) {
+					// no garbage
+					break;
 				}
+				long looseKB = plan.sizeOfLooseObjects/1024L;
+				logger.info(MessageFormat.format("Collecting ~{1} KB of loose objects and {2} packs from {0}{3}",
+						repositoryName, looseKB, plan.packs, plan.missingBitmap ? " to write a pack bitmap" : ""));
+
+				// do the deed
+				gc.gc();
 
-				logger.debug(MessageFormat.format("GCExecutor locked idle repository {0}", repositoryName));
-
-				Git git = new Git(repository);
-				GarbageCollectCommand gc = git.gc();
-				Properties stats = gc.getStatistics();
-
-				// determine if this is a scheduled GC
-				Calendar cal = Calendar.getInstance();
-				cal.setTime(model.lastGC);
-				cal.set(Calendar.HOUR_OF_DAY, 0);
-				cal.set(Calendar.MINUTE, 0);
-				cal.set(Calendar.SECOND, 0);
-				cal.set(Calendar.MILLISECOND, 0);
-				cal.add(Calendar.DATE, model.gcPeriod);
-				Date gcDate = cal.getTime();
-				boolean shouldCollectGarbage = now.after(gcDate);
-
-				// determine if filesize triggered GC
-				long gcThreshold = FileUtils.convertSizeToLong(model.gcThreshold, 500*1024L);
-				long sizeOfLooseObjects = (Long) stats.get("sizeOfLooseObjects");
-				boolean hasEnoughGarbage = sizeOfLooseObjects >= gcThreshold;
-
-				// if we satisfy one of the requirements, GC
-				boolean hasGarbage = sizeOfLooseObjects > 0;
-				if (hasGarbage && (hasEnoughGarbage || shouldCollectGarbage)) {
-					long looseKB = sizeOfLooseObjects/1024L;
-					logger.info(MessageFormat.format("Collecting {1} KB of loose objects from {0}", repositoryName, looseKB));
-
-					// do the deed
-					gc.call();
-
-					garbageCollected = true;
+				garbageCollected = true;
+				if (model.buildBitmaps && !JGitUtils.hasPackBitmap(repository)) {
+					logger.debug(MessageFormat.format("GCExecutor did not write a pack bitmap for {0}", repositoryName));
 				}
-			} catch (Exception e) {
-				logger.error("Error collecting garbage in " + repositoryName, e);
-			} finally {
-				// cleanup
-				if (repository != null) {
-					if (garbageCollected) {
-						// update the last GC date
-						model.lastGC = new Date();
-						repositoryManager.updateConfiguration(repository, model);
-					}
 
-					repository.close();
+				// packs have been rewritten, recalculate the size
+				repositoryManager.calculateRepositorySize(repository, repositoryName);
+				break;
+			case REPACK:
+				int packed = packLooseObjects(fileRepository, packConfig);
+				gc.prunePacked();
+				logger.info(MessageFormat.format("Packed {1} loose objects of {0}", repositoryName, packed));
+				repositoryManager.calculateRepositorySize(repository, repositoryName);
+				break;
+			default:
+				break;
+			}
+		} catch (Exception e) {
+			logger.error("Error collecting garbage in " + repositoryName, e);
+		} finally {
+			// cleanup
+			if (repository != null) {
+				if (garbageCollected) {
+					// update the last GC date
+					model.lastGC = new Date();
+					repositoryManager.updateConfiguration(repository, model);
 				}
 
+				repository.close();
+			}
+
+			if (locked) {
 				// reset the GC lock
 				releaseLock(repositoryName);
 				logger.debug(MessageFormat.format("GCExecutor released GC lock for {0}", repositoryName));
 			}
 		}
+	}
+
+	/**
+	 * Packs the loose objects of a repository into a new pack.  The existing
+	 * packs are not rewritten and the loose objects are not deleted, see
+	 * {@link GC#prunePacked()}.
+	 *
+	 * @param repository
+	 * @param packConfig
+	 * @return the number of packed objects
+	 * @throws IOException
+	 */
+	static int packLooseObjects(FileRepository repository, PackConfig packConfig) throws IOException {
+		ObjectDirectory objectDatabase = repository.getObjectDatabase();
+		File objectsFolder = objectDatabase.getDirectory();
+		List<ObjectId> ids = new ArrayList<ObjectId>();
+		for (int i = 0; i < 256; i++) {
+			String fanout = String.format("%02x", i);
+			String [] names = new File(objectsFolder, fanout).list();
+			if (names == null) {
+				continue;
+			}
+			for (String name : names) {
+				if (ObjectId.isId(fanout + name)) {
+					ids.add(ObjectId.fromString(fanout + name));
+				}
+			}
+		}
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		File packFolder = new File(objectsFolder, "pack");
+		packFolder.mkdirs();
+		File tmpPack = null;
+		File tmpIndex = null;
+		ObjectReader reader = repository.newObjectReader();
+		RevWalk rw = new RevWalk(reader);
+		PackWriter pw = new PackWriter(packConfig, reader);
+		try {
+			List<RevObject> objects = new ArrayList<RevObject>(ids.size());
+			for (ObjectId id : ids) {
+				try {
+					objects.add(rw.lookupAny(id, reader.open(id).getType()));
+				} catch (MissingObjectException e) {
+					// pruned concurrently
+				}
+			}
+			pw.preparePack(objects.iterator());
+			String name = "pack-" + pw.computeName().name();
+			File pack = new File(packFolder, name + ".pack");
+			File index = new File(packFolder, name + ".idx");
+			if (pack.exists()) {
+				// the loose objects are already packed
+				return objects.size();
+			}
 
-		running.set(false);
+			tmpPack = File.createTempFile("incremental_", ".pack_tmp", packFolder);
+			tmpIndex = new File(packFolder, tmpPack.getName().replace(".pack_tmp", ".idx_tmp"));
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpPack));
+			try {
+				pw.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, os);
+			} finally {
+				os.close();
+			}
+			os = new BufferedOutputStream(new FileOutputStream(tmpIndex));
+			try {
+				pw.writeIndex(os);
+			} finally {
+				os.close();
+			}
+
+			// the pack becomes visible with its index
+			if (!tmpPack.renameTo(pack) || !tmpIndex.renameTo(index)) {
+				pack.delete();
+				throw new IOException(MessageFormat.format("Failed to rename {0}", tmpPack));
+			}
+			pack.setReadOnly();
+			index.setReadOnly();
+			objectDatabase.openPack(pack);
+			return objects.size();
+		} finally {
+			pw.close();
+			rw.close();
+			reader.close();
+			if (tmpPack != null && tmpPack.exists()) {
+				tmpPack.delete();
+			}
+			if (tmpIndex != null && tmpIndex.exists()) {
+				tmpIndex.delete();
+			}
+		}
+	}
+
+	/**
+	 * The planned maintenance of a repository, ordered by priority.
+	 */
+	static class GCPlan implements Comparable<GCPlan> {
+
+		final String repositoryName;
+
+		GCAction action = GCAction.NONE;
+
+		/**
+		 * Collect only if the repository has loose objects.
+		 */
+		boolean verify;
+
+		long looseObjects;
+
+		long sizeOfLooseObjects;
+
+		int packs;
+
+		long sizeOfPacks;
+
+		/**
+		 * The largest pack has no valid bitmap index.
+		 */
+		boolean missingBitmap;
+
+		double priority;
+
+		GCPlan(String repositoryName) {
+			this.repositoryName = repositoryName;
+		}
+
+		@Override
+		public int compareTo(GCPlan o) {
+			// most urgent first
+			return Double.compare(o.priority, priority);
+		}
+
+		@Override
+		public String toString() {
+			return repositoryName + " " + action + " " + priority;
+		}
 	}
 }
@@ -24,9 +24,13 @@ import java.io.InputStream;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,16 +38,23 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.DateTools.Resolution;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -55,7 +66,9 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.highlight.Fragmenter;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -63,6 +76,8 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.search.highlight.TokenSources;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
@@ -84,6 +99,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.gitblit.Constants.SearchObjectType;
+import com.gitblit.FileSettings;
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IRepositoryManager;
@@ -91,9 +107,12 @@ import com.gitblit.models.PathModel.PathChangeModel;
 import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.SearchResult;
+import com.gitblit.models.WorkQueueStatistics;
 import com.gitblit.utils.ArrayUtils;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.WorkQueue;
 
 /**
  * The Lucene service handles indexing and searching repositories.
@@ -104,7 +123,9 @@ import com.gitblit.utils.StringUtils;
 public class LuceneService implements Runnable {
 
 
-	private static final int INDEX_VERSION = 6;
+	private static final int INDEX_VERSION = 7;
+
+	private static final int MULTI_SEARCHER_CACHE_SIZE = 32;
 
 	private static final String FIELD_OBJECT_TYPE = "type";
 	private static final String FIELD_PATH = "path";
@@ -117,6 +138,19 @@ public class LuceneService implements Runnable {
 	private static final String FIELD_DATE = "date";
 	private static final String FIELD_TAG = "tag";
 
+	/**
+	 * Content is stored with term vector offsets so that search results can
+	 * be highlighted without re-analyzing the content.
+	 */
+	private static final FieldType CONTENT_TYPE = new FieldType(TextField.TYPE_STORED);
+
+	static {
+		CONTENT_TYPE.setStoreTermVectors(true);
+		CONTENT_TYPE.setStoreTermVectorPositions(true);
+		CONTENT_TYPE.setStoreTermVectorOffsets(true);
+		CONTENT_TYPE.freeze();
+	}
+
 	private static final String CONF_ALIAS = "aliases";
 	private static final String CONF_BRANCH = "branches";
 
@@ -126,30 +160,63 @@ public class LuceneService implements Runnable {
 	private final IRepositoryManager repositoryManager;
 	private final File repositoriesFolder;
 
-	private final Map<String, IndexSearcher> searchers = new ConcurrentHashMap<String, IndexSearcher>();
+	private final Map<String, SearcherManager> searchers = new ConcurrentHashMap<String, SearcherManager>();
+	private final Map<String, MultiSearcherManager> multiSearchers = new LinkedHashMap<String, MultiSearcherManager>(16, 0.75f, true);
 	private final Map<String, IndexWriter> writers = new ConcurrentHashMap<String, IndexWriter>();
 
+	private final Set<String> pendingRepositories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> updatedRepositories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicLong indexSequence = new AtomicLong();
+	private final AtomicLong indexedCount = new AtomicLong();
+	private final AtomicLong indexTime = new AtomicLong();
+	private volatile long lastIndexed;
+	private final PriorityBlockingQueue<IndexTask> indexQueue = new PriorityBlockingQueue<IndexTask>();
+	private final AtomicInteger indexers = new AtomicInteger();
+	private final WorkQueue.Executor indexExecutor;
+
 	private final String luceneIgnoreExtensions = "7z arc arj bin bmp dll doc docx exe gif gz jar jpg lib lzh odg odf odt pdf ppt png so swf xcf xls xlsx zip";
-	private Set<String> excludedExtensions;
+	private volatile Set<String> excludedExtensions;
 
 	public LuceneService(
 			IStoredSettings settings,
 			IRepositoryManager repositoryManager) {
+		this(settings, repositoryManager, null);
+	}
 
-		this.storedSettings = settings;
+	/**
+	 * @param settings
+	 *            the settings, or null to use the default settings
+	 * @param repositoryManager
+	 * @param workQueue
+	 *            the work queue which runs the indexers, may be null
+	 * @since 1.9.0
+	 */
+	public LuceneService(
+			IStoredSettings settings,
+			IRepositoryManager repositoryManager,
+			WorkQueue workQueue) {
+
+		// without settings every setting has its default value
+		this.storedSettings = settings == null ? new FileSettings() : settings;
 		this.repositoryManager = repositoryManager;
 		this.repositoriesFolder = repositoryManager.getRepositoriesFolder();
-		String exts = luceneIgnoreExtensions;
-		if (settings != null) {
-			exts = settings.getString(Keys.web.luceneIgnoreExtensions, exts);
-		}
+		String exts = storedSettings.getString(Keys.web.luceneIgnoreExtensions, luceneIgnoreExtensions);
+		int threads = storedSettings.getInteger(Keys.web.luceneIndexThreads, 2);
 		excludedExtensions = new TreeSet<String>(StringUtils.getStringsFromValue(exts));
+
+		// repositories are indexed in parallel, most recently changed first
+		if (workQueue == null) {
+			workQueue = new WorkQueue(new IdGenerator(), 1);
+		}
+		indexExecutor = workQueue.createQueue(Math.max(1, threads), "LuceneIndexer");
 	}
 
 	/**
-	 * Run is executed by the Gitblit executor service.  Because this is called
-	 * by an executor service, calls will queue - i.e. there can never be
-	 * concurrent execution of repository index updates.
+	 * Run is executed by the Gitblit executor service.  It queues an index
+	 * task for every indexable repository which is not already queued or being
+	 * indexed.  The tasks are taken by the indexers of the index queue,
+	 * prioritized by the last change of the repository, and each repository is
+	 * only ever indexed by one thread at a time.
 	 */
 	@Override
 	public void run() {
@@ -166,21 +233,134 @@ public class LuceneService implements Runnable {
 			return;
 		}
 
+		int queued = 0;
 		for (String repositoryName: repositoryManager.getRepositoryList()) {
 			RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
 			if (model.hasCommits && !ArrayUtils.isEmpty(model.indexedBranches)) {
-				Repository repository = repositoryManager.getRepository(model.name);
-				if (repository == null) {
-					if (repositoryManager.isCollectingGarbage(model.name)) {
-						logger.info(MessageFormat.format("Skipping Lucene index of {0}, busy garbage collecting", repositoryName));
-					}
-					continue;
+				if (pendingRepositories.add(model.name)) {
+					long lastChange = model.lastChange == null ? 0 : model.lastChange.getTime();
+					execute(new IndexTask(model.name, lastChange));
+					queued++;
 				}
-				index(model, repository);
-				repository.close();
-				System.gc();
 			}
 		}
+
+		if (queued > 0) {
+			logger.debug(MessageFormat.format("Queued {0} repositories for Lucene indexing, {1} waiting, {2} indexing",
+					queued, getIndexQueueDepth(), getActiveIndexCount()));
+		}
+	}
+
+	/**
+	 * Queues an incremental index update of the repository, e.g. after a push.
+	 * The update is prioritized over scheduled index tasks.  If the repository
+	 * is already queued the requests are coalesced, if it is being indexed
+	 * right now it is queued again once the running task completes.
+	 *
+	 * @param repositoryName
+	 */
+	public void queueIndexUpdate(String repositoryName) {
+		if (!storedSettings.getBoolean(Keys.web.allowLuceneIndexing, true)) {
+			return;
+		}
+		if (pendingRepositories.add(repositoryName)) {
+			execute(new IndexTask(repositoryName, System.currentTimeMillis()));
+		} else {
+			updatedRepositories.add(repositoryName);
+		}
+	}
+
+	private void execute(IndexTask task) {
+		indexQueue.add(task);
+		startIndexer();
+	}
+
+	/**
+	 * Starts an indexer on the index queue, unless all threads of the queue
+	 * are already indexing.
+	 */
+	private void startIndexer() {
+		int count;
+		while ((count = indexers.get()) < indexExecutor.getCorePoolSize()) {
+			if (indexers.compareAndSet(count, count + 1)) {
+				try {
+					indexExecutor.execute(new Indexer());
+				} catch (RejectedExecutionException e) {
+					// shutting down
+					indexers.decrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of repositories waiting to be indexed.
+	 *
+	 * @return the index queue depth
+	 */
+	public int getIndexQueueDepth() {
+		return indexQueue.size();
+	}
+
+	/**
+	 * Returns the number of repositories which are being indexed right now.
+	 *
+	 * @return the number of active index tasks
+	 */
+	public int getActiveIndexCount() {
+		return indexExecutor.getActiveCount();
+	}
+
+	/**
+	 * Returns the number of repository index tasks completed since startup.
+	 *
+	 * @return the number of completed index tasks
+	 */
+	public long getIndexedCount() {
+		return indexedCount.get();
+	}
+
+	/**
+	 * Returns the load and progress of the index queue.  The statistics are
+	 * reported with the work queues in the server status.
+	 *
+	 * @return the index queue statistics
+	 */
+	public WorkQueueStatistics getStatistics() {
+		WorkQueueStatistics stats = new WorkQueueStatistics("LuceneIndexer");
+		stats.poolSize = indexExecutor.getCorePoolSize();
+		stats.activeThreads = getActiveIndexCount();
+		stats.queuedTasks = getIndexQueueDepth();
+		stats.scheduledTasks = pendingRepositories.size();
+		stats.completedTasks = getIndexedCount();
+		stats.runTime = TimeUnit.NANOSECONDS.toMillis(indexTime.get());
+		stats.lastRun = lastIndexed == 0 ? null : new Date(lastIndexed);
+		return stats;
+	}
+
+	/**
+	 * Indexes a queued repository.
+	 *
+	 * @param repositoryName
+	 */
+	private void index(String repositoryName) {
+		RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
+		if (model == null || !model.hasCommits || ArrayUtils.isEmpty(model.indexedBranches)) {
+			return;
+		}
+		Repository repository = repositoryManager.getRepository(model.name);
+		if (repository == null) {
+			if (repositoryManager.isCollectingGarbage(model.name)) {
+				logger.info(MessageFormat.format("Skipping Lucene index of {0}, busy garbage collecting", repositoryName));
+			}
+			return;
+		}
+		try {
+			index(model, repository);
+		} finally {
+			repository.close();
+		}
 	}
 
 	/**
@@ -233,10 +413,22 @@ public class LuceneService implements Runnable {
 	 * @param repositoryName
 	 */
 	public synchronized void close(String repositoryName) {
+		// close the cached multi-repository searchers of this repository
+		synchronized (multiSearchers) {
+			Iterator<MultiSearcherManager> itr = multiSearchers.values().iterator();
+			while (itr.hasNext()) {
+				MultiSearcherManager searcher = itr.next();
+				if (Arrays.asList(searcher.repositories).contains(repositoryName)) {
+					itr.remove();
+					closeQuietly(searcher);
+				}
+			}
+		}
+
 		try {
-			IndexSearcher searcher = searchers.remove(repositoryName);
+			SearcherManager searcher = searchers.remove(repositoryName);
 			if (searcher != null) {
-				searcher.getIndexReader().close();
+				searcher.close();
 			}
 		} catch (Exception e) {
 			logger.error("Failed to close index searcher for " + repositoryName, e);
@@ -257,28 +449,58 @@ public class LuceneService implements Runnable {
 	 *
 	 */
 	public synchronized void close() {
-		// close all writers
-		for (String writer : writers.keySet()) {
-			try {
-				writers.get(writer).close();
-			} catch (Throwable t) {
-				logger.error("Failed to close Lucene writer for " + writer, t);
+		// drop queued index tasks and wait for running tasks to finish
+		indexQueue.clear();
+		indexExecutor.shutdown();
+		try {
+			if (!indexExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+				logger.warn("Timed out waiting for Lucene indexers to finish");
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		indexExecutor.unregisterWorkQueue();
+		pendingRepositories.clear();
+		updatedRepositories.clear();
+
+		// close all multi-repository searchers
+		synchronized (multiSearchers) {
+			for (MultiSearcherManager searcher : multiSearchers.values()) {
+				closeQuietly(searcher);
+			}
+			multiSearchers.clear();
 		}
-		writers.clear();
 
 		// close all searchers
 		for (String searcher : searchers.keySet()) {
 			try {
-				searchers.get(searcher).getIndexReader().close();
+				searchers.get(searcher).close();
 			} catch (Throwable t) {
 				logger.error("Failed to close Lucene searcher for " + searcher, t);
 			}
 		}
 		searchers.clear();
+
+		// close all writers
+		for (String writer : writers.keySet()) {
+			try {
+				writers.get(writer).close();
+			} catch (Throwable t) {
+				logger.error("Failed to close Lucene writer for " + writer, t);
+			}
+		}
+		writers.clear();
 	}
 
 
+	private void closeQuietly(MultiSearcherManager searcher) {
+		try {
+			searcher.close();
+		} catch (Exception e) {
+			logger.error("Failed to close Lucene searcher for " + searcher.key, e);
+		}
+	}
+
 	/**
 	 * Deletes the Lucene index for the specified repository.
 	 *
@@ -550,7 +772,7 @@ public class LuceneService implements Runnable {
 							in.close();
 							byte[] content = os.toByteArray();
 							String str = StringUtils.decodeString(content, encodings);
-							doc.add(new Field(FIELD_CONTENT, str, TextField.TYPE_STORED));
+							doc.add(new Field(FIELD_CONTENT, str, CONTENT_TYPE));
 							os.reset();
 						}
 
@@ -588,10 +810,10 @@ public class LuceneService implements Runnable {
 			// finished
 			reader.close();
 
-			// commit all changes and reset the searcher
+			// commit all changes and refresh the searcher
 			config.save();
 			writer.commit();
-			resetIndexSearcher(model.name);
+			refreshIndexSearcher(model.name);
 			result.success();
 		} catch (Exception e) {
 			logger.error("Exception while reindexing " + model.name, e);
@@ -624,7 +846,7 @@ public class LuceneService implements Runnable {
 					continue;
 				}
 				// delete the indexed blob
-				deleteBlob(repositoryName, branch, path.name);
+				deleteBlob(writer, branch, path.name);
 
 				// re-index the blob
 				if (!ChangeType.DELETE.equals(path.changeType)) {
@@ -651,13 +873,12 @@ public class LuceneService implements Runnable {
 						String str = JGitUtils.getStringContent(repository, commit.getTree(),
 								path.path, encodings);
 						if (str != null) {
-							doc.add(new Field(FIELD_CONTENT, str, TextField.TYPE_STORED));
+							doc.add(new Field(FIELD_CONTENT, str, CONTENT_TYPE));
 							writer.addDocument(doc);
 						}
 					}
 				}
 			}
-			writer.commit();
 
 			// get any annotated commit tags
 			List<String> commitTags = new ArrayList<String>();
@@ -688,17 +909,11 @@ public class LuceneService implements Runnable {
 	 * @return true, if deleted, false if no record was deleted
 	 */
 	public boolean deleteBlob(String repositoryName, String branch, String path) throws Exception {
-		String pattern = MessageFormat.format("{0}:'{'0} AND {1}:\"'{'1'}'\" AND {2}:\"'{'2'}'\"", FIELD_OBJECT_TYPE, FIELD_BRANCH, FIELD_PATH);
-		String q = MessageFormat.format(pattern, SearchObjectType.blob.name(), branch, path);
-
-		StandardAnalyzer analyzer = new StandardAnalyzer();
-		QueryParser qp = new QueryParser(FIELD_SUMMARY, analyzer);
-		BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(q), Occur.MUST).build();
-
 		IndexWriter writer = getIndexWriter(repositoryName);
 		int numDocsBefore = writer.numDocs();
-		writer.deleteDocuments(query);
+		Query query = deleteBlob(writer, branch, path);
 		writer.commit();
+		refreshIndexSearcher(repositoryName);
 		int numDocsAfter = writer.numDocs();
 		if (numDocsBefore == numDocsAfter) {
 			logger.debug(MessageFormat.format("no records found to delete {0}", query.toString()));
@@ -709,6 +924,27 @@ public class LuceneService implements Runnable {
 		}
 	}
 
+	/**
+	 * Deletes a blob from the specified branch of the index without committing
+	 * the change.
+	 *
+	 * @param writer
+	 * @param branch
+	 * @param path
+	 * @return the delete query
+	 * @throws Exception
+	 */
+	private Query deleteBlob(IndexWriter writer, String branch, String path) throws Exception {
+		String pattern = MessageFormat.format("{0}:'{'0} AND {1}:\"'{'1'}'\" AND {2}:\"'{'2'}'\"", FIELD_OBJECT_TYPE, FIELD_BRANCH, FIELD_PATH);
+		String q = MessageFormat.format(pattern, SearchObjectType.blob.name(), branch, path);
+
+		StandardAnalyzer analyzer = new StandardAnalyzer();
+		QueryParser qp = new QueryParser(FIELD_SUMMARY, analyzer);
+		BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(q), Occur.MUST).build();
+		writer.deleteDocuments(query);
+		return query;
+	}
+
 	/**
 	 * Updates a repository index incrementally from the last indexed commits.
 	 *
@@ -816,6 +1052,11 @@ public class LuceneService implements Runnable {
 					result.add(index(model.name, repository, branchName, commit));
 				}
 
+				// commit the branch changes before recording the indexed tip
+				if (revs.size() > 0) {
+					getIndexWriter(model.name).commit();
+				}
+
 				// update the config
 				config.setString(CONF_ALIAS, null, keyName, branchName);
 				config.setString(CONF_BRANCH, null, keyName, branch.getObjectId().getName());
@@ -831,6 +1072,11 @@ public class LuceneService implements Runnable {
 					writer.commit();
 				}
 			}
+
+			// make the changes visible to searches
+			if (result.branchCount > 0 || deletedBranches.size() > 0) {
+				refreshIndexSearcher(model.name);
+			}
 			result.success = true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Exception while updating {0} Lucene index", model.name), t);
@@ -854,7 +1100,7 @@ public class LuceneService implements Runnable {
 		doc.add(new Field(FIELD_AUTHOR, getAuthor(commit), TextField.TYPE_STORED));
 		doc.add(new Field(FIELD_COMMITTER, getCommitter(commit), TextField.TYPE_STORED));
 		doc.add(new Field(FIELD_SUMMARY, commit.getShortMessage(), TextField.TYPE_STORED));
-		doc.add(new Field(FIELD_CONTENT, commit.getFullMessage(), TextField.TYPE_STORED));
+		doc.add(new Field(FIELD_CONTENT, commit.getFullMessage(), CONTENT_TYPE));
 		if (!ArrayUtils.isEmpty(tags)) {
 			doc.add(new Field(FIELD_TAG, StringUtils.flattenStrings(tags), TextField.TYPE_STORED));
 		}
@@ -862,7 +1108,8 @@ public class LuceneService implements Runnable {
 	}
 
 	/**
-	 * Incrementally index an object for the repository.
+	 * Incrementally index an object for the repository.  The change is
+	 * committed and made visible to searches by the caller.
 	 *
 	 * @param repositoryName
 	 * @param doc
@@ -872,8 +1119,6 @@ public class LuceneService implements Runnable {
 		try {
 			IndexWriter writer = getIndexWriter(repositoryName);
 			writer.addDocument(doc);
-			writer.commit();
-			resetIndexSearcher(repositoryName);
 			return true;
 		} catch (Exception e) {
 			logger.error(MessageFormat.format("Exception while incrementally updating {0} Lucene index", repositoryName), e);
@@ -900,26 +1145,86 @@ public class LuceneService implements Runnable {
 		return result;
 	}
 
-	private synchronized void resetIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.remove(repository);
+	/**
+	 * Reopens the near-real-time searcher of the repository, if there is one,
+	 * so that searches see the latest index changes.
+	 *
+	 * @param repository
+	 * @throws IOException
+	 */
+	private void refreshIndexSearcher(String repository) throws IOException {
+		SearcherManager searcher = searchers.get(repository);
 		if (searcher != null) {
-			searcher.getIndexReader().close();
+			searcher.maybeRefresh();
 		}
 	}
 
 	/**
-	 * Gets an index searcher for the repository.
+	 * Gets the near-real-time searcher manager for the repository.  Searchers
+	 * must be acquired from and released to the manager.
 	 *
 	 * @param repository
-	 * @return
+	 * @return a SearcherManager
 	 * @throws IOException
 	 */
-	private IndexSearcher getIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.get(repository);
+	private SearcherManager getSearcherManager(String repository) throws IOException {
+		SearcherManager searcher = searchers.get(repository);
 		if (searcher == null) {
-			IndexWriter writer = getIndexWriter(repository);
-			searcher = new IndexSearcher(DirectoryReader.open(writer, true));
-			searchers.put(repository, searcher);
+			synchronized (searchers) {
+				searcher = searchers.get(repository);
+				if (searcher == null) {
+					IndexWriter writer = getIndexWriter(repository);
+					searcher = new SearcherManager(writer, true, null);
+					searchers.put(repository, searcher);
+				}
+			}
+		}
+		return searcher;
+	}
+
+	/**
+	 * Gets a searcher manager across the repositories.  A single repository
+	 * uses its near-real-time searcher manager, a set of repositories uses a
+	 * cached multi-repository searcher manager which is refreshed as the
+	 * repository searchers change.
+	 *
+	 * @param repositories
+	 *            the repositories, in sorted order
+	 * @return a searcher manager
+	 * @throws IOException
+	 */
+	private ReferenceManager<IndexSearcher> getSearcherManager(String [] repositories) throws IOException {
+		if (repositories.length == 1) {
+			return getSearcherManager(repositories[0]);
+		}
+		String key = StringUtils.flattenStrings(repositories, "\n");
+		MultiSearcherManager searcher;
+		synchronized (multiSearchers) {
+			searcher = multiSearchers.get(key);
+		}
+		if (searcher == null) {
+			searcher = new MultiSearcherManager(key, repositories);
+			MultiSearcherManager evicted = null;
+			synchronized (multiSearchers) {
+				MultiSearcherManager existing = multiSearchers.get(key);
+				if (existing != null) {
+					// created concurrently, use the cached instance
+					closeQuietly(searcher);
+					return existing;
+				}
+				multiSearchers.put(key, searcher);
+				if (multiSearchers.size() > MULTI_SEARCHER_CACHE_SIZE) {
+					Iterator<MultiSearcherManager> itr = multiSearchers.values().iterator();
+					evicted = itr.next();
+					itr.remove();
+				}
+			}
+			if (evicted != null) {
+				// searches in progress keep their acquired searcher
+				closeQuietly(evicted);
+			}
+		} else {
+			searcher.maybeRefresh();
 		}
 		return searcher;
 	}
@@ -935,15 +1240,21 @@ public class LuceneService implements Runnable {
 	private IndexWriter getIndexWriter(String repository) throws IOException {
 		IndexWriter indexWriter = writers.get(repository);
 		if (indexWriter == null) {
-			File repositoryFolder = FileKey.resolve(new File(repositoriesFolder, repository), FS.DETECTED);
-			LuceneRepoIndexStore indexStore = new LuceneRepoIndexStore(repositoryFolder, INDEX_VERSION);
-			indexStore.create();
-			Directory directory = FSDirectory.open(indexStore.getPath());
-			StandardAnalyzer analyzer = new StandardAnalyzer();
-			IndexWriterConfig config = new IndexWriterConfig(analyzer);
-			config.setOpenMode(OpenMode.CREATE_OR_APPEND);
-			indexWriter = new IndexWriter(directory, config);
-			writers.put(repository, indexWriter);
+			// the index directory can only be opened by one writer
+			synchronized (writers) {
+				indexWriter = writers.get(repository);
+				if (indexWriter == null) {
+					File repositoryFolder = FileKey.resolve(new File(repositoriesFolder, repository), FS.DETECTED);
+					LuceneRepoIndexStore indexStore = new LuceneRepoIndexStore(repositoryFolder, INDEX_VERSION);
+					indexStore.create();
+					Directory directory = FSDirectory.open(indexStore.getPath());
+					StandardAnalyzer analyzer = new StandardAnalyzer();
+					IndexWriterConfig config = new IndexWriterConfig(analyzer);
+					config.setOpenMode(OpenMode.CREATE_OR_APPEND);
+					indexWriter = new IndexWriter(directory, config);
+					writers.put(repository, indexWriter);
+				}
+			}
 		}
 		return indexWriter;
 	}
@@ -994,6 +1305,10 @@ public class LuceneService implements Runnable {
 		}
 		Set<SearchResult> results = new LinkedHashSet<SearchResult>();
 		StandardAnalyzer analyzer = new StandardAnalyzer();
+		String [] sources = repositories.clone();
+		Arrays.sort(sources);
+		ReferenceManager<IndexSearcher> manager = null;
+		IndexSearcher searcher = null;
 		try {
 			// default search checks summary and content
 			BooleanQuery.Builder bldr = new BooleanQuery.Builder();
@@ -1006,50 +1321,60 @@ public class LuceneService implements Runnable {
 			qp.setAllowLeadingWildcard(true);
 			bldr.add(qp.parse(text), Occur.SHOULD);
 
-			IndexSearcher searcher;
-			if (repositories.length == 1) {
-				// single repository search
-				searcher = getIndexSearcher(repositories[0]);
-			} else {
-				// multiple repository search
-				List<IndexReader> readers = new ArrayList<IndexReader>();
-				for (String repository : repositories) {
-					IndexSearcher repositoryIndex = getIndexSearcher(repository);
-					readers.add(repositoryIndex.getIndexReader());
-				}
-				IndexReader[] rdrs = readers.toArray(new IndexReader[readers.size()]);
-				MultiSourceReader reader = new MultiSourceReader(rdrs);
-				searcher = new IndexSearcher(reader);
+			try {
+				manager = getSearcherManager(sources);
+				searcher = manager.acquire();
+			} catch (AlreadyClosedException e) {
+				// the cached searcher manager was evicted and closed by a
+				// concurrent search, look it up again
+				manager = getSearcherManager(sources);
+				searcher = manager.acquire();
 			}
 
 			BooleanQuery query = bldr.build();
 			Query rewrittenQuery = searcher.rewrite(query);
 			logger.debug(rewrittenQuery.toString());
 
-			TopScoreDocCollector collector = TopScoreDocCollector.create(5000);
-			searcher.search(rewrittenQuery, collector);
+			// only collect the hits up to the requested page, which is
+			// bounded by the number of documents
 			int offset = Math.max(0, (page - 1) * pageSize);
+			int maxDoc = searcher.getIndexReader().maxDoc();
+			if (offset >= maxDoc) {
+				return new ArrayList<SearchResult>();
+			}
+			int numHits = (int) Math.min((long) offset + pageSize, maxDoc);
+			TopScoreDocCollector collector = TopScoreDocCollector.create(Math.max(1, numHits));
+			searcher.search(rewrittenQuery, collector);
 			ScoreDoc[] hits = collector.topDocs(offset, pageSize).scoreDocs;
 			int totalHits = collector.getTotalHits();
 			for (int i = 0; i < hits.length; i++) {
 				int docId = hits[i].doc;
 				Document doc = searcher.doc(docId);
 				SearchResult result = createSearchResult(doc, hits[i].score, offset + i + 1, totalHits);
-				if (repositories.length == 1) {
+				if (sources.length == 1) {
 					// single repository search
-					result.repository = repositories[0];
+					result.repository = sources[0];
 				} else {
 					// multi-repository search
 					MultiSourceReader reader = (MultiSourceReader) searcher.getIndexReader();
 					int index = reader.getSourceIndex(docId);
-					result.repository = repositories[index];
+					result.repository = sources[index];
 				}
 				String content = doc.get(FIELD_CONTENT);
-				result.fragment = getHighlightedFragment(analyzer, query, content, result);
+				Fields termVectors = searcher.getIndexReader().getTermVectors(docId);
+				result.fragment = getHighlightedFragment(analyzer, query, content, termVectors, result);
 				results.add(result);
 			}
 		} catch (Exception e) {
 			logger.error(MessageFormat.format("Exception while searching for {0}", text), e);
+		} finally {
+			if (searcher != null) {
+				try {
+					manager.release(searcher);
+				} catch (IOException e) {
+					logger.error("Failed to release Lucene searcher", e);
+				}
+			}
 		}
 		return new ArrayList<SearchResult>(results);
 	}
@@ -1059,13 +1384,16 @@ public class LuceneService implements Runnable {
 	 * @param analyzer
 	 * @param query
 	 * @param content
+	 * @param termVectors
+	 *            the term vectors of the document, if available the content
+	 *            is highlighted from the stored offsets
 	 * @param result
 	 * @return
 	 * @throws IOException
 	 * @throws InvalidTokenOffsetsException
 	 */
 	private String getHighlightedFragment(Analyzer analyzer, Query query,
-			String content, SearchResult result) throws IOException, InvalidTokenOffsetsException {
+			String content, Fields termVectors, SearchResult result) throws IOException, InvalidTokenOffsetsException {
 		if (content == null) {
 			content = "";
 		}
@@ -1083,7 +1411,9 @@ public class LuceneService implements Runnable {
 		Highlighter highlighter = new Highlighter(formatter, scorer);
 		highlighter.setTextFragmenter(fragmenter);
 
-		String [] fragments = highlighter.getBestFragments(analyzer, "content", content, 3);
+		TokenStream tokens = TokenSources.getTokenStream(FIELD_CONTENT, termVectors, content, analyzer,
+				highlighter.getMaxDocCharsToAnalyze() - 1);
+		String [] fragments = highlighter.getBestFragments(tokens, content, 3);
 		if (ArrayUtils.isEmpty(fragments)) {
 			if (SearchObjectType.blob  == result.type) {
 				return "";
@@ -1183,6 +1513,155 @@ public class LuceneService implements Runnable {
 		}
 	}
 
+	/**
+	 * Indexes the queued repositories, most recently changed first, until the
+	 * index queue is empty.
+	 */
+	private class Indexer implements Runnable {
+
+		@Override
+		public void run() {
+			IndexTask task;
+			while ((task = indexQueue.poll()) != null) {
+				task.run();
+			}
+			indexers.decrementAndGet();
+			if (!indexQueue.isEmpty()) {
+				// queued after the last poll
+				startIndexer();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "LuceneIndexer";
+		}
+	}
+
+	/**
+	 * A queued repository index task.  Tasks are ordered by the last change of
+	 * the repository, newest first, and then by the order they were queued.
+	 * Push-triggered updates use the time of the push.
+	 */
+	private class IndexTask implements Runnable, Comparable<IndexTask> {
+
+		final String repositoryName;
+		final long lastChange;
+		final long sequence;
+
+		IndexTask(String repositoryName, long lastChange) {
+			this.repositoryName = repositoryName;
+			this.lastChange = lastChange;
+			this.sequence = indexSequence.incrementAndGet();
+		}
+
+		@Override
+		public void run() {
+			// this run covers all pushes received until now
+			updatedRepositories.remove(repositoryName);
+			long start = System.nanoTime();
+			try {
+				index(repositoryName);
+			} catch (Throwable t) {
+				logger.error(MessageFormat.format("Lucene indexing failure for {0}", repositoryName), t);
+			} finally {
+				pendingRepositories.remove(repositoryName);
+				if (updatedRepositories.remove(repositoryName)) {
+					// pushed while indexing, index the new commits
+					queueIndexUpdate(repositoryName);
+				}
+				indexTime.addAndGet(System.nanoTime() - start);
+				lastIndexed = System.currentTimeMillis();
+				long count = indexedCount.incrementAndGet();
+				logger.debug(MessageFormat.format("Lucene indexed {0} ({1} total), {2} waiting, {3} indexing",
+						repositoryName, count, getIndexQueueDepth(), getActiveIndexCount() - 1));
+			}
+		}
+
+		@Override
+		public int compareTo(IndexTask o) {
+			if (lastChange != o.lastChange) {
+				return lastChange > o.lastChange ? -1 : 1;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Manages a searcher across several repository indexes.  The searcher
+	 * holds a reference to the current reader of each repository and is
+	 * reopened when any of the repository searchers has been refreshed.
+	 */
+	private class MultiSearcherManager extends ReferenceManager<IndexSearcher> {
+
+		final String key;
+		final String [] repositories;
+		final SearcherManager [] managers;
+
+		MultiSearcherManager(String key, String [] repositories) throws IOException {
+			this.key = key;
+			this.repositories = repositories;
+			this.managers = new SearcherManager[repositories.length];
+			for (int i = 0; i < repositories.length; i++) {
+				managers[i] = getSearcherManager(repositories[i]);
+			}
+			current = open(null);
+		}
+
+		/**
+		 * Opens a searcher across the current repository readers.
+		 *
+		 * @param previous
+		 * @return a new searcher or null if the previous searcher is current
+		 * @throws IOException
+		 */
+		private IndexSearcher open(IndexSearcher previous) throws IOException {
+			IndexSearcher [] acquired = new IndexSearcher[managers.length];
+			try {
+				boolean changed = previous == null;
+				IndexReader [] readers = new IndexReader[managers.length];
+				for (int i = 0; i < managers.length; i++) {
+					acquired[i] = managers[i].acquire();
+					readers[i] = acquired[i].getIndexReader();
+					if (!changed && readers[i] != ((MultiSourceReader) previous.getIndexReader()).getSource(i)) {
+						changed = true;
+					}
+				}
+				if (!changed) {
+					return null;
+				}
+				// the multi reader holds its own reference to each reader
+				return new IndexSearcher(new MultiSourceReader(readers));
+			} finally {
+				for (int i = 0; i < managers.length; i++) {
+					if (acquired[i] != null) {
+						managers[i].release(acquired[i]);
+					}
+				}
+			}
+		}
+
+		@Override
+		protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+			return open(referenceToRefresh);
+		}
+
+		@Override
+		protected boolean tryIncRef(IndexSearcher reference) {
+			return reference.getIndexReader().tryIncRef();
+		}
+
+		@Override
+		protected void decRef(IndexSearcher reference) throws IOException {
+			reference.getIndexReader().decRef();
+		}
+
+		@Override
+		protected int getRefCount(IndexSearcher reference) {
+			return reference.getIndexReader().getRefCount();
+		}
+	}
+
 	/**
 	 * Custom subclass of MultiReader to identify the source index for a given
 	 * doc id.  This would not be necessary of there was a public method to
@@ -1195,6 +1674,10 @@ public class LuceneService implements Runnable {
 			super(readers, false);
 		}
 
+		IndexReader getSource(int index) {
+			return getSequentialSubReaders().get(index);
+		}
+
 		int getSourceIndex(int docId) {
 			int index = -1;
 			try {
@@ -15,19 +15,34 @@
  */
 package com.gitblit.service;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.activation.DataHandler;
 import javax.activation.FileDataSource;
+import javax.mail.Address;
 import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -51,22 +66,58 @@ import com.gitblit.utils.StringUtils;
 
 /**
  * The mail service handles sending email messages asynchronously from a queue.
+ * <p>
+ * If a spool folder is specified, queued messages are written to the spool
+ * and survive a restart.  Each run delivers the due messages over a single
+ * SMTP connection.  Messages which fail are retried with an exponential
+ * backoff until they exceed the maximum number of attempts, then they are
+ * moved to the failed folder of the spool.  Recipients which are rejected by
+ * the mail server are dropped, the message is still delivered to the others.
+ * </p>
  *
  * @author James Moger
  *
  */
 public class MailService implements Runnable {
 
+	private static final String SPOOL_SUFFIX = ".eml";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String FAILED_FOLDER = "failed";
+
+	private static final long MIN_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+	private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(6);
+
 	private final Logger logger = LoggerFactory.getLogger(MailService.class);
 
-	private final Queue<Message> queue = new ConcurrentLinkedQueue<Message>();
+	private final Queue<SpooledMessage> queue = new ConcurrentLinkedQueue<SpooledMessage>();
+
+	private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	private final Session session;
 
 	private final IStoredSettings settings;
 
+	private final File spoolFolder;
+
+	private final int maxAttempts;
+
 	public MailService(IStoredSettings settings) {
+		this(settings, null);
+	}
+
+	/**
+	 * @param settings
+	 * @param spoolFolder
+	 *            the folder for queued messages, null keeps the queue in memory
+	 * @since 1.9.0
+	 */
+	public MailService(IStoredSettings settings, File spoolFolder) {
 		this.settings = settings;
+		this.spoolFolder = spoolFolder;
+		this.maxAttempts = Math.max(1, settings.getInteger(Keys.mail.maxAttempts, 12));
 
 		final String mailUser = settings.getString(Keys.mail.username, null);
 		final String mailPassword = settings.getString(Keys.mail.password, null);
@@ -113,6 +164,70 @@ public class MailService implements Runnable {
 			// SMTP does not require authentication
 			session = Session.getInstance(props);
 		}
+
+		load();
+	}
+
+	/**
+	 * Queues the messages spooled by a previous run, oldest first, and
+	 * deletes incompletely spooled messages.
+	 */
+	private void load() {
+		if (spoolFolder == null) {
+			return;
+		}
+		spoolFolder.mkdirs();
+		File [] files = spoolFolder.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File file : files) {
+			if (!file.isFile()) {
+				continue;
+			}
+			String name = file.getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				file.delete();
+				continue;
+			}
+			if (!name.endsWith(SPOOL_SUFFIX)) {
+				continue;
+			}
+			// spooled messages are named key.attempts.eml
+			String [] parts = name.substring(0, name.length() - SPOOL_SUFFIX.length()).split("\\.");
+			if (parts.length != 2) {
+				continue;
+			}
+			try {
+				InputStream is = new BufferedInputStream(new FileInputStream(file));
+				Message message;
+				try {
+					message = new MimeMessage(session, is);
+				} finally {
+					is.close();
+				}
+				SpooledMessage spooled = new SpooledMessage(parts[0], message);
+				spooled.file = file;
+				spooled.attempts = Integer.parseInt(parts[1]);
+				if (spooled.attempts > 0) {
+					spooled.nextAttempt = file.lastModified() + getRetryDelay(spooled.attempts);
+				}
+				if (pending.add(spooled.key)) {
+					queue.add(spooled);
+				}
+			} catch (Exception e) {
+				logger.error("Failed to load spooled message " + file, e);
+			}
+		}
+		if (!queue.isEmpty()) {
+			logger.info("Loaded {} spooled messages from {}", queue.size(), spoolFolder);
+		}
 	}
 
 	/**
@@ -139,7 +254,7 @@ public class MailService implements Runnable {
 			mailing.content = "";
 		}
 
-		Message message = new MailMessageImpl(session, mailing.id);
+		MailMessageImpl message = new MailMessageImpl(session, mailing.id, getKey(mailing));
 		try {
 			String fromAddress = settings.getString(Keys.mail.fromAddress, null);
 			if (StringUtils.isEmpty(fromAddress)) {
@@ -236,6 +351,43 @@ public class MailService implements Runnable {
 		return message;
 	}
 
+	/**
+	 * Returns the deduplication key of a mailing.  Identical mailings to the
+	 * same recipients have the same key.
+	 *
+	 * @param mailing
+	 * @return the key
+	 */
+	static String getKey(Mailing mailing) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(mailing.type).append('\n');
+		sb.append(mailing.toAddresses).append('\n');
+		sb.append(mailing.ccAddresses).append('\n');
+		sb.append(mailing.from).append('\n');
+		sb.append(mailing.id).append('\n');
+		for (File file : mailing.attachments) {
+			sb.append(file.getAbsolutePath()).append('\n');
+		}
+		sb.append(mailing.subject).append('\n');
+		sb.append(mailing.content);
+		return StringUtils.getSHA1(sb.toString());
+	}
+
+	/**
+	 * Returns the delay before the next delivery attempt of a message.
+	 *
+	 * @param attempts
+	 *            the number of failed attempts
+	 * @return the delay in milliseconds
+	 */
+	static long getRetryDelay(int attempts) {
+		if (attempts <= 0) {
+			return 0;
+		}
+		// double the delay for each failed attempt
+		return Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY << Math.min(attempts - 1, 20));
+	}
+
 	/**
 	 * Returns the status of the mail queue.
 	 *
@@ -260,45 +412,218 @@ public class MailService implements Runnable {
 		} catch (Throwable t) {
 			logger.error("Failed to save changes to message!", t);
 		}
-		queue.add(message);
+
+		String key;
+		if (message instanceof MailMessageImpl) {
+			key = ((MailMessageImpl) message).key;
+		} else {
+			key = UUID.randomUUID().toString().replace("-", "");
+		}
+		if (!pending.add(key)) {
+			logger.debug("Dropping duplicate message {}", key);
+			return true;
+		}
+
+		SpooledMessage spooled = new SpooledMessage(key, message);
+		if (spoolFolder != null) {
+			try {
+				spool(spooled);
+			} catch (Exception e) {
+				// deliver from memory
+				logger.error("Failed to spool message", e);
+			}
+		}
+		queue.add(spooled);
 		return true;
 	}
 
+	/**
+	 * Writes a message to the spool folder, replacing the previous spool file
+	 * of the message.
+	 *
+	 * @param spooled
+	 * @throws IOException
+	 * @throws MessagingException
+	 */
+	private void spool(SpooledMessage spooled) throws IOException, MessagingException {
+		spoolFolder.mkdirs();
+		File file = new File(spoolFolder, spooled.key + "." + spooled.attempts + SPOOL_SUFFIX);
+		if (spooled.file != null) {
+			Files.move(spooled.file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			file.setLastModified(System.currentTimeMillis());
+			spooled.file = file;
+			return;
+		}
+		File temp = File.createTempFile(spooled.key, TEMP_SUFFIX, spoolFolder);
+		try {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				spooled.message.writeTo(os);
+			} finally {
+				os.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			spooled.file = file;
+		} finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Removes a message from the spool after delivery or after it was given up.
+	 *
+	 * @param spooled
+	 * @param failed
+	 *            true to keep the message in the failed folder of the spool
+	 */
+	private void unspool(SpooledMessage spooled, boolean failed) {
+		pending.remove(spooled.key);
+		if (spooled.file == null) {
+			return;
+		}
+		if (failed) {
+			File folder = new File(spoolFolder, FAILED_FOLDER);
+			folder.mkdirs();
+			try {
+				Files.move(spooled.file.toPath(), new File(folder, spooled.file.getName()).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				return;
+			} catch (IOException e) {
+				logger.error("Failed to move spooled message " + spooled.file, e);
+			}
+		}
+		spooled.file.delete();
+	}
+
+	/**
+	 * Records a failed delivery attempt.  The message is retried later unless
+	 * it has exceeded the maximum number of attempts.
+	 *
+	 * @param spooled
+	 * @param permanent
+	 *            true if retrying the message can not succeed
+	 * @param retries
+	 *            the list of messages to retry
+	 */
+	private void failed(SpooledMessage spooled, boolean permanent, List<SpooledMessage> retries) {
+		spooled.attempts++;
+		if (permanent || spooled.attempts >= maxAttempts) {
+			logger.error("Giving up on message {} after {} attempts", spooled.key, spooled.attempts);
+			unspool(spooled, true);
+			return;
+		}
+		spooled.nextAttempt = System.currentTimeMillis() + getRetryDelay(spooled.attempts);
+		if (spooled.file != null) {
+			try {
+				spool(spooled);
+			} catch (Exception e) {
+				logger.error("Failed to update spooled message " + spooled.file, e);
+			}
+		}
+		retries.add(spooled);
+	}
+
 	@Override
 	public void run() {
-		if (!queue.isEmpty()) {
-			if (session != null) {
-				// send message via mail server
-				List<Message> failures = new ArrayList<Message>();
-				Message message = null;
-				while ((message = queue.poll()) != null) {
-					try {
-						if (settings.getBoolean(Keys.mail.debug, false)) {
-							logger.info("send: '" + StringUtils.trimString(message.getSubject(), 60)
-									    + "' to:" + StringUtils.trimString(Arrays.toString(message.getAllRecipients()), 300));
-						}
-						Transport.send(message);
-					} catch (SendFailedException sfe) {
-						if (settings.getBoolean(Keys.mail.debug, false)) {
-							logger.error("Failed to send message: {}", sfe.getMessage());
-							logger.info("   Invalid addresses: {}", Arrays.toString(sfe.getInvalidAddresses()));
-							logger.info("   Valid sent addresses: {}", Arrays.toString(sfe.getValidSentAddresses()));
-							logger.info("   Valid unset addresses: {}", Arrays.toString(sfe.getValidUnsentAddresses()));
-							logger.info("", sfe);
+		if (queue.isEmpty() || session == null) {
+			return;
+		}
+
+		// collect the messages which are due
+		long now = System.currentTimeMillis();
+		List<SpooledMessage> due = new ArrayList<SpooledMessage>();
+		List<SpooledMessage> retries = new ArrayList<SpooledMessage>();
+		SpooledMessage spooled;
+		while ((spooled = queue.poll()) != null) {
+			if (spooled.nextAttempt <= now) {
+				due.add(spooled);
+			} else {
+				retries.add(spooled);
+			}
+		}
+
+		// send the messages over a single connection to the mail server
+		Transport transport = null;
+		try {
+			for (int i = 0; i < due.size(); i++) {
+				spooled = due.get(i);
+				Message message = spooled.message;
+				try {
+					if (transport == null || !transport.isConnected()) {
+						if (transport != null) {
+							closeQuietly(transport);
 						}
-						else {
-							logger.error("Failed to send message: {}", sfe.getMessage(), sfe.getNextException());
+						transport = session.getTransport("smtp");
+						transport.connect();
+					}
+				} catch (MessagingException e) {
+					// the mail server is unavailable, try again on the next run
+					logger.error("Failed to connect to mail server", e);
+					closeQuietly(transport);
+					transport = null;
+					retries.addAll(due.subList(i, due.size()));
+					break;
+				}
+				try {
+					Address [] recipients = spooled.getRecipients();
+					if (settings.getBoolean(Keys.mail.debug, false)) {
+						logger.info("send: '" + StringUtils.trimString(message.getSubject(), 60)
+								    + "' to:" + StringUtils.trimString(Arrays.toString(recipients), 300));
+					}
+					transport.sendMessage(message, recipients);
+					unspool(spooled, false);
+				} catch (SendFailedException sfe) {
+					if (settings.getBoolean(Keys.mail.debug, false)) {
+						logger.error("Failed to send message: {}", sfe.getMessage());
+						logger.info("   Invalid addresses: {}", Arrays.toString(sfe.getInvalidAddresses()));
+						logger.info("   Valid sent addresses: {}", Arrays.toString(sfe.getValidSentAddresses()));
+						logger.info("   Valid unset addresses: {}", Arrays.toString(sfe.getValidUnsentAddresses()));
+						logger.info("", sfe);
+					}
+					else {
+						logger.error("Failed to send message: {}", sfe.getMessage(), sfe.getNextException());
+					}
+					Address [] invalid = sfe.getInvalidAddresses();
+					Address [] unsent = sfe.getValidUnsentAddresses();
+					boolean hasUnsent = unsent != null && unsent.length > 0;
+					if (hasUnsent) {
+						// recipients which were sent the message are not sent it again
+						spooled.recipients = unsent;
+					}
+					if (invalid != null && invalid.length > 0) {
+						// rejected addresses will be rejected again, give up on them
+						logger.error("Dropping invalid recipients {} of message {}", Arrays.toString(invalid), spooled.key);
+						if (hasUnsent) {
+							// resend to the valid recipients in this run
+							due.add(spooled);
+						} else {
+							failed(spooled, true, retries);
 						}
-						failures.add(message);
-					} catch (Throwable e) {
-						logger.error("Failed to send message", e);
-						failures.add(message);
+					} else {
+						failed(spooled, false, retries);
 					}
+				} catch (Throwable e) {
+					logger.error("Failed to send message", e);
+					failed(spooled, false, retries);
 				}
-
-				// push the failures back onto the queue for the next cycle
-				queue.addAll(failures);
 			}
+		} finally {
+			closeQuietly(transport);
+			// push the retries back onto the queue for a later cycle
+			queue.addAll(retries);
+		}
+	}
+
+	private void closeQuietly(Transport transport) {
+		if (transport == null) {
+			return;
+		}
+		try {
+			transport.close();
+		} catch (MessagingException e) {
+			logger.debug("Failed to close mail transport", e);
 		}
 	}
 
@@ -306,13 +631,47 @@ public class MailService implements Runnable {
 		Transport.send(message);
 	}
 
+	/**
+	 * A queued message and its delivery state.
+	 */
+	private static class SpooledMessage {
+
+		final String key;
+
+		final Message message;
+
+		File file;
+
+		/**
+		 * The remaining recipients, null for all recipients of the message.
+		 * Only kept in memory, a reloaded message is sent to all recipients.
+		 */
+		Address [] recipients;
+
+		int attempts;
+
+		long nextAttempt;
+
+		SpooledMessage(String key, Message message) {
+			this.key = key;
+			this.message = message;
+		}
+
+		Address [] getRecipients() throws MessagingException {
+			return recipients == null ? message.getAllRecipients() : recipients;
+		}
+	}
+
 	private static class MailMessageImpl extends MimeMessage {
 
 		final String id;
 
-		MailMessageImpl(Session session, String id) {
+		final String key;
+
+		MailMessageImpl(Session session, String id, String key) {
 			super(session);
 			this.id = id;
+			this.key = key;
 		}
 
 		@Override
@@ -20,8 +20,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.RefUpdate.Result;
@@ -32,6 +38,7 @@ import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.ReceiveCommand.Type;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.TrackingRefUpdate;
+import org.eclipse.jgit.transport.URIish;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,16 +49,30 @@ import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.UserModel;
 import com.gitblit.tickets.BranchTicketService;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.TimeUtils;
+import com.gitblit.utils.WorkQueue;
 
 /**
  * The Mirror service handles periodic fetching of mirrored repositories.
  *
+ * Each scan of the service identifies the mirrors which are due and submits
+ * them to a bounded pool of fetch workers.  Every mirror has its own schedule:
+ * the next fetch is one mirror period after the previous fetch completed and
+ * failed fetches are retried with a randomized, exponential backoff.  The
+ * number of concurrent fetches from one remote host is limited.
+ *
  * @author James Moger
  *
  */
 public class MirrorService implements Runnable {
 
+	/**
+	 * The maximum delay of a retry after repeated fetch failures.
+	 */
+	private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(24);
+
 	private final Logger logger = LoggerFactory.getLogger(MirrorService.class);
 
 	private final Set<String> repairAttempted = Collections.synchronizedSet(new HashSet<String>());
@@ -66,14 +87,59 @@ public class MirrorService implements Runnable {
 
 	private final UserModel gitblitUser;
 
+	private final ConcurrentMap<String, MirrorState> mirrors = new ConcurrentHashMap<String, MirrorState>();
+
+	private final ConcurrentMap<String, AtomicInteger> hostFetches = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final Random random = new Random();
+
+	private final long period;
+
+	private final int fetchesPerHost;
+
+	private final int timeout;
+
+	private final WorkQueue.Executor workers;
+
+	private final WorkQueue privateWorkQueue;
+
 	public MirrorService(
 			IStoredSettings settings,
 			IRepositoryManager repositoryManager) {
+		this(settings, repositoryManager, null);
+	}
+
+	/**
+	 * @param settings
+	 * @param repositoryManager
+	 * @param workQueue
+	 *            the work queue which runs the mirror fetches, or null to use
+	 *            a private work queue which is stopped when the service closes
+	 */
+	public MirrorService(
+			IStoredSettings settings,
+			IRepositoryManager repositoryManager,
+			WorkQueue workQueue) {
 
 		this.settings = settings;
 		this.repositoryManager = repositoryManager;
 		this.gitblitUser = new UserModel("gitblit");
 		this.gitblitUser.displayName = "Gitblit";
+
+		int mins = TimeUtils.convertFrequencyToMinutes(settings.getString(Keys.git.mirrorPeriod, "30 mins"), 5);
+		this.period = TimeUnit.MINUTES.toMillis(mins);
+		this.fetchesPerHost = Math.max(1, settings.getInteger(Keys.git.mirrorFetchesPerHost, 2));
+		this.timeout = Math.max(0, settings.getInteger(Keys.git.mirrorTimeout, 300));
+
+		if (isReady()) {
+			int threads = Math.max(1, settings.getInteger(Keys.git.mirrorThreads, 4));
+			this.privateWorkQueue = workQueue == null ? new WorkQueue(new IdGenerator(), 1) : null;
+			// fetches are listed with the other tasks of the work queue
+			this.workers = (workQueue == null ? privateWorkQueue : workQueue).createQueue(threads, "MirrorService");
+		} else {
+			this.privateWorkQueue = null;
+			this.workers = null;
+		}
 	}
 
 	public boolean isReady() {
@@ -84,10 +150,40 @@ public class MirrorService implements Runnable {
 		return running.get();
 	}
 
+	/**
+	 * @return the number of mirror fetches which are queued or running
+	 */
+	public int getFetchCount() {
+		int count = 0;
+		for (AtomicInteger fetches : hostFetches.values()) {
+			count += fetches.get();
+		}
+		return count;
+	}
+
 	public void close() {
 		forceClose.set(true);
+		if (workers != null) {
+			workers.shutdownNow();
+			workers.unregisterWorkQueue();
+		}
+		if (privateWorkQueue != null) {
+			privateWorkQueue.stop();
+		}
 	}
 
+	/**
+	 * Returns the current time in milliseconds.
+	 *
+	 * @return the current time
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Scans the repositories and submits the mirrors which are due for a fetch.
+	 */
 	@Override
 	public void run() {
 		if (!isReady()) {
@@ -95,116 +191,283 @@ public class MirrorService implements Runnable {
 		}
 
 		running.set(true);
+		try {
+			List<String> repositories = repositoryManager.getRepositoryList();
+			// forget the schedules of deleted repositories
+			mirrors.keySet().retainAll(new HashSet<String>(repositories));
 
-		for (String repositoryName : repositoryManager.getRepositoryList()) {
-			if (forceClose.get()) {
-				break;
-			}
-			if (repositoryManager.isCollectingGarbage(repositoryName)) {
-				logger.debug("mirror is skipping {} garbagecollection", repositoryName);
-				continue;
-			}
-			RepositoryModel model = null;
-			Repository repository = null;
-			try {
-				model = repositoryManager.getRepositoryModel(repositoryName);
-				if (!model.isMirror && !model.isBare) {
-					// repository must be a valid bare git mirror
-					logger.debug("mirror is skipping {} !mirror !bare", repositoryName);
+			for (String repositoryName : repositories) {
+				if (forceClose.get()) {
+					break;
+				}
+				MirrorState state = mirrors.get(repositoryName);
+				if (state == null) {
+					state = new MirrorState();
+					MirrorState existing = mirrors.putIfAbsent(repositoryName, state);
+					if (existing != null) {
+						state = existing;
+					}
+				}
+				if (state.fetching.get() || now() < state.nextFetch) {
 					continue;
 				}
-
-				repository = repositoryManager.getRepository(repositoryName);
-				if (repository == null) {
-					logger.warn(MessageFormat.format("MirrorExecutor is missing repository {0}?!?", repositoryName));
+				if (repositoryManager.isCollectingGarbage(repositoryName)) {
+					logger.debug("mirror is skipping {} garbagecollection", repositoryName);
 					continue;
 				}
+				if (!submit(repositoryName, state)) {
+					// the work queue does not accept further fetches
+					break;
+				}
+			}
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Identifies the mirror remote of the repository and submits a fetch, if
+	 * the remote host has capacity.
+	 *
+	 * @param repositoryName
+	 * @param state
+	 * @return false if the work queue rejected the fetch
+	 */
+	private boolean submit(String repositoryName, MirrorState state) {
+		Repository repository = null;
+		try {
+			RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
+			if (model == null || (!model.isMirror && !model.isBare)) {
+				// repository must be a valid bare git mirror
+				logger.debug("mirror is skipping {} !mirror !bare", repositoryName);
+				state.nextFetch = now() + period;
+				return true;
+			}
+
+			repository = repositoryManager.getRepository(repositoryName);
+			if (repository == null) {
+				logger.warn(MessageFormat.format("MirrorExecutor is missing repository {0}?!?", repositoryName));
+				return true;
+			}
+
+			// automatically repair (some) invalid fetch ref specs
+			if (!repairAttempted.contains(repositoryName)) {
+				repairAttempted.add(repositoryName);
+				JGitUtils.repairFetchSpecs(repository);
+			}
 
-				// automatically repair (some) invalid fetch ref specs
-				if (!repairAttempted.contains(repositoryName)) {
-					repairAttempted.add(repositoryName);
-					JGitUtils.repairFetchSpecs(repository);
+			// find the first mirror remote - there should only be one
+			StoredConfig rc = repository.getConfig();
+			RemoteConfig mirror = null;
+			List<RemoteConfig> configs = RemoteConfig.getAllRemoteConfigs(rc);
+			for (RemoteConfig config : configs) {
+				if (config.isMirror()) {
+					mirror = config;
+					break;
 				}
+			}
 
-				// find the first mirror remote - there should only be one
-				StoredConfig rc = repository.getConfig();
-				RemoteConfig mirror = null;
-				List<RemoteConfig> configs = RemoteConfig.getAllRemoteConfigs(rc);
-				for (RemoteConfig config : configs) {
-					if (config.isMirror()) {
-						mirror = config;
-						break;
-					}
+			if (mirror == null) {
+				// repository does not have a mirror remote
+				logger.debug("mirror is skipping {} no mirror remote found", repositoryName);
+				state.nextFetch = now() + period;
+				return true;
+			}
+
+			String host = getHost(mirror);
+			AtomicInteger fetches = hostFetches.get(host);
+			if (fetches == null) {
+				fetches = new AtomicInteger();
+				AtomicInteger existing = hostFetches.putIfAbsent(host, fetches);
+				if (existing != null) {
+					fetches = existing;
 				}
+			}
+			if (fetches.incrementAndGet() > fetchesPerHost) {
+				// the mirror remains due and is submitted by a later scan
+				fetches.decrementAndGet();
+				logger.debug("mirror is deferring {}, {} fetches from {} are in progress",
+						repositoryName, fetchesPerHost, host);
+				return true;
+			}
 
-				if (mirror == null) {
-					// repository does not have a mirror remote
-					logger.debug("mirror is skipping {} no mirror remote found", repositoryName);
-					continue;
+			state.fetching.set(true);
+			try {
+				workers.execute(new MirrorFetch(repositoryName, mirror.getName(), host, state));
+			} catch (RejectedExecutionException e) {
+				// the service is closing or the queue is full, the mirror
+				// remains due and is submitted by a later scan
+				fetches.decrementAndGet();
+				state.fetching.set(false);
+				if (!forceClose.get()) {
+					logger.warn(MessageFormat.format("Mirror fetch queue is full, deferring {0}", repositoryName));
 				}
+				return false;
+			}
+		} catch (Exception e) {
+			logger.error("Error scheduling mirror " + repositoryName, e);
+		} finally {
+			if (repository != null) {
+				repository.close();
+			}
+		}
+		return true;
+	}
 
-				logger.debug("checking {} remote {} for ref updates", repositoryName, mirror.getName());
-				final boolean testing = false;
-				Git git = new Git(repository);
-				FetchResult result = git.fetch().setRemote(mirror.getName()).setDryRun(testing).call();
-				Collection<TrackingRefUpdate> refUpdates = result.getTrackingRefUpdates();
-				if (refUpdates.size() > 0) {
-					ReceiveCommand ticketBranchCmd = null;
-					for (TrackingRefUpdate ru : refUpdates) {
-						StringBuilder sb = new StringBuilder();
-						sb.append("updated mirror ");
-						sb.append(repositoryName);
-						sb.append(" ");
-						sb.append(ru.getRemoteName());
-						sb.append(" -> ");
-						sb.append(ru.getLocalName());
-						if (ru.getResult() == Result.FORCED) {
-							sb.append(" (forced)");
+	private String getHost(RemoteConfig remote) {
+		if (remote.getURIs().isEmpty()) {
+			return "";
+		}
+		URIish uri = remote.getURIs().get(0);
+		return uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+	}
+
+	/**
+	 * Returns the delay until the next attempt to fetch a failing mirror.  The
+	 * delay doubles with each consecutive failure and is randomized to avoid
+	 * retrying all mirrors of an unavailable host at the same time.
+	 *
+	 * @param failures
+	 *            the number of consecutive failures
+	 * @return the delay in milliseconds
+	 */
+	long getRetryDelay(int failures) {
+		long delay = period << Math.min(failures - 1, 8);
+		delay = Math.min(delay, Math.max(period, MAX_BACKOFF));
+		long half = delay / 2;
+		return half + (long) (random.nextDouble() * half);
+	}
+
+	/**
+	 * Fetches ref updates from the mirror remote of a repository.  JGit
+	 * finishes a fetch after the ref advertisement when the remote refs match
+	 * the tracking refs, so an unchanged mirror does not transfer objects.
+	 *
+	 * @param repositoryName
+	 * @param remoteName
+	 * @throws Exception
+	 */
+	void fetch(String repositoryName, String remoteName) throws Exception {
+		Repository repository = repositoryManager.getRepository(repositoryName);
+		if (repository == null) {
+			logger.warn(MessageFormat.format("MirrorExecutor is missing repository {0}?!?", repositoryName));
+			return;
+		}
+		try {
+			RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
+			logger.debug("checking {} remote {} for ref updates", repositoryName, remoteName);
+			final boolean testing = false;
+			Git git = new Git(repository);
+			FetchResult result = git.fetch().setRemote(remoteName).setDryRun(testing).setTimeout(timeout).call();
+			Collection<TrackingRefUpdate> refUpdates = result.getTrackingRefUpdates();
+			if (refUpdates.size() > 0) {
+				ReceiveCommand ticketBranchCmd = null;
+				for (TrackingRefUpdate ru : refUpdates) {
+					StringBuilder sb = new StringBuilder();
+					sb.append("updated mirror ");
+					sb.append(repositoryName);
+					sb.append(" ");
+					sb.append(ru.getRemoteName());
+					sb.append(" -> ");
+					sb.append(ru.getLocalName());
+					if (ru.getResult() == Result.FORCED) {
+						sb.append(" (forced)");
+					}
+					sb.append(" ");
+					sb.append(ru.getOldObjectId() == null ? "" : ru.getOldObjectId().abbreviate(7).name());
+					sb.append("..");
+					sb.append(ru.getNewObjectId() == null ? "" : ru.getNewObjectId().abbreviate(7).name());
+					logger.info(sb.toString());
+
+					if (BranchTicketService.BRANCH.equals(ru.getLocalName())) {
+						ReceiveCommand.Type type = null;
+						switch (ru.getResult()) {
+						case NEW:
+							type = Type.CREATE;
+							break;
+						case FAST_FORWARD:
+							type = Type.UPDATE;
+							break;
+						case FORCED:
+							type = Type.UPDATE_NONFASTFORWARD;
+							break;
+						default:
+							type = null;
+							break;
 						}
-						sb.append(" ");
-						sb.append(ru.getOldObjectId() == null ? "" : ru.getOldObjectId().abbreviate(7).name());
-						sb.append("..");
-						sb.append(ru.getNewObjectId() == null ? "" : ru.getNewObjectId().abbreviate(7).name());
-						logger.info(sb.toString());
-
-						if (BranchTicketService.BRANCH.equals(ru.getLocalName())) {
-							ReceiveCommand.Type type = null;
-							switch (ru.getResult()) {
-							case NEW:
-								type = Type.CREATE;
-								break;
-							case FAST_FORWARD:
-								type = Type.UPDATE;
-								break;
-							case FORCED:
-								type = Type.UPDATE_NONFASTFORWARD;
-								break;
-							default:
-								type = null;
-								break;
-							}
-
-							if (type != null) {
-								ticketBranchCmd = new ReceiveCommand(ru.getOldObjectId(),
-									ru.getNewObjectId(), ru.getLocalName(), type);
-							}
+
+						if (type != null) {
+							ticketBranchCmd = new ReceiveCommand(ru.getOldObjectId(),
+								ru.getNewObjectId(), ru.getLocalName(), type);
 						}
 					}
+				}
 
-					if (ticketBranchCmd != null) {
-						repository.fireEvent(new ReceiveCommandEvent(model, ticketBranchCmd));
-					}
+				if (ticketBranchCmd != null) {
+					repository.fireEvent(new ReceiveCommandEvent(model, ticketBranchCmd));
 				}
+			}
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * The fetch schedule of a repository.
+	 */
+	private static class MirrorState {
+
+		final AtomicBoolean fetching = new AtomicBoolean();
+
+		volatile long nextFetch;
+
+		volatile int failures;
+	}
+
+	/**
+	 * A fetch of one mirror, listed by the work queue.
+	 */
+	private class MirrorFetch implements Runnable {
+
+		final String repositoryName;
+
+		final String remoteName;
+
+		final String host;
+
+		final MirrorState state;
+
+		MirrorFetch(String repositoryName, String remoteName, String host, MirrorState state) {
+			this.repositoryName = repositoryName;
+			this.remoteName = remoteName;
+			this.host = host;
+			this.state = state;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (forceClose.get()) {
+					return;
+				}
+				fetch(repositoryName, remoteName);
+				state.failures = 0;
+				state.nextFetch = now() + period;
 			} catch (Exception e) {
-				logger.error("Error updating mirror " + repositoryName, e);
+				state.failures++;
+				long delay = getRetryDelay(state.failures);
+				state.nextFetch = now() + delay;
+				logger.error(MessageFormat.format("Error updating mirror {0}, retrying in {1} mins",
+						repositoryName, TimeUnit.MILLISECONDS.toMinutes(delay)), e);
 			} finally {
-				// cleanup
-				if (repository != null) {
-					repository.close();
-				}
+				state.fetching.set(false);
+				hostFetches.get(host).decrementAndGet();
 			}
 		}
 
-		running.set(false);
+		@Override
+		public String toString() {
+			return MessageFormat.format("mirror {0} from {1}", repositoryName, host.isEmpty() ? remoteName : host);
+		}
 	}
 }
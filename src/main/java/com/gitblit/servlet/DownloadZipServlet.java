@@ -15,7 +15,13 @@
  */
 package com.gitblit.servlet;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.Date;
@@ -37,7 +43,11 @@ import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IFilestoreManager;
 import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.IRuntimeManager;
+import com.gitblit.utils.ArchiveCache;
 import com.gitblit.utils.CompressionUtils;
+import com.gitblit.utils.HttpUtils;
+import com.gitblit.utils.HttpUtils.ByteRange;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.MarkdownUtils;
 import com.gitblit.utils.StringUtils;
@@ -62,6 +72,8 @@ public class DownloadZipServlet extends HttpServlet {
 	
 	private IFilestoreManager filestoreManager;
 
+	private ArchiveCache archiveCache;
+
 	public static enum Format {
 		zip(".zip"), tar(".tar"), gz(".tar.gz"), xz(".tar.xz"), bzip2(".tar.bzip2");
 
@@ -82,10 +94,16 @@ public class DownloadZipServlet extends HttpServlet {
 	}
 
 	@Inject
-	public DownloadZipServlet(IStoredSettings settings, IRepositoryManager repositoryManager, IFilestoreManager filestoreManager) {
-		this.settings = settings;
+	public DownloadZipServlet(IRuntimeManager runtimeManager, IRepositoryManager repositoryManager, IFilestoreManager filestoreManager) {
+		this.settings = runtimeManager.getSettings();
 		this.repositoryManager = repositoryManager;
 		this.filestoreManager = filestoreManager;
+
+		long cacheSize = settings.getFilesize(Keys.web.archiveCacheSize, 0L);
+		if (cacheSize > 0) {
+			File folder = runtimeManager.getFileOrFolder(Keys.web.archiveCacheFolder, "${baseFolder}/temp/archives");
+			this.archiveCache = new ArchiveCache(folder, cacheSize);
+		}
 	}
 
 	/**
@@ -176,22 +194,30 @@ public class DownloadZipServlet extends HttpServlet {
 
 			
 			try {
-				switch (format) {
-				case zip:
-					CompressionUtils.zip(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case tar:
-					CompressionUtils.tar(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case gz:
-					CompressionUtils.gz(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case xz:
-					CompressionUtils.xz(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case bzip2:
-					CompressionUtils.bzip2(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
+				if (archiveCache == null) {
+					archive(format, r, basePath, commit.getName(), response.getOutputStream());
+				} else {
+					// the archive content is determined by the commit, path and format
+					String key = StringUtils.getSHA1(commit.getName() + ":" + format.name() + ":"
+							+ (basePath == null ? "" : basePath)) + format.extension;
+					final Format archiveFormat = format;
+					final Repository archiveRepository = r;
+					final String archivePath = basePath;
+					final String archiveCommit = commit.getName();
+					FileInputStream is = archiveCache.open(key, new ArchiveCache.Generator() {
+						@Override
+						public void write(OutputStream os) throws IOException {
+							if (!archive(archiveFormat, archiveRepository, archivePath, archiveCommit, os)) {
+								throw new IOException(MessageFormat.format("Failed to generate {0} archive of {1}",
+										archiveFormat.name(), archiveCommit));
+							}
+						}
+					});
+					try {
+						sendArchive(request, response, is, key);
+					} finally {
+						is.close();
+					}
 				}
 
 				response.flushBuffer();
@@ -213,6 +239,70 @@ public class DownloadZipServlet extends HttpServlet {
 		}
 	}
 
+	private boolean archive(Format format, Repository r, String basePath, String objectId, OutputStream os) {
+		switch (format) {
+		case zip:
+			return CompressionUtils.zip(r, filestoreManager, basePath, objectId, os);
+		case tar:
+			return CompressionUtils.tar(r, filestoreManager, basePath, objectId, os);
+		case gz:
+			return CompressionUtils.gz(r, filestoreManager, basePath, objectId, os);
+		case xz:
+			return CompressionUtils.xz(r, filestoreManager, basePath, objectId, os);
+		case bzip2:
+			return CompressionUtils.bzip2(r, filestoreManager, basePath, objectId, os);
+		}
+		return false;
+	}
+
+	/**
+	 * Sends a cached archive, honoring conditional and byte range requests.
+	 *
+	 * @param request
+	 * @param response
+	 * @param is
+	 *            the opened archive
+	 * @param key
+	 * @throws IOException
+	 */
+	private void sendArchive(javax.servlet.http.HttpServletRequest request, HttpServletResponse response,
+			FileInputStream is, String key) throws IOException {
+		// the key identifies the archive content
+		FileChannel channel = is.getChannel();
+		String etag = "\"" + key + "-" + Long.toHexString(channel.size()) + "\"";
+		response.setHeader("ETag", etag);
+		response.setHeader("Accept-Ranges", "bytes");
+		// the url may name a branch which was reset to an older commit, so
+		// the archive is validated by its entity tag only
+		if (HttpUtils.isNotModified(request, etag, -1)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long length = channel.size();
+		long position = 0;
+		ByteRange range = HttpUtils.getRange(request, etag, length);
+		if (range == null) {
+			response.setHeader("Content-Length", Long.toString(length));
+		} else if (HttpUtils.setRange(response, range)) {
+			position = range.start;
+			length = range.getLength();
+		} else {
+			// unsatisfiable range
+			return;
+		}
+
+		WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+		while (length > 0) {
+			long count = channel.transferTo(position, length, target);
+			if (count <= 0) {
+				break;
+			}
+			position += count;
+			length -= count;
+		}
+	}
+
 	private void error(HttpServletResponse response, String mkd) throws ServletException,
 			IOException, ParseException {
 		String content = MarkdownUtils.transformMarkdown(mkd);
@@ -17,6 +17,7 @@ package com.gitblit.servlet;
 
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Enumeration;
 
@@ -35,10 +36,12 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jgit.http.server.GitFilter;
 
+import com.gitblit.Keys;
 import com.gitblit.git.GitblitReceivePackFactory;
 import com.gitblit.git.GitblitUploadPackFactory;
 import com.gitblit.git.RepositoryResolver;
 import com.gitblit.manager.IGitblit;
+import com.gitblit.utils.ArchiveCache;
 
 /**
  * The GitServlet provides http/https access to Git repositories.
@@ -58,7 +61,13 @@ public class GitServlet extends HttpServlet {
 	public GitServlet(IGitblit gitblit) {
 		gitFilter = new GitFilter();
 		gitFilter.setRepositoryResolver(new RepositoryResolver<HttpServletRequest>(gitblit));
-		gitFilter.setUploadPackFactory(new GitblitUploadPackFactory<HttpServletRequest>(gitblit));
+		ArchiveCache packCache = null;
+		long cacheSize = gitblit.getSettings().getFilesize(Keys.git.packCacheSize, 0L);
+		if (cacheSize > 0) {
+			File folder = gitblit.getFileOrFolder(Keys.git.packCacheFolder, "${baseFolder}/temp/packs");
+			packCache = new ArchiveCache("packs", folder, cacheSize);
+		}
+		gitFilter.setUploadPackFactory(new GitblitUploadPackFactory<HttpServletRequest>(gitblit, packCache));
 		gitFilter.setReceivePackFactory(new GitblitReceivePackFactory<HttpServletRequest>(gitblit));
 	}
 
@@ -16,9 +16,14 @@
 package com.gitblit.servlet;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.text.MessageFormat;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -120,12 +125,58 @@ public abstract class JsonServlet extends HttpServlet {
 	}
 
 	protected void serialize(HttpServletResponse response, Object o) throws IOException {
+		serialize(null, response, o);
+	}
+
+	/**
+	 * Streams the JSON response.  The response is gzip compressed if the
+	 * request accepts gzip encoding.
+	 *
+	 * @param request
+	 *            the request, may be null
+	 * @param response
+	 * @param o
+	 * @throws IOException
+	 */
+	protected void serialize(HttpServletRequest request, HttpServletResponse response, Object o) throws IOException {
 		if (o != null) {
 			// Send JSON response
-			String json = JsonUtils.toJsonString(o);
 			response.setCharacterEncoding(Constants.ENCODING);
 			response.setContentType("application/json");
-			response.getWriter().append(json);
+			OutputStream os = response.getOutputStream();
+			GZIPOutputStream gzip = null;
+			if (request != null) {
+				response.addHeader("Vary", "Accept-Encoding");
+			}
+			if (acceptsGzip(request)) {
+				response.setHeader("Content-Encoding", "gzip");
+				gzip = new GZIPOutputStream(os, 8192);
+				os = gzip;
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(os, Constants.ENCODING));
+			JsonUtils.toJson(o, writer);
+			writer.flush();
+			if (gzip != null) {
+				gzip.finish();
+			}
+		}
+	}
+
+	private boolean acceptsGzip(HttpServletRequest request) {
+		if (request == null) {
+			return false;
+		}
+		String encodings = request.getHeader("Accept-Encoding");
+		if (StringUtils.isEmpty(encodings)) {
+			return false;
+		}
+		for (String encoding : encodings.split(",")) {
+			String [] parts = encoding.trim().split(";");
+			if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+				// gzip;q=0 explicitly refuses gzip
+				return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
 		}
+		return false;
 	}
 }
@@ -18,6 +18,7 @@ package com.gitblit.servlet;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.text.MessageFormat;
@@ -36,8 +37,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.tika.Tika;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
@@ -45,6 +48,7 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.IO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,7 +57,10 @@ import com.gitblit.Keys;
 import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.manager.IRuntimeManager;
 import com.gitblit.models.PathModel;
+import com.gitblit.models.RepositoryModel;
 import com.gitblit.utils.ByteFormat;
+import com.gitblit.utils.HttpUtils;
+import com.gitblit.utils.HttpUtils.ByteRange;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.MarkdownUtils;
 import com.gitblit.utils.StringUtils;
@@ -226,7 +233,25 @@ public class RawServlet extends HttpServlet {
 			quickContentTypes.put("xml", "application/xml");
 			quickContentTypes.put("json", "application/json");
 
-			List<PathModel> pathEntries = JGitUtils.getFilesInPath(r, requestedPath, commit);
+			// a blob can be validated by its id without loading the content
+			String etag = null;
+			List<PathModel> pathEntries;
+			ObjectId blobId = getBlobId(r, commit, requestedPath);
+			if (blobId == null) {
+				pathEntries = JGitUtils.getFilesInPath(r, requestedPath, commit);
+			} else {
+				pathEntries = new ArrayList<PathModel>();
+				etag = getETag(blobId);
+				// a branch may be reset to an older commit, so the commit date
+				// only validates blobs which are requested by commit id
+				long lastModified = ObjectId.isId(branch) ? JGitUtils.getCommitDate(commit).getTime() : -1;
+				setCacheHeaders(response, repository, branch, etag, lastModified);
+				if (HttpUtils.isNotModified(request, etag, lastModified)) {
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+			}
+
 			if (pathEntries.isEmpty()) {
 				// requested a specific resource
 				String file = StringUtils.getLastPathElement(requestedPath);
@@ -277,8 +302,17 @@ public class RawServlet extends HttpServlet {
 
 						byte [] bytes = content.getBytes(Constants.ENCODING);
 						setContentType(response, contentType);
-						response.setContentLength(bytes.length);
-						ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+						ByteArrayInputStream is;
+						ByteRange range = HttpUtils.getRange(request, etag, bytes.length);
+						if (range == null) {
+							response.setContentLength(bytes.length);
+							is = new ByteArrayInputStream(bytes);
+						} else if (HttpUtils.setRange(response, range)) {
+							is = new ByteArrayInputStream(bytes, (int) range.start, (int) range.getLength());
+						} else {
+							// unsatisfiable range
+							return;
+						}
 						sendContent(response, JGitUtils.getCommitDate(commit), is);
 
 					} else {
@@ -389,6 +423,80 @@ public class RawServlet extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Returns the id of the blob at the path of the commit.
+	 *
+	 * @param repository
+	 * @param commit
+	 * @param path
+	 * @return the blob id or null if the path is not a file
+	 * @throws IOException
+	 */
+	private ObjectId getBlobId(Repository repository, RevCommit commit, String path) throws IOException {
+		if (StringUtils.isEmpty(path)) {
+			return null;
+		}
+		TreeWalk tw = TreeWalk.forPath(repository, path, commit.getTree());
+		if (tw == null) {
+			return null;
+		}
+		try {
+			FileMode mode = tw.getFileMode(0);
+			if (mode == FileMode.TREE || mode == FileMode.GITLINK) {
+				return null;
+			}
+			return tw.getObjectId(0);
+		} finally {
+			tw.close();
+		}
+	}
+
+	/**
+	 * Returns the strong entity tag of a blob.
+	 *
+	 * @param blobId
+	 * @return a quoted entity tag
+	 */
+	private static String getETag(AnyObjectId blobId) {
+		return "\"" + blobId.getName() + "\"";
+	}
+
+	/**
+	 * Sets the validators and caching policy of a blob.  Blobs requested by
+	 * commit id never change and may be cached indefinitely.  Blobs requested
+	 * by branch must be revalidated because the branch may move.
+	 *
+	 * @param response
+	 * @param repository
+	 * @param branch
+	 * @param etag
+	 * @param lastModified
+	 *            the last modified time of the blob, or -1 to validate by
+	 *            entity tag only
+	 */
+	protected void setCacheHeaders(HttpServletResponse response, String repository, String branch,
+			String etag, long lastModified) {
+		response.setHeader("ETag", etag);
+		if (lastModified > -1) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		response.setHeader("Accept-Ranges", "bytes");
+
+		// do not allow shared caches to store restricted content
+		String scope = "public";
+		RepositoryModel model = repositoryManager.getRepositoryModel(repository);
+		if (model == null || !model.allowAnonymousView()
+				|| runtimeManager.getSettings().getBoolean(Keys.web.authenticateViewPages, false)) {
+			scope = "private";
+		}
+
+		if (ObjectId.isId(branch)) {
+			response.setHeader("Cache-Control", scope + ", max-age=31536000, immutable");
+		} else {
+			response.setHeader("Cache-Control", scope + ", max-age=0, must-revalidate");
+		}
+	}
+
 	protected boolean isTextType(String contentType) {
 		if (contentType.startsWith("text/")
 				|| "application/json".equals(contentType)
@@ -460,9 +568,22 @@ public class RawServlet extends HttpServlet {
 
 				long len = reader.getObjectSize(id, org.eclipse.jgit.lib.Constants.OBJ_BLOB);
 				setContentType(response, "application/octet-stream");
-				response.setIntHeader("Content-Length", (int) len);
-				ObjectLoader ldr = repository.open(id);
-				ldr.copyTo(response.getOutputStream());
+				ByteRange range = HttpUtils.getRange(request, getETag(id), len);
+				if (range == null) {
+					response.setHeader("Content-Length", Long.toString(len));
+					ObjectLoader ldr = repository.open(id);
+					ldr.copyTo(response.getOutputStream());
+				} else if (HttpUtils.setRange(response, range)) {
+					// resume a partial download
+					ObjectLoader ldr = repository.open(id);
+					InputStream is = ldr.openStream();
+					try {
+						IO.skipFully(is, range.start);
+						copy(is, response.getOutputStream(), range.getLength());
+					} finally {
+						is.close();
+					}
+				}
 				served = true;
 			}
 		} finally {
@@ -474,6 +595,19 @@ public class RawServlet extends HttpServlet {
 		return served;
 	}
 
+	private void copy(InputStream is, OutputStream os, long length) throws IOException {
+		byte[] tmp = new byte[8192];
+		long remaining = length;
+		while (remaining > 0) {
+			int len = is.read(tmp, 0, (int) Math.min(tmp.length, remaining));
+			if (len < 0) {
+				break;
+			}
+			os.write(tmp, 0, len);
+			remaining -= len;
+		}
+	}
+
 	protected void sendContent(HttpServletResponse response, Date date, InputStream is) throws ServletException, IOException {
 
 		try {
@@ -19,7 +19,9 @@ import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -48,6 +50,7 @@ import com.gitblit.utils.HttpUtils;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.RpcUtils;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.TransferMetrics;
 
 /**
  * Handles remote procedure calls.
@@ -59,7 +62,7 @@ public class RpcServlet extends JsonServlet {
 
 	private static final long serialVersionUID = 1L;
 
-	public static final int PROTOCOL_VERSION = 8;
+	public static final int PROTOCOL_VERSION = 9;
 
 	private IStoredSettings settings;
 
@@ -110,10 +113,22 @@ public class RpcServlet extends JsonServlet {
 			sb.append("{0}");
 			String cloneUrl = sb.toString();
 
-			// list repositories
+			// list repositories, optionally only those changed since a date.
+			// lastChange is the most recent commit date, so older commits
+			// pushed after the date and deleted repositories are not listed
 			List<RepositoryModel> list = gitblit.getRepositoryModels(user);
-			Map<String, RepositoryModel> repositories = new HashMap<String, RepositoryModel>();
-			for (RepositoryModel model : list) {
+			Date since = getSince(request);
+			if (since != null) {
+				List<RepositoryModel> changed = new ArrayList<RepositoryModel>();
+				for (RepositoryModel model : list) {
+					if (model.lastChange != null && model.lastChange.after(since)) {
+						changed.add(model);
+					}
+				}
+				list = changed;
+			}
+			Map<String, RepositoryModel> repositories = new LinkedHashMap<String, RepositoryModel>();
+			for (RepositoryModel model : getPage(request, list)) {
 				String url = MessageFormat.format(cloneUrl, model.name);
 				repositories.put(url, model);
 			}
@@ -178,7 +193,7 @@ public class RpcServlet extends JsonServlet {
 			}
 		} else if (RpcRequest.LIST_USERS.equals(reqType)) {
 			// list users
-			List<String> names = gitblit.getAllUsernames();
+			List<String> names = getPage(request, gitblit.getAllUsernames());
 			List<UserModel> users = new ArrayList<UserModel>();
 			for (String name : names) {
 				users.add(gitblit.getUserModel(name));
@@ -186,7 +201,7 @@ public class RpcServlet extends JsonServlet {
 			result = users;
 		} else if (RpcRequest.LIST_TEAMS.equals(reqType)) {
 			// list teams
-			List<String> names = gitblit.getAllTeamNames();
+			List<String> names = getPage(request, gitblit.getAllTeamNames());
 			List<TeamModel> teams = new ArrayList<TeamModel>();
 			for (String name : names) {
 				teams.add(gitblit.getTeamModel(name));
@@ -408,6 +423,16 @@ public class RpcServlet extends JsonServlet {
 			} else {
 				response.sendError(notAllowedCode);
 			}
+		} else if (RpcRequest.LIST_METRICS.equals(reqType)) {
+			// return the transfer metrics in the Prometheus text format
+			if (allowAdmin) {
+				response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+				response.setCharacterEncoding(Constants.ENCODING);
+				TransferMetrics.instance().write(response.getWriter());
+				return;
+			} else {
+				response.sendError(notAllowedCode);
+			}
 		} else if (RpcRequest.CLEAR_REPOSITORY_CACHE.equals(reqType)) {
 			// clear the repository list cache
 			if (allowManagement) {
@@ -431,6 +456,62 @@ public class RpcServlet extends JsonServlet {
 		}
 
 		// send the result of the request
-		serialize(response, result);
+		serialize(request, response, result);
+	}
+
+	/**
+	 * Returns the requested page of a list.  The page is specified by the
+	 * 1-based "page" parameter and the "pageSize" parameter.  The complete
+	 * list is returned if no page size is specified.
+	 *
+	 * @param request
+	 * @param list
+	 * @return the page
+	 */
+	private <X> List<X> getPage(HttpServletRequest request, List<X> list) {
+		int pageSize = getInteger(request, "pageSize", 0);
+		if (pageSize <= 0) {
+			return list;
+		}
+		int page = Math.max(1, getInteger(request, "page", 1));
+		long start = (page - 1L) * pageSize;
+		if (start >= list.size()) {
+			return new ArrayList<X>();
+		}
+		int end = (int) Math.min(list.size(), start + pageSize);
+		return list.subList((int) start, end);
+	}
+
+	/**
+	 * Returns the date of the "since" parameter, specified in milliseconds
+	 * since the epoch.
+	 *
+	 * @param request
+	 * @return the date or null
+	 */
+	private Date getSince(HttpServletRequest request) {
+		String since = request.getParameter("since");
+		if (StringUtils.isEmpty(since)) {
+			return null;
+		}
+		try {
+			return new Date(Long.parseLong(since));
+		} catch (NumberFormatException e) {
+			logger.warn("Ignoring invalid since parameter {}", since);
+			return null;
+		}
+	}
+
+	private int getInteger(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if (StringUtils.isEmpty(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			logger.warn("Ignoring invalid {} parameter {}", name, value);
+			return defaultValue;
+		}
 	}
 }
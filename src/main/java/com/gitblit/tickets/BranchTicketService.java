@@ -15,6 +15,7 @@
  */
 package com.gitblit.tickets;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -471,28 +472,36 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 			// Collect the set of all json files
 			List<PathModel> paths = JGitUtils.getDocuments(db, Arrays.asList("json"), BRANCH);
 
+			// Unchanged journals are not read and replayed, the ticket is
+			// restored from the snapshot by the blob id of the journal
+			TicketSnapshot snapshot = new TicketSnapshot(new File(db.getDirectory(), TicketSnapshot.FILENAME));
+
 			// Deserialize each ticket and optionally filter out unwanted tickets
 			for (PathModel path : paths) {
 				String name = path.name.substring(path.name.lastIndexOf('/') + 1);
 				if (!JOURNAL.equals(name)) {
 					continue;
 				}
-				String json = readTicketsFile(db, path.path);
-				if (StringUtils.isEmpty(json)) {
-					// journal was touched but no changes were written
-					continue;
-				}
 				try {
 					// Reconstruct ticketId from the path
 					// id/26/326/journal.json
 					String tid = path.path.split("/")[2];
 					long ticketId = Long.parseLong(tid);
-					List<Change> changes = TicketSerializer.deserializeJournal(json);
-					if (ArrayUtils.isEmpty(changes)) {
-						log.warn("Empty journal for {}:{}", repository, path.path);
-						continue;
+					TicketModel ticket = snapshot.get(ticketId, path.objectId);
+					if (ticket == null) {
+						String json = readTicketsFile(db, path.path);
+						if (StringUtils.isEmpty(json)) {
+							// journal was touched but no changes were written
+							continue;
+						}
+						List<Change> changes = TicketSerializer.deserializeJournal(json);
+						if (ArrayUtils.isEmpty(changes)) {
+							log.warn("Empty journal for {}:{}", repository, path.path);
+							continue;
+						}
+						ticket = TicketModel.buildTicket(changes);
+						snapshot.put(ticketId, path.objectId, ticket);
 					}
-					TicketModel ticket = TicketModel.buildTicket(changes);
 					ticket.project = repository.projectPath;
 					ticket.repository = repository.name;
 					ticket.number = ticketId;
@@ -511,6 +520,8 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 					log.error(null, e);
 				}
 			}
+			log.debug("rebuilt {} tickets of {}", snapshot.getRebuilt(), repository);
+			snapshot.save();
 
 			// sort the tickets by creation
 			Collections.sort(list);
@@ -829,6 +840,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	protected boolean deleteAllImpl(RepositoryModel repository) {
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
+			TicketSnapshot.delete(new File(db.getDirectory(), TicketSnapshot.FILENAME));
 			RefModel branch = getTicketsBranch(db);
 			if (branch != null) {
 				return JGitUtils.deleteBranchRef(db, BRANCH);
@@ -237,30 +237,39 @@ public class FileTicketService extends ITicketService {
 			File dir = new File(db.getDirectory(), TICKETS_PATH);
 			List<File> journals = findAll(dir, JOURNAL);
 
+			// Unchanged journals are not read and replayed, the ticket is
+			// restored from the snapshot by the size and time of the journal
+			TicketSnapshot snapshot = new TicketSnapshot(new File(dir, TicketSnapshot.FILENAME));
+
 			// Deserialize each ticket and optionally filter out unwanted tickets
 			for (File journal : journals) {
-				String json = null;
-				try {
-					json = new String(FileUtils.readContent(journal), Constants.ENCODING);
-				} catch (Exception e) {
-					log.error(null, e);
-				}
-				if (StringUtils.isEmpty(json)) {
-					// journal was touched but no changes were written
-					continue;
-				}
 				try {
 					// Reconstruct ticketId from the path
 					// id/26/326/journal.json
 					String path = FileUtils.getRelativePath(dir, journal);
 					String tid = path.split("/")[1];
 					long ticketId = Long.parseLong(tid);
-					List<Change> changes = TicketSerializer.deserializeJournal(json);
-					if (ArrayUtils.isEmpty(changes)) {
-						log.warn("Empty journal for {}:{}", repository, journal);
-						continue;
+					String version = journal.length() + "-" + journal.lastModified();
+					TicketModel ticket = snapshot.get(ticketId, version);
+					if (ticket == null) {
+						String json = null;
+						try {
+							json = new String(FileUtils.readContent(journal), Constants.ENCODING);
+						} catch (Exception e) {
+							log.error(null, e);
+						}
+						if (StringUtils.isEmpty(json)) {
+							// journal was touched but no changes were written
+							continue;
+						}
+						List<Change> changes = TicketSerializer.deserializeJournal(json);
+						if (ArrayUtils.isEmpty(changes)) {
+							log.warn("Empty journal for {}:{}", repository, journal);
+							continue;
+						}
+						ticket = TicketModel.buildTicket(changes);
+						snapshot.put(ticketId, version, ticket);
 					}
-					TicketModel ticket = TicketModel.buildTicket(changes);
 					ticket.project = repository.projectPath;
 					ticket.repository = repository.name;
 					ticket.number = ticketId;
@@ -279,6 +288,8 @@ public class FileTicketService extends ITicketService {
 					log.error(null, e);
 				}
 			}
+			log.debug("rebuilt {} tickets of {}", snapshot.getRebuilt(), repository);
+			snapshot.save();
 
 			// sort the tickets by creation
 			Collections.sort(list);
@@ -25,8 +25,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
@@ -56,7 +61,9 @@ import com.gitblit.utils.DeepCopier;
 import com.gitblit.utils.DiffUtils;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.DiffUtils.DiffStat;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.WorkQueue;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 
@@ -107,6 +114,10 @@ public abstract class ITicketService implements IManager {
 
 	protected final TicketIndexer indexer;
 
+	private final WorkQueue workQueue;
+
+	private final WorkQueue privateWorkQueue;
+
 	private final Cache<TicketKey, TicketModel> ticketsCache;
 
 	private final Map<String, List<TicketLabel>> labelsCache;
@@ -162,7 +173,14 @@ public abstract class ITicketService implements IManager {
 		this.userManager = userManager;
 		this.repositoryManager = repositoryManager;
 
-		this.indexer = new TicketIndexer(runtimeManager);
+		if (runtimeManager.getInjector() == null) {
+			this.privateWorkQueue = new WorkQueue(new IdGenerator(), 1);
+			this.workQueue = privateWorkQueue;
+		} else {
+			this.privateWorkQueue = null;
+			this.workQueue = runtimeManager.getInjector().getInstance(WorkQueue.class);
+		}
+		this.indexer = new TicketIndexer(runtimeManager, workQueue);
 
 		CacheBuilder<Object, Object> cb = CacheBuilder.newBuilder();
 		this.ticketsCache = cb
@@ -207,6 +225,9 @@ public abstract class ITicketService implements IManager {
 	@Override
 	public final ITicketService stop() {
 		indexer.close();
+		if (privateWorkQueue != null) {
+			privateWorkQueue.stop();
+		}
 		ticketsCache.invalidateAll();
 		repositoryManager.closeAll();
 		close();
@@ -1373,30 +1394,90 @@ public abstract class ITicketService implements IManager {
 
 
 	/**
-	 * Destroys an existing index and reindexes all tickets.
+	 * Destroys an existing index and reindexes all tickets.  The tickets of
+	 * several repositories are indexed concurrently and the index is committed
+	 * once, after all repositories have been indexed.
 	 * This operation may be expensive and time-consuming.
 	 * @since 1.4.0
 	 */
 	public void reindex() {
 		long start = System.nanoTime();
 		indexer.deleteAll();
-		for (String name : repositoryManager.getRepositoryList()) {
-			RepositoryModel repository = repositoryManager.getRepositoryModel(name);
-			try {
+		List<String> repositories = repositoryManager.getRepositoryList();
+		int threads = settings.getInteger(Keys.tickets.reindexThreads, 0);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		threads = Math.max(1, Math.min(threads, repositories.size()));
+
+		final AtomicInteger count = new AtomicInteger();
+		final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>(repositories);
+		WorkQueue.Executor workers = workQueue.createQueue(threads, "TicketReindexer");
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			// each worker reindexes repositories until all are done
+			for (int i = 0; i < workers.getCorePoolSize(); i++) {
+				futures.add(workers.submit(new Runnable() {
+					@Override
+					public void run() {
+						String name;
+						while (!Thread.currentThread().isInterrupted() && (name = pending.poll()) != null) {
+							count.addAndGet(reindexTickets(name));
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (CancellationException e) {
+				} catch (ExecutionException e) {
+					log.error("ticket reindex worker failed", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			long secs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			log.warn("reindexing aborted after {} tickets from {} repositories in {} msecs.",
+					count.get(), repositories.size() - pending.size(), secs);
+			return;
+		} finally {
+			workers.shutdownNow();
+			workers.unregisterWorkQueue();
+		}
+		indexer.commit();
+		long end = System.nanoTime();
+		long secs = TimeUnit.NANOSECONDS.toMillis(end - start);
+		log.info("reindexing {} tickets from {} repositories with {} threads completed in {} msecs.",
+				count.get(), repositories.size(), workers.getCorePoolSize(), secs);
+	}
+
+	/**
+	 * Adds the tickets of a repository to the index.
+	 *
+	 * @param name
+	 * @return the number of indexed tickets
+	 */
+	private int reindexTickets(String name) {
+		RepositoryModel repository = repositoryManager.getRepositoryModel(name);
+		if (repository == null) {
+			return 0;
+		}
+		try {
 			List<TicketModel> tickets = getTickets(repository);
 			if (!tickets.isEmpty()) {
 				log.info("reindexing {} tickets from {} ...", tickets.size(), repository);
 				indexer.index(tickets);
-				System.gc();
-			}
-			} catch (Exception e) {
-				log.error("failed to reindex {}", repository.name);
-				log.error(null, e);
 			}
+			return tickets.size();
+		} catch (Exception e) {
+			log.error("failed to reindex {}", repository.name);
+			log.error(null, e);
 		}
-		long end = System.nanoTime();
-		long secs = TimeUnit.NANOSECONDS.toMillis(end - start);
-		log.info("reindexing completed in {} msecs.", secs);
+		return 0;
 	}
 
 	/**
@@ -1408,6 +1489,7 @@ public abstract class ITicketService implements IManager {
 		long start = System.nanoTime();
 		List<TicketModel> tickets = getTickets(repository);
 		indexer.index(tickets);
+		indexer.commit();
 		log.info("reindexing {} tickets from {} ...", tickets.size(), repository);
 		long end = System.nanoTime();
 		long secs = TimeUnit.NANOSECONDS.toMillis(end - start);
@@ -25,6 +25,8 @@ import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
@@ -34,10 +36,10 @@ import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
@@ -46,9 +48,12 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SortField.Type;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
@@ -62,12 +67,18 @@ import com.gitblit.models.TicketModel;
 import com.gitblit.models.TicketModel.Attachment;
 import com.gitblit.models.TicketModel.Patchset;
 import com.gitblit.models.TicketModel.Status;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.LuceneIndexStore;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.WorkQueue;
 
 /**
  * Indexes tickets in a Lucene database.
  *
+ * Changes are searchable immediately through a near-real-time searcher, but
+ * they are committed to disk periodically, and when the indexer is closed,
+ * so that bulk changes do not sync the index for every ticket.
+ *
  * @author James Moger
  *
  */
@@ -173,23 +184,74 @@ public class TicketIndexer {
 
 	private final LuceneIndexStore indexStore;
 
+	private final int commitInterval;
+
+	private final AtomicBoolean uncommitted;
+
 	private IndexWriter writer;
 
-	private IndexSearcher searcher;
+	private SearcherManager searcherManager;
+
+	private final WorkQueue workQueue;
+
+	private WorkQueue.Executor committer;
 
 	public TicketIndexer(IRuntimeManager runtimeManager) {
+		this(runtimeManager, null);
+	}
+
+	/**
+	 * @param runtimeManager
+	 * @param workQueue
+	 *            the work queue which commits the index periodically, or null
+	 *            to use a private work queue
+	 * @since 1.9.0
+	 */
+	public TicketIndexer(IRuntimeManager runtimeManager, WorkQueue workQueue) {
+		this.workQueue = workQueue == null ? new WorkQueue(new IdGenerator(), 1) : workQueue;
 		File luceneDir = runtimeManager.getFileOrFolder(Keys.tickets.indexFolder, "${baseFolder}/tickets/lucene");
 		this.indexStore = new LuceneIndexStore(luceneDir, Lucene.INDEX_VERSION);
+		this.commitInterval = runtimeManager.getSettings().getInteger(Keys.tickets.indexCommitInterval, 5);
+		this.uncommitted = new AtomicBoolean();
 	}
 
 	/**
-	 * Close all writers and searchers used by the ticket indexer.
+	 * Close all writers and searchers used by the ticket indexer.  Pending
+	 * changes are committed.
 	 */
 	public void close() {
 		closeSearcher();
 		closeWriter();
 	}
 
+	/**
+	 * Commits pending changes of the index to disk.
+	 *
+	 * @since 1.9.0
+	 */
+	public synchronized void commit() {
+		if (writer == null || !uncommitted.getAndSet(false)) {
+			return;
+		}
+		try {
+			writer.commit();
+		} catch (Exception e) {
+			uncommitted.set(true);
+			log.error("failed to commit the ticket index!", e);
+		}
+	}
+
+	/**
+	 * Records a change of the index.  The change is visible to the next search
+	 * and it is committed by the next scheduled commit.
+	 */
+	private void changed() {
+		uncommitted.set(true);
+		if (commitInterval <= 0) {
+			commit();
+		}
+	}
+
 	/**
 	 * Deletes the entire ticket index for all repositories.
 	 */
@@ -203,23 +265,7 @@ public class TicketIndexer {
 	 */
 	public boolean deleteAll(RepositoryModel repository) {
 		try {
-			IndexWriter writer = getWriter();
-			StandardAnalyzer analyzer = new StandardAnalyzer();
-			QueryParser qp = new QueryParser(Lucene.rid.name(), analyzer);
-			BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(repository.getRID()), Occur.MUST).build();
-
-			int numDocsBefore = writer.numDocs();
-			writer.deleteDocuments(query);
-			writer.commit();
-			closeSearcher();
-			int numDocsAfter = writer.numDocs();
-			if (numDocsBefore == numDocsAfter) {
-				log.debug(MessageFormat.format("no records found to delete in {0}", repository));
-				return false;
-			} else {
-				log.debug(MessageFormat.format("deleted {0} records in {1}", numDocsBefore - numDocsAfter, repository));
-				return true;
-			}
+			return delete(repository.name, new Term(Lucene.rid.name(), repository.getRID()));
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -244,14 +290,16 @@ public class TicketIndexer {
 	 * @param tickets
 	 */
 	public void index(List<TicketModel> tickets) {
+		if (tickets.isEmpty()) {
+			return;
+		}
 		try {
 			IndexWriter writer = getWriter();
 			for (TicketModel ticket : tickets) {
 				Document doc = ticketToDoc(ticket);
 				writer.addDocument(doc);
 			}
-			writer.commit();
-			closeSearcher();
+			changed();
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -265,11 +313,9 @@ public class TicketIndexer {
 	public void index(TicketModel ticket) {
 		try {
 			IndexWriter writer = getWriter();
-			delete(ticket.repository, ticket.number, writer);
 			Document doc = ticketToDoc(ticket);
-			writer.addDocument(doc);
-			writer.commit();
-			closeSearcher();
+			writer.updateDocument(getTicketTerm(ticket), doc);
+			changed();
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -284,8 +330,7 @@ public class TicketIndexer {
 	 */
 	public boolean delete(TicketModel ticket) {
 		try {
-			IndexWriter writer = getWriter();
-			return delete(ticket.repository, ticket.number, writer);
+			return delete(ticket.repository, getTicketTerm(ticket));
 		} catch (Exception e) {
 			log.error("Failed to delete ticket " + ticket.number, e);
 		}
@@ -293,28 +338,43 @@ public class TicketIndexer {
 	}
 
 	/**
-	 * Delete a ticket from the Lucene index.
+	 * Returns the term which identifies the document of the ticket.  The
+	 * document id is a SHA-1 hash, it is indexed as a single term.
+	 *
+	 * @param ticket
+	 * @return the document id term
+	 */
+	private Term getTicketTerm(TicketModel ticket) {
+		return new Term(Lucene.did.name(), StringUtils.getSHA1(ticket.repository + ticket.number));
+	}
+
+	/**
+	 * Delete the documents matching the term from the Lucene index.  The
+	 * matching documents are counted with the near-real-time searcher, the
+	 * index writer only counts deletions after a commit.
 	 *
 	 * @param repository
-	 * @param ticketId
+	 * @param term
 	 * @throws Exception
 	 * @return true, if deleted, false if no record was deleted
 	 */
-	private boolean delete(String repository, long ticketId, IndexWriter writer) throws Exception {
-		StandardAnalyzer analyzer = new StandardAnalyzer();
-		QueryParser qp = new QueryParser(Lucene.did.name(), analyzer);
-		BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(StringUtils.getSHA1(repository + ticketId)), Occur.MUST).build();
+	private boolean delete(String repository, Term term) throws Exception {
+		IndexWriter writer = getWriter();
+		IndexSearcher searcher = acquireSearcher();
+		int count;
+		try {
+			count = searcher.count(new TermQuery(term));
+		} finally {
+			releaseSearcher(searcher);
+		}
 
-		int numDocsBefore = writer.numDocs();
-		writer.deleteDocuments(query);
-		writer.commit();
-		closeSearcher();
-		int numDocsAfter = writer.numDocs();
-		if (numDocsBefore == numDocsAfter) {
+		writer.deleteDocuments(term);
+		changed();
+		if (count == 0) {
 			log.debug(MessageFormat.format("no records found to delete in {0}", repository));
 			return false;
 		} else {
-			log.debug(MessageFormat.format("deleted {0} records in {1}", numDocsBefore - numDocsAfter, repository));
+			log.debug(MessageFormat.format("deleted {0} records in {1}", count, repository));
 			return true;
 		}
 	}
@@ -362,25 +422,29 @@ public class TicketIndexer {
 			qp.setAllowLeadingWildcard(true);
 			bldr.add(qp.parse(text), Occur.SHOULD);
 
-			IndexSearcher searcher = getSearcher();
-			Query rewrittenQuery = searcher.rewrite(bldr.build());
-
-			log.debug(rewrittenQuery.toString());
-
-			TopScoreDocCollector collector = TopScoreDocCollector.create(5000);
-			searcher.search(rewrittenQuery, collector);
-			int offset = Math.max(0, (page - 1) * pageSize);
-			ScoreDoc[] hits = collector.topDocs(offset, pageSize).scoreDocs;
-			for (int i = 0; i < hits.length; i++) {
-				int docId = hits[i].doc;
-				Document doc = searcher.doc(docId);
-				QueryResult result = docToQueryResult(doc);
-				if (repository != null) {
-					if (!result.repository.equalsIgnoreCase(repository.name)) {
-						continue;
+			IndexSearcher searcher = acquireSearcher();
+			try {
+				Query rewrittenQuery = searcher.rewrite(bldr.build());
+
+				log.debug(rewrittenQuery.toString());
+
+				TopScoreDocCollector collector = TopScoreDocCollector.create(5000);
+				searcher.search(rewrittenQuery, collector);
+				int offset = Math.max(0, (page - 1) * pageSize);
+				ScoreDoc[] hits = collector.topDocs(offset, pageSize).scoreDocs;
+				for (int i = 0; i < hits.length; i++) {
+					int docId = hits[i].doc;
+					Document doc = searcher.doc(docId);
+					QueryResult result = docToQueryResult(doc);
+					if (repository != null) {
+						if (!result.repository.equalsIgnoreCase(repository.name)) {
+							continue;
+						}
 					}
+					results.add(result);
 				}
-				results.add(result);
+			} finally {
+				releaseSearcher(searcher);
 			}
 		} catch (Exception e) {
 			log.error(MessageFormat.format("Exception while searching for {0}", text), e);
@@ -410,29 +474,33 @@ public class TicketIndexer {
 			QueryParser qp = new QueryParser(Lucene.content.name(), analyzer);
 			Query query = qp.parse(queryText);
 
-			IndexSearcher searcher = getSearcher();
-			Query rewrittenQuery = searcher.rewrite(query);
+			IndexSearcher searcher = acquireSearcher();
+			try {
+				Query rewrittenQuery = searcher.rewrite(query);
 
-			log.debug(rewrittenQuery.toString());
+				log.debug(rewrittenQuery.toString());
 
-			Sort sort;
-			if (sortBy == null) {
-				sort = new Sort(Lucene.created.asSortField(desc));
-			} else {
-				sort = new Sort(Lucene.fromString(sortBy).asSortField(desc));
-			}
-			int maxSize = 5000;
-			TopFieldDocs docs = searcher.search(rewrittenQuery, maxSize, sort, false, false);
-			int size = (pageSize <= 0) ? maxSize : pageSize;
-			int offset = Math.max(0, (page - 1) * size);
-			ScoreDoc[] hits = subset(docs.scoreDocs, offset, size);
-			for (int i = 0; i < hits.length; i++) {
-				int docId = hits[i].doc;
-				Document doc = searcher.doc(docId);
-				QueryResult result = docToQueryResult(doc);
-				result.docId = docId;
-				result.totalResults = docs.totalHits;
-				results.add(result);
+				Sort sort;
+				if (sortBy == null) {
+					sort = new Sort(Lucene.created.asSortField(desc));
+				} else {
+					sort = new Sort(Lucene.fromString(sortBy).asSortField(desc));
+				}
+				int maxSize = 5000;
+				TopFieldDocs docs = searcher.search(rewrittenQuery, maxSize, sort, false, false);
+				int size = (pageSize <= 0) ? maxSize : pageSize;
+				int offset = Math.max(0, (page - 1) * size);
+				ScoreDoc[] hits = subset(docs.scoreDocs, offset, size);
+				for (int i = 0; i < hits.length; i++) {
+					int docId = hits[i].doc;
+					Document doc = searcher.doc(docId);
+					QueryResult result = docToQueryResult(doc);
+					result.docId = docId;
+					result.totalResults = docs.totalHits;
+					results.add(result);
+				}
+			} finally {
+				releaseSearcher(searcher);
 			}
 		} catch (Exception e) {
 			log.error(MessageFormat.format("Exception while searching for {0}", queryText), e);
@@ -454,7 +522,7 @@ public class TicketIndexer {
 		}
 	}
 
-	private IndexWriter getWriter() throws IOException {
+	private synchronized IndexWriter getWriter() throws IOException {
 		if (writer == null) {
 			indexStore.create();
 
@@ -463,38 +531,92 @@ public class TicketIndexer {
 			IndexWriterConfig config = new IndexWriterConfig(analyzer);
 			config.setOpenMode(OpenMode.CREATE_OR_APPEND);
 			writer = new IndexWriter(directory, config);
+
+			if (commitInterval > 0) {
+				committer = workQueue.createQueue(1, "TicketIndexer");
+				committer.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						commit();
+					}
+				}, commitInterval, commitInterval, TimeUnit.SECONDS);
+			}
 		}
 		return writer;
 	}
 
 	private synchronized void closeWriter() {
+		if (committer != null) {
+			committer.shutdown();
+			committer.unregisterWorkQueue();
+			committer = null;
+		}
 		try {
 			if (writer != null) {
+				// close commits the pending changes
 				writer.close();
 			}
 		} catch (Exception e) {
 			log.error("failed to close writer!", e);
 		} finally {
 			writer = null;
+			uncommitted.set(false);
 		}
 	}
 
-	private IndexSearcher getSearcher() throws IOException {
-		if (searcher == null) {
-			searcher = new IndexSearcher(DirectoryReader.open(getWriter(), true));
+	/**
+	 * Acquires a near-real-time searcher of the index.  The searcher is
+	 * refreshed if the index has changed since the last search, so that every
+	 * thread sees its own changes.  The searcher must be released with
+	 * {@link #releaseSearcher(IndexSearcher)}.
+	 *
+	 * @return an IndexSearcher
+	 * @throws IOException
+	 */
+	private IndexSearcher acquireSearcher() throws IOException {
+		SearcherManager manager;
+		synchronized (this) {
+			manager = searcherManager;
 		}
-		return searcher;
+		if (manager != null) {
+			try {
+				// a no-op if the searcher is current, otherwise waits for
+				// a concurrent refresh instead of returning a stale searcher
+				manager.maybeRefreshBlocking();
+			} catch (AlreadyClosedException e) {
+				// closed concurrently, the next manager opens a current searcher
+			}
+		}
+		// acquire under the lock, so that the manager is not closed in between
+		synchronized (this) {
+			if (searcherManager == null) {
+				searcherManager = new SearcherManager(getWriter(), true, null);
+			}
+			return searcherManager.acquire();
+		}
+	}
+
+	/**
+	 * Releases a searcher acquired with {@link #acquireSearcher()}.  This is
+	 * what SearcherManager.release does, but it does not require the manager,
+	 * which may have been closed since.
+	 *
+	 * @param searcher
+	 * @throws IOException
+	 */
+	private void releaseSearcher(IndexSearcher searcher) throws IOException {
+		searcher.getIndexReader().decRef();
 	}
 
 	private synchronized void closeSearcher() {
 		try {
-			if (searcher != null) {
-				searcher.getIndexReader().close();
+			if (searcherManager != null) {
+				searcherManager.close();
 			}
 		} catch (Exception e) {
 			log.error("failed to close searcher!", e);
 		} finally {
-			searcher = null;
+			searcherManager = null;
 		}
 	}
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tickets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.Constants;
+import com.gitblit.models.TicketModel;
+import com.gitblit.utils.StringUtils;
+
+/**
+ * Persisted snapshot of the tickets of a repository.  A ticket is stored with
+ * the version of its journal, e.g. the journal blob id, and is reused as long
+ * as the journal is unchanged, so listing the tickets only replays the
+ * journals of new and changed tickets.
+ * <p>
+ * A snapshot is loaded, updated while the journals are enumerated, and saved.
+ * Tickets which were not looked up since the snapshot was loaded, e.g. deleted
+ * tickets, are dropped when the snapshot is saved.  A missing, incompatible or
+ * corrupt snapshot file is ignored and the tickets are rebuilt.
+ * </p>
+ *
+ */
+class TicketSnapshot {
+
+	static final String FILENAME = "tickets.snapshot";
+
+	/**
+	 * The format of the snapshot file.  It is derived from the Gitblit version
+	 * and from the serialized fields of TicketModel and its nested classes, so
+	 * a snapshot written by another build or for another ticket schema is
+	 * ignored.
+	 */
+	static final String VERSION = Constants.getVersion() + "-" + getSchemaHash();
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TicketSnapshot.class);
+
+	private final File file;
+
+	private final Map<Long, Entry> loaded;
+
+	private final Map<Long, Entry> current;
+
+	private boolean changed;
+
+	/**
+	 * Returns a hash of the serialized fields of TicketModel, its nested
+	 * classes and the constants of its nested enums.
+	 *
+	 * @return the schema hash
+	 */
+	static String getSchemaHash() {
+		Class<?>[] nested = TicketModel.class.getDeclaredClasses();
+		Class<?>[] classes = Arrays.copyOf(nested, nested.length + 1);
+		classes[nested.length] = TicketModel.class;
+		Arrays.sort(classes, new Comparator<Class<?>>() {
+			@Override
+			public int compare(Class<?> a, Class<?> b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+
+		StringBuilder schema = new StringBuilder();
+		for (Class<?> cls : classes) {
+			ObjectStreamClass desc = ObjectStreamClass.lookup(cls);
+			if (desc == null) {
+				// not serializable
+				continue;
+			}
+			schema.append(cls.getName()).append(':').append(desc.getSerialVersionUID()).append('\n');
+			if (cls.isEnum()) {
+				for (Object constant : cls.getEnumConstants()) {
+					schema.append(' ').append(((Enum<?>) constant).name()).append('\n');
+				}
+			}
+			for (ObjectStreamField field : desc.getFields()) {
+				schema.append(' ').append(field.getName()).append(' ')
+						.append(field.getType().getName()).append('\n');
+			}
+		}
+		return StringUtils.getSHA1(schema.toString());
+	}
+
+	private static class Entry {
+
+		final String version;
+
+		final TicketModel ticket;
+
+		Entry(String version, TicketModel ticket) {
+			this.version = version;
+			this.ticket = ticket;
+		}
+	}
+
+	/**
+	 * Loads the snapshot from the file, if it exists.
+	 *
+	 * @param file
+	 */
+	TicketSnapshot(File file) {
+		this.file = file;
+		this.loaded = new HashMap<Long, Entry>();
+		this.current = new HashMap<Long, Entry>();
+		load();
+	}
+
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(
+					new BufferedInputStream(new FileInputStream(file))));
+			try {
+				if (!VERSION.equals(in.readUTF())) {
+					LOGGER.debug("Ignoring ticket snapshot {} of a different version", file);
+					return;
+				}
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long ticketId = in.readLong();
+					String version = in.readUTF();
+					TicketModel ticket = (TicketModel) in.readObject();
+					loaded.put(ticketId, new Entry(version, ticket));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			LOGGER.warn("Ignoring unreadable ticket snapshot {}: {}", file, e.getMessage());
+			loaded.clear();
+		}
+	}
+
+	/**
+	 * Returns the ticket from the snapshot if its journal is unchanged.
+	 *
+	 * @param ticketId
+	 * @param version
+	 *            the version of the journal
+	 * @return the ticket or null if the ticket must be rebuilt
+	 */
+	TicketModel get(long ticketId, String version) {
+		Entry entry = loaded.get(ticketId);
+		if (entry == null || !entry.version.equals(version)) {
+			return null;
+		}
+		current.put(ticketId, entry);
+		return entry.ticket;
+	}
+
+	/**
+	 * Stores a rebuilt ticket in the snapshot.
+	 *
+	 * @param ticketId
+	 * @param version
+	 *            the version of the journal
+	 * @param ticket
+	 */
+	void put(long ticketId, String version, TicketModel ticket) {
+		current.put(ticketId, new Entry(version, ticket));
+		changed = true;
+	}
+
+	/**
+	 * Returns the number of tickets which were rebuilt.
+	 *
+	 * @return the number of rebuilt tickets
+	 */
+	int getRebuilt() {
+		int rebuilt = 0;
+		for (Map.Entry<Long, Entry> entry : current.entrySet()) {
+			if (loaded.get(entry.getKey()) != entry.getValue()) {
+				rebuilt++;
+			}
+		}
+		return rebuilt;
+	}
+
+	/**
+	 * Writes the looked up tickets to the snapshot file, if any ticket was
+	 * rebuilt or removed.
+	 */
+	void save() {
+		if (!changed && current.size() == loaded.size()) {
+			return;
+		}
+		File temp = null;
+		try {
+			file.getParentFile().mkdirs();
+			temp = File.createTempFile(FILENAME, ".tmp", file.getParentFile());
+			ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp))));
+			try {
+				out.writeUTF(VERSION);
+				out.writeInt(current.size());
+				for (Map.Entry<Long, Entry> entry : current.entrySet()) {
+					out.writeLong(entry.getKey());
+					out.writeUTF(entry.getValue().version);
+					out.writeObject(entry.getValue().ticket);
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write ticket snapshot {}: {}", file, e.getMessage());
+		} finally {
+			if (temp != null && temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the snapshot file.
+	 *
+	 * @param file
+	 */
+	static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			LOGGER.warn("Failed to delete ticket snapshot {}", file);
+		}
+	}
+}
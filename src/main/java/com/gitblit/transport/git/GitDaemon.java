@@ -47,16 +47,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
 import org.eclipse.jgit.transport.ReceivePack;
 import org.eclipse.jgit.transport.ServiceMayNotContinueException;
 import org.eclipse.jgit.transport.UploadPack;
@@ -73,7 +84,10 @@ import com.gitblit.git.GitblitReceivePackFactory;
 import com.gitblit.git.GitblitUploadPackFactory;
 import com.gitblit.git.RepositoryResolver;
 import com.gitblit.manager.IGitblit;
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.utils.IdGenerator;
 import com.gitblit.utils.StringUtils;
+import com.gitblit.utils.WorkQueue;
 
 /**
  * Gitblit's Git Daemon ignores any and all per-repository daemon settings and
@@ -89,14 +103,42 @@ public class GitDaemon {
 	/** 9418: IANA assigned port number for Git. */
 	public static final int DEFAULT_PORT = 9418;
 
-	private static final int BACKLOG = 5;
-
 	private InetSocketAddress myAddress;
 
 	private final GitDaemonService[] services;
 
 	private final ThreadGroup processors;
 
+	private final int backlog;
+
+	private final int maxThreads;
+
+	private final int queueSize;
+
+	private final int maxConnectionsPerIp;
+
+	private final Map<InetAddress, Integer> connectionsPerIp;
+
+	private final AtomicLong accepted;
+
+	private final AtomicLong rejected;
+
+	private final AtomicLong queueTime;
+
+	private final AtomicLong maxQueueTime;
+
+	private final AtomicLong served;
+
+	private final AtomicLong serveTime;
+
+	private volatile long lastServed;
+
+	private final WorkQueue workQueue;
+
+	private final Set<ClientTask> queuedClients;
+
+	private WorkQueue.Executor clientExecutor;
+
 	private AtomicBoolean run;
 
 	private ServerSocket acceptSocket;
@@ -105,6 +147,8 @@ public class GitDaemon {
 
 	private int timeout;
 
+	private int requestTimeout;
+
 	private RepositoryResolver<GitDaemonClient> repositoryResolver;
 
 	private UploadPackFactory<GitDaemonClient> uploadPackFactory;
@@ -112,6 +156,16 @@ public class GitDaemon {
 	private ReceivePackFactory<GitDaemonClient> receivePackFactory;
 
 	public GitDaemon(IGitblit gitblit) {
+		this(gitblit, null);
+	}
+
+	/**
+	 * @param gitblit
+	 * @param workQueue
+	 *            the work queue which serves the clients, may be null
+	 * @since 1.9.0
+	 */
+	public GitDaemon(IGitblit gitblit, WorkQueue workQueue) {
 
 		IStoredSettings settings = gitblit.getSettings();
 		int port = settings.getInteger(Keys.git.daemonPort, 0);
@@ -127,6 +181,22 @@ public class GitDaemon {
 		uploadPackFactory = new GitblitUploadPackFactory<GitDaemonClient>(gitblit);
 		receivePackFactory = new GitblitReceivePackFactory<GitDaemonClient>(gitblit);
 
+		backlog = Math.max(1, settings.getInteger(Keys.git.daemonBacklog, 50));
+		maxThreads = Math.max(1, settings.getInteger(Keys.git.daemonThreads, 50));
+		queueSize = Math.max(1, settings.getInteger(Keys.git.daemonQueueSize, 200));
+		maxConnectionsPerIp = settings.getInteger(Keys.git.daemonMaxConnectionsPerIp, 0);
+		timeout = Math.max(0, settings.getInteger(Keys.git.daemonTimeout, 0));
+		requestTimeout = Math.max(0, settings.getInteger(Keys.git.daemonRequestTimeout, 30));
+		this.workQueue = workQueue == null ? new WorkQueue(new IdGenerator(), 1) : workQueue;
+		queuedClients = Collections.newSetFromMap(new ConcurrentHashMap<ClientTask, Boolean>());
+		connectionsPerIp = new HashMap<InetAddress, Integer>();
+		accepted = new AtomicLong();
+		rejected = new AtomicLong();
+		queueTime = new AtomicLong();
+		maxQueueTime = new AtomicLong();
+		served = new AtomicLong();
+		serveTime = new AtomicLong();
+
 		run = new AtomicBoolean(false);
 		processors = new ThreadGroup("Git-Daemon");
 		services = new GitDaemonService[] { new GitDaemonService("upload-pack", "uploadpack") {
@@ -193,6 +263,27 @@ public class GitDaemon {
 		timeout = seconds;
 	}
 
+	/**
+	 * @return timeout (in seconds) before aborting the read of the request of
+	 *         a client.
+	 * @since 1.9.0
+	 */
+	public int getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	/**
+	 * Set the timeout before willing to abort the read of the request of a
+	 * client.  It does not apply to the transfer which follows the request.
+	 *
+	 * @param seconds
+	 *            number of seconds to wait for the request, 0 waits forever
+	 * @since 1.9.0
+	 */
+	public void setRequestTimeout(final int seconds) {
+		requestTimeout = seconds;
+	}
+
 	/**
 	 * Start this daemon on a background thread.
 	 *
@@ -206,9 +297,13 @@ public class GitDaemon {
 			throw new IllegalStateException(JGitText.get().daemonAlreadyRunning);
 
 		final ServerSocket listenSock = new ServerSocket(myAddress != null ? myAddress.getPort()
-				: 0, BACKLOG, myAddress != null ? myAddress.getAddress() : null);
+				: 0, backlog, myAddress != null ? myAddress.getAddress() : null);
 		myAddress = (InetSocketAddress) listenSock.getLocalSocketAddress();
 
+		// clients are served by a named queue of the work queue, excess
+		// clients wait in the queue and are turned away once it is full
+		clientExecutor = workQueue.createQueue(maxThreads, "GitDaemon");
+
 		run.set(true);
 		acceptSocket = listenSock;
 		acceptThread = new Thread(processors, "Git-Daemon-Accept") {
@@ -237,6 +332,8 @@ public class GitDaemon {
 		acceptThread.start();
 
 		logger.info(MessageFormat.format("Git Daemon is listening on {0}:{1,number,0}", myAddress.getAddress().getHostAddress(), myAddress.getPort()));
+		logger.info(MessageFormat.format("Git Daemon serves {0,number,0} concurrent clients, {1,number,0} queued clients, {2,number,0} per ip address, {3,number,0}s request timeout",
+				clientExecutor.getCorePoolSize(), queueSize, maxConnectionsPerIp, requestTimeout));
 	}
 
 	/** @return true if this daemon is receiving connections. */
@@ -252,7 +349,10 @@ public class GitDaemon {
 			try {
 				// close the accept socket
 				// this throws a SocketException in the accept thread
-				acceptSocket.close();
+				ServerSocket socket = acceptSocket;
+				if (socket != null) {
+					socket.close();
+				}
 			} catch (IOException e1) {
 			}
 			try {
@@ -264,41 +364,226 @@ public class GitDaemon {
 			} finally {
 				acceptThread = null;
 			}
+
+			// disconnect queued clients, let active clients complete
+			clientExecutor.shutdown();
+			for (ClientTask task : queuedClients) {
+				if (queuedClients.remove(task)) {
+					task.close();
+				}
+			}
+			clientExecutor.unregisterWorkQueue();
 		}
 	}
 
+	/** @return the number of clients being served. */
+	public int getActiveCount() {
+		WorkQueue.Executor executor = clientExecutor;
+		return executor == null ? 0 : executor.getActiveCount();
+	}
+
+	/** @return the number of clients waiting to be served. */
+	public int getQueuedCount() {
+		return queuedClients.size();
+	}
+
+	/** @return the number of accepted client connections. */
+	public long getAcceptedCount() {
+		return accepted.get();
+	}
+
+	/** @return the number of client connections turned away. */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/** @return the average time in milliseconds clients waited to be served. */
+	public long getAverageQueueTime() {
+		long served = accepted.get() - rejected.get();
+		return served <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queueTime.get()) / served;
+	}
+
+	/** @return the maximum time in milliseconds a client waited to be served. */
+	public long getMaximumQueueTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxQueueTime.get());
+	}
+
+	/**
+	 * Returns the load of the client executor as a work queue snapshot.
+	 *
+	 * @return the statistics of the served clients
+	 * @since 1.9.0
+	 */
+	public WorkQueueStatistics getStatistics() {
+		WorkQueueStatistics stats = new WorkQueueStatistics("GitDaemon");
+		stats.poolSize = clientExecutor == null ? maxThreads : clientExecutor.getCorePoolSize();
+		stats.activeThreads = getActiveCount();
+		stats.queuedTasks = getQueuedCount();
+		stats.submittedTasks = getAcceptedCount();
+		stats.completedTasks = served.get();
+		stats.rejectedTasks = getRejectedCount();
+		stats.runTime = TimeUnit.NANOSECONDS.toMillis(serveTime.get());
+		stats.lastRun = lastServed == 0 ? null : new Date(lastServed);
+		stats.waitTime = TimeUnit.NANOSECONDS.toMillis(queueTime.get());
+		stats.maxWaitTime = getMaximumQueueTime();
+		return stats;
+	}
+
 	private void startClient(final Socket s) {
 		final GitDaemonClient dc = new GitDaemonClient(this);
 
 		final SocketAddress peer = s.getRemoteSocketAddress();
-		if (peer instanceof InetSocketAddress)
-			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
+		InetAddress address = null;
+		if (peer instanceof InetSocketAddress) {
+			address = ((InetSocketAddress) peer).getAddress();
+			dc.setRemoteAddress(address);
+		}
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) {
-			@Override
-			public void run() {
-				try {
-					dc.execute(s);
-				} catch (ServiceNotEnabledException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotAuthorizedException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
-					try {
-						s.getOutputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
-				}
+		accepted.incrementAndGet();
+		if (!acquire(address)) {
+			reject(s, peer, "too many connections from your address");
+			return;
+		}
+
+		ClientTask task = new ClientTask(s, dc, address);
+		if (queuedClients.size() >= queueSize) {
+			release(address);
+			reject(s, peer, "server is busy, please try again later");
+			return;
+		}
+		queuedClients.add(task);
+		try {
+			clientExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			queuedClients.remove(task);
+			release(address);
+			reject(s, peer, "server is busy, please try again later");
+		}
+	}
+
+	/**
+	 * Counts a connection against the per-address limit.
+	 *
+	 * @param address
+	 * @return true if the connection is within the limit
+	 */
+	private boolean acquire(InetAddress address) {
+		if (address == null || maxConnectionsPerIp <= 0) {
+			return true;
+		}
+		synchronized (connectionsPerIp) {
+			Integer count = connectionsPerIp.get(address);
+			int connections = count == null ? 0 : count;
+			if (connections >= maxConnectionsPerIp) {
+				return false;
+			}
+			connectionsPerIp.put(address, connections + 1);
+			return true;
+		}
+	}
+
+	private void release(InetAddress address) {
+		if (address == null || maxConnectionsPerIp <= 0) {
+			return;
+		}
+		synchronized (connectionsPerIp) {
+			Integer count = connectionsPerIp.get(address);
+			if (count == null || count <= 1) {
+				connectionsPerIp.remove(address);
+			} else {
+				connectionsPerIp.put(address, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Turns away a client with an error message the git client displays.
+	 *
+	 * @param s
+	 * @param peer
+	 * @param message
+	 */
+	private void reject(Socket s, SocketAddress peer, String message) {
+		long count = rejected.incrementAndGet();
+		logger.debug(MessageFormat.format("Git Daemon rejected {0}: {1} ({2,number,0} rejected)", peer, message, count));
+		try {
+			PacketLineOut out = new PacketLineOut(s.getOutputStream());
+			out.writeString("ERR " + message + "\n");
+			out.flush();
+		} catch (IOException e) {
+			// Ignore unexpected IO exceptions from clients
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// Ignore close exceptions
 			}
-		}.start();
+		}
+	}
+
+	/**
+	 * Serves a connected client on the client executor.
+	 */
+	private class ClientTask implements Runnable {
+
+		private final Socket s;
+
+		private final GitDaemonClient dc;
+
+		private final InetAddress address;
+
+		private final long queued;
+
+		ClientTask(Socket s, GitDaemonClient dc, InetAddress address) {
+			this.s = s;
+			this.dc = dc;
+			this.address = address;
+			this.queued = System.nanoTime();
+		}
+
+		@Override
+		public void run() {
+			if (!queuedClients.remove(this)) {
+				// disconnected while the daemon stopped
+				return;
+			}
+			long wait = System.nanoTime() - queued;
+			queueTime.addAndGet(wait);
+			long max;
+			while (wait > (max = maxQueueTime.get()) && !maxQueueTime.compareAndSet(max, wait)) {
+				// retry
+			}
+
+			long start = System.nanoTime();
+			try {
+				dc.execute(s);
+			} catch (ServiceNotEnabledException e) {
+				// Ignored. Client cannot use this repository.
+			} catch (ServiceNotAuthorizedException e) {
+				// Ignored. Client cannot use this repository.
+			} catch (IOException e) {
+				// Ignore unexpected IO exceptions from clients
+			} finally {
+				close();
+				served.incrementAndGet();
+				serveTime.addAndGet(System.nanoTime() - start);
+				lastServed = System.currentTimeMillis();
+			}
+		}
+
+		void close() {
+			try {
+				s.getInputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+			try {
+				s.getOutputStream().close();
+			} catch (IOException e) {
+				// Ignore close exceptions
+			}
+			release(address);
+		}
 	}
 
 	synchronized GitDaemonService matchService(final String cmd) {
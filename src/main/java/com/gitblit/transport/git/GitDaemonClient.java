@@ -110,8 +110,8 @@ public class GitDaemonClient {
 		rawIn = new BufferedInputStream(sock.getInputStream());
 		rawOut = new SafeBufferedOutputStream(sock.getOutputStream());
 
-		if (0 < daemon.getTimeout())
-			sock.setSoTimeout(daemon.getTimeout() * 1000);
+		if (0 < daemon.getRequestTimeout())
+			sock.setSoTimeout(daemon.getRequestTimeout() * 1000);
 		String cmd = new PacketLineIn(rawIn).readStringRaw();
 		final int nul = cmd.indexOf('\0');
 		if (nul >= 0) {
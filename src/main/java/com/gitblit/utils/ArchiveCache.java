@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.models.CacheStatistics;
+
+/**
+ * Size-bounded disk cache of generated archives.  Archives are identified by a
+ * content key, e.g. the commit, path and format of the archive, and the least
+ * recently used archives are deleted when the cache exceeds its maximum size.
+ * Concurrent requests for an archive which is not cached wait for a single
+ * generator.  Archives are opened while the cache is locked, so an archive
+ * can not be evicted between the lookup and the read.
+ *
+ */
+public class ArchiveCache {
+
+	/**
+	 * Writes the archive content.
+	 */
+	public interface Generator {
+
+		/**
+		 * Writes the archive to the output stream.
+		 *
+		 * @param os
+		 * @throws IOException
+		 *             if the archive could not be generated
+		 */
+		void write(OutputStream os) throws IOException;
+	}
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Number of times an archive is generated for one request if it is
+	 * evicted by concurrent requests before it could be opened.
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final String name;
+
+	private final File folder;
+
+	private final long maximumSize;
+
+	private final Map<String, Long> entries;
+
+	private final ConcurrentMap<String, FutureTask<File>> generating;
+
+	private long size;
+
+	private final AtomicLong hits;
+
+	private final AtomicLong misses;
+
+	private final AtomicLong loads;
+
+	private final AtomicLong loadTime;
+
+	private final AtomicLong evictions;
+
+	public ArchiveCache(File folder, long maximumSize) {
+		this("archives", folder, maximumSize);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the cache in the statistics
+	 * @param folder
+	 * @param maximumSize
+	 *            the maximum size of all cached archives in bytes
+	 */
+	public ArchiveCache(String name, File folder, long maximumSize) {
+		this.name = name;
+		this.folder = folder;
+		this.maximumSize = maximumSize;
+		this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		this.generating = new ConcurrentHashMap<String, FutureTask<File>>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.loads = new AtomicLong();
+		this.loadTime = new AtomicLong();
+		this.evictions = new AtomicLong();
+
+		folder.mkdirs();
+		load();
+	}
+
+	/**
+	 * Registers the archives cached by a previous run, oldest first, and
+	 * deletes incomplete archives.
+	 */
+	private void load() {
+		File [] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		synchronized (entries) {
+			for (File file : files) {
+				if (!file.isFile()) {
+					continue;
+				}
+				if (file.getName().endsWith(TEMP_SUFFIX)) {
+					file.delete();
+					continue;
+				}
+				entries.put(file.getName(), file.length());
+				size += file.length();
+			}
+			evict(null);
+		}
+	}
+
+	/**
+	 * Opens the cached archive for the key, generating it if required.  The
+	 * archive is regenerated if it was evicted before it could be opened.
+	 *
+	 * @param key
+	 *            the content key, used as the file name of the archive
+	 * @param generator
+	 * @return an input stream on the archive file, which must be closed
+	 * @throws IOException
+	 *             if the archive could not be generated
+	 */
+	public FileInputStream open(final String key, final Generator generator) throws IOException {
+		FileInputStream is = openCached(key);
+		if (is != null) {
+			hits.incrementAndGet();
+			return is;
+		}
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+				@Override
+				public File call() throws Exception {
+					return generate(key, generator);
+				}
+			});
+			FutureTask<File> existing = generating.putIfAbsent(key, task);
+			if (existing == null) {
+				// this thread generates the archive
+				misses.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					generating.remove(key, task);
+				}
+				existing = task;
+			} else if (attempt == 0) {
+				// wait for the archive being generated by another thread
+				hits.incrementAndGet();
+			}
+
+			try {
+				existing.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException(cause);
+			}
+
+			is = openCached(key);
+			if (is != null) {
+				return is;
+			}
+			logger.debug("Cached archive {} was evicted before it was opened, regenerating", key);
+		}
+		throw new FileNotFoundException("Cached archive " + key + " was evicted before it was opened");
+	}
+
+	/**
+	 * Opens the cached archive while holding the entries lock.
+	 *
+	 * @param key
+	 * @return an input stream on the archive or null if it is not cached
+	 */
+	private FileInputStream openCached(String key) {
+		synchronized (entries) {
+			Long length = entries.get(key);
+			if (length == null) {
+				return null;
+			}
+			File file = new File(folder, key);
+			try {
+				return new FileInputStream(file);
+			} catch (FileNotFoundException e) {
+				// deleted externally
+				entries.remove(key);
+				size -= length;
+				return null;
+			}
+		}
+	}
+
+	private File generate(String key, Generator generator) throws IOException {
+		long start = System.nanoTime();
+		File temp = File.createTempFile(key, TEMP_SUFFIX, folder);
+		try {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(temp));
+			try {
+				generator.write(os);
+			} finally {
+				os.close();
+			}
+			File file = new File(folder, key);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+			synchronized (entries) {
+				long length = file.length();
+				Long replaced = entries.put(key, length);
+				if (replaced != null) {
+					size -= replaced;
+				}
+				size += length;
+				evict(key);
+			}
+			loads.incrementAndGet();
+			loadTime.addAndGet(System.nanoTime() - start);
+			return file;
+		} finally {
+			if (temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used archives until the cache fits into the
+	 * maximum size.  Must be called while holding the entries lock.
+	 *
+	 * @param keep
+	 *            the key of an archive which must not be evicted
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> itr = entries.entrySet().iterator();
+		while (size > maximumSize && itr.hasNext()) {
+			Map.Entry<String, Long> entry = itr.next();
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+			File file = new File(folder, entry.getKey());
+			size -= entry.getValue();
+			itr.remove();
+			evictions.incrementAndGet();
+			// an archive which is being served remains readable on POSIX
+			// systems, elsewhere the delete fails while it is being served and
+			// the file is registered again on the next start
+			if (!file.delete()) {
+				logger.debug("Failed to delete cached archive {}", file);
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached archives.
+	 */
+	public void clear() {
+		List<String> keys;
+		synchronized (entries) {
+			keys = new ArrayList<String>(entries.keySet());
+			entries.clear();
+			size = 0;
+		}
+		for (String key : keys) {
+			new File(folder, key).delete();
+		}
+	}
+
+	/**
+	 * Returns the usage statistics of the archive cache.
+	 *
+	 * @return the cache statistics
+	 */
+	public CacheStatistics getStatistics() {
+		CacheStatistics stats = new CacheStatistics(name);
+		synchronized (entries) {
+			stats.entries = entries.size();
+			stats.size = size;
+		}
+		stats.maximumSize = maximumSize;
+		stats.hits = hits.get();
+		stats.misses = misses.get();
+		stats.loads = loads.get();
+		stats.loadTime = TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+		stats.evictions = evictions.get();
+		return stats;
+	}
+}
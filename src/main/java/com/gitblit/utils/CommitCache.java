@@ -18,11 +18,15 @@ package com.gitblit.utils;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -30,12 +34,21 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gitblit.models.CacheStatistics;
 import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryCommit;
 
 /**
  * Caches repository commits for re-use in the dashboard and activity pages.
  *
+ * Commits are cached per repository branch.  Each branch is loaded and
+ * updated independently of every other branch so a slow revwalk of one
+ * branch does not block readers of another branch.  Concurrent requests for
+ * a stale branch are coalesced into a single revwalk.
+ *
+ * The cache may optionally be bounded by an estimated heap size in which case
+ * the least recently used branches are evicted first.
+ *
  * @author James Moger
  *
  */
@@ -43,11 +56,33 @@ public class CommitCache {
 
 	private static final CommitCache instance;
 
+	/**
+	 * Estimated heap overhead of a cached commit, excluding the raw commit
+	 * buffer.
+	 */
+	private static final int COMMIT_OVERHEAD = 256;
+
 	protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-	protected final Map<String, ObjectCache<List<RepositoryCommit>>> cache;
+	protected final ConcurrentMap<String, ConcurrentMap<String, CachedCommits>> cache;
+
+	protected volatile int cacheDays = -1;
+
+	protected volatile long maximumSize;
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final AtomicLong accessCounter = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong loads = new AtomicLong();
+
+	private final AtomicLong loadTime = new AtomicLong();
 
-	protected int cacheDays = -1;
+	private final AtomicLong evictions = new AtomicLong();
 
 	public static CommitCache instance() {
 		return instance;
@@ -58,7 +93,7 @@ public class CommitCache {
 	}
 
 	protected CommitCache() {
-		cache = new HashMap<>();
+		cache = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -88,13 +123,44 @@ public class CommitCache {
 		clear();
 	}
 
+	/**
+	 * Sets the maximum estimated heap size of the cache in bytes.  When the
+	 * cache exceeds this size the least recently used branches are evicted.
+	 *
+	 * @param bytes the maximum size, a value <= 0 disables the bound
+	 */
+	public synchronized void setMaximumSize(long bytes) {
+		this.maximumSize = bytes;
+		evict(null);
+	}
+
+	/**
+	 * Returns the current usage statistics of the cache.
+	 *
+	 * @return the cache statistics
+	 */
+	public CacheStatistics getStatistics() {
+		CacheStatistics stats = new CacheStatistics("commits");
+		for (ConcurrentMap<String, CachedCommits> repoCache : cache.values()) {
+			stats.entries += repoCache.size();
+		}
+		stats.size = size.get();
+		stats.maximumSize = Math.max(0, maximumSize);
+		stats.hits = hits.get();
+		stats.misses = misses.get();
+		stats.loads = loads.get();
+		stats.loadTime = TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+		stats.evictions = evictions.get();
+		return stats;
+	}
+
 	/**
 	 * Clears the entire commit cache.
 	 *
 	 */
 	public void clear() {
-		synchronized (cache) {
-			cache.clear();
+		for (String repoKey : cache.keySet()) {
+			remove(repoKey);
 		}
 	}
 
@@ -105,10 +171,7 @@ public class CommitCache {
 	 */
 	public void clear(String repositoryName) {
 		String repoKey = repositoryName.toLowerCase();
-		boolean hadEntries = false;
-		synchronized (cache) {
-			hadEntries = cache.remove(repoKey) != null;
-		}
+		boolean hadEntries = remove(repoKey);
 		if (hadEntries) {
 			logger.info(MessageFormat.format("{0} commit cache cleared", repositoryName));
 		}
@@ -123,11 +186,12 @@ public class CommitCache {
 	public void clear(String repositoryName, String branch) {
 		String repoKey = repositoryName.toLowerCase();
 		boolean hadEntries = false;
-		synchronized (cache) {
-			ObjectCache<List<RepositoryCommit>> repoCache = cache.get(repoKey);
-			if (repoCache != null) {
-				List<RepositoryCommit> commits = repoCache.remove(branch.toLowerCase());
-				hadEntries = !ArrayUtils.isEmpty(commits);
+		ConcurrentMap<String, CachedCommits> repoCache = cache.get(repoKey);
+		if (repoCache != null) {
+			CachedCommits entry = repoCache.remove(branch.toLowerCase());
+			if (entry != null) {
+				hadEntries = !ArrayUtils.isEmpty(entry.getCommits());
+				size.addAndGet(-entry.discard());
 			}
 		}
 		if (hadEntries) {
@@ -135,6 +199,17 @@ public class CommitCache {
 		}
 	}
 
+	private boolean remove(String repoKey) {
+		ConcurrentMap<String, CachedCommits> repoCache = cache.remove(repoKey);
+		if (repoCache == null) {
+			return false;
+		}
+		for (CachedCommits entry : repoCache.values()) {
+			size.addAndGet(-entry.discard());
+		}
+		return true;
+	}
+
 	/**
 	 * Get all commits for the specified repository:branch that are in the cache.
 	 *
@@ -164,57 +239,43 @@ public class CommitCache {
 		List<RepositoryCommit> list;
 		if (cacheDays > 0 && (sinceDate.getTime() >= cacheCutoffDate.getTime())) {
 			// request fits within the cache window
-			String repoKey = repositoryName.toLowerCase();
-			String branchKey = branch.toLowerCase();
-
 			RevCommit tip = JGitUtils.getCommit(repository, branch);
-			Date tipDate = JGitUtils.getCommitDate(tip);
-
-			ObjectCache<List<RepositoryCommit>> repoCache;
-			synchronized (cache) {
-				repoCache = cache.get(repoKey);
-				if (repoCache == null) {
-					repoCache = new ObjectCache<>();
-					cache.put(repoKey, repoCache);
-				}
-			}
-			synchronized (repoCache) {
-				List<RepositoryCommit> commits;
-				if (!repoCache.hasCurrent(branchKey, tipDate)) {
-					commits = repoCache.getObject(branchKey);
-					if (ArrayUtils.isEmpty(commits)) {
-						// we don't have any cached commits for this branch, reload
-						commits = get(repositoryName, repository, branch, cacheCutoffDate);
-						repoCache.updateObject(branchKey, tipDate, commits);
-						logger.debug(MessageFormat.format("parsed {0} commits from {1}:{2} since {3,date,yyyy-MM-dd} in {4} msecs",
-								commits.size(), repositoryName, branch, cacheCutoffDate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+			ObjectId tipId = tip == null ? ObjectId.zeroId() : tip.getId();
+
+			CachedCommits entry = getEntry(repositoryName.toLowerCase(), branch.toLowerCase());
+			Snapshot snapshot = entry.snapshot;
+			if (snapshot != null && snapshot.isCurrent(tipId, cacheCutoffDate)) {
+				// cache is current, no lock required
+				hits.incrementAndGet();
+			} else {
+				// only one thread updates a stale branch, concurrent readers
+				// of the same branch wait for and share the result
+				synchronized (entry.loadLock) {
+					snapshot = entry.snapshot;
+					if (snapshot != null && snapshot.isCurrent(tipId, cacheCutoffDate)) {
+						hits.incrementAndGet();
+					} else if (snapshot != null && snapshot.tip.equals(tipId)) {
+						// evict older commits outside the cache window
+						hits.incrementAndGet();
+						snapshot = new Snapshot(tipId, reduce(snapshot.commits, cacheCutoffDate), cacheCutoffDate);
+						size.addAndGet(entry.publish(snapshot));
 					} else {
-						// incrementally update cache since the last cached commit
-						ObjectId sinceCommit = commits.get(0).getId();
-						List<RepositoryCommit> incremental = get(repositoryName, repository, branch, sinceCommit);
-						logger.info(MessageFormat.format("incrementally added {0} commits to cache for {1}:{2} in {3} msecs",
-								incremental.size(), repositoryName, branch, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
-						incremental.addAll(commits);
-						repoCache.updateObject(branchKey, tipDate, incremental);
-						commits = incremental;
+						misses.incrementAndGet();
+						snapshot = load(repositoryName, repository, branch, tipId, snapshot, cacheCutoffDate);
+						size.addAndGet(entry.publish(snapshot));
 					}
-				} else {
-					// cache is current
-					commits = repoCache.getObject(branchKey);
-					// evict older commits outside the cache window
-					commits = reduce(commits, cacheCutoffDate);
-					// update cache
-					repoCache.updateObject(branchKey, tipDate, commits);
 				}
+			}
+			entry.lastAccess = accessCounter.incrementAndGet();
 
-				if (sinceDate.equals(cacheCutoffDate)) {
-					// Mustn't hand out the cached list; that's not thread-safe
-					list = new ArrayList<>(commits);
-				} else {
-					// reduce the commits to those since the specified date
-					list = reduce(commits, sinceDate);
-				}
+			if (sinceDate.equals(cacheCutoffDate)) {
+				// Mustn't hand out the cached list; that's not thread-safe
+				list = new ArrayList<>(snapshot.commits);
+			} else {
+				// reduce the commits to those since the specified date
+				list = reduce(snapshot.commits, sinceDate);
 			}
+			evict(entry);
 			logger.debug(MessageFormat.format("retrieved {0} commits from cache of {1}:{2} since {3,date,yyyy-MM-dd} in {4} msecs",
 					list.size(), repositoryName, branch, sinceDate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 		} else {
@@ -226,6 +287,98 @@ public class CommitCache {
 		return list;
 	}
 
+	private CachedCommits getEntry(String repoKey, String branchKey) {
+		ConcurrentMap<String, CachedCommits> repoCache = cache.get(repoKey);
+		if (repoCache == null) {
+			ConcurrentMap<String, CachedCommits> newCache = new ConcurrentHashMap<>();
+			repoCache = cache.putIfAbsent(repoKey, newCache);
+			if (repoCache == null) {
+				repoCache = newCache;
+			}
+		}
+		CachedCommits entry = repoCache.get(branchKey);
+		if (entry == null) {
+			CachedCommits newEntry = new CachedCommits(repoKey, branchKey);
+			entry = repoCache.putIfAbsent(branchKey, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Loads the commits of a branch, incrementally if we already have cached
+	 * commits for the branch.
+	 */
+	private Snapshot load(String repositoryName, Repository repository, String branch, ObjectId tipId,
+			Snapshot previous, Date cacheCutoffDate) {
+		long start = System.nanoTime();
+		List<RepositoryCommit> commits;
+		if (previous == null || ArrayUtils.isEmpty(previous.commits)) {
+			// we don't have any cached commits for this branch, reload
+			commits = get(repositoryName, repository, branch, cacheCutoffDate);
+			logger.debug(MessageFormat.format("parsed {0} commits from {1}:{2} since {3,date,yyyy-MM-dd} in {4} msecs",
+					commits.size(), repositoryName, branch, cacheCutoffDate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} else {
+			// incrementally update cache since the last cached commit
+			ObjectId sinceCommit = previous.commits.get(0).getId();
+			commits = get(repositoryName, repository, branch, sinceCommit);
+			logger.info(MessageFormat.format("incrementally added {0} commits to cache for {1}:{2} in {3} msecs",
+					commits.size(), repositoryName, branch, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+			commits.addAll(previous.commits);
+			// evict older commits outside the cache window, including added
+			// commits with an older commit date
+			commits = reduce(commits, cacheCutoffDate);
+		}
+		loads.incrementAndGet();
+		loadTime.addAndGet(System.nanoTime() - start);
+		return new Snapshot(tipId, commits, cacheCutoffDate);
+	}
+
+	/**
+	 * Evicts the least recently used branches until the cache fits within the
+	 * maximum size.  The branch which was just accessed is evicted last.
+	 *
+	 * @param current the entry which was just accessed, may be null
+	 */
+	private void evict(CachedCommits current) {
+		long limit = maximumSize;
+		if (limit <= 0 || size.get() <= limit) {
+			return;
+		}
+		synchronized (evictions) {
+			if (size.get() <= limit) {
+				// another thread has already evicted
+				return;
+			}
+			List<CachedCommits> entries = new ArrayList<>();
+			for (ConcurrentMap<String, CachedCommits> repoCache : cache.values()) {
+				entries.addAll(repoCache.values());
+			}
+			Collections.sort(entries, new Comparator<CachedCommits>() {
+				@Override
+				public int compare(CachedCommits o1, CachedCommits o2) {
+					return Long.compare(o1.lastAccess, o2.lastAccess);
+				}
+			});
+			if (current != null && entries.remove(current)) {
+				entries.add(current);
+			}
+			for (CachedCommits entry : entries) {
+				if (size.get() <= limit) {
+					break;
+				}
+				ConcurrentMap<String, CachedCommits> repoCache = cache.get(entry.repository);
+				if (repoCache != null && repoCache.remove(entry.branch, entry)) {
+					size.addAndGet(-entry.discard());
+					evictions.incrementAndGet();
+					logger.debug(MessageFormat.format("evicted {0}:{1} from commit cache", entry.repository, entry.branch));
+				}
+			}
+		}
+	}
+
 	/**
 	 * Returns a list of commits for the specified repository branch.
 	 *
@@ -286,4 +439,99 @@ public class CommitCache {
 		}
 		return filtered;
 	}
+
+	/**
+	 * Returns the estimated heap size of a list of cached commits.
+	 *
+	 * @param commits
+	 * @return the estimated size in bytes
+	 */
+	protected long estimateSize(List<RepositoryCommit> commits) {
+		long bytes = 0;
+		for (RepositoryCommit commit : commits) {
+			bytes += COMMIT_OVERHEAD + commit.getRawSize();
+		}
+		return bytes;
+	}
+
+	/**
+	 * An immutable view of the cached commits of a branch.
+	 */
+	private class Snapshot {
+
+		final ObjectId tip;
+
+		final List<RepositoryCommit> commits;
+
+		final Date cutoffDate;
+
+		final long size;
+
+		Snapshot(ObjectId tip, List<RepositoryCommit> commits, Date cutoffDate) {
+			this.tip = tip;
+			this.commits = commits;
+			this.cutoffDate = cutoffDate;
+			this.size = estimateSize(commits);
+		}
+
+		boolean isCurrent(ObjectId tipId, Date cacheCutoffDate) {
+			return tip.equals(tipId) && !cutoffDate.before(cacheCutoffDate);
+		}
+	}
+
+	/**
+	 * The cache entry of a repository branch.
+	 */
+	private class CachedCommits {
+
+		final String repository;
+
+		final String branch;
+
+		final Object loadLock = new Object();
+
+		volatile Snapshot snapshot;
+
+		volatile long lastAccess;
+
+		private boolean discarded;
+
+		CachedCommits(String repository, String branch) {
+			this.repository = repository;
+			this.branch = branch;
+		}
+
+		List<RepositoryCommit> getCommits() {
+			Snapshot s = snapshot;
+			return s == null ? null : s.commits;
+		}
+
+		/**
+		 * Publishes a new snapshot.
+		 *
+		 * @return the change in the estimated size of the cache
+		 */
+		synchronized long publish(Snapshot s) {
+			if (discarded) {
+				// entry has been removed from the cache
+				return 0;
+			}
+			long delta = s.size - (snapshot == null ? 0 : snapshot.size);
+			snapshot = s;
+			return delta;
+		}
+
+		/**
+		 * Marks this entry as removed from the cache.
+		 *
+		 * @return the estimated size of the entry
+		 */
+		synchronized long discard() {
+			if (discarded) {
+				return 0;
+			}
+			discarded = true;
+			return snapshot == null ? 0 : snapshot.size;
+		}
+	}
 }
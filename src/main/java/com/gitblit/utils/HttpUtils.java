@@ -22,6 +22,7 @@ import java.text.MessageFormat;
 import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.LoggerFactory;
 
@@ -215,4 +216,157 @@ public class HttpUtils {
 		// TODO IPV6?
 		return false;
 	}
+
+	/**
+	 * Determines if the client already has the current representation of a
+	 * resource based on the If-None-Match and If-Modified-Since request
+	 * headers.  If-Modified-Since is only considered if the request does not
+	 * specify If-None-Match.
+	 *
+	 * @param request
+	 * @param etag
+	 *            the quoted entity tag of the resource, may be null
+	 * @param lastModified
+	 *            the last modified time of the resource, or -1 if unknown
+	 * @return true if the resource has not been modified
+	 */
+	public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			if (etag == null) {
+				return false;
+			}
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					// weak comparison
+					tag = tag.substring(2);
+				}
+				if ("*".equals(tag) || etag.equals(tag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (lastModified < 0) {
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			// unparseable date
+			return false;
+		}
+		// http dates have a resolution of seconds
+		return ifModifiedSince > -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Returns the byte range requested by the Range header.  Only a single
+	 * range is supported, requests for multiple ranges are answered with the
+	 * complete entity.  If the request specifies an If-Range entity tag which
+	 * does not match the resource the complete entity is returned.
+	 *
+	 * @param request
+	 * @param etag
+	 *            the quoted entity tag of the resource, may be null
+	 * @param length
+	 *            the length of the resource
+	 * @return the requested range or null if the complete entity should be
+	 *         returned
+	 */
+	public static ByteRange getRange(HttpServletRequest request, String etag, long length) {
+		String range = request.getHeader("Range");
+		if (StringUtils.isEmpty(range) || !range.startsWith("bytes=") || range.indexOf(',') > -1) {
+			return null;
+		}
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null && (etag == null || !etag.equals(ifRange.trim()))) {
+			// the client copy is stale, send the complete entity
+			return null;
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		long start;
+		long end;
+		try {
+			if (dash == 0) {
+				// suffix range, the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				start = suffix == 0 ? length : Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, dash));
+				String last = spec.substring(dash + 1);
+				if (last.isEmpty()) {
+					end = length - 1;
+				} else {
+					long lastByte = Long.parseLong(last);
+					if (lastByte < start) {
+						// syntactically invalid, ignore the range
+						return null;
+					}
+					end = Math.min(length - 1, lastByte);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return new ByteRange(length, start, end);
+	}
+
+	/**
+	 * Sets the response status and headers for a byte range request.
+	 *
+	 * @param response
+	 * @param range
+	 * @return true if the range can be served, false if the range is not
+	 *         satisfiable and the response has been completed
+	 */
+	public static boolean setRange(HttpServletResponse response, ByteRange range) {
+		if (!range.isSatisfiable()) {
+			response.setHeader("Content-Range", "bytes */" + range.total);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return false;
+		}
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader("Content-Range", range.toString());
+		response.setHeader("Content-Length", Long.toString(range.getLength()));
+		return true;
+	}
+
+	/**
+	 * A single byte range of a resource.
+	 */
+	public static class ByteRange {
+
+		public final long total;
+
+		public final long start;
+
+		public final long end;
+
+		public ByteRange(long total, long start, long end) {
+			this.total = total;
+			this.start = start;
+			this.end = end;
+		}
+
+		public boolean isSatisfiable() {
+			return start < total && start <= end;
+		}
+
+		public long getLength() {
+			return end - start + 1;
+		}
+
+		@Override
+		public String toString() {
+			return "bytes " + start + "-" + end + "/" + total;
+		}
+	}
 }
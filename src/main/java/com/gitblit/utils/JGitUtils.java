@@ -17,6 +17,7 @@ package com.gitblit.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -637,6 +638,75 @@ public class JGitUtils {
 		return false;
 	}
 
+	/**
+	 * Determine if the largest pack of a repository, usually the pack written
+	 * by the last garbage collection, has a valid bitmap index.
+	 *
+	 * @param repository
+	 * @return true if the largest pack has a valid bitmap index
+	 */
+	public static boolean hasPackBitmap(Repository repository) {
+		if (repository == null) {
+			return false;
+		}
+		return hasPackBitmap(new File(repository.getDirectory(), "objects/pack"));
+	}
+
+	/**
+	 * Determine if the largest pack in a pack folder has a valid bitmap index.
+	 * A bitmap is valid if it was written for the pack, i.e. it records the
+	 * checksum of the pack.
+	 *
+	 * @param packFolder
+	 * @return true if the largest pack has a valid bitmap index
+	 */
+	public static boolean hasPackBitmap(File packFolder) {
+		File [] files = packFolder.listFiles();
+		if (files == null) {
+			return false;
+		}
+		File pack = null;
+		for (File file : files) {
+			if (file.getName().endsWith(".pack") && (pack == null || file.length() > pack.length())) {
+				pack = file;
+			}
+		}
+		if (pack == null || pack.length() < Constants.OBJECT_ID_LENGTH) {
+			return false;
+		}
+		String name = pack.getName().substring(0, pack.getName().length() - ".pack".length());
+		File bitmap = new File(packFolder, name + ".bitmap");
+		if (!bitmap.isFile()) {
+			return false;
+		}
+
+		// the bitmap header is the magic, the version, the options, the number
+		// of entries and the checksum of the pack, which trails the pack
+		byte [] header = new byte[12 + Constants.OBJECT_ID_LENGTH];
+		byte [] checksum = new byte[Constants.OBJECT_ID_LENGTH];
+		try {
+			RandomAccessFile raf = new RandomAccessFile(bitmap, "r");
+			try {
+				raf.readFully(header);
+			} finally {
+				raf.close();
+			}
+			raf = new RandomAccessFile(pack, "r");
+			try {
+				raf.seek(pack.length() - checksum.length);
+				raf.readFully(checksum);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		if (header[0] != 'B' || header[1] != 'I' || header[2] != 'T' || header[3] != 'M') {
+			return false;
+		}
+		return Arrays.equals(checksum, Arrays.copyOfRange(header, 12, header.length));
+	}
+
 	/**
 	 * Encapsulates the result of cloning or pulling from a repository.
 	 */
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
@@ -31,6 +33,7 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 import com.gitblit.Constants.AccessPermission;
 import com.gitblit.GitBlitException.ForbiddenException;
@@ -46,6 +49,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
@@ -78,6 +82,25 @@ public class JsonUtils {
 		return json;
 	}
 
+	/**
+	 * Writes JSON for the specified object to the writer without building
+	 * the complete JSON string.
+	 *
+	 * @param o
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void toJson(Object o, Writer writer) throws IOException {
+		try {
+			gson().toJson(o, writer);
+		} catch (JsonIOException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e);
+		}
+	}
+
 	/**
 	 * Convert a json string to an object of the specified type.
 	 * 
@@ -144,11 +167,15 @@ public class JsonUtils {
 	 */
 	public static <X> X retrieveJson(String url, Type type, String username, char[] password)
 			throws IOException {
-		String json = retrieveJsonString(url, username, password);
-		if (StringUtils.isEmpty(json)) {
-			return null;
+		Reader reader = new InputStreamReader(openJsonStream(url, username, password), ConnectionUtils.CHARSET);
+		try {
+			// an empty response is deserialized as null
+			return gson().fromJson(reader, type);
+		} catch (JsonIOException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			reader.close();
 		}
-		return gson().fromJson(json, type);
 	}
 
 	/**
@@ -163,11 +190,15 @@ public class JsonUtils {
 	 */
 	public static <X> X retrieveJson(String url, Class<X> clazz, String username, char[] password)
 			throws IOException {
-		String json = retrieveJsonString(url, username, password);
-		if (StringUtils.isEmpty(json)) {
-			return null;
+		Reader reader = new InputStreamReader(openJsonStream(url, username, password), ConnectionUtils.CHARSET);
+		try {
+			// an empty response is deserialized as null
+			return gson().fromJson(reader, clazz);
+		} catch (JsonIOException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			reader.close();
 		}
-		return gson().fromJson(json, clazz);
 	}
 
 	/**
@@ -179,19 +210,36 @@ public class JsonUtils {
 	 */
 	public static String retrieveJsonString(String url, String username, char[] password)
 			throws IOException {
+		InputStream is = openJsonStream(url, username, password);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is,
+				ConnectionUtils.CHARSET));
+		StringBuilder json = new StringBuilder();
+		char[] buffer = new char[4096];
+		int len = 0;
+		while ((len = reader.read(buffer)) > -1) {
+			json.append(buffer, 0, len);
+		}
+		is.close();
+		return json.toString();
+	}
+
+	/**
+	 * Opens a JSON message, requesting a gzip compressed response.
+	 *
+	 * @param url
+	 * @return the uncompressed JSON message stream
+	 * @throws {@link IOException}
+	 */
+	private static InputStream openJsonStream(String url, String username, char[] password)
+			throws IOException {
 		try {
 			URLConnection conn = ConnectionUtils.openReadConnection(url, username, password);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
 			InputStream is = conn.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(is,
-					ConnectionUtils.CHARSET));
-			StringBuilder json = new StringBuilder();
-			char[] buffer = new char[4096];
-			int len = 0;
-			while ((len = reader.read(buffer)) > -1) {
-				json.append(buffer, 0, len);
+			if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+				is = new GZIPInputStream(is);
 			}
-			is.close();
-			return json.toString();
+			return is;
 		} catch (IOException e) {
 			if (e.getMessage().indexOf("401") > -1) {
 				// unauthorized
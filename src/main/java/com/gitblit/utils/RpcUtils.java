@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -147,6 +148,32 @@ public class RpcUtils {
 		return models;
 	}
 
+	/**
+	 * Retrieves a map of the repositories at the remote gitblit instance,
+	 * which have changed since the specified date, keyed by the repository
+	 * clone url.  Requires protocol version 9.
+	 * <p>
+	 * A repository has changed if the date of its most recent commit is after
+	 * the specified date.  Pushes of commits with older dates, deleted and
+	 * renamed repositories are not reported, so the complete list should
+	 * still be retrieved from time to time.
+	 *
+	 * @param serverUrl
+	 * @param account
+	 * @param password
+	 * @param since
+	 * @return a map of cloneable repositories
+	 * @throws IOException
+	 * @since 1.9.0
+	 */
+	public static Map<String, RepositoryModel> getRepositories(String serverUrl, String account,
+			char[] password, Date since) throws IOException {
+		String url = asLink(serverUrl, RpcRequest.LIST_REPOSITORIES) + "&since=" + since.getTime();
+		Map<String, RepositoryModel> models = JsonUtils.retrieveJson(url, REPOSITORIES_TYPE,
+				account, password);
+		return models;
+	}
+
 	/**
 	 * Tries to pull the gitblit user accounts from the remote gitblit instance.
 	 *
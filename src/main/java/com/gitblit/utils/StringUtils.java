@@ -31,8 +31,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -50,6 +52,32 @@ public class StringUtils {
 
 	public static final String COMBINED_MD5_TYPE = "CMD5:";
 
+	/**
+	 * Maximum number of compiled patterns cached for each matching mode.
+	 */
+	private static final int PATTERN_CACHE_SIZE = 1000;
+
+	private static final Map<String, Pattern> PATTERNS = new PatternCache();
+
+	private static final Map<String, Pattern> PATTERNS_IGNORE_CASE = new PatternCache();
+
+	/**
+	 * Least recently used cache of compiled patterns.
+	 */
+	private static class PatternCache extends LinkedHashMap<String, Pattern> {
+
+		private static final long serialVersionUID = 1L;
+
+		PatternCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+			return size() > PATTERN_CACHE_SIZE;
+		}
+	}
+
 	/**
 	 * Returns true if the string is null or empty.
 	 *
@@ -760,11 +788,49 @@ public class StringUtils {
 	 * @return true if the pattern matches
 	 */
 	public static boolean matchesIgnoreCase(String input, String regex) {
-		Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+		Pattern p = getPattern(regex, PATTERNS_IGNORE_CASE, Pattern.CASE_INSENSITIVE);
 		Matcher m = p.matcher(input);
 		return m.matches();
 	}
 
+	/**
+	 * Variation of String.matches() which reuses the compiled pattern.
+	 *
+	 * @param input
+	 * @param regex
+	 * @return true if the pattern matches
+	 */
+	public static boolean matches(String input, String regex) {
+		Pattern p = getPattern(regex, PATTERNS, 0);
+		Matcher m = p.matcher(input);
+		return m.matches();
+	}
+
+	/**
+	 * Returns the compiled pattern for the regex from the cache, compiling it
+	 * if required.  Regex permissions are matched against every repository,
+	 * so compiling them once matters.
+	 *
+	 * @param regex
+	 * @param cache
+	 * @param flags
+	 * @return the compiled pattern
+	 */
+	private static Pattern getPattern(String regex, Map<String, Pattern> cache, int flags) {
+		Pattern p;
+		synchronized (cache) {
+			p = cache.get(regex);
+		}
+		if (p == null) {
+			p = Pattern.compile(regex, flags);
+			synchronized (cache) {
+				// the least recently used pattern is evicted once full
+				cache.put(regex, p);
+			}
+		}
+		return p;
+	}
+
 	/**
 	 * Removes new line and carriage return chars from a string.
 	 * If input value is null an empty string is returned.
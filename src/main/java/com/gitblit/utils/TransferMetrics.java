@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.storage.pack.PackStatistics;
+
+import com.gitblit.models.TransferStatistics;
+
+/**
+ * Aggregates the statistics of the packs uploaded to and received from
+ * clients per repository and per user.  The counters are kept in rolling
+ * windows of fixed size buckets, the summary of a window covers the buckets
+ * which have not yet rotated out of it.
+ *
+ */
+public class TransferMetrics {
+
+	/**
+	 * The rolling windows of the transfer metrics.
+	 */
+	public static enum Window {
+		HOUR("1h", TimeUnit.MINUTES.toMillis(5), 12), DAY("24h", TimeUnit.HOURS.toMillis(1), 24);
+
+		public final String label;
+
+		final long bucketSize;
+
+		final int buckets;
+
+		Window(String label, long bucketSize, int buckets) {
+			this.label = label;
+			this.bucketSize = bucketSize;
+			this.buckets = buckets;
+		}
+
+		long getSpan() {
+			return bucketSize * buckets;
+		}
+	}
+
+	private static final TransferMetrics instance;
+
+	private final ConcurrentMap<String, Series> repositories;
+
+	private final ConcurrentMap<String, Series> users;
+
+	public static TransferMetrics instance() {
+		return instance;
+	}
+
+	static {
+		instance = new TransferMetrics();
+	}
+
+	protected TransferMetrics() {
+		repositories = new ConcurrentHashMap<String, Series>();
+		users = new ConcurrentHashMap<String, Series>();
+	}
+
+	/**
+	 * Returns the current time in milliseconds.
+	 *
+	 * @return the current time
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a pack which was generated and sent to a client.
+	 *
+	 * @param repository
+	 * @param username
+	 * @param clone
+	 *            true if the client did not have any objects
+	 * @param stats
+	 *            the statistics of the pack writer
+	 */
+	public void recordUpload(String repository, String username, boolean clone, PackStatistics stats) {
+		TransferStatistics delta = new TransferStatistics(null);
+		delta.uploads = 1;
+		delta.clones = clone ? 1 : 0;
+		delta.objects = stats.getTotalObjects();
+		delta.reusedObjects = stats.getReusedObjects();
+		delta.deltas = stats.getTotalDeltas();
+		delta.reusedDeltas = stats.getReusedDeltas();
+		delta.bytesSent = stats.getTotalBytes();
+		delta.timeCounting = stats.getTimeCounting();
+		delta.timeSearching = stats.getTimeSearchingForReuse() + stats.getTimeSearchingForSizes();
+		delta.timeCompressing = stats.getTimeCompressing();
+		delta.timeWriting = stats.getTimeWriting();
+		delta.timeTotal = stats.getTimeTotal();
+		record(repository, username, delta);
+	}
+
+	/**
+	 * Records a pack which was sent to a client from the clone pack cache.
+	 *
+	 * @param repository
+	 * @param username
+	 * @param bytes
+	 *            the size of the cached response
+	 */
+	public void recordCachedUpload(String repository, String username, long bytes) {
+		TransferStatistics delta = new TransferStatistics(null);
+		delta.uploads = 1;
+		delta.clones = 1;
+		delta.cachedUploads = 1;
+		delta.bytesSent = bytes;
+		record(repository, username, delta);
+	}
+
+	/**
+	 * Records a pack which was received from a client.
+	 *
+	 * @param repository
+	 * @param username
+	 * @param bytes
+	 *            the size of the received pack
+	 */
+	public void recordReceive(String repository, String username, long bytes) {
+		TransferStatistics delta = new TransferStatistics(null);
+		delta.receives = 1;
+		delta.bytesReceived = bytes;
+		record(repository, username, delta);
+	}
+
+	private void record(String repository, String username, TransferStatistics delta) {
+		long now = now();
+		if (!StringUtils.isEmpty(repository)) {
+			record(repositories, repository, now, delta);
+		}
+		if (!StringUtils.isEmpty(username)) {
+			record(users, username, now, delta);
+		}
+	}
+
+	private void record(ConcurrentMap<String, Series> map, String key, long now, TransferStatistics delta) {
+		Series series = getSeries(map, key);
+		while (!series.add(now, delta)) {
+			// the series expired concurrently, replace it
+			map.remove(key, series);
+			series = getSeries(map, key);
+		}
+	}
+
+	private Series getSeries(ConcurrentMap<String, Series> map, String key) {
+		Series series = map.get(key);
+		if (series == null) {
+			series = new Series();
+			Series existing = map.putIfAbsent(key, series);
+			if (existing != null) {
+				series = existing;
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * Returns the transfer summaries of all repositories with transfers in
+	 * the window, ordered by the number of bytes sent.
+	 *
+	 * @param window
+	 * @return the repository transfer summaries
+	 */
+	public List<TransferStatistics> getRepositoryStatistics(Window window) {
+		return getStatistics(repositories, window);
+	}
+
+	/**
+	 * Returns the transfer summaries of all users with transfers in the
+	 * window, ordered by the number of bytes sent.
+	 *
+	 * @param window
+	 * @return the user transfer summaries
+	 */
+	public List<TransferStatistics> getUserStatistics(Window window) {
+		return getStatistics(users, window);
+	}
+
+	private List<TransferStatistics> getStatistics(ConcurrentMap<String, Series> map, Window window) {
+		long now = now();
+		List<TransferStatistics> list = new ArrayList<TransferStatistics>();
+		Iterator<Map.Entry<String, Series>> itr = map.entrySet().iterator();
+		while (itr.hasNext()) {
+			Map.Entry<String, Series> entry = itr.next();
+			Series series = entry.getValue();
+			if (series.expire(now)) {
+				// no transfers within the largest window
+				map.remove(entry.getKey(), series);
+				continue;
+			}
+			TransferStatistics stats = series.sum(entry.getKey(), window, now);
+			if (stats.uploads + stats.receives > 0) {
+				list.add(stats);
+			}
+		}
+		Collections.sort(list, new Comparator<TransferStatistics>() {
+			@Override
+			public int compare(TransferStatistics o1, TransferStatistics o2) {
+				int cmp = Long.compare(o2.bytesSent, o1.bytesSent);
+				if (cmp == 0) {
+					cmp = Long.compare(o2.bytesReceived, o1.bytesReceived);
+				}
+				return cmp == 0 ? o1.name.compareTo(o2.name) : cmp;
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Removes all recorded transfers.
+	 */
+	public void clear() {
+		repositories.clear();
+		users.clear();
+	}
+
+	/**
+	 * Writes the transfer summaries of all windows in the Prometheus text
+	 * exposition format.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void write(Writer writer) throws IOException {
+		Map<Window, List<TransferStatistics>> byRepository = new EnumMap<Window, List<TransferStatistics>>(Window.class);
+		Map<Window, List<TransferStatistics>> byUser = new EnumMap<Window, List<TransferStatistics>>(Window.class);
+		for (Window window : Window.values()) {
+			byRepository.put(window, getRepositoryStatistics(window));
+			byUser.put(window, getUserStatistics(window));
+		}
+		for (Metric metric : Metric.values()) {
+			writeMetric(writer, metric, "repository", byRepository);
+			writeMetric(writer, metric, "user", byUser);
+		}
+		writer.flush();
+	}
+
+	private void writeMetric(Writer writer, Metric metric, String label,
+			Map<Window, List<TransferStatistics>> values) throws IOException {
+		String name = "gitblit_" + label + "_" + metric.name;
+		writer.write("# HELP " + name + " " + metric.help + " per " + label + "\n");
+		writer.write("# TYPE " + name + " gauge\n");
+		for (Map.Entry<Window, List<TransferStatistics>> entry : values.entrySet()) {
+			for (TransferStatistics stats : entry.getValue()) {
+				writer.write(name + "{" + label + "=\"" + escape(stats.name) + "\",window=\""
+						+ entry.getKey().label + "\"} " + metric.getValue(stats) + "\n");
+			}
+		}
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * The exported transfer metrics.
+	 */
+	private static enum Metric {
+		UPLOADS("uploads", "Packs sent"),
+		CLONES("clones", "Packs sent to clients without objects"),
+		CACHED_UPLOADS("cached_uploads", "Packs sent from the clone pack cache"),
+		OBJECTS("upload_objects", "Objects sent"),
+		REUSED_OBJECTS("upload_reused_objects", "Objects sent as-is from existing packs"),
+		DELTAS("upload_deltas", "Deltas sent"),
+		REUSED_DELTAS("upload_reused_deltas", "Deltas sent as-is from existing packs"),
+		BYTES_SENT("upload_bytes", "Bytes sent"),
+		COUNTING("upload_counting_seconds", "Time spent counting objects"),
+		SEARCHING("upload_searching_seconds", "Time spent searching for reusable objects"),
+		COMPRESSING("upload_compressing_seconds", "Time spent compressing deltas"),
+		WRITING("upload_writing_seconds", "Time spent writing packs"),
+		TOTAL("upload_seconds", "Total time spent generating packs"),
+		RECEIVES("receives", "Packs received"),
+		BYTES_RECEIVED("receive_bytes", "Bytes received");
+
+		final String name;
+
+		final String help;
+
+		Metric(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		String getValue(TransferStatistics stats) {
+			switch (this) {
+			case UPLOADS:
+				return "" + stats.uploads;
+			case CLONES:
+				return "" + stats.clones;
+			case CACHED_UPLOADS:
+				return "" + stats.cachedUploads;
+			case OBJECTS:
+				return "" + stats.objects;
+			case REUSED_OBJECTS:
+				return "" + stats.reusedObjects;
+			case DELTAS:
+				return "" + stats.deltas;
+			case REUSED_DELTAS:
+				return "" + stats.reusedDeltas;
+			case BYTES_SENT:
+				return "" + stats.bytesSent;
+			case COUNTING:
+				return seconds(stats.timeCounting);
+			case SEARCHING:
+				return seconds(stats.timeSearching);
+			case COMPRESSING:
+				return seconds(stats.timeCompressing);
+			case WRITING:
+				return seconds(stats.timeWriting);
+			case TOTAL:
+				return seconds(stats.timeTotal);
+			case RECEIVES:
+				return "" + stats.receives;
+			default:
+				return "" + stats.bytesReceived;
+			}
+		}
+
+		private static String seconds(long millis) {
+			return "" + (millis / 1000d);
+		}
+	}
+
+	/**
+	 * The buckets of all windows of one repository or user.
+	 */
+	private static class Series {
+
+		final TransferStatistics [][] buckets;
+
+		final long [][] periods;
+
+		long lastUpdate;
+
+		boolean expired;
+
+		Series() {
+			Window [] windows = Window.values();
+			buckets = new TransferStatistics[windows.length][];
+			periods = new long[windows.length][];
+			for (Window window : windows) {
+				buckets[window.ordinal()] = new TransferStatistics[window.buckets];
+				periods[window.ordinal()] = new long[window.buckets];
+			}
+		}
+
+		/**
+		 * Adds the transfer to the buckets of all windows.
+		 *
+		 * @return false if the series expired and the transfer was not added
+		 */
+		synchronized boolean add(long now, TransferStatistics delta) {
+			if (expired) {
+				return false;
+			}
+			for (Window window : Window.values()) {
+				long period = now / window.bucketSize;
+				int index = (int) (period % window.buckets);
+				TransferStatistics [] slots = buckets[window.ordinal()];
+				if (slots[index] == null || periods[window.ordinal()][index] != period) {
+					// the bucket rotated out of the window, start over
+					slots[index] = new TransferStatistics(null);
+					periods[window.ordinal()][index] = period;
+				}
+				slots[index].add(delta);
+			}
+			lastUpdate = now;
+			return true;
+		}
+
+		synchronized TransferStatistics sum(String name, Window window, long now) {
+			TransferStatistics stats = new TransferStatistics(name);
+			long period = now / window.bucketSize;
+			TransferStatistics [] slots = buckets[window.ordinal()];
+			for (int i = 0; i < slots.length; i++) {
+				long age = period - periods[window.ordinal()][i];
+				if (slots[i] != null && age >= 0 && age < window.buckets) {
+					stats.add(slots[i]);
+				}
+			}
+			return stats;
+		}
+
+		/**
+		 * Expires the series if there were no transfers within the largest
+		 * window.  An expired series does not accept further transfers.
+		 *
+		 * @return true if the series is expired
+		 */
+		synchronized boolean expire(long now) {
+			long span = 0;
+			for (Window window : Window.values()) {
+				span = Math.max(span, window.getSpan());
+			}
+			if (now - lastUpdate >= span) {
+				expired = true;
+			}
+			return expired;
+		}
+	}
+}
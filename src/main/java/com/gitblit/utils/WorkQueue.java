@@ -17,25 +17,33 @@ package com.gitblit.utils;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gitblit.models.WorkQueueStatistics;
 import com.google.common.collect.Lists;
 
 /** Delayed execution of tasks using a background thread pool. */
@@ -52,11 +60,29 @@ public class WorkQueue {
   private Executor defaultQueue;
   private final IdGenerator idGenerator;
   private final int defaultQueueSize;
+  private final Map<String, Integer> queueSizes;
+  private final int maxQueueDepth;
   private final CopyOnWriteArrayList<Executor> queues;
 
   public WorkQueue(final IdGenerator idGenerator, final int defaultQueueSize) {
+    this(idGenerator, defaultQueueSize, Collections.<String, Integer> emptyMap(), 0);
+  }
+
+  /**
+   * @param idGenerator
+   * @param defaultQueueSize number of threads of the default queue
+   * @param queueSizes number of threads of named queues, overriding the pool
+   *        size requested by the creator of the queue
+   * @param maxQueueDepth maximum number of tasks waiting in a queue before
+   *        further one-shot tasks are rejected, 0 is unbounded
+   * @since 1.9.0
+   */
+  public WorkQueue(final IdGenerator idGenerator, final int defaultQueueSize,
+      final Map<String, Integer> queueSizes, final int maxQueueDepth) {
     this.idGenerator = idGenerator;
     this.defaultQueueSize = defaultQueueSize;
+    this.queueSizes = queueSizes;
+    this.maxQueueDepth = maxQueueDepth;
     this.queues = new CopyOnWriteArrayList<Executor>();
   }
 
@@ -70,7 +96,9 @@ public class WorkQueue {
 
   /** Create a new executor queue with one thread. */
   public Executor createQueue(final int poolsize, final String prefix) {
-    final Executor r = new Executor(poolsize, prefix);
+    final Integer configured = queueSizes.get(prefix);
+    final int size = configured != null && configured > 0 ? configured : poolsize;
+    final Executor r = new Executor(size, prefix);
     r.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
     r.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     queues.add(r);
@@ -113,6 +141,15 @@ public class WorkQueue {
     return result;
   }
 
+  /** Get the usage statistics of all work queues. */
+  public List<WorkQueueStatistics> getStatistics() {
+    final List<WorkQueueStatistics> r = new ArrayList<WorkQueueStatistics>();
+    for (final Executor e : queues) {
+      r.add(e.getStatistics());
+    }
+    return r;
+  }
+
   public void stop() {
     for (final Executor p : queues) {
       p.shutdown();
@@ -131,6 +168,11 @@ public class WorkQueue {
   /** An isolated queue. */
   public class Executor extends ScheduledThreadPoolExecutor {
     private final ConcurrentHashMap<Integer, Task<?>> all;
+    private final String name;
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong runTime = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long lastRun;
 
     Executor(final int corePoolSize, final String prefix) {
       super(corePoolSize, new ThreadFactory() {
@@ -151,6 +193,53 @@ public class WorkQueue {
           0.75f, // load factor
           corePoolSize + 4 // concurrency level
           );
+      name = prefix;
+      setRejectedExecutionHandler(new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+          rejected.incrementAndGet();
+          throw new RejectedExecutionException("Task " + r + " rejected from " + name);
+        }
+      });
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Rejects one-shot tasks while the queue is full, see maxQueueDepth. */
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay,
+        final TimeUnit unit) {
+      if (maxQueueDepth > 0 && getQueue().size() >= maxQueueDepth) {
+        getRejectedExecutionHandler().rejectedExecution(command, this);
+      }
+      return super.schedule(command, delay, unit);
+    }
+
+    void ran(final long elapsed) {
+      runs.incrementAndGet();
+      runTime.addAndGet(elapsed);
+      lastRun = System.currentTimeMillis();
+    }
+
+    /** Get the usage statistics of this queue. */
+    public WorkQueueStatistics getStatistics() {
+      final WorkQueueStatistics stats = new WorkQueueStatistics(name);
+      stats.poolSize = getCorePoolSize();
+      stats.activeThreads = getActiveCount();
+      stats.scheduledTasks = all.size();
+      for (final Runnable r : getQueue()) {
+        if (((Delayed) r).getDelay(TimeUnit.MILLISECONDS) <= 0) {
+          // waiting for a thread
+          stats.queuedTasks++;
+        }
+      }
+      stats.completedTasks = runs.get();
+      stats.rejectedTasks = rejected.get();
+      stats.runTime = TimeUnit.NANOSECONDS.toMillis(runTime.get());
+      stats.lastRun = lastRun == 0 ? null : new Date(lastRun);
+      return stats;
     }
 
     public void unregisterWorkQueue() {
@@ -328,9 +417,11 @@ public class WorkQueue {
     @Override
 	public void run() {
       if (running.compareAndSet(false, true)) {
+        final long start = System.nanoTime();
         try {
           task.run();
         } finally {
+          executor.ran(System.nanoTime() - start);
           if (isPeriodic()) {
             running.set(false);
           } else {
@@ -86,6 +86,7 @@ import com.gitblit.wicket.pages.ProjectsPage;
 import com.gitblit.wicket.pages.ReflogPage;
 import com.gitblit.wicket.pages.RepositoriesPage;
 import com.gitblit.wicket.pages.ReviewProposalPage;
+import com.gitblit.wicket.pages.StatusPage;
 import com.gitblit.wicket.pages.SummaryPage;
 import com.gitblit.wicket.pages.TagPage;
 import com.gitblit.wicket.pages.TagsPage;
@@ -217,6 +218,7 @@ public class GitBlitWebApp extends WebApplication implements GitblitWicketApp {
 		mount("/blame", BlamePage.class, "r", "h", "f");
 		mount("/users", UsersPage.class);
 		mount("/teams", TeamsPage.class);
+		mount("/status", StatusPage.class);
 		mount("/logout", LogoutPage.class);
 
 		// setup ticket urls
@@ -103,6 +103,7 @@ public class EditRepositoryPage extends RootSubPage {
 		model.accessRestriction = AccessRestrictionType.fromName(restriction);
 		String authorization = app().settings().getString(Keys.git.defaultAuthorizationControl, null);
 		model.authorizationControl = AuthorizationControl.fromName(authorization);
+		model.buildBitmaps = app().settings().getBoolean(Keys.git.defaultBuildBitmaps, true);
 
 		GitBlitWebSession session = GitBlitWebSession.get();
 		UserModel user = session.getUser();
@@ -545,6 +546,16 @@ public class EditRepositoryPage extends RootSubPage {
 				"span1",
 				new PropertyModel<String>(repositoryModel, "gcThreshold")).setEnabled(gcEnabled));
 
+		form.add(new BooleanOption("buildBitmaps",
+				getString("gb.buildBitmaps"),
+				getString("gb.buildBitmapsDescription"),
+				new PropertyModel<Boolean>(repositoryModel, "buildBitmaps")).setEnabled(gcEnabled));
+
+		form.add(new BooleanOption("hasBitmap",
+				getString("gb.hasBitmap"),
+				getString("gb.hasBitmapDescription"),
+				new PropertyModel<Boolean>(repositoryModel, "hasBitmap")).setEnabled(false));
+
 		//
 		// MISCELLANEOUS
 		//
@@ -664,6 +664,7 @@ public abstract class RootPage extends BasePage {
 				adminItems.add(new MenuDivider());
 				adminItems.add(new PageLinkMenuItem("gb.users", UsersPage.class));
 				adminItems.add(new PageLinkMenuItem("gb.teams", TeamsPage.class));
+				adminItems.add(new PageLinkMenuItem("gb.status", StatusPage.class));
 
 				boolean showRegistrations = app().federation().canFederate()
 						&& app().settings().getBoolean(Keys.web.showFederationRegistrations, false);
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.wicket.pages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.repeater.Item;
+import org.apache.wicket.markup.repeater.data.DataView;
+import org.apache.wicket.markup.repeater.data.ListDataProvider;
+
+import com.gitblit.models.ServerStatus;
+import com.gitblit.models.TransferStatistics;
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.utils.ByteFormat;
+import com.gitblit.utils.TransferMetrics.Window;
+import com.gitblit.wicket.RequiresAdminRole;
+import com.gitblit.wicket.WicketUtils;
+
+/**
+ * Page to display the load of the background work queues and the pack
+ * transfers of the last day.
+ *
+ */
+@RequiresAdminRole
+public class StatusPage extends RootPage {
+
+	public StatusPage() {
+		super();
+		setupPage("", getString("gb.status"));
+
+		ServerStatus status = app().gitblit().getStatus();
+		List<WorkQueueStatistics> queues = new ArrayList<WorkQueueStatistics>(status.queues.values());
+
+		DataView<WorkQueueStatistics> queuesView = new DataView<WorkQueueStatistics>("queueRow",
+				new ListDataProvider<WorkQueueStatistics>(queues)) {
+			private static final long serialVersionUID = 1L;
+			private int counter;
+
+			@Override
+			protected void onBeforeRender() {
+				super.onBeforeRender();
+				counter = 0;
+			}
+
+			@Override
+			public void populateItem(final Item<WorkQueueStatistics> item) {
+				final WorkQueueStatistics entry = item.getModelObject();
+				item.add(new Label("name", entry.name));
+				item.add(new Label("threads", entry.activeThreads + " / " + entry.poolSize));
+				item.add(new Label("queued", "" + entry.queuedTasks));
+				item.add(new Label("scheduled", "" + entry.scheduledTasks));
+				item.add(new Label("completed", "" + entry.completedTasks));
+				item.add(new Label("runTime", entry.getAverageRunTime() + " ms"));
+				item.add(new Label("waitTime", entry.getAverageWaitTime() + " / " + entry.maxWaitTime + " ms"));
+				item.add(new Label("rejected", entry.rejectedTasks > 0 ? ("" + entry.rejectedTasks) : ""));
+				if (entry.lastRun == null) {
+					item.add(new Label("lastRun", ""));
+				} else {
+					item.add(WicketUtils.createTimestampLabel("lastRun", entry.lastRun, getTimeZone(), getTimeUtils()));
+				}
+
+				WicketUtils.setAlternatingBackground(item, counter);
+				counter++;
+			}
+		};
+		add(queuesView);
+
+		add(newTransfersView("repositoryTransferRow", status.repositoryTransfers.get(Window.DAY.label)));
+		add(newTransfersView("userTransferRow", status.userTransfers.get(Window.DAY.label)));
+	}
+
+	private DataView<TransferStatistics> newTransfersView(String id, List<TransferStatistics> transfers) {
+		if (transfers == null) {
+			transfers = Collections.emptyList();
+		}
+		final ByteFormat byteFormat = new ByteFormat();
+		DataView<TransferStatistics> transfersView = new DataView<TransferStatistics>(id,
+				new ListDataProvider<TransferStatistics>(transfers)) {
+			private static final long serialVersionUID = 1L;
+			private int counter;
+
+			@Override
+			protected void onBeforeRender() {
+				super.onBeforeRender();
+				counter = 0;
+			}
+
+			@Override
+			public void populateItem(final Item<TransferStatistics> item) {
+				final TransferStatistics entry = item.getModelObject();
+				item.add(new Label("name", entry.name));
+				item.add(new Label("uploads", "" + entry.uploads));
+				item.add(new Label("bytesSent", byteFormat.format(entry.bytesSent)));
+				item.add(new Label("objects", "" + entry.objects));
+				item.add(new Label("reusedObjects", entry.getReusedObjectsPercent() + "%"));
+				item.add(new Label("packTime", entry.timeTotal + " ms"));
+				item.add(new Label("receives", "" + entry.receives));
+				item.add(new Label("bytesReceived", byteFormat.format(entry.bytesReceived)));
+
+				WicketUtils.setAlternatingBackground(item, counter);
+				counter++;
+			}
+		};
+		return transfersView;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.CacheStatistics;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.utils.ArchiveCache;
+
+public class CachingUploadPackTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Git git;
+
+	private ArchiveCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		git = Git.init().setDirectory(folder.newFolder("repo")).call();
+		commit("first");
+		cache = new ArchiveCache("packs", folder.newFolder("packs"), 10 * 1024 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		git.close();
+	}
+
+	private ObjectId commit(String message) throws Exception {
+		File file = new File(git.getRepository().getWorkTree(), "file.txt");
+		Files.write(file.toPath(), message.getBytes("UTF-8"));
+		git.add().addFilepattern("file.txt").call();
+		return git.commit().setMessage(message).call().getId();
+	}
+
+	private static String pkt(String line) {
+		return String.format("%04x", line.length() + 4) + line;
+	}
+
+	private static byte [] cloneRequest(ObjectId want, String agent) throws Exception {
+		return (pkt("want " + want.name() + " side-band-64k ofs-delta " + agent + "\n") + "0000"
+				+ pkt("done\n")).getBytes("UTF-8");
+	}
+
+	private byte [] upload(byte [] request) throws Exception {
+		Repository db = git.getRepository();
+		CachingUploadPack up = new CachingUploadPack(db, cache);
+		up.setBiDirectionalPipe(false);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(request), os, null);
+		return os.toByteArray();
+	}
+
+	@Test
+	public void testCachedClone() throws Exception {
+		ObjectId head = git.getRepository().resolve("HEAD");
+		byte [] first = upload(cloneRequest(head, "agent=git/2.1"));
+		assertTrue(new String(first, "US-ASCII").startsWith("0008NAK\n"));
+
+		// the agent does not affect the response
+		byte [] second = upload(cloneRequest(head, "agent=git/2.7"));
+		assertTrue(Arrays.equals(first, second));
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.entries);
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.hits);
+	}
+
+	@Test
+	public void testClientDisconnect() throws Exception {
+		ObjectId head = git.getRepository().resolve("HEAD");
+		CachingUploadPack up = new CachingUploadPack(git.getRepository(), cache);
+		up.setBiDirectionalPipe(false);
+		try {
+			up.upload(new ByteArrayInputStream(cloneRequest(head, "agent=git/2.1")), new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("disconnected");
+				}
+			}, null);
+			fail("expected an IOException");
+		} catch (IOException e) {
+			assertEquals("disconnected", e.getMessage());
+		}
+
+		// the pack was cached although the client disconnected
+		assertEquals(1, cache.getStatistics().entries);
+		byte [] response = upload(cloneRequest(head, "agent=git/2.1"));
+		assertTrue(new String(response, "US-ASCII").startsWith("0008NAK\n"));
+		assertEquals(1, cache.getStatistics().hits);
+	}
+
+	@Test
+	public void testRefsMoved() throws Exception {
+		ObjectId first = git.getRepository().resolve("HEAD");
+		upload(cloneRequest(first, "agent=git/2.1"));
+
+		// a new commit changes the refs, the cached clone is not reused
+		ObjectId second = commit("second");
+		upload(cloneRequest(second, "agent=git/2.1"));
+		assertEquals(2, cache.getStatistics().misses);
+		assertEquals(0, cache.getStatistics().hits);
+
+		// the old tip is no longer advertised
+		CachingUploadPack up = new CachingUploadPack(git.getRepository(), cache);
+		assertNull(up.getKey(cloneRequest(first, "agent=git/2.1")));
+	}
+
+	@Test
+	public void testHiddenRefIsNotCached() throws Exception {
+		git.branchCreate().setName("hidden").call();
+		git.checkout().setName("hidden").call();
+		ObjectId hidden = commit("hidden");
+
+		CachingUploadPack up = new CachingUploadPack(git.getRepository(), cache);
+		assertNotNull(up.getKey(cloneRequest(hidden, "agent=git/2.1")));
+
+		// only the advertised refs are cacheable tips
+		up = new CachingUploadPack(git.getRepository(), cache);
+		up.setRefFilter(new RefFilter() {
+			@Override
+			public Map<String, Ref> filter(Map<String, Ref> refs) {
+				Map<String, Ref> filtered = new HashMap<String, Ref>(refs);
+				filtered.remove("HEAD");
+				filtered.remove("refs/heads/hidden");
+				return filtered;
+			}
+		});
+		assertNull(up.getKey(cloneRequest(hidden, "agent=git/2.1")));
+	}
+
+	@Test
+	public void testFetchIsNotCached() throws Exception {
+		ObjectId first = git.getRepository().resolve("HEAD");
+		ObjectId second = commit("second");
+		byte [] request = (pkt("want " + second.name() + " side-band-64k ofs-delta\n") + "0000"
+				+ pkt("have " + first.name() + "\n") + pkt("done\n")).getBytes("UTF-8");
+
+		CachingUploadPack up = new CachingUploadPack(git.getRepository(), cache);
+		assertNull(up.getKey(request));
+
+		byte [] response = upload(request);
+		assertTrue(response.length > 0);
+		assertEquals(0, cache.getStatistics().entries);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.manager;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.gitblit.Constants.AccessPermission;
+import com.gitblit.Constants.AccessRestrictionType;
+import com.gitblit.Constants.AuthorizationControl;
+import com.gitblit.manager.PermissionResolver.UserPermissions;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TeamModel;
+import com.gitblit.models.UserModel;
+import com.gitblit.tests.Benchmark;
+
+/**
+ * Measures the view permission check of a repository list for a user with
+ * regex permissions, directly on the UserModel and through the memoizing
+ * PermissionResolver.  Each pass copies the cached repository models, as
+ * the repository manager does.
+ * <p>
+ * Usage: PermissionResolverBenchmark [repositories] [regex permissions] [teams]
+ * </p>
+ *
+ */
+public class PermissionResolverBenchmark {
+
+	public static void main(String [] args) throws Exception {
+		int repositories = Benchmark.intArg(args, 0, 5000);
+		int regexes = Benchmark.intArg(args, 1, 20);
+		int teams = Benchmark.intArg(args, 2, 3);
+
+		final List<RepositoryModel> models = new ArrayList<RepositoryModel>();
+		for (int i = 0; i < repositories; i++) {
+			RepositoryModel model = new RepositoryModel("project" + (i % 100) + "/repository" + i + ".git", "", "admin", new Date());
+			model.accessRestriction = AccessRestrictionType.VIEW;
+			model.authorizationControl = AuthorizationControl.NAMED;
+			models.add(model);
+		}
+
+		final UserModel user = new UserModel("bob");
+		for (int i = 0; i < regexes; i++) {
+			user.setRepositoryPermission("project" + i + "/.*", AccessPermission.CLONE);
+		}
+		for (int t = 0; t < teams; t++) {
+			TeamModel team = new TeamModel("team" + t);
+			for (int i = 0; i < regexes; i++) {
+				team.setRepositoryPermission("project" + (50 + i) + "/repository" + t + ".*", AccessPermission.PUSH);
+			}
+			user.teams.add(team);
+		}
+		System.out.println(String.format("checking %d repositories for a user with %d regex permissions and %d teams",
+				repositories, regexes, teams));
+
+		Benchmark.measure("UserModel.canView", 3, 15, new Benchmark.Task() {
+			@Override
+			public Object run() {
+				int visible = 0;
+				for (RepositoryModel model : models) {
+					if (user.canView(model.copy())) {
+						visible++;
+					}
+				}
+				return visible;
+			}
+		});
+		Benchmark.measure("PermissionResolver, first pass", 3, 15, new Benchmark.Task() {
+			@Override
+			public Object run() {
+				UserPermissions permissions = new PermissionResolver().getPermissions(user);
+				int visible = 0;
+				for (RepositoryModel model : models) {
+					if (permissions.canView(model.copy())) {
+						visible++;
+					}
+				}
+				return visible;
+			}
+		});
+		final PermissionResolver resolver = new PermissionResolver();
+		Benchmark.measure("PermissionResolver, later passes", 3, 15, new Benchmark.Task() {
+			@Override
+			public Object run() {
+				UserPermissions permissions = resolver.getPermissions(user);
+				int visible = 0;
+				for (RepositoryModel model : models) {
+					if (permissions.canView(model.copy())) {
+						visible++;
+					}
+				}
+				return visible;
+			}
+		});
+	}
+}
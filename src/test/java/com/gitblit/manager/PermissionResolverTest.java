@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.manager;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.gitblit.Constants.AccessPermission;
+import com.gitblit.Constants.AccessRestrictionType;
+import com.gitblit.Constants.AuthorizationControl;
+import com.gitblit.manager.PermissionResolver.UserPermissions;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TeamModel;
+import com.gitblit.models.UserModel;
+import com.gitblit.tests.GitblitUnitTest;
+
+public class PermissionResolverTest extends GitblitUnitTest {
+
+	private RepositoryModel newRepository(String name) {
+		RepositoryModel repository = new RepositoryModel(name, "", "", new Date());
+		repository.isBare = true;
+		repository.accessRestriction = AccessRestrictionType.VIEW;
+		repository.authorizationControl = AuthorizationControl.NAMED;
+		return repository;
+	}
+
+	@Test
+	public void testRegexAndTeamPermissions() throws Exception {
+		PermissionResolver resolver = new PermissionResolver();
+		UserModel user = new UserModel("bob");
+		user.setRepositoryPermission("ubercool/.*", AccessPermission.CLONE);
+		TeamModel team = new TeamModel("team");
+		team.setRepositoryPermission("ubercool/a.git", AccessPermission.PUSH);
+		user.teams.add(team);
+
+		RepositoryModel a = newRepository("ubercool/a.git");
+		RepositoryModel b = newRepository("ubercool/b.git");
+		RepositoryModel c = newRepository("other/c.git");
+		for (int i = 0; i < 2; i++) {
+			UserPermissions permissions = resolver.getPermissions(user);
+			assertEquals(AccessPermission.CLONE, permissions.getPermission(a));
+			assertEquals(AccessPermission.CLONE, permissions.getPermission(b));
+			assertEquals(AccessPermission.NONE, permissions.getPermission(c));
+			assertTrue(permissions.canView(a));
+			assertFalse(permissions.canView(c));
+		}
+
+		// the user regex takes precedence, without it the team grant applies
+		user.removeRepositoryPermission("ubercool/.*");
+		UserPermissions permissions = resolver.getPermissions(user);
+		assertEquals(AccessPermission.PUSH, permissions.getPermission(a));
+		assertEquals(AccessPermission.NONE, permissions.getPermission(b));
+		assertTrue(permissions.canPush(a));
+	}
+
+	@Test
+	public void testTeamChange() throws Exception {
+		PermissionResolver resolver = new PermissionResolver();
+		UserModel user = new UserModel("bob");
+		TeamModel team = new TeamModel("team");
+		user.teams.add(team);
+		RepositoryModel a = newRepository("ubercool/a.git");
+		assertFalse(resolver.getPermissions(user).canView(a));
+
+		team.setRepositoryPermission("ubercool/.*", AccessPermission.VIEW);
+		assertTrue(resolver.getPermissions(user).canView(a));
+
+		team.canAdmin = true;
+		assertTrue(resolver.getPermissions(user).canPush(a));
+	}
+
+	@Test
+	public void testRepositoryChange() throws Exception {
+		PermissionResolver resolver = new PermissionResolver();
+		UserModel user = new UserModel("bob");
+		RepositoryModel a = newRepository("ubercool/a.git");
+		assertFalse(resolver.getPermissions(user).canView(a));
+
+		a.accessRestriction = AccessRestrictionType.PUSH;
+		assertTrue(resolver.getPermissions(user).canView(a));
+		assertFalse(resolver.getPermissions(user).canPush(a));
+
+		a.authorizationControl = AuthorizationControl.AUTHENTICATED;
+		assertTrue(resolver.getPermissions(user).canPush(a));
+
+		a.isFrozen = true;
+		assertFalse(resolver.getPermissions(user).canPush(a));
+
+		a.isFrozen = false;
+		a.authorizationControl = AuthorizationControl.NAMED;
+		a.addOwner("bob");
+		assertEquals(AccessPermission.REWIND, resolver.getPermissions(user).getPermission(a));
+	}
+
+	@Test
+	public void testMatchesUserModel() throws Exception {
+		PermissionResolver resolver = new PermissionResolver();
+		UserModel user = new UserModel("bob");
+		user.setRepositoryPermission("a/.*", AccessPermission.PUSH);
+		user.setRepositoryPermission("b/x.git", AccessPermission.VIEW);
+		TeamModel team = new TeamModel("team");
+		team.setRepositoryPermission("b/.*", AccessPermission.CLONE);
+		user.teams.add(team);
+
+		String[] names = { "a/x.git", "b/x.git", "b/y.git", "c/x.git" };
+		for (AccessRestrictionType restriction : AccessRestrictionType.values()) {
+			for (String name : names) {
+				RepositoryModel repository = newRepository(name);
+				repository.accessRestriction = restriction;
+				UserPermissions permissions = resolver.getPermissions(user);
+				assertEquals(name + " " + restriction, user.canView(repository), permissions.canView(repository));
+				assertEquals(name + " " + restriction, user.canPush(repository), permissions.canPush(repository));
+				assertEquals(name + " " + restriction, user.canView(repository), resolver.getPermissions(user).canView(repository));
+			}
+		}
+	}
+}
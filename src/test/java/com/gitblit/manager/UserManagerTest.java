@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.manager;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.ConfigUserService;
+import com.gitblit.models.UserModel;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MockRuntimeManager;
+
+public class UserManagerTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private UserManager users;
+
+	private File realmFile;
+
+	@Before
+	public void setup() throws Exception {
+		realmFile = folder.newFile("users.conf");
+		users = new UserManager(new MockRuntimeManager(), null);
+		// check the realm file for modifications on every lookup
+		users.setUserService(new ConfigUserService(realmFile, 0));
+	}
+
+	private UserModel newUser(String username, String... starred) {
+		UserModel user = new UserModel(username);
+		user.password = username;
+		for (String repository : starred) {
+			user.getPreferences().getRepositoryPreferences(repository).starred = true;
+		}
+		return user;
+	}
+
+	@Test
+	public void testStarCount() throws Exception {
+		users.updateUserModel(newUser("alpha", "a.git", "b.git"));
+		users.updateUserModel(newUser("beta", "A.git"));
+
+		// index is built lazily from the user service
+		assertEquals(2, users.getStarCount("a.git"));
+		assertEquals(1, users.getStarCount("b.git"));
+		assertEquals(0, users.getStarCount("c.git"));
+
+		// index is maintained as users change
+		UserModel beta = users.getUserModel("beta");
+		beta.getPreferences().getRepositoryPreferences("a.git").starred = false;
+		beta.getPreferences().getRepositoryPreferences("c.git").starred = true;
+		users.updateUserModel(beta);
+		assertEquals(1, users.getStarCount("a.git"));
+		assertEquals(1, users.getStarCount("c.git"));
+
+		// renamed users keep their stars
+		users.updateUserModel("beta", newUser("gamma", "c.git"));
+		assertEquals(1, users.getStarCount("c.git"));
+
+		users.deleteUser("alpha");
+		assertEquals(0, users.getStarCount("a.git"));
+		assertEquals(0, users.getStarCount("b.git"));
+		assertEquals(1, users.getStarCount("c.git"));
+	}
+
+	@Test
+	public void testStarCountAfterExternalEdit() throws Exception {
+		users.updateUserModel(newUser("alpha", "a.git"));
+		assertEquals(1, users.getStarCount("a.git"));
+
+		// another writer edits the realm file
+		ConfigUserService external = new ConfigUserService(realmFile);
+		external.updateUserModel(newUser("beta", "a.git"));
+		realmFile.setLastModified(realmFile.lastModified() + 5000);
+
+		assertEquals(2, users.getStarCount("a.git"));
+	}
+}
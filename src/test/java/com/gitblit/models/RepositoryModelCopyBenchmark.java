@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.models;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.gitblit.Constants.AccessRestrictionType;
+import com.gitblit.tests.Benchmark;
+import com.gitblit.utils.DeepCopier;
+
+/**
+ * Compares the cost of handing out copies of cached repository models with
+ * DeepCopier, as the repository manager did before, and with
+ * RepositoryModel.copy().
+ * <p>
+ * Usage: RepositoryModelCopyBenchmark [repositories] [refs per repository]
+ * </p>
+ *
+ */
+public class RepositoryModelCopyBenchmark {
+
+	public static void main(String [] args) throws Exception {
+		int repositories = Benchmark.intArg(args, 0, 1000);
+		int refs = Benchmark.intArg(args, 1, 50);
+
+		final List<RepositoryModel> models = new ArrayList<RepositoryModel>();
+		for (int i = 0; i < repositories; i++) {
+			models.add(newRepository("project" + (i % 20) + "/repository" + i + ".git", refs));
+		}
+		System.out.println(String.format("copying %d repository models with %d refs each", repositories, refs));
+
+		long serialized = Benchmark.measure("DeepCopier.copy", 5, 15, new Benchmark.Task() {
+			@Override
+			public Object run() {
+				List<RepositoryModel> copies = new ArrayList<RepositoryModel>(models.size());
+				for (RepositoryModel model : models) {
+					copies.add(DeepCopier.copy(model));
+				}
+				return copies.size();
+			}
+		});
+		long copied = Benchmark.measure("RepositoryModel.copy", 5, 15, new Benchmark.Task() {
+			@Override
+			public Object run() {
+				List<RepositoryModel> copies = new ArrayList<RepositoryModel>(models.size());
+				for (RepositoryModel model : models) {
+					copies.add(model.copy());
+				}
+				return copies.size();
+			}
+		});
+		System.out.println(String.format("RepositoryModel.copy is %.1fx faster", serialized / (double) copied));
+	}
+
+	/**
+	 * Creates a repository model with the collections of a typical cached
+	 * model populated.
+	 */
+	private static RepositoryModel newRepository(String name, int refs) {
+		RepositoryModel model = new RepositoryModel(name, "description of " + name, "admin", new Date());
+		model.addOwner("owner");
+		model.lastChangeAuthor = "author";
+		model.hasCommits = true;
+		model.accessRestriction = AccessRestrictionType.PUSH;
+		model.HEAD = "refs/heads/master";
+		model.size = "12 MB";
+		model.lastGC = new Date();
+		model.availableRefs = new ArrayList<String>();
+		for (int i = 0; i < refs; i++) {
+			model.availableRefs.add("refs/heads/branch" + i);
+		}
+		model.indexedBranches = new ArrayList<String>();
+		model.indexedBranches.add("refs/heads/master");
+		model.federationSets.add("set");
+		model.mailingLists = new ArrayList<String>();
+		model.mailingLists.add("list@example.com");
+		model.preReceiveScripts = new ArrayList<String>();
+		model.preReceiveScripts.add("protect-refs");
+		model.postReceiveScripts = new ArrayList<String>();
+		model.postReceiveScripts.add("sendmail");
+		model.metricAuthorExclusions = new ArrayList<String>();
+		model.customFields = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 5; i++) {
+			model.customFields.put("field" + i, "value" + i);
+		}
+		for (int i = 0; i < 3; i++) {
+			model.addFork("~user" + i + "/" + name);
+		}
+		return model;
+	}
+}
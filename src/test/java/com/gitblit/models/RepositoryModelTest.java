@@ -16,6 +16,15 @@
  */
 package com.gitblit.models;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.junit.After;
@@ -91,4 +100,41 @@ public class RepositoryModelTest extends GitblitUnitTest {
 		assertEquals("GoodBye", model.customFields.get("anotherProperty"));
 	}
 
+	@Test
+	public void testCopy() throws Exception {
+		RepositoryModel model = new RepositoryModel("test/copy.git", "a description", "admin", new Date());
+		model.availableRefs = new ArrayList<String>(Arrays.asList("refs/heads/master", "refs/tags/v1"));
+		model.indexedBranches = new ArrayList<String>(Arrays.asList("refs/heads/master"));
+		model.customFields = new LinkedHashMap<String, String>();
+		model.customFields.put("anotherProperty", "Hello");
+		model.addFork("~james/copy.git");
+		model.lastGC = new Date();
+		model.isCollectingGarbage = true;
+
+		RepositoryModel copy = model.copy();
+
+		// every persistent field must be copied
+		for (Field field : RepositoryModel.class.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+				continue;
+			}
+			field.setAccessible(true);
+			Object value = field.get(model);
+			assertEquals(field.getName(), value, field.get(copy));
+			if (value instanceof Collection || value instanceof Map || value instanceof Date) {
+				assertNotSame(field.getName(), value, field.get(copy));
+			}
+		}
+		assertFalse(copy.isCollectingGarbage);
+
+		// the copy must not share mutable state with the original
+		copy.addOwner("someone");
+		copy.customFields.put("anotherProperty", "GoodBye");
+		copy.removeFork("~james/copy.git");
+		assertEquals(1, model.owners.size());
+		assertEquals("Hello", model.customFields.get("anotherProperty"));
+		assertEquals(1, model.forks.size());
+	}
+
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.service;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.gitblit.Constants.AccessPermission;
+import com.gitblit.Constants.FederationPullStatus;
+import com.gitblit.Keys;
+import com.gitblit.manager.IGitblit;
+import com.gitblit.models.FederationModel;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TeamModel;
+import com.gitblit.models.UserModel;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.utils.IdGenerator;
+import com.gitblit.utils.WorkQueue;
+
+public class FederationPullServiceTest extends GitblitUnitTest {
+
+	/**
+	 * A pull service which serves the repositories and users of the origin
+	 * from memory instead of requesting them from a remote Gitblit instance.
+	 */
+	private static class TestPullService extends FederationPullService {
+
+		final Map<String, RepositoryModel> repositories = new LinkedHashMap<String, RepositoryModel>();
+
+		final List<UserModel> users = new ArrayList<UserModel>();
+
+		volatile CountDownLatch started = new CountDownLatch(0);
+
+		TestPullService(IGitblit gitblit, FederationModel registration, WorkQueue.Executor pullExecutor) {
+			super(gitblit, Arrays.asList(registration), pullExecutor);
+		}
+
+		@Override
+		public void reschedule(FederationModel registration) {
+		}
+
+		@Override
+		Map<String, RepositoryModel> getRepositories(FederationModel registration) throws Exception {
+			// wait until the other pulls have started
+			started.countDown();
+			started.await(5, TimeUnit.SECONDS);
+			return repositories;
+		}
+
+		@Override
+		Collection<UserModel> getUsers(FederationModel registration) throws Exception {
+			return users;
+		}
+
+		@Override
+		Collection<TeamModel> getTeams(FederationModel registration) throws Exception {
+			return null;
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WorkQueue workQueue;
+
+	@After
+	public void tearDown() {
+		if (workQueue != null) {
+			workQueue.stop();
+		}
+	}
+
+	private File repositoriesFolder() {
+		return new File(folder.getRoot(), "repositories");
+	}
+
+	@SuppressWarnings("unchecked")
+	private IGitblit gitblit() {
+		MemorySettings settings = new MemorySettings();
+		settings.put(Keys.federation.pullThreads, "2");
+
+		IGitblit gitblit = mock(IGitblit.class);
+		when(gitblit.getSettings()).thenReturn(settings);
+		when(gitblit.getRepositoriesFolder()).thenReturn(repositoriesFolder());
+		when(gitblit.getRepository(anyString())).thenAnswer(new Answer<Repository>() {
+			@Override
+			public Repository answer(InvocationOnMock invocation) throws Exception {
+				File dir = new File(repositoriesFolder(), (String) invocation.getArguments()[0]);
+				return dir.exists() ? new FileRepository(dir) : null;
+			}
+		});
+		when(gitblit.getRepositoryModel(anyString())).thenAnswer(new Answer<RepositoryModel>() {
+			@Override
+			public RepositoryModel answer(InvocationOnMock invocation) {
+				return new RepositoryModel((String) invocation.getArguments()[0], null, null, null);
+			}
+		});
+		when(gitblit.updateUserModels(any(Collection.class))).thenReturn(true);
+		return gitblit;
+	}
+
+	private FederationModel registration(String name) {
+		FederationModel registration = new FederationModel(name);
+		registration.url = new File(folder.getRoot(), name).getAbsolutePath() + "/";
+		registration.folder = name;
+		return registration;
+	}
+
+	/**
+	 * Creates a repository with one commit at the origin of the pull service.
+	 */
+	private void createOrigin(TestPullService service, FederationModel registration, String name) throws Exception {
+		File dir = new File(registration.url, name);
+		Git git = Git.init().setDirectory(dir).call();
+		try {
+			git.commit().setMessage("initial commit").call();
+		} finally {
+			git.close();
+		}
+		RepositoryModel model = new RepositoryModel(name + ".git", null, null, null);
+		model.hasCommits = true;
+		service.repositories.put(dir.getAbsolutePath(), model);
+	}
+
+	@Test
+	public void testPullRegistrationsAtOnce() throws Exception {
+		workQueue = new WorkQueue(new IdGenerator(), 1);
+		WorkQueue.Executor pullExecutor = workQueue.createQueue(2, "FederationPull");
+		IGitblit gitblit = gitblit();
+		CountDownLatch started = new CountDownLatch(2);
+
+		// two registrations share the pull executor, like the scheduled pulls
+		final List<TestPullService> services = new ArrayList<TestPullService>();
+		final List<FederationModel> registrations = new ArrayList<FederationModel>();
+		for (String name : Arrays.asList("alpha", "beta")) {
+			FederationModel registration = registration(name);
+			TestPullService service = new TestPullService(gitblit, registration, pullExecutor);
+			service.started = started;
+			for (int i = 0; i < 3; i++) {
+				createOrigin(service, registration, name + i);
+			}
+			services.add(service);
+			registrations.add(registration);
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (TestPullService service : services) {
+			Thread thread = new Thread(service);
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(30));
+			assertFalse(thread.isAlive());
+		}
+
+		// both pulls were in progress at the same time and cloned everything
+		assertEquals(0, started.getCount());
+		for (FederationModel registration : registrations) {
+			assertEquals(3, registration.getStatusList().size());
+			assertEquals(FederationPullStatus.MIRRORED, registration.getLowestStatus());
+			for (int i = 0; i < 3; i++) {
+				File clone = new File(repositoriesFolder(), registration.folder + "/" + registration.name + i + ".git");
+				assertTrue(clone.exists());
+			}
+		}
+		assertFalse(pullExecutor.isShutdown());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMergeAccounts() throws Exception {
+		IGitblit gitblit = gitblit();
+		FederationModel registration = registration("origin");
+		registration.mergeAccounts = true;
+		TestPullService service = new TestPullService(gitblit, registration, null);
+
+		UserModel newUser = new UserModel("newuser");
+		newUser.password = "new";
+		newUser.setRepositoryPermission("a.git", AccessPermission.PUSH);
+		UserModel existingUser = new UserModel("existinguser");
+		existingUser.password = "changed";
+		existingUser.setRepositoryPermission("b.git", AccessPermission.CLONE);
+		UserModel otherUser = new UserModel("otheruser");
+		otherUser.password = "other";
+		service.users.addAll(Arrays.asList(newUser, existingUser, otherUser));
+
+		UserModel localUser = new UserModel("existinguser");
+		localUser.password = "unchanged";
+		localUser.setRepositoryPermission("local.git", AccessPermission.VIEW);
+		UserModel otherLocalUser = new UserModel("otheruser");
+		when(gitblit.getUserModel("existinguser")).thenReturn(localUser);
+		when(gitblit.getUserModel("otheruser")).thenReturn(otherLocalUser);
+		when(gitblit.getAllTeamNames()).thenReturn(Collections.<String> emptyList());
+
+		service.run();
+
+		// the new user is added individually, with reparented permissions
+		verify(gitblit, times(1)).addUser(newUser);
+		assertEquals(AccessPermission.PUSH, newUser.permissions.get("origin/a.git"));
+
+		// the existing users are updated in one batch
+		ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+		verify(gitblit, times(1)).updateUserModels(captor.capture());
+		Collection<UserModel> updated = captor.getValue();
+		assertEquals(2, updated.size());
+		assertTrue(updated.contains(localUser));
+		assertTrue(updated.contains(otherLocalUser));
+		assertFalse(updated.contains(newUser));
+		assertEquals("changed", localUser.password);
+		assertEquals(AccessPermission.VIEW, localUser.permissions.get("local.git"));
+		assertEquals(AccessPermission.CLONE, localUser.permissions.get("origin/b.git"));
+
+		// no team changed
+		verify(gitblit, never()).updateTeamModels(any(Collection.class));
+
+		// the realm of the registration holds all origin users
+		assertTrue(new File(repositoriesFolder(), "origin/origin_users.conf").exists());
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.service.GarbageCollectorService.GCAction;
+import com.gitblit.service.GarbageCollectorService.GCPlan;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.utils.JGitUtils;
+
+public class GarbageCollectorServiceTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RepositoryModel model(Date lastGC, String threshold) {
+		RepositoryModel model = new RepositoryModel("test.git", "", "", new Date());
+		model.lastGC = lastGC;
+		model.gcPeriod = 7;
+		model.gcThreshold = threshold;
+		return model;
+	}
+
+	private void createCommits(FileRepository repository, int count) throws IOException {
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			ObjectId parent = null;
+			PersonIdent ident = new PersonIdent("test", "test@gitblit.com");
+			for (int i = 0; i < count; i++) {
+				TreeFormatter tree = new TreeFormatter();
+				tree.append("file", FileMode.REGULAR_FILE,
+						inserter.insert(Constants.OBJ_BLOB, Constants.encode("content " + i)));
+				CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId(inserter.insert(tree));
+				if (parent != null) {
+					commit.setParentId(parent);
+				}
+				commit.setAuthor(ident);
+				commit.setCommitter(ident);
+				commit.setMessage("commit " + i);
+				parent = inserter.insert(commit);
+			}
+			inserter.flush();
+			RefUpdate update = repository.updateRef("refs/heads/master");
+			update.setNewObjectId(parent);
+			update.forceUpdate();
+		} finally {
+			inserter.close();
+		}
+	}
+
+	private void createLooseObjects(File objects, int count, int size) throws IOException {
+		// the planner samples the first 16 fan-out folders
+		File fanout = new File(objects, "00");
+		fanout.mkdirs();
+		for (int i = 0; i < count; i++) {
+			String name = String.format("%038x", i);
+			Files.write(new File(fanout, name).toPath(), new byte[size]);
+		}
+	}
+
+	@Test
+	public void testPlan() throws Exception {
+		Date now = new Date();
+		File objects = folder.newFolder("objects");
+
+		GCPlan plan = GarbageCollectorService.plan("a.git", model(now, "500k"), objects, now, 50, 1000, 0);
+		assertEquals(GCAction.NONE, plan.action);
+
+		// ~640 KB of loose objects exceed the threshold
+		createLooseObjects(objects, 40, 1024);
+		plan = GarbageCollectorService.plan("a.git", model(now, "500k"), objects, now, 50, 1000, 0);
+		assertEquals(GCAction.COLLECT, plan.action);
+		assertEquals(640, plan.looseObjects);
+		assertEquals(640 * 1024, plan.sizeOfLooseObjects);
+		assertFalse(plan.verify);
+
+		// below the threshold the loose objects are repacked
+		plan = GarbageCollectorService.plan("a.git", model(now, "10m"), objects, now, 50, 500, 0);
+		assertEquals(GCAction.REPACK, plan.action);
+		plan = GarbageCollectorService.plan("a.git", model(now, "10m"), objects, now, 50, 0, 0);
+		assertEquals(GCAction.NONE, plan.action);
+
+		// too many packs
+		File packs = new File(objects, "pack");
+		packs.mkdirs();
+		for (int i = 0; i < 3; i++) {
+			new File(packs, "pack-" + i + ".pack").createNewFile();
+		}
+		plan = GarbageCollectorService.plan("a.git", model(now, "10m"), objects, now, 3, 0, 0);
+		assertEquals(GCAction.COLLECT, plan.action);
+		assertEquals(3, plan.packs);
+	}
+
+	@Test
+	public void testScheduledPlan() throws Exception {
+		Date now = new Date();
+		Date lastGC = new Date(now.getTime() - TimeUnit.DAYS.toMillis(10));
+		File objects = folder.newFolder("objects");
+
+		// the sample does not show loose objects, the GC must verify
+		GCPlan plan = GarbageCollectorService.plan("a.git", model(lastGC, "500k"), objects, now, 50, 1000, 0);
+		assertEquals(GCAction.COLLECT, plan.action);
+		assertTrue(plan.verify);
+	}
+
+	@Test
+	public void testOrdering() throws Exception {
+		Date now = new Date();
+		Date lastGC = new Date(now.getTime() - TimeUnit.DAYS.toMillis(30));
+		File empty = folder.newFolder("empty");
+		File garbage = folder.newFolder("garbage");
+		createLooseObjects(garbage, 100, 1024);
+
+		List<GCPlan> plans = new ArrayList<GCPlan>();
+		plans.add(GarbageCollectorService.plan("repack.git", model(now, "10m"), garbage, now, 50, 1000, 0));
+		plans.add(GarbageCollectorService.plan("scheduled.git", model(lastGC, "500k"), empty, now, 50, 1000, 0));
+		plans.add(GarbageCollectorService.plan("garbage.git", model(now, "500k"), garbage, now, 50, 1000, 0));
+		Collections.sort(plans);
+
+		assertEquals("garbage.git", plans.get(0).repositoryName);
+		assertEquals("scheduled.git", plans.get(1).repositoryName);
+		assertEquals("repack.git", plans.get(2).repositoryName);
+	}
+
+	@Test
+	public void testBitmapPlan() throws Exception {
+		FileRepository repository = new FileRepository(folder.newFolder("test.git"));
+		repository.create(true);
+		try {
+			createCommits(repository, 20);
+			File objects = repository.getObjectDatabase().getDirectory();
+			Date now = new Date();
+			Date before = new Date(now.getTime() - TimeUnit.HOURS.toMillis(1));
+
+			// pack without a bitmap, as if the pack was pushed
+			PackConfig packConfig = new PackConfig(repository);
+			packConfig.setBuildBitmaps(false);
+			GC gc = new GC(repository);
+			gc.setPackConfig(packConfig);
+			gc.gc();
+			assertFalse(JGitUtils.hasPackBitmap(repository));
+
+			GCPlan plan = GarbageCollectorService.plan("a.git", model(before, "10m"), objects, now, 50, 1000, 1);
+			assertEquals(GCAction.COLLECT, plan.action);
+			assertTrue(plan.missingBitmap);
+			assertFalse(plan.verify);
+
+			// below the threshold, bitmaps disabled or written by our last GC
+			plan = GarbageCollectorService.plan("a.git", model(before, "10m"), objects, now, 50, 1000, 10 * 1024 * 1024);
+			assertEquals(GCAction.NONE, plan.action);
+			RepositoryModel model = model(before, "10m");
+			model.buildBitmaps = false;
+			plan = GarbageCollectorService.plan("a.git", model, objects, now, 50, 1000, 1);
+			assertEquals(GCAction.NONE, plan.action);
+			plan = GarbageCollectorService.plan("a.git", model(new Date(now.getTime() + 1000), "10m"), objects, now, 50, 1000, 1);
+			assertEquals(GCAction.NONE, plan.action);
+
+			// a GC writes the bitmap
+			gc = new GC(repository);
+			gc.setPackConfig(new PackConfig(repository));
+			gc.gc();
+			assertTrue(JGitUtils.hasPackBitmap(repository));
+			plan = GarbageCollectorService.plan("a.git", model(before, "10m"), objects, now, 50, 1000, 1);
+			assertEquals(GCAction.NONE, plan.action);
+			assertFalse(plan.missingBitmap);
+		} finally {
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testPackLooseObjects() throws Exception {
+		FileRepository repository = new FileRepository(folder.newFolder("test.git"));
+		repository.create(true);
+		try {
+			List<ObjectId> ids = new ArrayList<ObjectId>();
+			ObjectInserter inserter = repository.newObjectInserter();
+			try {
+				for (int i = 0; i < 20; i++) {
+					ids.add(inserter.insert(Constants.OBJ_BLOB, Constants.encode("blob " + i)));
+				}
+				inserter.flush();
+			} finally {
+				inserter.close();
+			}
+
+			GC gc = new GC(repository);
+			assertEquals(20, gc.getStatistics().numberOfLooseObjects);
+
+			assertEquals(20, GarbageCollectorService.packLooseObjects(repository, new PackConfig(repository)));
+			gc.prunePacked();
+
+			GC.RepoStatistics stats = gc.getStatistics();
+			assertEquals(0, stats.numberOfLooseObjects);
+			assertEquals(1, stats.numberOfPackFiles);
+			assertEquals(20, stats.numberOfPackedObjects);
+			for (ObjectId id : ids) {
+				assertTrue(repository.hasObject(id));
+			}
+
+			// nothing left to pack
+			assertEquals(0, GarbageCollectorService.packLooseObjects(repository, new PackConfig(repository)));
+		} finally {
+			repository.close();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.Keys;
+import com.gitblit.models.Mailing;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MemorySettings;
+
+public class MailServiceTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SmtpServer server;
+
+	/**
+	 * A minimal SMTP server which accepts or rejects all recipients, or rejects
+	 * one recipient.
+	 */
+	private static class SmtpServer extends Thread {
+
+		final ServerSocket socket;
+
+		final AtomicInteger connections = new AtomicInteger();
+
+		final AtomicInteger messages = new AtomicInteger();
+
+		volatile String rcptReply = "250 OK";
+
+		volatile String rejectedRecipient;
+
+		SmtpServer() throws IOException {
+			socket = new ServerSocket(0);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!socket.isClosed()) {
+				try {
+					Socket client = socket.accept();
+					try {
+						connections.incrementAndGet();
+						handle(client);
+					} finally {
+						client.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void handle(Socket client) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), "US-ASCII"));
+			Writer writer = new OutputStreamWriter(client.getOutputStream(), "US-ASCII");
+			reply(writer, "220 localhost");
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String command = line.toUpperCase();
+				if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+					reply(writer, "250 localhost");
+				} else if (command.startsWith("RCPT")) {
+					if (rejectedRecipient != null && line.contains(rejectedRecipient)) {
+						reply(writer, "550 no such user");
+					} else {
+						reply(writer, rcptReply);
+					}
+				} else if (command.startsWith("DATA")) {
+					reply(writer, "354 go ahead");
+					while ((line = reader.readLine()) != null && !line.equals(".")) {
+					}
+					messages.incrementAndGet();
+					reply(writer, "250 OK");
+				} else if (command.startsWith("QUIT")) {
+					reply(writer, "221 bye");
+					return;
+				} else {
+					reply(writer, "250 OK");
+				}
+			}
+		}
+
+		private void reply(Writer writer, String reply) throws IOException {
+			writer.write(reply + "\r\n");
+			writer.flush();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@Before
+	public void startServer() throws Exception {
+		server = new SmtpServer();
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.close();
+	}
+
+	private MailService newMailService(File spool) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(Keys.mail.server, "localhost");
+		map.put(Keys.mail.port, "" + server.socket.getLocalPort());
+		map.put(Keys.mail.maxAttempts, "2");
+		return new MailService(new MemorySettings(map), spool);
+	}
+
+	private void queue(MailService mail, String subject, String... recipients) {
+		Mailing mailing = Mailing.newPlain();
+		mailing.setRecipients(recipients.length == 0 ? new String [] { "james@gitblit.com" } : recipients);
+		mailing.subject = subject;
+		mailing.content = "content of " + subject;
+		assertTrue(mail.queue(mail.createMessage(mailing)));
+	}
+
+	@Test
+	public void testSingleConnection() throws Exception {
+		File spool = folder.newFolder("spool");
+		MailService mail = newMailService(spool);
+		for (int i = 0; i < 5; i++) {
+			queue(mail, "message " + i);
+		}
+		assertEquals(5, spool.list().length);
+
+		mail.run();
+		assertTrue(mail.hasEmptyQueue());
+		assertEquals(1, server.connections.get());
+		assertEquals(5, server.messages.get());
+		assertEquals(0, spool.list().length);
+	}
+
+	@Test
+	public void testDuplicates() throws Exception {
+		MailService mail = newMailService(null);
+		queue(mail, "message");
+		queue(mail, "message");
+		queue(mail, "another message");
+
+		mail.run();
+		assertEquals(2, server.messages.get());
+
+		// a delivered message may be sent again
+		queue(mail, "message");
+		mail.run();
+		assertEquals(3, server.messages.get());
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		File spool = folder.newFolder("spool");
+		MailService mail = newMailService(spool);
+		queue(mail, "message 1");
+		queue(mail, "message 2");
+		new File(spool, "incomplete.tmp").createNewFile();
+
+		// restart before the queue was processed
+		mail = newMailService(spool);
+		assertFalse(mail.hasEmptyQueue());
+		assertFalse(new File(spool, "incomplete.tmp").exists());
+
+		// a reloaded message is still deduplicated
+		queue(mail, "message 1");
+
+		mail.run();
+		assertEquals(2, server.messages.get());
+		assertEquals(0, spool.list().length);
+	}
+
+	@Test
+	public void testRetry() throws Exception {
+		File spool = folder.newFolder("spool");
+		MailService mail = newMailService(spool);
+		queue(mail, "message");
+
+		server.rcptReply = "451 try again later";
+		mail.run();
+		assertEquals(0, server.messages.get());
+		assertFalse(mail.hasEmptyQueue());
+		String [] files = spool.list();
+		assertEquals(1, files.length);
+		assertTrue(files[0].endsWith(".1.eml"));
+
+		// the message is not due yet, the server is not contacted
+		server.rcptReply = "250 OK";
+		int connections = server.connections.get();
+		mail.run();
+		assertEquals(connections, server.connections.get());
+
+		// the backoff is restored after a restart
+		mail = newMailService(spool);
+		mail.run();
+		assertEquals(connections, server.connections.get());
+		assertFalse(mail.hasEmptyQueue());
+	}
+
+	@Test
+	public void testPermanentFailure() throws Exception {
+		File spool = folder.newFolder("spool");
+		MailService mail = newMailService(spool);
+		queue(mail, "message");
+
+		server.rcptReply = "550 no such user";
+		mail.run();
+		assertTrue(mail.hasEmptyQueue());
+		assertEquals(0, server.messages.get());
+		assertEquals(1, new File(spool, "failed").list().length);
+	}
+
+	@Test
+	public void testInvalidRecipient() throws Exception {
+		File spool = folder.newFolder("spool");
+		MailService mail = newMailService(spool);
+		queue(mail, "message", "james@gitblit.com", "gone@gitblit.com", "jane@gitblit.com");
+
+		// the valid recipients are sent the message without the invalid one
+		server.rejectedRecipient = "gone@gitblit.com";
+		mail.run();
+		assertTrue(mail.hasEmptyQueue());
+		assertEquals(1, server.messages.get());
+		assertEquals(0, spool.list().length);
+	}
+
+	@Test
+	public void testRetryDelay() throws Exception {
+		assertEquals(0, MailService.getRetryDelay(0));
+		assertEquals(60 * 1000L, MailService.getRetryDelay(1));
+		assertEquals(4 * 60 * 1000L, MailService.getRetryDelay(3));
+		assertEquals(6 * 60 * 60 * 1000L, MailService.getRetryDelay(100));
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.service;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.gitblit.Keys;
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.utils.IdGenerator;
+import com.gitblit.utils.WorkQueue;
+
+public class MirrorServiceTest extends GitblitUnitTest {
+
+	/**
+	 * A mirror service with a settable clock whose fetches record the
+	 * repository and wait until they are released.
+	 */
+	private static class TestMirrorService extends MirrorService {
+
+		volatile long now = TimeUnit.DAYS.toMillis(1000);
+
+		final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+
+		final List<String> failing = Collections.synchronizedList(new ArrayList<String>());
+
+		final List<Long> delays = Collections.synchronizedList(new ArrayList<Long>());
+
+		volatile CountDownLatch release = new CountDownLatch(0);
+
+		TestMirrorService(MemorySettings settings, IRepositoryManager repositoryManager, WorkQueue workQueue) {
+			super(settings, repositoryManager, workQueue);
+		}
+
+		@Override
+		long now() {
+			return now;
+		}
+
+		@Override
+		long getRetryDelay(int failures) {
+			long delay = super.getRetryDelay(failures);
+			delays.add(delay);
+			return delay;
+		}
+
+		@Override
+		void fetch(String repositoryName, String remoteName) throws Exception {
+			fetched.add(repositoryName);
+			release.await(5, TimeUnit.SECONDS);
+			if (failing.contains(repositoryName)) {
+				throw new Exception("remote is unavailable");
+			}
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> repositories = new ArrayList<String>();
+
+	private WorkQueue workQueue;
+
+	private TestMirrorService service;
+
+	@After
+	public void tearDown() {
+		if (service != null) {
+			service.close();
+		}
+		if (workQueue != null) {
+			workQueue.stop();
+		}
+	}
+
+	private MemorySettings settings(int fetchesPerHost, int threads) {
+		MemorySettings settings = new MemorySettings();
+		settings.put(Keys.git.enableMirroring, "true");
+		settings.put(Keys.git.mirrorPeriod, "30 mins");
+		settings.put(Keys.git.mirrorFetchesPerHost, "" + fetchesPerHost);
+		settings.put(Keys.git.mirrorThreads, "" + threads);
+		return settings;
+	}
+
+	/**
+	 * Creates a bare repository with a mirror remote on the host.
+	 */
+	private void createMirror(String name, String host) throws Exception {
+		File dir = new File(folder.getRoot(), name);
+		FileRepository repository = new FileRepository(dir);
+		try {
+			repository.create(true);
+			StoredConfig config = repository.getConfig();
+			config.setString("remote", "origin", "url", "https://" + host + "/" + name);
+			config.setString("remote", "origin", "fetch", "+refs/*:refs/*");
+			config.setBoolean("remote", "origin", "mirror", true);
+			config.save();
+		} finally {
+			repository.close();
+		}
+		repositories.add(name);
+	}
+
+	private IRepositoryManager repositoryManager() {
+		IRepositoryManager repositoryManager = mock(IRepositoryManager.class);
+		when(repositoryManager.getRepositoryList()).thenReturn(repositories);
+		when(repositoryManager.getRepositoryModel(anyString())).thenAnswer(new Answer<RepositoryModel>() {
+			@Override
+			public RepositoryModel answer(InvocationOnMock invocation) {
+				RepositoryModel model = new RepositoryModel((String) invocation.getArguments()[0], null, null, null);
+				model.isMirror = true;
+				model.isBare = true;
+				return model;
+			}
+		});
+		when(repositoryManager.getRepository(anyString())).thenAnswer(new Answer<Repository>() {
+			@Override
+			public Repository answer(InvocationOnMock invocation) throws Exception {
+				return new FileRepository(new File(folder.getRoot(), (String) invocation.getArguments()[0]));
+			}
+		});
+		return repositoryManager;
+	}
+
+	private TestMirrorService newService(int fetchesPerHost, int threads, int maxQueueDepth) {
+		workQueue = new WorkQueue(new IdGenerator(), 1, Collections.<String, Integer> emptyMap(), maxQueueDepth);
+		service = new TestMirrorService(settings(fetchesPerHost, threads), repositoryManager(), workQueue);
+		return service;
+	}
+
+	private void awaitFetches(TestMirrorService service, int started, int running) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((service.fetched.size() < started || service.getFetchCount() != running)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(started, service.fetched.size());
+		assertEquals(running, service.getFetchCount());
+	}
+
+	@Test
+	public void testRetryDelay() throws Exception {
+		TestMirrorService service = newService(2, 1, 0);
+		long period = TimeUnit.MINUTES.toMillis(30);
+		for (int i = 0; i < 100; i++) {
+			long delay = service.getRetryDelay(1);
+			assertTrue(delay >= period / 2 && delay <= period);
+			delay = service.getRetryDelay(3);
+			assertTrue(delay >= 2 * period && delay <= 4 * period);
+
+			// the backoff is capped at a day
+			delay = service.getRetryDelay(20);
+			assertTrue(delay >= TimeUnit.HOURS.toMillis(12) && delay <= TimeUnit.HOURS.toMillis(24));
+		}
+	}
+
+	@Test
+	public void testFetchesPerHost() throws Exception {
+		createMirror("a.git", "host-a");
+		createMirror("b.git", "host-a");
+		createMirror("c.git", "host-b");
+		TestMirrorService service = newService(1, 4, 0);
+		service.release = new CountDownLatch(1);
+
+		// one fetch from each host, the second mirror of host-a is deferred
+		service.run();
+		awaitFetches(service, 2, 2);
+		assertTrue(service.fetched.contains("a.git"));
+		assertTrue(service.fetched.contains("c.git"));
+		service.run();
+		assertEquals(2, service.fetched.size());
+
+		// the deferred mirror is fetched once host-a has capacity
+		service.release.countDown();
+		awaitFetches(service, 2, 0);
+		service.run();
+		awaitFetches(service, 3, 0);
+		assertEquals("b.git", service.fetched.get(2));
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		createMirror("a.git", "host-a");
+		createMirror("b.git", "host-b");
+		TestMirrorService service = newService(2, 2, 0);
+		service.failing.add("b.git");
+		long start = service.now;
+
+		service.run();
+		awaitFetches(service, 2, 0);
+		assertEquals(1, service.delays.size());
+		long firstDelay = service.delays.get(0);
+
+		// neither mirror is due before the retry delay of the failure
+		service.now = start + firstDelay - 1;
+		service.run();
+		Thread.sleep(100);
+		assertEquals(2, service.fetched.size());
+
+		// the failed mirror is retried, the retry fails again and backs off
+		service.now = start + firstDelay;
+		service.run();
+		awaitFetches(service, 3, 0);
+		assertEquals("b.git", service.fetched.get(2));
+		assertEquals(2, service.delays.size());
+		assertTrue(service.delays.get(1) > firstDelay);
+
+		// the successful mirror is fetched again one period after its fetch
+		service.now = start + TimeUnit.MINUTES.toMillis(30);
+		service.run();
+		awaitFetches(service, 4, 0);
+		assertEquals("a.git", service.fetched.get(3));
+	}
+
+	@Test
+	public void testRejectedFetch() throws Exception {
+		createMirror("a.git", "host-a");
+		// one thread and one waiting fetch fill the queue
+		TestMirrorService service = newService(2, 1, 1);
+		service.release = new CountDownLatch(1);
+		service.run();
+		awaitFetches(service, 1, 1);
+
+		createMirror("b.git", "host-b");
+		createMirror("c.git", "host-c");
+		service.run();
+		awaitFetches(service, 1, 2);
+		assertEquals("a.git", service.fetched.get(0));
+
+		// the rejected mirror remains due and is fetched by a later scan
+		service.release.countDown();
+		awaitFetches(service, 2, 0);
+		assertEquals("b.git", service.fetched.get(1));
+		service.run();
+		awaitFetches(service, 3, 0);
+		assertEquals("c.git", service.fetched.get(2));
+	}
+}
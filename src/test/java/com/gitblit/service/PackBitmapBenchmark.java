@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.UploadPack;
+import org.eclipse.jgit.util.FileUtils;
+
+import com.gitblit.tests.Benchmark;
+import com.gitblit.utils.JGitUtils;
+
+/**
+ * Measures full clones and fetches served by the upload pack from a
+ * repository which was garbage collected without and with a pack bitmap
+ * index, as the garbage collector writes it.
+ * <p>
+ * Usage: PackBitmapBenchmark [commits] [commits behind for the fetch]
+ * </p>
+ *
+ */
+public class PackBitmapBenchmark {
+
+	/**
+	 * Counts and discards the response.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	public static void main(String [] args) throws Exception {
+		int commits = Benchmark.intArg(args, 0, 20000);
+		int behind = Math.min(commits - 1, Benchmark.intArg(args, 1, 50));
+
+		File dir = Files.createTempDirectory("bitmaps").toFile();
+		FileRepository db = new FileRepository(new File(dir, "benchmark.git"));
+		try {
+			db.create(true);
+			ObjectId [] history = createHistory(db, commits);
+			final ObjectId tip = history[history.length - 1];
+			final ObjectId have = history[history.length - 1 - behind];
+			System.out.println(String.format("serving %d commits, fetch %d commits behind", commits, behind));
+
+			for (boolean bitmaps : new boolean [] { false, true }) {
+				PackConfig packConfig = new PackConfig(db);
+				packConfig.setBuildBitmaps(bitmaps);
+				GC gc = new GC(db);
+				gc.setPackConfig(packConfig);
+				gc.gc();
+				String label = JGitUtils.hasPackBitmap(db) ? "with bitmap" : "without bitmap";
+
+				final FileRepository repository = db;
+				Benchmark.measure("clone " + label, 2, 7, new Benchmark.Task() {
+					@Override
+					public Object run() throws Exception {
+						return upload(repository, request(tip, null));
+					}
+				});
+				Benchmark.measure("fetch " + label, 3, 15, new Benchmark.Task() {
+					@Override
+					public Object run() throws Exception {
+						return upload(repository, request(tip, have));
+					}
+				});
+			}
+		} finally {
+			db.close();
+			FileUtils.delete(dir, FileUtils.RECURSIVE);
+		}
+	}
+
+	/**
+	 * Creates a linear history on the master branch.  Each commit changes one
+	 * of a hundred files.
+	 */
+	private static ObjectId [] createHistory(FileRepository db, int commits) throws IOException {
+		ObjectId [] history = new ObjectId[commits];
+		ObjectId [] blobs = new ObjectId[100];
+		PersonIdent ident = new PersonIdent("benchmark", "benchmark@gitblit.com");
+		ObjectInserter inserter = db.newObjectInserter();
+		try {
+			ObjectId parent = null;
+			for (int i = 0; i < commits; i++) {
+				blobs[i % blobs.length] = inserter.insert(Constants.OBJ_BLOB,
+						Constants.encode("content of commit " + i + "\n"));
+				TreeFormatter tree = new TreeFormatter();
+				for (int j = 0; j < blobs.length; j++) {
+					if (blobs[j] != null) {
+						tree.append(String.format("file%03d.txt", j), FileMode.REGULAR_FILE, blobs[j]);
+					}
+				}
+				CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId(inserter.insert(tree));
+				if (parent != null) {
+					commit.setParentId(parent);
+				}
+				commit.setAuthor(ident);
+				commit.setCommitter(ident);
+				commit.setMessage("commit " + i);
+				parent = inserter.insert(commit);
+				history[i] = parent;
+			}
+			inserter.flush();
+		} finally {
+			inserter.close();
+		}
+		RefUpdate update = db.updateRef(Constants.R_HEADS + "master");
+		update.setNewObjectId(history[commits - 1]);
+		update.forceUpdate();
+		return history;
+	}
+
+	private static String pkt(String line) {
+		return String.format("%04x", line.length() + 4) + line;
+	}
+
+	/**
+	 * Returns a stateless upload pack request.
+	 *
+	 * @param want
+	 * @param have
+	 *            the commit of the client, null for a clone
+	 */
+	private static byte [] request(ObjectId want, ObjectId have) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(pkt("want " + want.name() + " side-band-64k ofs-delta\n")).append("0000");
+		if (have != null) {
+			sb.append(pkt("have " + have.name() + "\n"));
+		}
+		sb.append(pkt("done\n"));
+		return sb.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * Serves the request and returns the size of the response.
+	 */
+	private static long upload(FileRepository db, byte [] request) throws IOException {
+		UploadPack up = new UploadPack(db);
+		up.setBiDirectionalPipe(false);
+		CountingOutputStream os = new CountingOutputStream();
+		up.upload(new ByteArrayInputStream(request), os, null);
+		return os.count;
+	}
+}
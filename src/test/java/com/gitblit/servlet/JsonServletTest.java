@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.servlet;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.utils.JsonUtils;
+
+public class JsonServletTest extends GitblitUnitTest {
+
+	private static class TestServlet extends JsonServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void processRequest(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			serialize(request, response, Arrays.asList("a", "b", "c"));
+		}
+	}
+
+	private static class BufferOutputStream extends ServletOutputStream {
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) throws IOException {
+			buffer.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	}
+
+	private BufferOutputStream process(String acceptEncoding, HttpServletResponse response) throws Exception {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+		BufferOutputStream os = new BufferOutputStream();
+		when(response.getOutputStream()).thenReturn(os);
+		new TestServlet().processRequest(request, response);
+		return os;
+	}
+
+	private List<String> read(InputStream is) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte [] buffer = new byte[1024];
+		int len;
+		while ((len = is.read(buffer)) > -1) {
+			os.write(buffer, 0, len);
+		}
+		return JsonUtils.fromJsonString(os.toString("UTF-8"), List.class);
+	}
+
+	@Test
+	public void testPlainResponse() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		BufferOutputStream os = process(null, response);
+		verify(response, never()).setHeader("Content-Encoding", "gzip");
+		assertEquals(Arrays.asList("a", "b", "c"), read(new ByteArrayInputStream(os.buffer.toByteArray())));
+	}
+
+	@Test
+	public void testGzipResponse() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		BufferOutputStream os = process("deflate, gzip;q=0.8", response);
+		verify(response).setHeader("Content-Encoding", "gzip");
+		assertEquals(Arrays.asList("a", "b", "c"),
+				read(new GZIPInputStream(new ByteArrayInputStream(os.buffer.toByteArray()))));
+	}
+
+	@Test
+	public void testGzipRefused() throws Exception {
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		process("gzip;q=0", response);
+		verify(response, never()).setHeader("Content-Encoding", "gzip");
+	}
+}
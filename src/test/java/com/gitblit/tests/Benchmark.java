@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal timing harness for the benchmark programs in the test sources.
+ * <p>
+ * The benchmarks are plain main() programs, they are not run by the test
+ * suite.  Each measurement runs the task a few times to warm up the JIT and
+ * then reports the median and the fastest of the timed rounds.
+ * </p>
+ *
+ */
+public class Benchmark {
+
+	/**
+	 * A measured task.  The result is consumed so that the JIT can not
+	 * eliminate the work.
+	 */
+	public interface Task {
+		Object run() throws Exception;
+	}
+
+	private static volatile int sink;
+
+	/**
+	 * Runs the task and prints the median and the fastest round.
+	 *
+	 * @param name
+	 * @param warmups
+	 *            number of untimed rounds
+	 * @param rounds
+	 *            number of timed rounds
+	 * @param task
+	 * @return the median round time in nanoseconds
+	 * @throws Exception
+	 */
+	public static long measure(String name, int warmups, int rounds, Task task) throws Exception {
+		for (int i = 0; i < warmups; i++) {
+			consume(task.run());
+		}
+		long [] times = new long[Math.max(1, rounds)];
+		for (int i = 0; i < times.length; i++) {
+			long start = System.nanoTime();
+			consume(task.run());
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		long median = times[times.length / 2];
+		System.out.println(String.format("%-48s median %10.3f ms   min %10.3f ms", name, millis(median), millis(times[0])));
+		return median;
+	}
+
+	/**
+	 * Returns the integer command line argument or the default value.
+	 *
+	 * @param args
+	 * @param index
+	 * @param defaultValue
+	 * @return the argument value
+	 */
+	public static int intArg(String [] args, int index, int defaultValue) {
+		if (args == null || args.length <= index) {
+			return defaultValue;
+		}
+		return Integer.parseInt(args[index]);
+	}
+
+	private static void consume(Object result) {
+		if (result != null) {
+			sink += result.hashCode();
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
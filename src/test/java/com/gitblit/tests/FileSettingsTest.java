@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.FileSettings;
+import com.gitblit.utils.FileUtils;
+
+public class FileSettingsTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOverrides() throws Exception {
+		File file = folder.newFile("gitblit.properties");
+		FileUtils.writeContent(file, "a = 1\nb = true\nc = one two\n");
+		FileSettings settings = new FileSettings(file.getAbsolutePath());
+
+		assertEquals(1, settings.getInteger("a", 0));
+		assertTrue(settings.getBoolean("b", false));
+		assertEquals(2, settings.getStrings("c").size());
+
+		settings.overrideSetting("a", 2);
+		assertEquals(2, settings.getInteger("a", 0));
+
+		settings.removeSetting("a");
+		assertEquals(0, settings.getInteger("a", 0));
+		assertFalse(settings.hasSettings("a"));
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		File file = folder.newFile("gitblit.properties");
+		FileUtils.writeContent(file, "a = 1\n");
+		FileSettings settings = new FileSettings(file.getAbsolutePath());
+		assertEquals(1, settings.getInteger("a", 0));
+
+		Map<String, String> updates = new HashMap<String, String>();
+		updates.put("a", "5");
+		updates.put("d", "new");
+		settings.saveSettings(updates);
+
+		assertEquals(5, settings.getInteger("a", 0));
+		assertEquals("new", settings.getString("d", null));
+	}
+
+	@Test
+	public void testIncludeReload() throws Exception {
+		File base = folder.newFile("base.properties");
+		FileUtils.writeContent(base, "a = 1\nb = 1\n");
+		File file = folder.newFile("gitblit.properties");
+		FileUtils.writeContent(file, "include = base.properties\nb = 2\n");
+		FileSettings settings = new FileSettings(file.getAbsolutePath());
+
+		assertEquals(1, settings.getInteger("a", 0));
+		assertEquals(2, settings.getInteger("b", 0));
+
+		FileUtils.writeContent(base, "a = 3\nb = 1\n");
+		base.setLastModified(base.lastModified() + 10000);
+
+		// the files are checked at most every two seconds
+		long timeout = System.currentTimeMillis() + 10000;
+		while (settings.getInteger("a", 0) != 3 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(100);
+		}
+		assertEquals(3, settings.getInteger("a", 0));
+		assertEquals(2, settings.getInteger("b", 0));
+	}
+}
@@ -35,27 +35,41 @@ import org.junit.runners.Suite.SuiteClasses;
 
 import com.gitblit.GitBlitException;
 import com.gitblit.GitBlitServer;
+import com.gitblit.git.CachingUploadPackTest;
 import com.gitblit.manager.AuthenticationManagerTest;
 import com.gitblit.manager.FilestoreManagerTest;
 import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.PermissionResolverTest;
+import com.gitblit.manager.UserManagerTest;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.RepositoryModelTest;
 import com.gitblit.models.UserChoiceTest;
 import com.gitblit.models.UserModelTest;
+import com.gitblit.service.FederationPullServiceTest;
+import com.gitblit.service.GarbageCollectorServiceTest;
 import com.gitblit.service.LdapSyncServiceTest;
+import com.gitblit.service.MailServiceTest;
+import com.gitblit.service.MirrorServiceTest;
 import com.gitblit.servlet.FilestoreServletTest;
 import com.gitblit.servlet.GitServletTest;
 import com.gitblit.servlet.GitblitContext;
+import com.gitblit.servlet.JsonServletTest;
 import com.gitblit.tickets.BranchTicketServiceTest;
 import com.gitblit.tickets.FileTicketServiceTest;
 import com.gitblit.tickets.RedisTicketServiceTest;
+import com.gitblit.tickets.TicketIndexerTest;
+import com.gitblit.tickets.TicketSnapshotTest;
+import com.gitblit.transport.git.GitDaemonPoolTest;
 import com.gitblit.transport.git.GitDaemonTest;
 import com.gitblit.transport.ssh.SshDaemonTest;
+import com.gitblit.utils.ArchiveCacheTest;
 import com.gitblit.utils.ArrayUtilsTest;
 import com.gitblit.utils.Base64Test;
 import com.gitblit.utils.ByteFormatTest;
+import com.gitblit.utils.CommitCacheTest;
 import com.gitblit.utils.DiffUtilsTest;
 import com.gitblit.utils.FileUtilsTest;
+import com.gitblit.utils.HttpUtilsTest;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.JGitUtilsTest;
 import com.gitblit.utils.JnaUtilsTest;
@@ -68,6 +82,8 @@ import com.gitblit.utils.PathUtilsTest;
 import com.gitblit.utils.StringUtilsTest;
 import com.gitblit.utils.SyndicationUtilsTest;
 import com.gitblit.utils.TimeUtilsTest;
+import com.gitblit.utils.TransferMetricsTest;
+import com.gitblit.utils.WorkQueueTest;
 import com.gitblit.utils.X509UtilsTest;
 
 /**
@@ -87,16 +103,21 @@ import com.gitblit.utils.X509UtilsTest;
 @SuiteClasses({ ArrayUtilsTest.class, FileUtilsTest.class, TimeUtilsTest.class,
 		StringUtilsTest.class, Base64Test.class, JsonUtilsTest.class, ByteFormatTest.class,
 		UserModelTest.class, UserChoiceTest.class,
-		ObjectCacheTest.class, PermissionsTest.class, UserServiceTest.class, LdapAuthenticationTest.class,
+		ObjectCacheTest.class, CommitCacheTest.class, PermissionsTest.class, UserServiceTest.class, LdapAuthenticationTest.class,
 		MarkdownUtilsTest.class, JGitUtilsTest.class, SyndicationUtilsTest.class,
 		DiffUtilsTest.class, MetricUtilsTest.class, X509UtilsTest.class,
 		GitBlitTest.class, FederationTests.class, RpcTests.class, GitServletTest.class, GitDaemonTest.class,
 		SshDaemonTest.class, GroovyScriptTest.class, LuceneExecutorTest.class, RepositoryModelTest.class,
 		Issue0259Test.class, Issue0271Test.class, HtpasswdAuthenticationTest.class,
 		ModelUtilsTest.class, JnaUtilsTest.class, LdapSyncServiceTest.class, FileTicketServiceTest.class,
-		BranchTicketServiceTest.class, RedisTicketServiceTest.class, AuthenticationManagerTest.class,
+		BranchTicketServiceTest.class, RedisTicketServiceTest.class, AuthenticationManagerTest.class, UserManagerTest.class,
 		SshKeysDispatcherTest.class, UITicketTest.class, PathUtilsTest.class, SshKerberosAuthenticationTest.class,
-		GravatarTest.class, FilestoreManagerTest.class, FilestoreServletTest.class, TicketReferenceTest.class })
+		GravatarTest.class, FilestoreManagerTest.class, FilestoreServletTest.class, TicketReferenceTest.class,
+		HttpUtilsTest.class, ArchiveCacheTest.class, FileSettingsTest.class,
+		GarbageCollectorServiceTest.class, JsonServletTest.class, MailServiceTest.class, MirrorServiceTest.class, FederationPullServiceTest.class,
+		WorkQueueTest.class, CachingUploadPackTest.class, TransferMetricsTest.class,
+		TicketSnapshotTest.class, TicketIndexerTest.class,
+		GitDaemonPoolTest.class, PermissionResolverTest.class })
 public class GitBlitSuite {
 
 	public static final File BASEFOLDER = new File("data");
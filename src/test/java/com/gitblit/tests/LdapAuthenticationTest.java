@@ -35,6 +35,8 @@ import com.gitblit.models.UserModel;
 import com.gitblit.tests.mock.MemorySettings;
 import com.gitblit.utils.XssFilter;
 import com.gitblit.utils.XssFilter.AllowXssFilter;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
 import com.unboundid.ldap.sdk.SearchResult;
 import com.unboundid.ldap.sdk.SearchScope;
 import com.unboundid.ldif.LDIFReader;
@@ -223,6 +225,40 @@ public class LdapAuthenticationTest extends LdapBasedUnitTest {
 		assertEquals("User.One@gitblit.com", userOneModel.emailAddress);
 	}
 
+	@Test
+	public void testVerifiedCredentialsCache() throws Exception {
+		UserModel userOneModel = ldap.authenticate("UserOne", "userOnePassword".toCharArray());
+		assertNotNull(userOneModel);
+
+		getDS().modify(DN_USER_ONE, new Modification(ModificationType.REPLACE, "userPassword", "userOneChanged"));
+
+		// recently verified credentials are accepted without asking the directory
+		userOneModel = ldap.authenticate("UserOne", "userOnePassword".toCharArray());
+		assertNotNull(userOneModel);
+		assertNotNull(userOneModel.getTeam("git_users"));
+
+		// other credentials are verified by the directory
+		assertNull(ldap.authenticate("UserOne", "userTwoPassword".toCharArray()));
+		assertNotNull(ldap.authenticate("UserOne", "userOneChanged".toCharArray()));
+
+		// the new password replaced the verified credentials
+		assertNull(ldap.authenticate("UserOne", "userOnePassword".toCharArray()));
+	}
+
+	@Test
+	public void testVerifiedCredentialsCacheDisabled() throws Exception {
+		settings.put(Keys.realm.ldap.authCachePeriod, "0 SECONDS");
+		ldap = newLdapAuthentication(settings);
+
+		UserModel userOneModel = ldap.authenticate("UserOne", "userOnePassword".toCharArray());
+		assertNotNull(userOneModel);
+
+		getDS().modify(DN_USER_ONE, new Modification(ModificationType.REPLACE, "userPassword", "userOneChanged"));
+
+		assertNull(ldap.authenticate("UserOne", "userOnePassword".toCharArray()));
+		assertNotNull(ldap.authenticate("UserOne", "userOneChanged".toCharArray()));
+	}
+
 	@Test
 	public void testLdapInjection() {
 		// Inject so "(&(objectClass=person)(sAMAccountName=${username}))" becomes "(&(objectClass=person)(sAMAccountName=*)(userPassword=userOnePassword))"
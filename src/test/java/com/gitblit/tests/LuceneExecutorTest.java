@@ -50,11 +50,14 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 	private LuceneService newLuceneExecutor() {
 		MemorySettings settings = new MemorySettings();
 		settings.put(Keys.git.repositoriesFolder, GitBlitSuite.REPOSITORIES);
+		return new LuceneService(settings, newRepositoryManager(settings));
+	}
+
+	private RepositoryManager newRepositoryManager(MemorySettings settings) {
 		XssFilter xssFilter = new AllowXssFilter();
 		RuntimeManager runtime = new RuntimeManager(settings, xssFilter, GitBlitSuite.BASEFOLDER).start();
 		UserManager users = new UserManager(runtime, null).start();
-		RepositoryManager repos = new RepositoryManager(runtime, null, users);
-		return new LuceneService(settings, repos);
+		return new RepositoryManager(runtime, null, users);
 	}
 
 	private RepositoryModel newRepositoryModel(Repository repository) {
@@ -147,6 +150,17 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 		assertEquals("[v1.3.0.201202151440-r]", results.get(0).tags.toString());
 	}
 
+	@Test
+	public void testPageBeyondResults() throws Exception {
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		RepositoryModel model = newRepositoryModel(repository);
+		repository.close();
+
+		// the collector is bounded by the index, not by the requested page
+		List<SearchResult> results = lucene.search("ada", 1000000, 1000, model.name);
+		assertEquals(0, results.size());
+	}
+
 	@Test
 	public void testMultiSearch() throws Exception {
 		List<String> list = new ArrayList<String>();
@@ -173,4 +187,22 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 		assertTrue(lucene.deleteBlob(model.name, "refs/heads/master", "java.java"));
 		assertFalse(lucene.deleteBlob(model.name, "refs/heads/master", "java.java"));
 	}
+
+	@Test
+	public void testQueueIndexUpdateWithoutSettings() throws Exception {
+		MemorySettings settings = new MemorySettings();
+		settings.put(Keys.git.repositoriesFolder, GitBlitSuite.REPOSITORIES);
+		LuceneService service = new LuceneService(null, newRepositoryManager(settings));
+		try {
+			// the update is queued and run with the default settings
+			service.queueIndexUpdate("missing.git");
+			long deadline = System.currentTimeMillis() + 5000;
+			while (service.getIndexedCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, service.getIndexedCount());
+		} finally {
+			service.close();
+		}
+	}
 }
\ No newline at end of file
@@ -17,10 +17,12 @@ package com.gitblit.tests;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Test;
 
 import com.gitblit.ConfigUserService;
+import com.gitblit.Constants.AccessPermission;
 import com.gitblit.Constants.AccessRestrictionType;
 import com.gitblit.IUserService;
 import com.gitblit.models.RepositoryModel;
@@ -39,6 +41,50 @@ public class UserServiceTest extends GitblitUnitTest {
 		file.delete();
 	}
 
+	@Test
+	public void testConfigUserServiceIndexes() throws IOException {
+		File file = new File("us-index-test.conf");
+		file.delete();
+		IUserService service = new ConfigUserService(file);
+
+		UserModel user = new UserModel("indexed");
+		user.password = "password";
+		user.setRepositoryPermission("indexed.git", AccessPermission.PUSH);
+		service.updateUserModel(user);
+
+		TeamModel team = new TeamModel("indexedteam");
+		team.setRepositoryPermission("indexed.git", AccessPermission.VIEW);
+		service.updateTeamModel(team);
+
+		assertEquals(Arrays.asList("indexed"), service.getUsernamesForRepositoryRole("indexed.git"));
+		assertEquals(Arrays.asList("indexedteam"), service.getTeamNamesForRepositoryRole("indexed.git"));
+
+		// cookie lookup
+		String cookie = service.getCookie(service.getUserModel("indexed"));
+		assertNotNull(cookie);
+		assertEquals("indexed", service.getUserModel(cookie.toCharArray()).username);
+
+		// returned models are copies
+		service.getUserModel("indexed").removeRepositoryPermission("indexed.git");
+		assertEquals(1, service.getUsernamesForRepositoryRole("indexed.git").size());
+
+		// updates replace the indexes
+		user = service.getUserModel("indexed");
+		user.removeRepositoryPermission("indexed.git");
+		service.updateUserModel(user);
+		assertTrue(service.getUsernamesForRepositoryRole("indexed.git").isEmpty());
+
+		service.renameRepositoryRole("indexed.git", "renamed.git");
+		assertTrue(service.getTeamNamesForRepositoryRole("indexed.git").isEmpty());
+		assertEquals(Arrays.asList("indexedteam"), service.getTeamNamesForRepositoryRole("renamed.git"));
+
+		// a new instance reads the same realm file
+		service = new ConfigUserService(file);
+		assertEquals(Arrays.asList("indexed"), service.getAllUsernames());
+		assertEquals(Arrays.asList("indexedteam"), service.getTeamNamesForRepositoryRole("renamed.git"));
+		file.delete();
+	}
+
 	protected void testUsers(IUserService service) {
 
 		UserModel admin = service.getUserModel("admin");
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tickets;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.Keys;
+import com.gitblit.manager.RuntimeManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.models.TicketModel.Status;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.tickets.TicketIndexer.Lucene;
+import com.gitblit.utils.IdGenerator;
+import com.gitblit.utils.WorkQueue;
+import com.gitblit.utils.XssFilter.AllowXssFilter;
+
+public class TicketIndexerTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final RepositoryModel repository = new RepositoryModel("indexer.git", null, null, null);
+
+	private List<TicketIndexer> indexers = new ArrayList<TicketIndexer>();
+
+	@After
+	public void close() {
+		for (TicketIndexer indexer : indexers) {
+			indexer.close();
+		}
+	}
+
+	private TicketIndexer newIndexer(int commitInterval) {
+		return newIndexer(commitInterval, null);
+	}
+
+	private TicketIndexer newIndexer(int commitInterval, WorkQueue workQueue) {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(Keys.tickets.indexFolder, folder.getRoot().getAbsolutePath());
+		map.put(Keys.tickets.indexCommitInterval, "" + commitInterval);
+		TicketIndexer indexer = new TicketIndexer(new RuntimeManager(new MemorySettings(map), new AllowXssFilter()),
+				workQueue);
+		indexers.add(indexer);
+		return indexer;
+	}
+
+	private TicketModel newTicket(long number, String title) {
+		Change change = new Change("admin");
+		change.setField(Field.title, title);
+		change.setField(Field.status, Status.New);
+		TicketModel ticket = TicketModel.buildTicket(Arrays.asList(change));
+		ticket.repository = repository.name;
+		ticket.number = number;
+		return ticket;
+	}
+
+	private int count(TicketIndexer indexer, String query) {
+		return indexer.queryFor(query, 1, 0, null, true).size();
+	}
+
+	@Test
+	public void testNearRealTimeSearch() throws Exception {
+		TicketIndexer indexer = newIndexer(3600);
+		indexer.index(Arrays.asList(newTicket(1, "first"), newTicket(2, "second")));
+		assertEquals(2, count(indexer, Lucene.rid.matches(repository.getRID())));
+		assertTrue(indexer.hasTickets(repository));
+
+		// an update replaces the ticket document
+		indexer.index(newTicket(1, "updated"));
+		assertEquals(2, count(indexer, Lucene.rid.matches(repository.getRID())));
+		assertEquals(1, indexer.searchFor(repository, "updated", 1, 10).size());
+		assertEquals(0, indexer.searchFor(repository, "first", 1, 10).size());
+
+		assertTrue(indexer.delete(newTicket(2, "second")));
+		assertFalse(indexer.delete(newTicket(2, "second")));
+		assertEquals(1, count(indexer, Lucene.rid.matches(repository.getRID())));
+
+		assertTrue(indexer.deleteAll(repository));
+		assertFalse(indexer.deleteAll(repository));
+		assertFalse(indexer.hasTickets(repository));
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		TicketIndexer indexer = newIndexer(3600);
+		indexer.index(Arrays.asList(newTicket(1, "first"), newTicket(2, "second")));
+		indexer.commit();
+		indexer.index(newTicket(3, "third"));
+
+		// pending changes are committed when the indexer is closed
+		indexer.close();
+		indexer = newIndexer(3600);
+		assertFalse(indexer.shouldReindex());
+		assertEquals(3, count(indexer, Lucene.rid.matches(repository.getRID())));
+	}
+
+	@Test
+	public void testCommitEveryChange() throws Exception {
+		TicketIndexer indexer = newIndexer(0);
+		indexer.index(newTicket(1, "first"));
+		indexer.index(newTicket(2, "second"));
+
+		// the changes are committed without closing the writer
+		assertEquals(2, getCommittedDocs(folder.getRoot()));
+	}
+
+	@Test
+	public void testScheduledCommit() throws Exception {
+		WorkQueue workQueue = new WorkQueue(new IdGenerator(), 1);
+		TicketIndexer indexer = newIndexer(1, workQueue);
+		indexer.index(newTicket(1, "first"));
+		assertTrue(hasQueue(workQueue, "TicketIndexer"));
+
+		// the commit queue commits the change without closing the writer
+		long timeout = System.currentTimeMillis() + 10000;
+		while (getCommittedDocs(folder.getRoot()) != 1 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(100);
+		}
+		assertEquals(1, getCommittedDocs(folder.getRoot()));
+
+		indexer.close();
+		assertFalse(hasQueue(workQueue, "TicketIndexer"));
+	}
+
+	@Test
+	public void testSearchAfterClose() throws Exception {
+		TicketIndexer indexer = newIndexer(3600);
+		indexer.index(newTicket(1, "first"));
+		assertEquals(1, count(indexer, Lucene.rid.matches(repository.getRID())));
+
+		// a closed indexer reopens its writer and searcher
+		indexer.close();
+		assertEquals(1, count(indexer, Lucene.rid.matches(repository.getRID())));
+	}
+
+	private boolean hasQueue(WorkQueue workQueue, String name) {
+		for (WorkQueueStatistics queue : workQueue.getStatistics()) {
+			if (queue.name.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getCommittedDocs(File dir) throws Exception {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				int docs = getCommittedDocs(file);
+				if (docs >= 0) {
+					return docs;
+				}
+			} else if (file.getName().startsWith(IndexFileNames.SEGMENTS)) {
+				DirectoryReader reader = DirectoryReader.open(FSDirectory.open(dir.toPath()));
+				try {
+					return reader.numDocs();
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tickets;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.gitblit.Keys;
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.RuntimeManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.models.TicketModel.Status;
+import com.gitblit.tests.Benchmark;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.utils.XssFilter.AllowXssFilter;
+
+/**
+ * Measures a full ticket reindex of a synthetic corpus, by default 100
+ * repositories with 1000 tickets each, with one worker and with one worker
+ * per processor.  It then measures single ticket updates with the periodic
+ * index commit and with a commit on every change.
+ * <p>
+ * Usage: TicketReindexBenchmark [repositories] [tickets per repository] [updates]
+ * </p>
+ *
+ */
+public class TicketReindexBenchmark {
+
+	/**
+	 * A ticket service which generates the tickets of each repository when
+	 * they are loaded.
+	 */
+	private static class SyntheticTicketService extends NullTicketService {
+
+		private final int tickets;
+
+		SyntheticTicketService(RuntimeManager runtimeManager, IRepositoryManager repositoryManager, int tickets) {
+			super(runtimeManager, null, null, null, repositoryManager);
+			this.tickets = tickets;
+		}
+
+		@Override
+		public List<TicketModel> getTickets(RepositoryModel repository, TicketFilter filter) {
+			return newTickets(repository.name, tickets);
+		}
+	}
+
+	public static void main(String [] args) throws Exception {
+		int repositories = Benchmark.intArg(args, 0, 100);
+		int tickets = Benchmark.intArg(args, 1, 1000);
+		final int updates = Benchmark.intArg(args, 2, 1000);
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < repositories; i++) {
+			names.add("repository" + i + ".git");
+		}
+		IRepositoryManager repositoryManager = mock(IRepositoryManager.class);
+		when(repositoryManager.getRepositoryList()).thenReturn(names);
+		when(repositoryManager.getRepositoryModel(anyString())).thenAnswer(new Answer<RepositoryModel>() {
+			@Override
+			public RepositoryModel answer(InvocationOnMock invocation) {
+				return new RepositoryModel((String) invocation.getArguments()[0], null, null, null);
+			}
+		});
+		System.out.println(String.format("reindexing %d tickets from %d repositories, %d processors",
+				repositories * tickets, repositories, processors));
+
+		File folder = Files.createTempDirectory("tickets").toFile();
+		try {
+			for (int threads : new int [] { 1, processors }) {
+				Map<String, Object> map = new HashMap<String, Object>();
+				map.put(Keys.tickets.indexFolder, new File(folder, "reindex" + threads).getAbsolutePath());
+				map.put(Keys.tickets.reindexThreads, "" + threads);
+				final SyntheticTicketService service = new SyntheticTicketService(
+						new RuntimeManager(new MemorySettings(map), new AllowXssFilter()), repositoryManager, tickets);
+				try {
+					Benchmark.measure("reindex, " + threads + " threads", 1, 3, new Benchmark.Task() {
+						@Override
+						public Object run() {
+							service.reindex();
+							return null;
+						}
+					});
+				} finally {
+					service.stop();
+				}
+				if (threads == processors) {
+					break;
+				}
+			}
+
+			for (int interval : new int [] { 5, 0 }) {
+				Map<String, Object> map = new HashMap<String, Object>();
+				map.put(Keys.tickets.indexFolder, new File(folder, "updates" + interval).getAbsolutePath());
+				map.put(Keys.tickets.indexCommitInterval, "" + interval);
+				final TicketIndexer indexer = new TicketIndexer(
+						new RuntimeManager(new MemorySettings(map), new AllowXssFilter()));
+				try {
+					final String repository = names.get(0);
+					indexer.index(newTickets(repository, tickets));
+					indexer.commit();
+					String label = interval == 0 ? "commit every change" : "commit every " + interval + "s";
+					Benchmark.measure(updates + " updates, " + label, 1, 5, new Benchmark.Task() {
+						@Override
+						public Object run() {
+							for (int i = 1; i <= updates; i++) {
+								indexer.index(newTicket(repository, i, "updated ticket " + i));
+							}
+							return null;
+						}
+					});
+				} finally {
+					indexer.close();
+				}
+			}
+		} finally {
+			FileUtils.delete(folder, FileUtils.RECURSIVE);
+		}
+	}
+
+	private static List<TicketModel> newTickets(String repository, int count) {
+		List<TicketModel> list = new ArrayList<TicketModel>(count);
+		for (int i = 1; i <= count; i++) {
+			list.add(newTicket(repository, i, "ticket " + i + " of " + repository));
+		}
+		return list;
+	}
+
+	private static TicketModel newTicket(String repository, long number, String title) {
+		Change change = new Change("admin");
+		change.setField(Field.title, title);
+		change.setField(Field.body, "The body of " + title + " describes the problem in a few words.");
+		change.setField(Field.status, Status.New);
+		TicketModel ticket = TicketModel.buildTicket(Arrays.asList(change));
+		ticket.repository = repository;
+		ticket.number = number;
+		return ticket;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tickets;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.tests.GitblitUnitTest;
+
+public class TicketSnapshotTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TicketModel newTicket(String title) {
+		Change change = new Change("admin");
+		change.setField(Field.title, title);
+		change.comment("a comment");
+		return TicketModel.buildTicket(Arrays.asList(change));
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File file = new File(folder.getRoot(), TicketSnapshot.FILENAME);
+		TicketSnapshot snapshot = new TicketSnapshot(file);
+		assertNull(snapshot.get(1, "a"));
+		snapshot.put(1, "a", newTicket("ticket 1"));
+		snapshot.put(2, "b", newTicket("ticket 2"));
+		assertEquals(2, snapshot.getRebuilt());
+		snapshot.save();
+		assertTrue(file.exists());
+
+		// unchanged tickets are restored, changed tickets are rebuilt
+		snapshot = new TicketSnapshot(file);
+		TicketModel ticket = snapshot.get(1, "a");
+		assertEquals("ticket 1", ticket.title);
+		assertEquals(1, ticket.getComments().size());
+		assertNull(snapshot.get(2, "c"));
+		snapshot.put(2, "c", newTicket("ticket 2 updated"));
+		assertEquals(1, snapshot.getRebuilt());
+		snapshot.save();
+
+		snapshot = new TicketSnapshot(file);
+		assertEquals("ticket 2 updated", snapshot.get(2, "c").title);
+		assertNull(snapshot.get(2, "b"));
+	}
+
+	@Test
+	public void testRemovedTickets() throws Exception {
+		File file = new File(folder.getRoot(), TicketSnapshot.FILENAME);
+		TicketSnapshot snapshot = new TicketSnapshot(file);
+		snapshot.put(1, "a", newTicket("ticket 1"));
+		snapshot.put(2, "b", newTicket("ticket 2"));
+		snapshot.save();
+
+		// ticket 2 was not looked up, it is dropped
+		snapshot = new TicketSnapshot(file);
+		assertNotNull(snapshot.get(1, "a"));
+		snapshot.save();
+
+		snapshot = new TicketSnapshot(file);
+		assertNotNull(snapshot.get(1, "a"));
+		assertNull(snapshot.get(2, "b"));
+	}
+
+	@Test
+	public void testOtherVersionSnapshot() throws Exception {
+		File file = new File(folder.getRoot(), TicketSnapshot.FILENAME);
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file))));
+		out.writeUTF("0.0.0-" + TicketSnapshot.getSchemaHash().substring(1));
+		out.writeInt(1);
+		out.writeLong(1);
+		out.writeUTF("a");
+		out.writeObject(newTicket("ticket 1"));
+		out.close();
+
+		// the snapshot was written for another schema, it is ignored
+		TicketSnapshot snapshot = new TicketSnapshot(file);
+		assertNull(snapshot.get(1, "a"));
+
+		// the schema hash is stable
+		assertEquals(TicketSnapshot.getSchemaHash(), TicketSnapshot.getSchemaHash());
+		assertTrue(TicketSnapshot.VERSION.endsWith(TicketSnapshot.getSchemaHash()));
+	}
+
+	@Test
+	public void testCorruptSnapshot() throws Exception {
+		File file = new File(folder.getRoot(), TicketSnapshot.FILENAME);
+		Files.write(file.toPath(), "not a snapshot".getBytes("UTF-8"));
+
+		TicketSnapshot snapshot = new TicketSnapshot(file);
+		assertNull(snapshot.get(1, "a"));
+		snapshot.put(1, "a", newTicket("ticket 1"));
+		snapshot.save();
+
+		snapshot = new TicketSnapshot(file);
+		assertEquals("ticket 1", snapshot.get(1, "a").title);
+		assertEquals(1, folder.getRoot().list().length);
+
+		TicketSnapshot.delete(file);
+		assertFalse(file.exists());
+	}
+}
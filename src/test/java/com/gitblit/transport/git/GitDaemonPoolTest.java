@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.transport.git;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.transport.PacketLineIn;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.Keys;
+import com.gitblit.manager.IGitblit;
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.tests.mock.MemorySettings;
+
+public class GitDaemonPoolTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private GitDaemon newDaemon(int threads, int queueSize) {
+		MemorySettings settings = new MemorySettings();
+		settings.put(Keys.git.daemonPort, "0");
+		settings.put(Keys.git.daemonBindInterface, "localhost");
+		settings.put(Keys.git.daemonThreads, "" + threads);
+		settings.put(Keys.git.daemonQueueSize, "" + queueSize);
+		settings.put(Keys.git.daemonMaxConnectionsPerIp, "0");
+
+		IGitblit gitblit = mock(IGitblit.class);
+		when(gitblit.getSettings()).thenReturn(settings);
+		when(gitblit.getRepositoriesFolder()).thenReturn(folder.getRoot());
+		return new GitDaemon(gitblit);
+	}
+
+	private Socket connect(GitDaemon daemon) throws Exception {
+		Socket s = new Socket(InetAddress.getByName("localhost"), daemon.getPort());
+		s.setSoTimeout(5000);
+		return s;
+	}
+
+	private void awaitAccepted(GitDaemon daemon, long count) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (daemon.getAcceptedCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, daemon.getAcceptedCount());
+	}
+
+	private void awaitActive(GitDaemon daemon, int count) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((daemon.getActiveCount() < count || daemon.getQueuedCount() > 0)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, daemon.getActiveCount());
+	}
+
+	@Test
+	public void testSaturatedPoolRejectsClients() throws Exception {
+		GitDaemon daemon = newDaemon(1, 1);
+		daemon.start();
+		List<Socket> clients = new ArrayList<Socket>();
+		try {
+			// the first client occupies the only thread, it never sends a request
+			clients.add(connect(daemon));
+			awaitAccepted(daemon, 1);
+			awaitActive(daemon, 1);
+
+			// the second client waits in the queue
+			clients.add(connect(daemon));
+			awaitAccepted(daemon, 2);
+
+			// the third client is turned away with an error
+			Socket rejected = connect(daemon);
+			clients.add(rejected);
+			InputStream in = rejected.getInputStream();
+			String line = new PacketLineIn(in).readString();
+			assertEquals("ERR server is busy, please try again later", line);
+			assertEquals(-1, in.read());
+
+			assertEquals(1, daemon.getRejectedCount());
+			assertEquals(1, daemon.getActiveCount());
+			assertEquals(1, daemon.getQueuedCount());
+
+			WorkQueueStatistics stats = daemon.getStatistics();
+			assertEquals("GitDaemon", stats.name);
+			assertEquals(1, stats.poolSize);
+			assertEquals(1, stats.activeThreads);
+			assertEquals(1, stats.queuedTasks);
+			assertEquals(3, stats.submittedTasks);
+			assertEquals(1, stats.rejectedTasks);
+			assertEquals(0, stats.completedTasks);
+		} finally {
+			for (Socket s : clients) {
+				s.close();
+			}
+			daemon.stop();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.CacheStatistics;
+import com.gitblit.tests.GitblitUnitTest;
+
+public class ArchiveCacheTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class CountingGenerator implements ArchiveCache.Generator {
+
+		final AtomicInteger count = new AtomicInteger();
+		final int size;
+
+		CountingGenerator(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public void write(OutputStream os) throws IOException {
+			count.incrementAndGet();
+			os.write(new byte[size]);
+		}
+	}
+
+	/**
+	 * Opens the archive and returns its length.
+	 */
+	private static long length(ArchiveCache cache, String key, ArchiveCache.Generator generator) throws IOException {
+		FileInputStream is = cache.open(key, generator);
+		try {
+			return is.getChannel().size();
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1024);
+		CountingGenerator generator = new CountingGenerator(100);
+
+		assertEquals(100, length(cache, "a.zip", generator));
+		assertEquals(100, length(cache, "a.zip", generator));
+		assertEquals(1, generator.count.get());
+
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.entries);
+		assertEquals(100, stats.size);
+		assertEquals(1, stats.hits);
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.loads);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 250);
+		CountingGenerator generator = new CountingGenerator(100);
+
+		length(cache, "a.zip", generator);
+		length(cache, "b.zip", generator);
+		// touch a, b is now the least recently used archive
+		length(cache, "a.zip", generator);
+		length(cache, "c.zip", generator);
+
+		assertTrue(new File(folder.getRoot(), "a.zip").exists());
+		assertFalse(new File(folder.getRoot(), "b.zip").exists());
+		assertTrue(new File(folder.getRoot(), "c.zip").exists());
+		assertEquals(200, cache.getStatistics().size);
+		assertEquals(1, cache.getStatistics().evictions);
+
+		// b is regenerated
+		length(cache, "b.zip", generator);
+		assertEquals(4, generator.count.get());
+	}
+
+	@Test
+	public void testEvictionWhileOpen() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 150);
+		CountingGenerator generator = new CountingGenerator(100);
+
+		FileInputStream a = cache.open("a.zip", generator);
+		try {
+			// a is evicted while it is being served
+			length(cache, "b.zip", generator);
+			assertEquals(1, cache.getStatistics().evictions);
+			assertEquals(100, a.getChannel().size());
+		} finally {
+			a.close();
+		}
+	}
+
+	@Test
+	public void testDeletedExternally() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1024);
+		CountingGenerator generator = new CountingGenerator(100);
+
+		length(cache, "a.zip", generator);
+		assertTrue(new File(folder.getRoot(), "a.zip").delete());
+		assertEquals(100, length(cache, "a.zip", generator));
+		assertEquals(2, generator.count.get());
+		assertEquals(100, cache.getStatistics().size);
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1024);
+		CountingGenerator generator = new CountingGenerator(100);
+		length(cache, "a.zip", generator);
+		new File(folder.getRoot(), "b.zip123.tmp").createNewFile();
+
+		cache = new ArchiveCache(folder.getRoot(), 1024);
+		length(cache, "a.zip", generator);
+		assertEquals(1, generator.count.get());
+		assertEquals(1, cache.getStatistics().entries);
+		assertFalse(new File(folder.getRoot(), "b.zip123.tmp").exists());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1024);
+		try {
+			cache.open("a.zip", new ArchiveCache.Generator() {
+				@Override
+				public void write(OutputStream os) throws IOException {
+					os.write(1);
+					throw new IOException("failed");
+				}
+			});
+			fail("expected an IOException");
+		} catch (IOException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(0, cache.getStatistics().entries);
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+		final ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1024);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger count = new AtomicInteger();
+		final ArchiveCache.Generator generator = new ArchiveCache.Generator() {
+			@Override
+			public void write(OutputStream os) throws IOException {
+				count.incrementAndGet();
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				os.write(new byte[10]);
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return length(cache, "a.zip", generator);
+					}
+				}));
+				if (i == 0) {
+					assertTrue(started.await(10, TimeUnit.SECONDS));
+				}
+			}
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<Long> future : futures) {
+				assertEquals(10, future.get(10, TimeUnit.SECONDS).longValue());
+			}
+			assertEquals(1, count.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.CacheStatistics;
+import com.gitblit.models.RepositoryCommit;
+import com.gitblit.tests.GitblitUnitTest;
+
+public class CommitCacheTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Git git;
+
+	private CommitCache cache;
+
+	@Before
+	public void setup() throws Exception {
+		git = Git.init().setDirectory(folder.newFolder("cache")).call();
+		cache = new CommitCache();
+		cache.setCacheDays(14);
+	}
+
+	@After
+	public void teardown() {
+		git.close();
+	}
+
+	private void commit(String message) throws Exception {
+		commit(message, new Date());
+	}
+
+	private void commit(String message, Date date) throws Exception {
+		File file = new File(git.getRepository().getWorkTree(), "file.txt");
+		FileUtils.writeContent(file, message);
+		git.add().addFilepattern("file.txt").call();
+		PersonIdent ident = new PersonIdent("tester", "tester@gitblit.com", date, TimeZone.getDefault());
+		git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+	}
+
+	private List<RepositoryCommit> getCommits(String repositoryName) {
+		return cache.getCommits(repositoryName, git.getRepository(), "refs/heads/master");
+	}
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		commit("first");
+		commit("second");
+
+		assertEquals(2, getCommits("cache.git").size());
+		assertEquals(2, getCommits("cache.git").size());
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.hits);
+		assertEquals(1, stats.loads);
+		assertEquals(1, stats.entries);
+		assertTrue(stats.size > 0);
+
+		// a new commit moves the tip and incrementally updates the cache
+		commit("third");
+		List<RepositoryCommit> commits = getCommits("cache.git");
+		assertEquals(3, commits.size());
+		assertEquals("third", commits.get(0).getShortMessage());
+		assertEquals(2, cache.getStatistics().misses);
+
+		cache.clear("cache.git");
+		stats = cache.getStatistics();
+		assertEquals(0, stats.entries);
+		assertEquals(0, stats.size);
+	}
+
+	@Test
+	public void testIncrementalLoadCutoff() throws Exception {
+		commit("first");
+		assertEquals(1, getCommits("cache.git").size());
+
+		// a commit dated before the cache window is not added to the cache
+		commit("old", new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30)));
+		List<RepositoryCommit> commits = getCommits("cache.git");
+		assertEquals(1, commits.size());
+		assertEquals("first", commits.get(0).getShortMessage());
+
+		commit("third");
+		commits = getCommits("cache.git");
+		assertEquals(2, commits.size());
+		assertEquals("third", commits.get(0).getShortMessage());
+		assertEquals(3, cache.getStatistics().loads);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		commit("first");
+
+		assertEquals(1, getCommits("a.git").size());
+		long entrySize = cache.getStatistics().size;
+
+		// bound the cache to a single branch
+		cache.setMaximumSize(entrySize);
+		assertEquals(1, getCommits("b.git").size());
+		CacheStatistics stats = cache.getStatistics();
+		assertEquals(1, stats.entries);
+		assertEquals(1, stats.evictions);
+		assertEquals(entrySize, stats.size);
+
+		// the least recently used branch was evicted
+		getCommits("b.git");
+		assertEquals(2, cache.getStatistics().misses);
+		getCommits("a.git");
+		assertEquals(3, cache.getStatistics().misses);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.utils.HttpUtils.ByteRange;
+
+public class HttpUtilsTest extends GitblitUnitTest {
+
+	private static final String ETAG = "\"0123456789abcdef0123456789abcdef01234567\"";
+
+	private HttpServletRequest request(String... headers) {
+		HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(request.getDateHeader(Mockito.anyString())).thenReturn(-1L);
+		for (int i = 0; i < headers.length; i += 2) {
+			Mockito.when(request.getHeader(headers[i])).thenReturn(headers[i + 1]);
+		}
+		return request;
+	}
+
+	@Test
+	public void testIfNoneMatch() throws Exception {
+		assertFalse(HttpUtils.isNotModified(request(), ETAG, 1000L));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", ETAG), ETAG, 1000L));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "\"a\", W/" + ETAG), ETAG, 1000L));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "*"), ETAG, 1000L));
+		assertFalse(HttpUtils.isNotModified(request("If-None-Match", "\"a\""), ETAG, 1000L));
+	}
+
+	@Test
+	public void testIfModifiedSince() throws Exception {
+		HttpServletRequest request = request();
+		Mockito.when(request.getDateHeader("If-Modified-Since")).thenReturn(5000L);
+		assertTrue(HttpUtils.isNotModified(request, ETAG, 5999L));
+		assertFalse(HttpUtils.isNotModified(request, ETAG, 6000L));
+		assertFalse(HttpUtils.isNotModified(request, ETAG, -1L));
+
+		// If-None-Match takes precedence
+		Mockito.when(request.getHeader("If-None-Match")).thenReturn("\"a\"");
+		assertFalse(HttpUtils.isNotModified(request, ETAG, 1000L));
+	}
+
+	@Test
+	public void testRange() throws Exception {
+		assertNull(HttpUtils.getRange(request(), ETAG, 100));
+
+		ByteRange range = HttpUtils.getRange(request("Range", "bytes=10-19"), ETAG, 100);
+		assertTrue(range.isSatisfiable());
+		assertEquals(10, range.start);
+		assertEquals(19, range.end);
+		assertEquals(10, range.getLength());
+		assertEquals("bytes 10-19/100", range.toString());
+
+		range = HttpUtils.getRange(request("Range", "bytes=90-"), ETAG, 100);
+		assertEquals(90, range.start);
+		assertEquals(99, range.end);
+
+		range = HttpUtils.getRange(request("Range", "bytes=50-500"), ETAG, 100);
+		assertEquals(99, range.end);
+
+		range = HttpUtils.getRange(request("Range", "bytes=-30"), ETAG, 100);
+		assertEquals(70, range.start);
+		assertEquals(99, range.end);
+
+		range = HttpUtils.getRange(request("Range", "bytes=-300"), ETAG, 100);
+		assertEquals(0, range.start);
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws Exception {
+		assertFalse(HttpUtils.getRange(request("Range", "bytes=100-"), ETAG, 100).isSatisfiable());
+		assertFalse(HttpUtils.getRange(request("Range", "bytes=200-300"), ETAG, 100).isSatisfiable());
+		assertFalse(HttpUtils.getRange(request("Range", "bytes=-0"), ETAG, 100).isSatisfiable());
+	}
+
+	@Test
+	public void testIgnoredRange() throws Exception {
+		assertNull(HttpUtils.getRange(request("Range", "bytes=20-10"), ETAG, 100));
+		assertNull(HttpUtils.getRange(request("Range", "bytes=0-1,5-6"), ETAG, 100));
+		assertNull(HttpUtils.getRange(request("Range", "items=0-1"), ETAG, 100));
+		assertNull(HttpUtils.getRange(request("Range", "bytes=a-b"), ETAG, 100));
+
+		// a stale If-Range returns the complete entity
+		assertNull(HttpUtils.getRange(request("Range", "bytes=0-9", "If-Range", "\"a\""), ETAG, 100));
+		assertNotNull(HttpUtils.getRange(request("Range", "bytes=0-9", "If-Range", ETAG), ETAG, 100));
+	}
+}
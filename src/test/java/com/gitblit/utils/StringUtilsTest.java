@@ -17,6 +17,7 @@ package com.gitblit.utils;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 import org.junit.Test;
 
@@ -147,6 +148,21 @@ public class StringUtilsTest extends GitblitUnitTest {
 		assertFalse(StringUtils.fuzzyMatch("AbCdEfHIJ", "abc*hhh"));
 	}
 
+	@Test
+	public void testMatches() throws Exception {
+		assertTrue(StringUtils.matches("ubercool/repo.git", "ubercool/.*"));
+		assertFalse(StringUtils.matches("UberCool/repo.git", "ubercool/.*"));
+		assertTrue(StringUtils.matchesIgnoreCase("UberCool/repo.git", "ubercool/.*"));
+		// cached patterns keep their matching mode
+		assertFalse(StringUtils.matches("UberCool/repo.git", "ubercool/.*"));
+		assertFalse(StringUtils.matchesIgnoreCase("other/repo.git", "ubercool/.*"));
+		try {
+			StringUtils.matches("repo.git", "repo[");
+			fail("expected an invalid pattern");
+		} catch (PatternSyntaxException e) {
+		}
+	}
+
 	@Test
 	public void testGetRepositoryPath() throws Exception {
 		assertEquals("gitblit/gitblit.git", StringUtils.extractRepositoryPath("git://github.com/gitblit/gitblit.git", new String [] { ".*?://github.com/(.*)" }));
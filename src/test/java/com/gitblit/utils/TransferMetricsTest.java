@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.junit.Test;
+
+import com.gitblit.models.TransferStatistics;
+import com.gitblit.tests.GitblitUnitTest;
+import com.gitblit.utils.TransferMetrics.Window;
+
+public class TransferMetricsTest extends GitblitUnitTest {
+
+	private static class TestMetrics extends TransferMetrics {
+
+		long now = TimeUnit.DAYS.toMillis(1000);
+
+		@Override
+		protected long now() {
+			return now;
+		}
+	}
+
+	private PackStatistics newStatistics(long objects, long bytes) {
+		PackStatistics.Accumulator accumulator = new PackStatistics.Accumulator();
+		accumulator.totalObjects = objects;
+		accumulator.reusedObjects = objects / 2;
+		accumulator.totalBytes = bytes;
+		accumulator.timeCounting = 10;
+		accumulator.timeWriting = 20;
+		return new PackStatistics(accumulator);
+	}
+
+	@Test
+	public void testAggregation() throws Exception {
+		TestMetrics metrics = new TestMetrics();
+		metrics.recordUpload("a.git", "alice", true, newStatistics(100, 1000));
+		metrics.recordUpload("a.git", "bob", false, newStatistics(10, 100));
+		metrics.recordUpload("b.git", "bob", false, newStatistics(20, 2000));
+		metrics.recordCachedUpload("a.git", "alice", 1000);
+		metrics.recordReceive("b.git", "alice", 50);
+
+		List<TransferStatistics> repositories = metrics.getRepositoryStatistics(Window.HOUR);
+		assertEquals(2, repositories.size());
+		// ordered by bytes sent
+		TransferStatistics a = repositories.get(0);
+		assertEquals("a.git", a.name);
+		assertEquals(3, a.uploads);
+		assertEquals(2, a.clones);
+		assertEquals(1, a.cachedUploads);
+		assertEquals(110, a.objects);
+		assertEquals(55, a.reusedObjects);
+		assertEquals(50, a.getReusedObjectsPercent());
+		assertEquals(2100, a.bytesSent);
+		assertEquals(20, a.timeCounting);
+		assertEquals(60, a.timeTotal);
+		assertEquals("b.git", repositories.get(1).name);
+		assertEquals(1, repositories.get(1).receives);
+		assertEquals(50, repositories.get(1).bytesReceived);
+
+		List<TransferStatistics> users = metrics.getUserStatistics(Window.DAY);
+		assertEquals(2, users.size());
+		assertEquals("alice", users.get(1).name);
+		assertEquals(2, users.get(1).uploads);
+		assertEquals(1, users.get(1).receives);
+	}
+
+	@Test
+	public void testRollingWindows() throws Exception {
+		TestMetrics metrics = new TestMetrics();
+		metrics.recordUpload("a.git", "alice", true, newStatistics(100, 1000));
+		metrics.now += TimeUnit.MINUTES.toMillis(30);
+		metrics.recordUpload("a.git", "alice", false, newStatistics(10, 100));
+
+		assertEquals(1100, metrics.getRepositoryStatistics(Window.HOUR).get(0).bytesSent);
+
+		// the first upload rotates out of the hour
+		metrics.now += TimeUnit.MINUTES.toMillis(45);
+		assertEquals(100, metrics.getRepositoryStatistics(Window.HOUR).get(0).bytesSent);
+		assertEquals(1100, metrics.getRepositoryStatistics(Window.DAY).get(0).bytesSent);
+
+		// a new upload is added to the hour
+		metrics.recordUpload("a.git", "alice", false, newStatistics(1, 1));
+		assertEquals(101, metrics.getRepositoryStatistics(Window.HOUR).get(0).bytesSent);
+
+		// all uploads rotate out of the day
+		metrics.now += TimeUnit.HOURS.toMillis(25);
+		assertTrue(metrics.getRepositoryStatistics(Window.HOUR).isEmpty());
+		assertTrue(metrics.getRepositoryStatistics(Window.DAY).isEmpty());
+		assertTrue(metrics.getUserStatistics(Window.DAY).isEmpty());
+
+		// a transfer after the expiry starts a new series
+		metrics.recordUpload("a.git", "alice", false, newStatistics(1, 1));
+		assertEquals(1, metrics.getRepositoryStatistics(Window.HOUR).get(0).bytesSent);
+		assertEquals(1, metrics.getUserStatistics(Window.DAY).get(0).uploads);
+	}
+
+	@Test
+	public void testText() throws Exception {
+		TestMetrics metrics = new TestMetrics();
+		metrics.recordUpload("a \"b\".git", "alice", true, newStatistics(100, 1000));
+
+		StringWriter writer = new StringWriter();
+		metrics.write(writer);
+		String text = writer.toString();
+		assertTrue(text.contains("# TYPE gitblit_repository_upload_bytes gauge\n"));
+		assertTrue(text.contains("gitblit_repository_upload_bytes{repository=\"a \\\"b\\\".git\",window=\"1h\"} 1000\n"));
+		assertTrue(text.contains("gitblit_user_upload_bytes{user=\"alice\",window=\"24h\"} 1000\n"));
+		assertTrue(text.contains("gitblit_user_upload_counting_seconds{user=\"alice\",window=\"1h\"} 0.01\n"));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.gitblit.models.WorkQueueStatistics;
+import com.gitblit.tests.GitblitUnitTest;
+
+public class WorkQueueTest extends GitblitUnitTest {
+
+	private WorkQueue workQueue;
+
+	@After
+	public void stop() {
+		if (workQueue != null) {
+			workQueue.stop();
+		}
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		workQueue = new WorkQueue(new IdGenerator(), 1, Collections.singletonMap("test", 2), 0);
+		WorkQueue.Executor queue = workQueue.createQueue(1, "test");
+		assertEquals(2, queue.getCorePoolSize());
+
+		final CountDownLatch ran = new CountDownLatch(3);
+		for (int i = 0; i < 3; i++) {
+			queue.execute(new Runnable() {
+				@Override
+				public void run() {
+					ran.countDown();
+				}
+			});
+		}
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		queue.shutdown();
+		assertTrue(queue.awaitTermination(10, TimeUnit.SECONDS));
+
+		List<WorkQueueStatistics> stats = workQueue.getStatistics();
+		assertEquals(1, stats.size());
+		WorkQueueStatistics stat = stats.get(0);
+		assertEquals("test", stat.name);
+		assertEquals(2, stat.poolSize);
+		assertEquals(3, stat.completedTasks);
+		assertEquals(0, stat.scheduledTasks);
+		assertEquals(0, stat.rejectedTasks);
+		assertNotNull(stat.lastRun);
+	}
+
+	@Test
+	public void testMaxQueueDepth() throws Exception {
+		workQueue = new WorkQueue(new IdGenerator(), 1, Collections.<String, Integer> emptyMap(), 2);
+		WorkQueue.Executor queue = workQueue.createQueue(1, "test");
+
+		// block the only thread so that further tasks wait in the queue
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		Runnable noop = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		queue.execute(blocker);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		queue.execute(noop);
+		queue.execute(noop);
+		try {
+			queue.execute(noop);
+			fail("expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+		}
+
+		WorkQueueStatistics stat = queue.getStatistics();
+		assertEquals(1, stat.activeThreads);
+		assertEquals(2, stat.queuedTasks);
+		assertEquals(1, stat.rejectedTasks);
+		release.countDown();
+	}
+}